@@ -39,6 +39,8 @@ import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.groups.IEntityGroup;
 import org.jasig.portal.groups.IGroupMember;
 import org.jasig.portal.groups.ILockableEntityGroup;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.io.xml.layout.LayoutPortalDataType;
 import org.jasig.portal.jpa.BasePortalJpaDao;
 import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
@@ -90,6 +92,7 @@ public class RDBMUserIdentityStore  implements IUserIdentityStore {
     private IPortletEntityDao portletEntityDao;
     private IStylesheetUserPreferencesDao stylesheetUserPreferencesDao;
     private ILocalAccountDao localAccountDao;
+    private IPortalDataChangeDao portalDataChangeDao;
     private Ehcache userLockCache;
     
     @Value("${org.jasig.portal.services.Authentication.defaultTemplateUserName}")
@@ -111,6 +114,11 @@ public class RDBMUserIdentityStore  implements IUserIdentityStore {
     public void setLocalAccountDao(ILocalAccountDao localAccountDao) {
         this.localAccountDao = localAccountDao;
     }
+    
+    @Autowired
+    public void setPortalDataChangeDao(IPortalDataChangeDao portalDataChangeDao) {
+        this.portalDataChangeDao = portalDataChangeDao;
+    }
 
     @Autowired
     @Qualifier("org.jasig.portal.RDBMUserIdentityStore.userLockCache")
@@ -208,6 +216,9 @@ public class RDBMUserIdentityStore  implements IUserIdentityStore {
               if (person != null) {
                   localAccountDao.deleteAccount(person);
               }
+              
+              //Track the deleted layout so incremental exports can report it
+              portalDataChangeDao.dataDeleted(LayoutPortalDataType.LEGACY_LAYOUT_QNAME.getLocalPart(), userName);
           }
       });
   }
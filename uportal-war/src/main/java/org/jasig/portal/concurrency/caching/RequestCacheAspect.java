@@ -21,6 +21,8 @@ package org.jasig.portal.concurrency.caching;
 
 import java.io.Serializable;
 import java.lang.annotation.AnnotationFormatError;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -34,13 +36,12 @@ import javax.servlet.http.HttpServletRequest;
 import net.sf.ehcache.hibernate.management.impl.EhcacheHibernateMbeanNames;
 
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.jasig.portal.url.IPortalRequestUtils;
 import org.jasig.portal.utils.ConcurrentMapUtils;
-import org.jasig.portal.utils.cache.CacheKey;
 import org.jasig.portal.utils.web.PortalWebUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,10 +50,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jmx.export.MBeanExportOperations;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 
 /**
  * Aspect that caches the results of a method invocation in the current {@link RequestAttributes}
+ * <p>
+ * Everything that only depends on the annotated method, its signature string, validated key mask
+ * and statistics, is computed on the first invocation and looked up by {@link Method} afterwards.
+ * The cache map of the current request is remembered per thread so repeated invocations during
+ * the same request do not have to look up the portal request and its attributes again.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -66,10 +73,13 @@ public class RequestCacheAspect implements InitializingBean {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private final ConcurrentMap<String, CacheStatistics> methodStats = new ConcurrentHashMap<String, CacheStatistics>();
+    private final ConcurrentMap<Method, CachedMethod> cachedMethods = new ConcurrentHashMap<Method, CachedMethod>();
+    private final ThreadLocal<ThreadRequestCache> threadRequestCache = new ThreadLocal<ThreadRequestCache>();
     private final CacheStatistics overallStats = new CacheStatistics();
 
     private IPortalRequestUtils portalRequestUtils;
     private MBeanExportOperations mBeanExportOperations;
+    private boolean threadLocalLookup = true;
     
     @Autowired
     public void setPortalRequestUtils(IPortalRequestUtils portalRequestUtils) {
@@ -80,6 +90,13 @@ public class RequestCacheAspect implements InitializingBean {
         this.mBeanExportOperations = mBeanExportOperations;
     }
 
+    /**
+     * If true the cache map of the current request is remembered per thread, defaults to true
+     */
+    public void setThreadLocalLookup(boolean threadLocalLookup) {
+        this.threadLocalLookup = threadLocalLookup;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         if (this.mBeanExportOperations != null) {
@@ -95,22 +112,19 @@ public class RequestCacheAspect implements InitializingBean {
     public Object cacheRequest(ProceedingJoinPoint pjp, RequestCache requestCache) throws Throwable {
         final long start = System.nanoTime();
         
-        final CacheKey cacheKey = createCacheKey(pjp, requestCache);
+        final CachedMethod cachedMethod = this.getCachedMethod(pjp, requestCache);
+        final RequestCacheKey cacheKey = cachedMethod.createCacheKey(pjp.getArgs());
         
-        final HttpServletRequest currentPortalRequest;
-        try {
-            currentPortalRequest = this.portalRequestUtils.getCurrentPortalRequest();
-        }
-        catch (IllegalStateException e) {
+        final ConcurrentMap<RequestCacheKey, Object> cache = this.getRequestCache();
+        if (cache == null) {
             logger.trace("No current portal request, will not cache result of: {}", cacheKey);
             //No current request, simply proceed
             return pjp.proceed();
         }
         
-        final CacheStatistics cacheStatistics = this.getCacheStatistics(pjp, requestCache);
+        final CacheStatistics cacheStatistics = cachedMethod.cacheStatistics;
         
         //Check in the cache for a result
-        final ConcurrentMap<CacheKey, Object> cache = PortalWebUtils.getMapRequestAttribute(currentPortalRequest, CACHE_MAP);
         Object result = cache.get(cacheKey);
         
         //Return null if placeholder was cached
@@ -171,14 +185,60 @@ public class RequestCacheAspect implements InitializingBean {
         }
     }
     
+    /**
+     * @return The cache map for the current portal request, null if there is no current request
+     */
+    protected final ConcurrentMap<RequestCacheKey, Object> getRequestCache() {
+        final RequestAttributes requestAttributes = this.threadLocalLookup ? RequestContextHolder.getRequestAttributes() : null;
+        if (requestAttributes != null) {
+            final ThreadRequestCache threadCache = this.threadRequestCache.get();
+            if (threadCache != null && threadCache.requestAttributes.get() == requestAttributes) {
+                final ConcurrentMap<RequestCacheKey, Object> cache = threadCache.cache.get();
+                if (cache != null) {
+                    return cache;
+                }
+            }
+        }
+        
+        final HttpServletRequest currentPortalRequest;
+        try {
+            currentPortalRequest = this.portalRequestUtils.getCurrentPortalRequest();
+        }
+        catch (IllegalStateException e) {
+            return null;
+        }
+        
+        final ConcurrentMap<RequestCacheKey, Object> cache = PortalWebUtils.getMapRequestAttribute(currentPortalRequest, CACHE_MAP);
+        if (requestAttributes != null) {
+            this.threadRequestCache.set(new ThreadRequestCache(requestAttributes, cache));
+        }
+        return cache;
+    }
+    
+    protected final CachedMethod getCachedMethod(ProceedingJoinPoint pjp, RequestCache requestCache) {
+        final MethodSignature signature = (MethodSignature) pjp.getSignature();
+        final Method method = signature.getMethod();
+        
+        CachedMethod cachedMethod = this.cachedMethods.get(method);
+        if (cachedMethod == null) {
+            final boolean[] keyMask = requestCache.keyMask();
+            if (keyMask.length != 0 && keyMask.length != method.getParameterTypes().length) {
+                throw new AnnotationFormatError("RequestCache.keyMask has an invalid length on: " + signature.toLongString());
+            }
+            
+            final CacheStatistics cacheStatistics = this.getCacheStatistics(signature.toString());
+            cachedMethod = ConcurrentMapUtils.putIfAbsent(this.cachedMethods, method, 
+                    new CachedMethod(signature.toLongString(), keyMask, cacheStatistics));
+        }
+        
+        return cachedMethod;
+    }
+    
     protected void registerMbean(Object object, ObjectName name) throws InstanceAlreadyExistsException, MBeanRegistrationException, NotCompliantMBeanException {
         this.mBeanExportOperations.registerManagedResource(object, name);
     }
     
-    protected final CacheStatistics getCacheStatistics(ProceedingJoinPoint pjp, RequestCache requestCache) {
-        final Signature signature = pjp.getSignature();
-        final String signatureString = signature.toString();
-        
+    protected final CacheStatistics getCacheStatistics(String signatureString) {
         CacheStatistics cacheStatistics = this.methodStats.get(signatureString);
         if (cacheStatistics == null) {
             final CacheStatistics newStats = new CacheStatistics();
@@ -211,31 +271,46 @@ public class RequestCacheAspect implements InitializingBean {
         return cacheStatistics;
     }
     
-    protected CacheKey createCacheKey(ProceedingJoinPoint pjp, RequestCache requestCache) {
-        final Signature signature = pjp.getSignature();
-        final Class<?> declaringType = signature.getDeclaringType();
-        final String signatureLongString = signature.toLongString();
-        
-        final boolean[] keyMask = requestCache.keyMask();
-        final Object[] args = pjp.getArgs();
+    /**
+     * Everything about a cached method that does not change between invocations
+     */
+    protected static final class CachedMethod {
+        private final String signature;
+        private final boolean[] keyMask;
+        private final CacheStatistics cacheStatistics;
         
-        final Object[] keyArgs;
-        if (keyMask.length == 0) {
-            keyArgs = args;
-        }
-        else if (keyMask.length != args.length) {
-            throw new AnnotationFormatError("RequestCache.keyMask has an invalid length on: " + signature.toLongString());
+        CachedMethod(String signature, boolean[] keyMask, CacheStatistics cacheStatistics) {
+            this.signature = signature;
+            this.keyMask = keyMask;
+            this.cacheStatistics = cacheStatistics;
         }
-        else {
-            keyArgs = new Object[args.length];
+        
+        RequestCacheKey createCacheKey(Object[] args) {
+            if (this.keyMask.length == 0) {
+                return new RequestCacheKey(this.signature, args);
+            }
+            
+            final Object[] keyArgs = new Object[args.length];
             for (int i = 0; i < args.length; i++) {
-                if (keyMask[i]) {
+                if (this.keyMask[i]) {
                     keyArgs[i] = args[i];
                 }
             }
+            return new RequestCacheKey(this.signature, keyArgs);
         }
+    }
+    
+    /**
+     * The cache map of the last request seen by a thread, neither is kept alive by the thread
+     */
+    private static final class ThreadRequestCache {
+        private final WeakReference<RequestAttributes> requestAttributes;
+        private final WeakReference<ConcurrentMap<RequestCacheKey, Object>> cache;
         
-        return CacheKey.build(signatureLongString, declaringType, keyArgs);
+        public ThreadRequestCache(RequestAttributes requestAttributes, ConcurrentMap<RequestCacheKey, Object> cache) {
+            this.requestAttributes = new WeakReference<RequestAttributes>(requestAttributes);
+            this.cache = new WeakReference<ConcurrentMap<RequestCacheKey, Object>>(cache);
+        }
     }
     
     private static class ExceptionHolder implements Serializable {
@@ -0,0 +1,69 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import java.util.Arrays;
+
+/**
+ * Key for a result cached by {@link RequestCacheAspect}. The method signature string is built once per
+ * method and shared by every key for that method, so building a key only wraps the argument array
+ * and computes its hash.
+ */
+final class RequestCacheKey {
+    private static final Object[] NO_ARGS = new Object[0];
+    
+    private final String signature;
+    private final Object[] args;
+    private final int hash;
+    
+    /**
+     * @param signature The shared signature string of the cached method
+     * @param args The key arguments, the array must not be modified after the key is created
+     */
+    RequestCacheKey(String signature, Object[] args) {
+        this.signature = signature;
+        this.args = args.length == 0 ? NO_ARGS : args;
+        this.hash = 31 * signature.hashCode() + Arrays.deepHashCode(this.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RequestCacheKey)) {
+            return false;
+        }
+        final RequestCacheKey other = (RequestCacheKey) obj;
+        return this.hash == other.hash 
+                && this.signature.equals(other.signature) 
+                && Arrays.deepEquals(this.args, other.args);
+    }
+
+    @Override
+    public String toString() {
+        return this.signature + Arrays.deepToString(this.args);
+    }
+}
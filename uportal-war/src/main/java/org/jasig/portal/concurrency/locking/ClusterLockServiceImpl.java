@@ -19,12 +19,16 @@
 
 package org.jasig.portal.concurrency.locking;
 
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -36,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Function;
@@ -44,6 +49,15 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
 /**
+ * Cluster lock service backed by {@link ClusterMutex} rows in the database.
+ * <p>
+ * By default a lock worker running on the <code>uPortalLockExecutor</code> acquires the database lock,
+ * updates it every {@link #setUpdateLockRate(ReadableDuration)} and releases it, coordinating with the
+ * thread running the lock function through latches. With {@link #setSharedLeaseRenewal(boolean)} the
+ * database lock is instead acquired and released by the calling thread and a single task on the
+ * <code>uPortalTaskScheduler</code> renews all of the locks held by this server, so holding a lock
+ * no longer ties up a lock executor thread.
+ * 
  * @author Eric Dalquist
  * @version $Revision$
  */
@@ -59,9 +73,15 @@ public class ClusterLockServiceImpl implements IClusterLockService {
         }
     });
 
+    //mutexName -> lease, locks held by this server in shared lease renewal mode
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+    private final AtomicBoolean leaseRenewalScheduled = new AtomicBoolean(false);
+
     private IPortalInfoProvider portalInfoProvider;
     private ExecutorService lockMonitorExecutorService;
+    private TaskScheduler taskScheduler;
     private IClusterLockDao clusterLockDao;
+    private boolean sharedLeaseRenewal = false;
     private ReadableDuration updateLockRate = Duration.standardSeconds(1);
     private ReadableDuration maximumLockDuration = Duration.standardMinutes(60);
     private ReadableDuration dbLockTimeout = Duration.standardSeconds(30);
@@ -80,6 +100,21 @@ public class ClusterLockServiceImpl implements IClusterLockService {
     public void setLockMonitorExecutorService(@Qualifier("uPortalLockExecutor") ExecutorService lockMonitorExecutorService) {
         this.lockMonitorExecutorService = lockMonitorExecutorService;
     }
+    @Autowired
+    public void setTaskScheduler(@Qualifier("uPortalTaskScheduler") TaskScheduler taskScheduler) {
+        this.taskScheduler = taskScheduler;
+    }
+
+    /**
+     * If true database locks are acquired and released on the thread calling
+     * {@link #doInTryLock(String, LockOptions, Function)} and renewed by a single shared task instead of by a
+     * lock worker thread per lock, defaults to false
+     */
+    @Value("${org.jasig.portal.concurrency.locking.ClusterLockService.sharedLeaseRenewal:false}")
+    public void setSharedLeaseRenewal(boolean sharedLeaseRenewal) {
+        this.sharedLeaseRenewal = sharedLeaseRenewal;
+    }
+
     /**
      * Rate at which {@link IClusterLockDao#updateLock(String)} is called while a mutex is locked, defaults to 500ms
      */
@@ -173,6 +208,10 @@ public class ClusterLockServiceImpl implements IClusterLockService {
                 }
             }
             
+            if (this.sharedLeaseRenewal) {
+                return this.doInLease(mutexName, lockFunction);
+            }
+            
             final Thread currentThread = Thread.currentThread();
             final DatabaseLockWorker databaseLockWorker = new DatabaseLockWorker(currentThread, mutexRef, mutexName, dbLockLatch, workCompleteLatch);
             lockFuture = this.lockMonitorExecutorService.submit(databaseLockWorker);
@@ -255,6 +294,113 @@ public class ClusterLockServiceImpl implements IClusterLockService {
         return this.localLocks.getUnchecked(mutexName);
     }
 
+    /**
+     * Acquire the database lock on the calling thread, execute the lockFunction and release the lock. While
+     * the function runs the lock is renewed by {@link #renewLeases()}.
+     */
+    protected <T> TryLockFunctionResult<T> doInLease(String mutexName, Function<ClusterMutex, T> lockFunction) {
+        final ClusterMutex mutex = this.clusterLockDao.getLock(mutexName);
+        if (mutex == null) {
+            this.logger.trace("failed to aquire database lock, returning notExecuted result for: {}", mutexName);
+            return TryLockFunctionResultImpl.getSkippedInstance(LockStatus.SKIPPED_LOCKED);
+        }
+        this.logger.trace("acquired db lock for: {}", mutexName);
+
+        final Lease lease = new Lease(Thread.currentThread(), System.currentTimeMillis() + this.maximumLockDuration.getMillis());
+        this.leases.put(mutexName, lease);
+        this.scheduleLeaseRenewal();
+        try {
+            final T result = lockFunction.apply(mutex);
+            return new TryLockFunctionResultImpl<T>(result);
+        }
+        finally {
+            this.leases.remove(mutexName, lease);
+            if (lease.release()) {
+                this.releaseLease(mutexName);
+            }
+        }
+    }
+
+    /**
+     * Update every database lock held by this server, called every updateLockRate by the task scheduler
+     * once the first lease has been acquired.
+     */
+    protected void renewLeases() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, Lease> leaseEntry : this.leases.entrySet()) {
+            final String mutexName = leaseEntry.getKey();
+            final Lease lease = leaseEntry.getValue();
+
+            if (lease.lockTimeout < now) {
+                this.logger.warn("The database lock has been held for more than " + maximumLockDuration + ", giving up and releasing the DB lock for " + mutexName + ". The corresponding worker thread " + lease.worker.getName() + " will be interrupted");
+                this.revokeLease(mutexName, lease);
+                continue;
+            }
+
+            try {
+                this.clusterLockDao.updateLock(mutexName);
+            }
+            catch (RuntimeException e) {
+                this.logger.warn("Failed to update the database lock for " + mutexName + ". The corresponding worker thread " + lease.worker.getName() + " will be interrupted", e);
+                this.revokeLease(mutexName, lease);
+            }
+        }
+    }
+
+    /**
+     * Release the lock and interrupt the worker thread to notify it that the lock has been given up on
+     */
+    private void revokeLease(String mutexName, Lease lease) {
+        this.leases.remove(mutexName, lease);
+        if (lease.release()) {
+            lease.worker.interrupt();
+            this.releaseLease(mutexName);
+        }
+    }
+
+    private void releaseLease(String mutexName) {
+        try {
+            this.clusterLockDao.releaseLock(mutexName);
+            this.logger.trace("released db lock for: {}", mutexName);
+        }
+        catch (RuntimeException e) {
+            //Also called from the renewal task which must not die, an unreleased lock is eventually abandoned
+            this.logger.error("failed to released db lock for: {}", mutexName, e);
+        }
+    }
+
+    private void scheduleLeaseRenewal() {
+        if (this.leaseRenewalScheduled.compareAndSet(false, true)) {
+            this.taskScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    renewLeases();
+                }
+            }, this.updateLockRate.getMillis());
+        }
+    }
+
+    /**
+     * A database lock held by this server in shared lease renewal mode
+     */
+    private static final class Lease {
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private final Thread worker;
+        private final long lockTimeout;
+
+        private Lease(Thread worker, long lockTimeout) {
+            this.worker = worker;
+            this.lockTimeout = lockTimeout;
+        }
+
+        /**
+         * @return true if the caller is responsible for releasing the database lock
+         */
+        private boolean release() {
+            return this.released.compareAndSet(false, true);
+        }
+    }
+
     /**
      * Callable that acquires, maintains, and releases a database lock
      */
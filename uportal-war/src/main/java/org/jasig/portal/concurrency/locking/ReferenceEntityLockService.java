@@ -49,6 +49,10 @@ public class ReferenceEntityLockService implements IEntityLockService
     // will be in persistent storage.
     private boolean multiServer = false;
 
+    // In a multi-server environment, are locks also kept in memory and replicated
+    // to the other servers so that finds don't read persistent storage?
+    private boolean replicated = false;
+
     // Lifetime of a lock in seconds, defaults to 5 minutes.
     private int defaultLockPeriod = 300;
 
@@ -158,10 +162,17 @@ private void initialize() throws LockingException
     try
     {
         multiServer = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.concurrency.multiServer", false);
+        replicated = multiServer &&
+            PropertiesManager.getPropertyAsBoolean("org.jasig.portal.concurrency.replicatedLockStore", false);
 
-        lockStore = ( multiServer )
-            ? RDBMEntityLockStore.singleton()
-            : MemoryEntityLockStore.singleton();
+        if ( replicated )
+            { lockStore = ReplicatedEntityLockStore.singleton(); }
+        else
+        {
+            lockStore = ( multiServer )
+                ? RDBMEntityLockStore.singleton()
+                : MemoryEntityLockStore.singleton();
+        }
     }
     catch ( Exception e )
     {
@@ -276,9 +287,8 @@ throws LockingException
  * Retrieves potentially conflicting locks and checks them before adding
  * the new lock to the store.  The add of a write lock will fail if any 
  * other lock exists for the entity.  The add of a read lock will fail if 
- * a write lock exists for the entity.  After we add a write lock we 
- * check the store a second time and roll back if any other lock has snuck
- * in.  I think this is slightly safer than depending on the db isolation
+ * a write lock exists for the entity.  After we add a lock we check the 
+ * store a second time and roll back if a conflicting lock has snuck in.  I think this is slightly safer than depending on the db isolation
  * level for transactional integrity.  
  */
 public IEntityLock newLock(Class entityType, String entityKey, int lockType, String owner, int durationSecs)
@@ -324,6 +334,15 @@ throws LockingException
             }
         }
         getLockStore().add(newLock);
+
+        // a store that answers finds from memory may not have seen a write
+        // lock another server added before ours, the add brings it up to date.
+        locks = retrieveLocks(entityType, entityKey, new Integer(WRITE_LOCK));
+        if ( locks.length > 0 )
+        {
+            release(newLock);
+            throw new LockingException("Could not create lock: entity already write locked.");
+        }
     }
     return newLock;
 }
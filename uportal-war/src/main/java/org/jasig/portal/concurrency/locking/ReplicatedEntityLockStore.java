@@ -0,0 +1,713 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import net.sf.ehcache.event.NotificationScope;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.LockingException;
+import org.jasig.portal.spring.locator.ApplicationContextLocator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Store for <code>IEntityLocks</code> that keeps a copy of the locks in memory for every
+ * portal in a cluster.
+ * <p>
+ * The database store stays the arbiter between portals. Every add, update and delete is
+ * written to it before the change is made in memory, and adding a lock reloads the locks
+ * on that entity from it. The check <code>ReferenceEntityLockService</code> makes after
+ * adding a lock therefore sees every lock another portal has added, just as it does with
+ * <code>RDBMEntityLockStore</code> alone. Every other find is answered from memory.
+ * <p>
+ * Changes are also put into the {@link #REPLICATION_CACHE_NAME} cache and applied by the
+ * other portals when they arrive. Replication only keeps the in-memory copies current
+ * between reloads, a lost or late change can not let two portals hold conflicting locks.
+ * <p>
+ * Expired locks are removed by a timer wheel instead of <code>deleteExpired</code> queries,
+ * each portal expires its own copy of a lock so expiration is not replicated. Locks are
+ * filtered by expiration time when they are found, the wheel only reclaims the memory.
+ * Expired rows are deleted from the database once per revolution of the wheel.
+ */
+public class ReplicatedEntityLockStore implements IEntityLockStore
+{
+    public static final String BEAN_NAME = "replicatedEntityLockStore";
+    public static final String REPLICATION_CACHE_NAME = "org.jasig.portal.concurrency.locking.ReplicatedEntityLockStore.LOCK_EVENTS";
+
+    private static final Log log = LogFactory.getLog(ReplicatedEntityLockStore.class);
+
+    private static final int WHEEL_SIZE = 512;
+
+    // entity -> lock owner -> lock, the owner maps are only modified while synchronized on them
+    private final ConcurrentMap<EntityRef, ConcurrentMap<String, IEntityLock>> locks =
+            new ConcurrentHashMap<EntityRef, ConcurrentMap<String, IEntityLock>>();
+
+    private final String origin = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Ehcache replicationCache;
+    private final IEntityLockStore databaseStore;
+    private final ScheduledExecutorService expiryTimer;
+    private final ExpiryWheel expiryWheel;
+
+    /**
+     * @param replicationCache Cache used to send lock changes to the rest of the cluster, if null changes are not replicated
+     * @param databaseStore Store shared by the cluster that decides between conflicting locks, if null locks are only
+     * kept in memory and this store is only correct for a single portal
+     * @param tickMillis Resolution of the expiry timer wheel
+     */
+    public ReplicatedEntityLockStore(Ehcache replicationCache, IEntityLockStore databaseStore, long tickMillis)
+    {
+        this.replicationCache = replicationCache;
+        this.databaseStore = databaseStore;
+        this.expiryWheel = new ExpiryWheel(tickMillis, WHEEL_SIZE, System.currentTimeMillis());
+
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("uPortal-EntityLockStore-");
+        threadFactory.setDaemon(true);
+        this.expiryTimer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        if (databaseStore != null) {
+            this.load();
+        }
+
+        if (replicationCache != null) {
+            replicationCache.getCacheEventNotificationService().registerListener(new ReplicationListener(), NotificationScope.REMOTE);
+        }
+
+        this.expiryTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                expireLocks(System.currentTimeMillis());
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the expiry timer.
+     */
+    public void destroy()
+    {
+        this.expiryTimer.shutdownNow();
+    }
+
+    /**
+     * Adds this IEntityLock to the store, replacing any lock the owner already has on the entity.
+     * The locks other portals hold on the entity are reloaded from the database store.
+     * @param lock
+     */
+    @Override
+    public void add(IEntityLock lock) throws LockingException
+    {
+        final IEntityLock stored = copy(lock, lock.getExpirationTime(), lock.getLockType());
+        if (!isUnexpired(stored, System.currentTimeMillis())) {
+            // the lock has already expired.
+            return;
+        }
+
+        final EntityRef entity = new EntityRef(stored.getEntityType(), stored.getEntityKey());
+        if (this.databaseStore != null) {
+            final IEntityLock previous = this.findLocal(entity, stored.getLockOwner());
+            if (previous != null) {
+                this.databaseStore.delete(previous);
+            }
+            this.databaseStore.add(stored);
+        }
+
+        this.putLocal(stored);
+        this.replicate(new LockEvent(Operation.PUT, stored));
+
+        if (this.databaseStore != null) {
+            this.reload(entity);
+        }
+    }
+
+    /**
+     * Deletes this IEntityLock from the store.
+     * @param lock
+     */
+    @Override
+    public void delete(IEntityLock lock) throws LockingException
+    {
+        final EntityRef entity = new EntityRef(lock.getEntityType(), lock.getEntityKey());
+        if (this.databaseStore != null) {
+            final IEntityLock stored = this.findLocal(entity, lock.getLockOwner());
+            this.databaseStore.delete(stored != null ? stored : lock);
+        }
+
+        this.removeLocal(entity, lock.getLockOwner(), null);
+        this.replicate(new LockEvent(Operation.REMOVE, lock));
+    }
+
+    @Override
+    public void deleteAll() throws LockingException
+    {
+        if (this.databaseStore != null) {
+            this.databaseStore.deleteAll();
+        }
+
+        this.locks.clear();
+        this.replicate(new LockEvent(Operation.CLEAR, null));
+    }
+
+    /**
+     * Deletes the IEntityLocks that expired before <code>expiration</code> from this portal.
+     * Expired locks are removed by the expiry timer, this is only needed to remove them sooner.
+     * @param expiration java.util.Date
+     */
+    @Override
+    public void deleteExpired(Date expiration) throws LockingException
+    {
+        if (this.databaseStore != null) {
+            this.databaseStore.deleteExpired(expiration);
+        }
+
+        final long cutoff = expiration.getTime();
+        for (final Map.Entry<EntityRef, ConcurrentMap<String, IEntityLock>> entityLocks : this.locks.entrySet()) {
+            for (final IEntityLock lock : entityLocks.getValue().values()) {
+                if (!isUnexpired(lock, cutoff)) {
+                    this.removeLocal(entityLocks.getKey(), lock.getLockOwner(), lock);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an IEntityLock[] based on the params, any or all of which may be null.  A
+     * null param means any value, so <code>find(myType,myKey,null,null,null)</code> will
+     * return all <code>IEntityLocks</code> for myType and myKey.  Expired locks are never
+     * returned.
+     */
+    @Override
+    public IEntityLock[] find(Class entityType, String entityKey, Integer lockType, Date expiration, String lockOwner)
+    throws LockingException
+    {
+        return this.select(System.currentTimeMillis(), entityType, entityKey, lockType, expiration, lockOwner);
+    }
+
+    /**
+     * Returns this lock if it exists in the store.
+     * @param lock
+     * @return IEntityLock
+     */
+    @Override
+    public IEntityLock find(IEntityLock lock) throws LockingException
+    {
+        final IEntityLock found = this.findLocal(new EntityRef(lock.getEntityType(), lock.getEntityKey()), lock.getLockOwner());
+        if (found == null
+                || !isUnexpired(found, System.currentTimeMillis())
+                || found.getLockType() != lock.getLockType()
+                || !found.getExpirationTime().equals(lock.getExpirationTime())) {
+            return null;
+        }
+        return found;
+    }
+
+    /**
+     * Returns an IEntityLock[] containing locks unexpired as of <code>expiration</code>,
+     * based on the other params, any or all of which may be null.
+     */
+    @Override
+    public IEntityLock[] findUnexpired(Date expiration, Class entityType, String entityKey, Integer lockType, String lockOwner)
+    throws LockingException
+    {
+        return this.select(expiration.getTime(), entityType, entityKey, lockType, null, lockOwner);
+    }
+
+    /**
+     * @param lock
+     * @param newExpiration
+     */
+    @Override
+    public void update(IEntityLock lock, Date newExpiration) throws LockingException
+    {
+        this.update(lock, newExpiration, null);
+    }
+
+    /**
+     * Replaces the lock with a copy that has the new expiration and lock type.
+     * @param lock
+     * @param newExpiration java.util.Date
+     * @param newLockType Integer, may be null
+     */
+    @Override
+    public void update(IEntityLock lock, Date newExpiration, Integer newLockType) throws LockingException
+    {
+        final IEntityLock previous = this.find(lock);
+        if (previous == null) {
+            throw new LockingException("Problem updating " + lock + " : not found in store.");
+        }
+
+        if (this.databaseStore != null) {
+            this.databaseStore.update(previous, newExpiration, newLockType);
+        }
+
+        final int lockType = newLockType != null ? newLockType.intValue() : previous.getLockType();
+        final IEntityLock stored = copy(previous, newExpiration, lockType);
+        final EntityRef entity = new EntityRef(stored.getEntityType(), stored.getEntityKey());
+        if (isUnexpired(stored, System.currentTimeMillis())) {
+            this.putLocal(stored);
+            this.replicate(new LockEvent(Operation.PUT, stored));
+        }
+        else {
+            this.removeLocal(entity, stored.getLockOwner(), previous);
+            this.replicate(new LockEvent(Operation.REMOVE, stored));
+        }
+    }
+
+    /**
+     * @return The number of locks held in memory, including expired locks not yet removed by the timer
+     */
+    int getLockCount()
+    {
+        int count = 0;
+        for (final ConcurrentMap<String, IEntityLock> owners : this.locks.values()) {
+            count += owners.size();
+        }
+        return count;
+    }
+
+    /**
+     * Applies a change made by another portal. Changes from other portals are not written
+     * to the database store, the portal that made the change already did that.
+     */
+    void applyReplicatedEvent(Object value)
+    {
+        if (!(value instanceof LockEvent)) {
+            log.warn("Ignoring entity lock replication event with unexpected value " + value);
+            return;
+        }
+
+        final LockEvent event = (LockEvent) value;
+        switch (event.operation) {
+            case PUT: {
+                final IEntityLock lock = event.toLock();
+                if (isUnexpired(lock, System.currentTimeMillis())) {
+                    this.putLocal(lock);
+                }
+                break;
+            }
+            case REMOVE: {
+                this.removeLocal(new EntityRef(event.entityType, event.entityKey), event.lockOwner, null);
+                break;
+            }
+            case CLEAR: {
+                this.locks.clear();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Removes the locks whose expiration has passed, called by the expiry timer.
+     */
+    void expireLocks(long now)
+    {
+        final boolean revolution = this.expiryWheel.advance(now, new ExpiryWheel.Callback() {
+            @Override
+            public void expired(ScheduledExpiration expiration) {
+                // A renewed lock is a different instance and stays in the store
+                removeLocal(expiration.entity, expiration.lock.getLockOwner(), expiration.lock);
+            }
+        });
+
+        // Expired rows are left in the database store until the wheel has gone all the way round
+        if (revolution && this.databaseStore != null) {
+            final Date expiration = new Date(now);
+            try {
+                this.databaseStore.deleteExpired(expiration);
+            }
+            catch (Exception e) {
+                log.warn("Failed to delete entity locks expired before " + expiration + " from the database store", e);
+            }
+        }
+    }
+
+    private IEntityLock[] select(long unexpiredAt, Class entityType, String entityKey, Integer lockType, Date expiration, String lockOwner)
+    {
+        final List<IEntityLock> found = new ArrayList<IEntityLock>();
+
+        if (entityType != null && entityKey != null) {
+            // The common case, all of the locks on one entity
+            final ConcurrentMap<String, IEntityLock> owners = this.locks.get(new EntityRef(entityType, entityKey));
+            if (owners != null) {
+                collect(owners, unexpiredAt, lockType, expiration, lockOwner, found);
+            }
+        }
+        else {
+            for (final Map.Entry<EntityRef, ConcurrentMap<String, IEntityLock>> entityLocks : this.locks.entrySet()) {
+                final EntityRef entity = entityLocks.getKey();
+                if ((entityType == null || entityType.equals(entity.entityType))
+                        && (entityKey == null || entityKey.equals(entity.entityKey))) {
+                    collect(entityLocks.getValue(), unexpiredAt, lockType, expiration, lockOwner, found);
+                }
+            }
+        }
+
+        return found.toArray(new IEntityLock[found.size()]);
+    }
+
+    private static void collect(Map<String, IEntityLock> owners, long unexpiredAt, Integer lockType, Date expiration,
+            String lockOwner, List<IEntityLock> found)
+    {
+        if (lockOwner != null) {
+            final IEntityLock lock = owners.get(lockOwner);
+            if (lock != null && matches(lock, unexpiredAt, lockType, expiration)) {
+                found.add(lock);
+            }
+            return;
+        }
+
+        for (final IEntityLock lock : owners.values()) {
+            if (matches(lock, unexpiredAt, lockType, expiration)) {
+                found.add(lock);
+            }
+        }
+    }
+
+    private static boolean matches(IEntityLock lock, long unexpiredAt, Integer lockType, Date expiration)
+    {
+        return isUnexpired(lock, unexpiredAt)
+            && (lockType == null || lockType.intValue() == lock.getLockType())
+            && (expiration == null || expiration.equals(lock.getExpirationTime()));
+    }
+
+    private static boolean isUnexpired(IEntityLock lock, long now)
+    {
+        return lock.getExpirationTime().getTime() > now;
+    }
+
+    /**
+     * Stored locks are copies so callers changing their own lock objects don't change the store.
+     */
+    private static IEntityLock copy(IEntityLock lock, Date expiration, int lockType)
+    {
+        return new EntityLockImpl(lock.getEntityType(), lock.getEntityKey(), lockType, new Date(expiration.getTime()), lock.getLockOwner());
+    }
+
+    private IEntityLock findLocal(EntityRef entity, String lockOwner)
+    {
+        final ConcurrentMap<String, IEntityLock> owners = this.locks.get(entity);
+        return owners != null ? owners.get(lockOwner) : null;
+    }
+
+    /**
+     * @return The lock the owner previously held on the entity, if any
+     */
+    private IEntityLock putLocal(IEntityLock lock)
+    {
+        final EntityRef entity = new EntityRef(lock.getEntityType(), lock.getEntityKey());
+        IEntityLock previous;
+        while (true) {
+            ConcurrentMap<String, IEntityLock> owners = this.locks.get(entity);
+            if (owners == null) {
+                owners = new ConcurrentHashMap<String, IEntityLock>(4, 0.75f, 1);
+                final ConcurrentMap<String, IEntityLock> existing = this.locks.putIfAbsent(entity, owners);
+                if (existing != null) {
+                    owners = existing;
+                }
+            }
+
+            synchronized (owners) {
+                // The owner map is dropped from the store once it is empty, start over if that just happened
+                if (this.locks.get(entity) == owners) {
+                    previous = owners.put(lock.getLockOwner(), lock);
+                    break;
+                }
+            }
+        }
+
+        this.expiryWheel.schedule(new ScheduledExpiration(entity, lock));
+        return previous;
+    }
+
+    /**
+     * @param expected If not null the lock is only removed if it is still this lock
+     * @return The removed lock
+     */
+    private IEntityLock removeLocal(EntityRef entity, String lockOwner, IEntityLock expected)
+    {
+        final ConcurrentMap<String, IEntityLock> owners = this.locks.get(entity);
+        if (owners == null) {
+            return null;
+        }
+
+        synchronized (owners) {
+            final IEntityLock removed;
+            if (expected == null) {
+                removed = owners.remove(lockOwner);
+            }
+            else {
+                removed = owners.remove(lockOwner, expected) ? expected : null;
+            }
+
+            if (owners.isEmpty()) {
+                this.locks.remove(entity, owners);
+            }
+            return removed;
+        }
+    }
+
+    private void replicate(LockEvent event)
+    {
+        if (this.replicationCache == null) {
+            return;
+        }
+
+        // Every change gets a new key so that it is replicated as a put
+        try {
+            this.replicationCache.put(new Element(this.origin + "-" + this.sequence.incrementAndGet(), event));
+        }
+        catch (RuntimeException e) {
+            log.warn("Failed to replicate " + event + ", the change was only made on this portal", e);
+        }
+    }
+
+    /**
+     * Replaces the in-memory locks on the entity with the unexpired locks in the database store.
+     * Locks this portal already holds in memory are kept as they are so the instances handed
+     * to the lock service still match.
+     */
+    private void reload(EntityRef entity) throws LockingException
+    {
+        final IEntityLock[] stored = this.databaseStore.findUnexpired(new Date(), entity.entityType, entity.entityKey, null, null);
+        final Map<String, IEntityLock> storedByOwner = new HashMap<String, IEntityLock>();
+        for (final IEntityLock lock : stored) {
+            storedByOwner.put(lock.getLockOwner(), lock);
+        }
+
+        // Drop the locks the database no longer has, their removal may not have been replicated yet
+        final ConcurrentMap<String, IEntityLock> owners = this.locks.get(entity);
+        if (owners != null) {
+            for (final IEntityLock lock : owners.values()) {
+                if (!storedByOwner.containsKey(lock.getLockOwner())) {
+                    this.removeLocal(entity, lock.getLockOwner(), lock);
+                }
+            }
+        }
+
+        for (final IEntityLock lock : storedByOwner.values()) {
+            if (this.findLocal(entity, lock.getLockOwner()) == null) {
+                this.putLocal(copy(lock, lock.getExpirationTime(), lock.getLockType()));
+            }
+        }
+    }
+
+    private void load()
+    {
+        try {
+            final IEntityLock[] stored = this.databaseStore.findUnexpired(new Date(), null, null, null, null);
+            for (final IEntityLock lock : stored) {
+                this.putLocal(copy(lock, lock.getExpirationTime(), lock.getLockType()));
+            }
+            log.info("Loaded " + stored.length + " entity locks from " + this.databaseStore.getClass().getName());
+        }
+        catch (Exception e) {
+            log.warn("Failed to load entity locks from " + this.databaseStore.getClass().getName() + ", they will be loaded as entities are locked", e);
+        }
+    }
+
+    /**
+     * @return The <code>replicatedEntityLockStore</code> bean from the portal application context
+     */
+    public static IEntityLockStore singleton() throws LockingException
+    {
+        return ApplicationContextLocator.getApplicationContext().getBean(BEAN_NAME, IEntityLockStore.class);
+    }
+
+    private enum Operation {
+        PUT, REMOVE, CLEAR;
+    }
+
+    /**
+     * A change to the store sent to the other portals in the cluster.
+     */
+    private static final class LockEvent implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Operation operation;
+        private final Class entityType;
+        private final String entityKey;
+        private final String lockOwner;
+        private final int lockType;
+        private final long expiration;
+
+        public LockEvent(Operation operation, IEntityLock lock) {
+            this.operation = operation;
+            this.entityType = lock != null ? lock.getEntityType() : null;
+            this.entityKey = lock != null ? lock.getEntityKey() : null;
+            this.lockOwner = lock != null ? lock.getLockOwner() : null;
+            this.lockType = lock != null ? lock.getLockType() : 0;
+            this.expiration = lock != null ? lock.getExpirationTime().getTime() : 0;
+        }
+
+        public IEntityLock toLock() {
+            return new EntityLockImpl(this.entityType, this.entityKey, this.lockType, new Date(this.expiration), this.lockOwner);
+        }
+
+        @Override
+        public String toString() {
+            return "LockEvent [" + this.operation + " " + this.entityType + "(" + this.entityKey + ") owner=" + this.lockOwner + "]";
+        }
+    }
+
+    /**
+     * Receives the changes made by other portals.
+     */
+    private final class ReplicationListener extends CacheEventListenerAdapter {
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+            applyReplicatedEvent(element.getObjectValue());
+        }
+
+        @Override
+        public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+            applyReplicatedEvent(element.getObjectValue());
+        }
+    }
+
+    private static final class EntityRef {
+        private final Class entityType;
+        private final String entityKey;
+        private final int hash;
+
+        public EntityRef(Class entityType, String entityKey) {
+            this.entityType = entityType;
+            this.entityKey = entityKey;
+            this.hash = 31 * entityType.hashCode() + entityKey.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EntityRef)) {
+                return false;
+            }
+            final EntityRef other = (EntityRef) obj;
+            return this.entityType.equals(other.entityType) && this.entityKey.equals(other.entityKey);
+        }
+    }
+
+    private static final class ScheduledExpiration {
+        private final EntityRef entity;
+        private final IEntityLock lock;
+        private final long expiration;
+
+        public ScheduledExpiration(EntityRef entity, IEntityLock lock) {
+            this.entity = entity;
+            this.lock = lock;
+            this.expiration = lock.getExpirationTime().getTime();
+        }
+    }
+
+    /**
+     * Hashed timer wheel. Each bucket holds the expirations that fall in one tick, expirations
+     * more than one revolution away stay in their bucket until the wheel comes round to them.
+     * Scheduling is a queue add, only advancing the wheel is synchronized.
+     */
+    private static final class ExpiryWheel {
+        interface Callback {
+            void expired(ScheduledExpiration expiration);
+        }
+
+        private final long tickMillis;
+        private final Queue<ScheduledExpiration>[] buckets;
+        private long lastTick;
+
+        @SuppressWarnings("unchecked")
+        public ExpiryWheel(long tickMillis, int size, long now) {
+            this.tickMillis = tickMillis;
+            this.buckets = new Queue[size];
+            for (int i = 0; i < size; i++) {
+                this.buckets[i] = new ConcurrentLinkedQueue<ScheduledExpiration>();
+            }
+            this.lastTick = now / tickMillis - 1;
+        }
+
+        public void schedule(ScheduledExpiration expiration) {
+            this.buckets[this.bucket(expiration.expiration / this.tickMillis)].add(expiration);
+        }
+
+        /**
+         * Expires everything in the ticks that have completely passed.
+         * @return true if the wheel has completed a revolution
+         */
+        public synchronized boolean advance(long now, Callback callback) {
+            final long currentTick = now / this.tickMillis - 1;
+            if (currentTick <= this.lastTick) {
+                return false;
+            }
+
+            // After a long pause every bucket only needs to be visited once
+            final long firstTick = Math.max(this.lastTick + 1, currentTick - this.buckets.length + 1);
+            boolean revolution = false;
+            for (long tick = firstTick; tick <= currentTick; tick++) {
+                final int bucket = this.bucket(tick);
+                revolution |= bucket == 0;
+
+                final Queue<ScheduledExpiration> queue = this.buckets[bucket];
+                for (int remaining = queue.size(); remaining > 0; remaining--) {
+                    final ScheduledExpiration expiration = queue.poll();
+                    if (expiration == null) {
+                        break;
+                    }
+                    if (expiration.expiration / this.tickMillis > currentTick) {
+                        queue.add(expiration);
+                    }
+                    else {
+                        callback.expired(expiration);
+                    }
+                }
+            }
+            this.lastTick = currentTick;
+            return revolution;
+        }
+
+        private int bucket(long tick) {
+            return (int) (tick % this.buckets.length);
+        }
+    }
+}
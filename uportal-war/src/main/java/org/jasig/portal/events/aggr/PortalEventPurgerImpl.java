@@ -25,6 +25,9 @@ import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
 import org.jasig.portal.jpa.BaseAggrEventsJpaDao.AggrEventsTransactional;
+import org.jasig.portal.utils.BatchedPurger;
+import org.jasig.portal.utils.BatchedPurger.PurgeBatch;
+import org.jasig.portal.utils.BatchedPurger.PurgeResult;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 import org.joda.time.ReadablePeriod;
@@ -36,12 +39,15 @@ import org.springframework.stereotype.Service;
 
 @Service
 public class PortalEventPurgerImpl implements PortalEventPurger {
+    private static final String PURGE_NAME = "RawEvents";
+    
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private IEventAggregationManagementDao eventAggregationManagementDao;
     private IPortalInfoProvider portalInfoProvider;
     private IPortalEventDao portalEventDao;
     private IClusterLockService clusterLockService;
+    private BatchedPurger batchedPurger;
     
     private ReadablePeriod purgeDelay = Period.days(1);
     
@@ -50,6 +56,11 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
         this.clusterLockService = clusterLockService;
     }
 
+    @Autowired
+    public void setBatchedPurger(BatchedPurger batchedPurger) {
+        this.batchedPurger = batchedPurger;
+    }
+
     @Autowired
     public void setEventAggregationManagementDao(IEventAggregationManagementDao eventAggregationManagementDao) {
         this.eventAggregationManagementDao = eventAggregationManagementDao;
@@ -114,24 +125,40 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
         
         final Thread currentThread = Thread.currentThread();
         final String currentName = currentThread.getName();
-        final int events;
+        final PurgeResult purgeResult;
         try {
             currentThread.setName(currentName + "-" + purgeEnd);
         
-            //Purge events
+            //Purge events, each batch is deleted in its own raw events transaction
             logger.debug("Starting purge of events before {}", purgeEnd);
-            events = portalEventDao.deletePortalEventsBefore(purgeEnd);
+            final DateTime batchPurgeEnd = purgeEnd;
+            purgeResult = this.batchedPurger.purge(PURGE_NAME, new PurgeBatch() {
+                @Override
+                public int purge(int batchSize) {
+                    return portalEventDao.deletePortalEventsBefore(batchPurgeEnd, batchSize);
+                }
+            });
         }
         finally {
             currentThread.setName(currentName);
         }
         
+        if (!purgeResult.isComplete()) {
+            //The time budget ran out, leave the last event date alone so the next scheduled run
+            //resumes the same range and report this run as done so it is not re-run immediately
+            eventPurgerStatus.setLastEventDate(oldestEventDate);
+            eventPurgerStatus.setLastEnd(new DateTime());
+            eventAggregationManagementDao.updateEventAggregatorStatus(eventPurgerStatus);
+            
+            return new EventProcessingResult(purgeResult.getPurged(), oldestEventDate, purgeEnd, true);
+        }
+        
         //Update the status object and store it
         purgeEnd = purgeEnd.minusMillis(100); //decrement by 100ms since deletePortalEventsBefore uses lessThan and not lessThanEqualTo
         eventPurgerStatus.setLastEventDate(purgeEnd); 
         eventPurgerStatus.setLastEnd(new DateTime());
         eventAggregationManagementDao.updateEventAggregatorStatus(eventPurgerStatus);
         
-        return new EventProcessingResult(events, oldestEventDate, purgeEnd, complete);
+        return new EventProcessingResult(purgeResult.getPurged(), oldestEventDate, purgeEnd, complete);
     }
 }
@@ -23,7 +23,9 @@ import org.jasig.portal.concurrency.locking.IClusterLockService;
 import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.session.EventSessionDao;
-import org.jasig.portal.jpa.BaseAggrEventsJpaDao.AggrEventsTransactional;
+import org.jasig.portal.utils.BatchedPurger;
+import org.jasig.portal.utils.BatchedPurger.PurgeBatch;
+import org.jasig.portal.utils.BatchedPurger.PurgeResult;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 import org.joda.time.ReadablePeriod;
@@ -35,11 +37,14 @@ import org.springframework.stereotype.Service;
 
 @Service
 public class PortalEventSessionPurgerImpl implements PortalEventSessionPurger {
+    private static final String PURGE_NAME = "EventSessions";
+    
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private IEventAggregationManagementDao eventAggregationManagementDao;
     private EventSessionDao eventSessionDao;
     private IClusterLockService clusterLockService;
+    private BatchedPurger batchedPurger;
     
     private ReadablePeriod eventSessionDuration = Period.days(1);
     
@@ -53,6 +58,11 @@ public class PortalEventSessionPurgerImpl implements PortalEventSessionPurger {
         this.clusterLockService = clusterLockService;
     }
 
+    @Autowired
+    public void setBatchedPurger(BatchedPurger batchedPurger) {
+        this.batchedPurger = batchedPurger;
+    }
+
     @Autowired
     public void setEventAggregationManagementDao(IEventAggregationManagementDao eventAggregationManagementDao) {
         this.eventAggregationManagementDao = eventAggregationManagementDao;
@@ -63,8 +73,10 @@ public class PortalEventSessionPurgerImpl implements PortalEventSessionPurger {
         this.eventSessionDuration = eventSessionDuration;
     }
 
+    /**
+     * Not transactional, sessions are purged in batches that each run in their own transaction
+     */
     @Override
-    @AggrEventsTransactional
     public EventProcessingResult doPurgeEventSessions() {
         if (!this.clusterLockService.isLockOwner(PURGE_EVENT_SESSION_LOCK_NAME)) {
             throw new IllegalStateException("The cluster lock " + PURGE_EVENT_SESSION_LOCK_NAME + " must be owned by the current thread and server");
@@ -77,8 +89,13 @@ public class PortalEventSessionPurgerImpl implements PortalEventSessionPurger {
         
         final DateTime lastEventDate = eventAggregatorStatus.getLastEventDate();
         final DateTime sessionPurgeDate = lastEventDate.minus(eventSessionDuration);
-        final int purgeCount = eventSessionDao.purgeEventSessionsBefore(sessionPurgeDate);
+        final PurgeResult purgeResult = this.batchedPurger.purge(PURGE_NAME, new PurgeBatch() {
+            @Override
+            public int purge(int batchSize) {
+                return eventSessionDao.purgeEventSessionsBefore(sessionPurgeDate, batchSize);
+            }
+        });
         
-        return new EventProcessingResult(purgeCount, null, sessionPurgeDate, true);
+        return new EventProcessingResult(purgeResult.getPurged(), null, sessionPurgeDate, purgeResult.isComplete());
     }
 }
@@ -52,4 +52,12 @@ public interface EventSessionDao {
      * Purge expired events, expired is defined by the implementation
      */
     int purgeEventSessionsBefore(DateTime lastAggregatedEventDate);
+    
+    /**
+     * Purge up to maxPurge expired event sessions in a single transaction, intended to be called
+     * repeatedly until fewer than maxPurge sessions are purged.
+     * 
+     * @return The number of event sessions purged
+     */
+    int purgeEventSessionsBefore(DateTime lastAggregatedEventDate, int maxPurge);
 }
@@ -160,6 +160,20 @@ public class JpaEventSessionDao extends BaseAggrEventsJpaDao implements EventSes
         
         return resultList.size();
     }
+
+    @AggrEventsTransactional
+    @Override
+    public int purgeEventSessionsBefore(DateTime lastAggregatedEventDate, int maxPurge) {
+        final TypedQuery<EventSessionImpl> query = this.createQuery(this.findExpiredEventSessionsQuery);
+        query.setParameter(this.dateTimeParameter, lastAggregatedEventDate);
+        query.setMaxResults(maxPurge);
+        final List<EventSessionImpl> resultList = query.getResultList();
+        for (final EventSessionImpl eventSession : resultList) {
+            this.getEntityManager().remove(eventSession);
+        }
+        
+        return resultList.size();
+    }
     
     /**
      * Get groups for the event
@@ -80,4 +80,12 @@ public interface IPortalEventDao {
      * Delete events with timestamps from before the specified date (exclusive)
      */
     int deletePortalEventsBefore(DateTime endTime);
+    
+    /**
+     * Delete up to maxDelete events with timestamps from before the specified date (exclusive) in a
+     * single transaction, intended to be called repeatedly until fewer than maxDelete events are deleted.
+     * 
+     * @return The number of events deleted
+     */
+    int deletePortalEventsBefore(DateTime endTime, int maxDelete);
 }
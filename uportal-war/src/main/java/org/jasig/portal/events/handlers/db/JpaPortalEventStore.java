@@ -59,9 +59,12 @@ import com.google.common.base.Function;
  */
 @Repository
 public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
+    private static final String IDS_PARAMETER = "ids";
 
     private final ObjectMapper mapper;
     private String deleteQuery;
+    private String selectIdsBeforeQuery;
+    private String deleteByIdsQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
     private int flushPeriod = 1000;
@@ -110,6 +113,15 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                 "DELETE FROM " + PersistentPortalEvent.class.getName() + " e " +
         		"WHERE e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName();
         
+        this.selectIdsBeforeQuery = 
+                "SELECT e." + PersistentPortalEvent_.id.getName() + " " +
+                "FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName();
+        
+        this.deleteByIdsQuery = 
+                "DELETE FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE e." + PersistentPortalEvent_.id.getName() + " IN (:" + IDS_PARAMETER + ")";
+        
         this.findNewestPersistentPortalEventTimestampQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<DateTime>>() {
             @Override
             public CriteriaQuery<DateTime> apply(CriteriaBuilder cb) {
@@ -257,6 +269,25 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         return query.executeUpdate();
     }
     
+    @Override
+    @RawEventsTransactional
+    public int deletePortalEventsBefore(DateTime time, int maxDelete) {
+        //Select a bounded set of ids via the timestamp index, then delete exactly those rows
+        final TypedQuery<Long> selectIdsQuery = this.getEntityManager().createQuery(this.selectIdsBeforeQuery, Long.class);
+        selectIdsQuery.setParameter(this.endTimeParameter.getName(), time);
+        selectIdsQuery.setMaxResults(maxDelete);
+        final List<Long> ids = selectIdsQuery.getResultList();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        
+        final Query deleteQuery = this.getEntityManager().createQuery(this.deleteByIdsQuery);
+        deleteQuery.setParameter(IDS_PARAMETER, ids);
+        deleteQuery.executeUpdate();
+        
+        return ids.size();
+    }
+    
     protected PersistentPortalEvent wrapPortalEvent(PortalEvent event) {
         final String portalEventData = this.toString(event);
         return new PersistentPortalEvent(event, portalEventData);
@@ -0,0 +1,262 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.utils.MovingAverage;
+import org.jasig.portal.utils.MovingAverageSample;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Calls the same operation on several component <code>IIndividualGroupServices</code>
+ * at once. The first service is called on the calling thread while the others run on
+ * the executor, so a composite operation takes as long as the slowest service instead
+ * of the sum of all of them.
+ * <p>
+ * All of the calls share a single timeout. A service that has not answered when it
+ * expires is cancelled and, if partial results are allowed, left out of the results,
+ * otherwise the operation fails with a <code>GroupsException</code>. Without an
+ * executor the services are called one after the other and the timeout is not applied.
+ * <p>
+ * Stores such as PAGS read request and session scoped beans, the caller's Spring
+ * {@link RequestAttributes} are bound to the executor thread for the length of each call.
+ * <p>
+ * The latency, timeouts and failures of every service are recorded, see
+ * {@link #getServiceStatistics()}.
+ */
+public class ComponentServiceFanOut {
+    private static final Log log = LogFactory.getLog(ComponentServiceFanOut.class);
+
+    private final ConcurrentMap<String, ServiceStatistics> statistics = new ConcurrentHashMap<String, ServiceStatistics>();
+    private final ExecutorService executor;
+    private final long timeout;
+    private final boolean partialResults;
+
+    /**
+     * @param executor Runs the calls to all but the first service, if null the services are called sequentially
+     * @param timeout Milliseconds to wait for all of the services to answer, must be greater than 0 if there is an executor
+     * @param partialResults If true services that time out are skipped instead of failing the operation
+     */
+    public ComponentServiceFanOut(ExecutorService executor, long timeout, boolean partialResults) {
+        if (executor != null && timeout <= 0) {
+            throw new IllegalArgumentException("timeout must be greater than 0 when an executor is used: " + timeout);
+        }
+        this.executor = executor;
+        this.timeout = timeout;
+        this.partialResults = partialResults;
+    }
+
+    /**
+     * An operation to call on each component service.
+     */
+    public interface ServiceCall<T> {
+        T call(IIndividualGroupService service) throws GroupsException;
+    }
+
+    /**
+     * Calls the operation on each of the services.
+     *
+     * @param operation Name of the operation, used in log messages
+     * @return The result of each service that answered, in the order of <code>services</code>
+     */
+    public <T> Map<IIndividualGroupService, T> invokeAll(final String operation, Collection<IIndividualGroupService> services, final ServiceCall<T> call)
+    throws GroupsException
+    {
+        final Map<IIndividualGroupService, T> results = new LinkedHashMap<IIndividualGroupService, T>();
+        if (services.isEmpty()) {
+            return results;
+        }
+
+        if (this.executor == null || services.size() == 1) {
+            for (final IIndividualGroupService service : services) {
+                results.put(service, this.timedCall(operation, service, call));
+            }
+            return results;
+        }
+
+        final long deadline = System.currentTimeMillis() + this.timeout;
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        final List<IIndividualGroupService> serviceList = new ArrayList<IIndividualGroupService>(services);
+        final Map<IIndividualGroupService, Future<T>> futures = new HashMap<IIndividualGroupService, Future<T>>();
+        try {
+            for (final IIndividualGroupService service : serviceList.subList(1, serviceList.size())) {
+                final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        if (requestAttributes != null) {
+                            RequestContextHolder.setRequestAttributes(requestAttributes);
+                        }
+                        try {
+                            return timedCall(operation, service, call);
+                        }
+                        finally {
+                            RequestContextHolder.resetRequestAttributes();
+                        }
+                    }
+                });
+                this.executor.execute(future);
+                futures.put(service, future);
+            }
+
+            final IIndividualGroupService first = serviceList.get(0);
+            results.put(first, this.timedCall(operation, first, call));
+
+            for (final IIndividualGroupService service : serviceList.subList(1, serviceList.size())) {
+                this.collectResult(operation, service, futures.get(service), deadline, results);
+            }
+        }
+        finally {
+            //Don't leave calls running after a failure or timeout
+            for (final Future<T> future : futures.values()) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @return Call statistics for every service that has been called, keyed by service name
+     */
+    public Map<String, ServiceStatistics> getServiceStatistics() {
+        return Collections.<String, ServiceStatistics>unmodifiableMap(this.statistics);
+    }
+
+    private <T> void collectResult(String operation, IIndividualGroupService service, Future<T> future, long deadline,
+            Map<IIndividualGroupService, T> results) throws GroupsException
+    {
+        try {
+            results.put(service, future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS));
+        }
+        catch (TimeoutException e) {
+            future.cancel(true);
+            this.getStatistics(service).timeouts.incrementAndGet();
+            if (this.partialResults) {
+                log.warn(operation + " on group service " + service.getServiceName() + " did not complete within " + this.timeout + "ms, its results are not included");
+                return;
+            }
+            throw new GroupsException(operation + " on group service " + service.getServiceName() + " did not complete within " + this.timeout + "ms");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GroupsException("Interrupted waiting for " + operation + " on group service " + service.getServiceName(), e);
+        }
+        catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                //Includes GroupsException
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GroupsException(operation + " failed on group service " + service.getServiceName(), cause);
+        }
+    }
+
+    private <T> T timedCall(String operation, IIndividualGroupService service, ServiceCall<T> call) throws GroupsException {
+        final ServiceStatistics serviceStatistics = this.getStatistics(service);
+        final long start = System.currentTimeMillis();
+        boolean succeeded = false;
+        try {
+            final T result = call.call(service);
+            succeeded = true;
+            return result;
+        }
+        finally {
+            final long elapsed = System.currentTimeMillis() - start;
+            serviceStatistics.add(elapsed);
+            if (!succeeded) {
+                serviceStatistics.failures.incrementAndGet();
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(operation + " on group service " + service.getServiceName() + " took " + elapsed + "ms");
+            }
+        }
+    }
+
+    private ServiceStatistics getStatistics(IIndividualGroupService service) {
+        final String serviceName = String.valueOf(service.getServiceName());
+        ServiceStatistics serviceStatistics = this.statistics.get(serviceName);
+        if (serviceStatistics == null) {
+            serviceStatistics = new ServiceStatistics();
+            final ServiceStatistics existing = this.statistics.putIfAbsent(serviceName, serviceStatistics);
+            if (existing != null) {
+                serviceStatistics = existing;
+            }
+        }
+        return serviceStatistics;
+    }
+
+    /**
+     * Latency, timeouts and failures of the calls to one component service.
+     */
+    public static final class ServiceStatistics {
+        private final MovingAverage latencies = new MovingAverage();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile MovingAverageSample lastLatency = new MovingAverageSample();
+
+        private void add(long elapsed) {
+            this.lastLatency = this.latencies.add(elapsed);
+        }
+
+        /**
+         * @return Moving average of the time calls to the service took, in milliseconds
+         */
+        public MovingAverageSample getLatency() {
+            return this.lastLatency;
+        }
+
+        /**
+         * @return Number of calls the service did not answer before the timeout
+         */
+        public long getTimeouts() {
+            return this.timeouts.get();
+        }
+
+        /**
+         * @return Number of calls to the service that threw an exception
+         */
+        public long getFailures() {
+            return this.failures.get();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.services.GroupService;
+import org.jasig.portal.spring.locator.CacheFactoryLocator;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Immutable snapshot of the keys of every group a person directly or
+ * indirectly belongs to, across all of the component group services. The
+ * snapshot is computed when the person logs in and is kept in a local cache
+ * keyed by the person's entity identifier so per-request membership checks
+ * are a set lookup.
+ * <p>
+ * Each snapshot records the {@link GroupAncestryIndex#getGeneration()} it was
+ * computed in. Group structure or membership changes anywhere in the cluster
+ * start a new generation and the next call to {@link #getEffectiveGroups(IPerson)}
+ * computes a new snapshot.
+ */
+public final class EffectiveGroups {
+    public static final String CACHE_NAME = "org.jasig.portal.groups.EffectiveGroups";
+
+    private static final Log log = LogFactory.getLog(EffectiveGroups.class);
+
+    private final Set<String> groupKeys;
+    private final String generation;
+    private final long created;
+
+    private EffectiveGroups(Set<String> groupKeys, String generation) {
+        this.groupKeys = ImmutableSet.copyOf(groupKeys);
+        this.generation = generation;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The current snapshot for the person, computing and caching a new one if there
+     * is none or the groups have changed since it was computed
+     */
+    public static EffectiveGroups getEffectiveGroups(IPerson person) throws GroupsException {
+        final String personKey = person.getEntityIdentifier().getKey();
+        final EffectiveGroups effectiveGroups = personKey != null ? getSnapshots().get(personKey) : null;
+        if (effectiveGroups != null && effectiveGroups.isCurrent()) {
+            return effectiveGroups;
+        }
+
+        return refresh(person);
+    }
+
+    /**
+     * Computes a new snapshot for the person and caches it.
+     */
+    public static EffectiveGroups refresh(IPerson person) throws GroupsException {
+        //Read the generation first so a change made while the ancestry is walked invalidates the result
+        final String generation = GroupAncestryIndex.getGeneration();
+
+        final EntityIdentifier personIdentifier = person.getEntityIdentifier();
+        final IGroupMember groupMember = GroupService.getGroupMember(personIdentifier);
+        final Set<String> groupKeys = GroupAncestryIndex.getAncestorGroupKeys(groupMember);
+
+        final EffectiveGroups effectiveGroups = new EffectiveGroups(groupKeys, generation);
+        if (personIdentifier.getKey() != null) {
+            getSnapshots().put(personIdentifier.getKey(), effectiveGroups);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Computed effective groups for " + personIdentifier.getKey() + ": " + groupKeys);
+        }
+
+        return effectiveGroups;
+    }
+
+    /**
+     * @return The keys of every group the person directly or indirectly belongs to
+     */
+    public Set<String> getGroupKeys() {
+        return this.groupKeys;
+    }
+
+    /**
+     * @return true if the person directly or indirectly belongs to the group
+     */
+    public boolean isMemberOf(IGroupMember group) {
+        return this.groupKeys.contains(group.getKey());
+    }
+
+    /**
+     * @return true if the person directly or indirectly belongs to the group with the key
+     */
+    public boolean isMemberOf(String groupKey) {
+        return this.groupKeys.contains(groupKey);
+    }
+
+    /**
+     * @return true if no group has changed since the snapshot was computed
+     */
+    public boolean isCurrent() {
+        return this.generation.equals(GroupAncestryIndex.getGeneration());
+    }
+
+    /**
+     * @return When the snapshot was computed
+     */
+    public long getCreated() {
+        return this.created;
+    }
+
+    private static Map<String, EffectiveGroups> getSnapshots() {
+        return CacheFactoryLocator.getCacheFactory().getCache(CACHE_NAME);
+    }
+
+    @Override
+    public String toString() {
+        return "EffectiveGroups [groupKeys=" + this.groupKeys + ", generation=" + this.generation + ", created=" + this.created + "]";
+    }
+}
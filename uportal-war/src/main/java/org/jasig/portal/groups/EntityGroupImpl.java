@@ -193,7 +193,9 @@ public boolean contains(IGroupMember gm) throws GroupsException
     }
 }
 /**
- * Checks recursively if <code>GroupMember</code> gm is a member of this.
+ * Checks recursively if <code>GroupMember</code> gm is a member of this.  Pending 
+ * changes to our own members are checked first, indirect membership is answered 
+ * by the <code>GroupAncestryIndex</code>.
  * @return boolean
  * @param gm org.jasig.portal.groups.IGroupMember
  */
@@ -202,25 +204,7 @@ public boolean deepContains(IGroupMember gm) throws GroupsException
     if ( this.contains(gm) )
         { return true; }
 
-    boolean found = false;
-    Iterator it = getMemberGroups();
-    while (it.hasNext() && !found) {
-        IEntityGroup group = (IEntityGroup) it.next();
-        if (group != null) {
-            found = group.deepContains(gm);
-        } else {
-            // Something bad has happened:  we've abruptly lost a group node to 
-            // which this group node refers.  This is an ERROR condition, but we 
-            // shouldn't simply throw an exception because we know (from 
-            // experience) it could make the portal unusable.  We definitely, 
-            // need, however, to send a strong message.
-            String msg = "Groups Integrety Error:  Group '" + this.getName() 
-                    + "' refers to a child group that is no longer available";
-            log.error(msg);
-        }
-    }
-
-    return found;
+    return GroupAncestryIndex.isDeepMemberOf(gm, this);
 }
 /**
  * Delegates to the factory.
@@ -0,0 +1,207 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.spring.locator.CacheFactoryLocator;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Index of the transitive closure of group containment. For every <code>IEntityGroup</code>
+ * that has been asked about, the index holds the keys of all of the groups that directly or
+ * indirectly contain it. The closure of a group is built from the closures of its direct
+ * parents, so filling the index walks each group only once regardless of how many
+ * descendants share it.
+ * <p>
+ * With the index <code>deepContains()</code> is a single set lookup per direct parent of the
+ * member and <code>getAllContainingGroups()</code> is linear in the number of ancestors instead
+ * of a recursive walk through the group services.
+ * <p>
+ * Only groups are indexed. The direct parents of an <code>IEntity</code> are already cached
+ * on the entity itself, so changes to entity membership do not affect the index. When a
+ * group is added to or removed from another group the ancestry of every one of its
+ * descendants changes and the index is cleared. The backing cache is replicated by
+ * invalidation so the clear is applied to every portal in the cluster.
+ * <p>
+ * The index also holds a generation token, see {@link #getGeneration()}. It is
+ * removed whenever the index is cleared and when entities are added to or removed
+ * from a group, so snapshots built from the index such as {@link EffectiveGroups}
+ * can tell when they are out of date.
+ */
+public final class GroupAncestryIndex {
+    public static final String CACHE_NAME = "org.jasig.portal.groups.GroupAncestryIndex";
+
+    //Composite group keys always start with a service name, this can never be one
+    private static final String GENERATION_KEY = "[generation]";
+
+    private static final Log log = LogFactory.getLog(GroupAncestryIndex.class);
+
+    private GroupAncestryIndex() {
+    }
+
+    /**
+     * @return The keys of every group that directly or indirectly contains the member
+     */
+    public static Set<String> getAncestorGroupKeys(IGroupMember member) throws GroupsException {
+        if (member.isGroup()) {
+            return getGroupAncestorKeys((IEntityGroup) member, new Traversal());
+        }
+
+        final Set<String> ancestors = new HashSet<String>();
+        for (final Iterator itr = member.getContainingGroups(); itr.hasNext(); ) {
+            final IEntityGroup parent = (IEntityGroup) itr.next();
+            if (parent != null) {
+                ancestors.add(parent.getKey());
+                ancestors.addAll(getGroupAncestorKeys(parent, new Traversal()));
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * @return true if the group directly or indirectly contains the member
+     */
+    public static boolean isDeepMemberOf(IGroupMember member, IEntityGroup group) throws GroupsException {
+        final String groupKey = group.getKey();
+
+        if (member.isGroup()) {
+            return getGroupAncestorKeys((IEntityGroup) member, new Traversal()).contains(groupKey);
+        }
+
+        for (final Iterator itr = member.getContainingGroups(); itr.hasNext(); ) {
+            final IEntityGroup parent = (IEntityGroup) itr.next();
+            if (parent != null
+                    && (groupKey.equals(parent.getKey()) || getGroupAncestorKeys(parent, new Traversal()).contains(groupKey))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return A token that changes whenever group structure or entity membership changes
+     * anywhere in the cluster
+     */
+    public static String getGeneration() {
+        final Map<String, Set<String>> index = getIndex();
+
+        final Set<String> generation = index.get(GENERATION_KEY);
+        if (generation != null) {
+            return generation.iterator().next();
+        }
+
+        //Puts are not replicated, a new generation only replaces a removed one on this portal
+        final String newGeneration = UUID.randomUUID().toString();
+        index.put(GENERATION_KEY, ImmutableSet.of(newGeneration));
+        return newGeneration;
+    }
+
+    /**
+     * Updates the index after the membership of the group has been updated. The index is
+     * cleared if groups were added to or removed from the group, if only entities changed
+     * just a new generation is started.
+     */
+    public static void groupMembershipChanged(EntityGroupImpl group) {
+        if (containsGroup(group.getAddedMembers()) || containsGroup(group.getRemovedMembers())) {
+            clear();
+        }
+        else if (!group.getAddedMembers().isEmpty() || !group.getRemovedMembers().isEmpty()) {
+            getIndex().remove(GENERATION_KEY);
+        }
+    }
+
+    /**
+     * Updates the index after the group has been deleted.
+     */
+    public static void groupDeleted(IEntityGroup group) {
+        clear();
+    }
+
+    private static boolean containsGroup(Map members) {
+        for (final Iterator itr = members.values().iterator(); itr.hasNext(); ) {
+            if (((IGroupMember) itr.next()).isGroup()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void clear() {
+        if (log.isDebugEnabled()) {
+            log.debug("Group structure changed, clearing " + CACHE_NAME);
+        }
+        getIndex().clear();
+    }
+
+    private static Set<String> getGroupAncestorKeys(IEntityGroup group, Traversal traversal) throws GroupsException {
+        final Map<String, Set<String>> index = getIndex();
+        final String key = group.getKey();
+
+        final Set<String> indexed = index.get(key);
+        if (indexed != null) {
+            return indexed;
+        }
+
+        // avoid stack overflow in case of circular group dependencies
+        if (!traversal.visiting.add(key)) {
+            log.error("Groups Integrity Error:  Group '" + group.getName() + "' is its own ancestor");
+            traversal.circular = true;
+            return ImmutableSet.of();
+        }
+
+        final ImmutableSet.Builder<String> ancestors = ImmutableSet.builder();
+        for (final Iterator itr = group.getContainingGroups(); itr.hasNext(); ) {
+            final IEntityGroup parent = (IEntityGroup) itr.next();
+            if (parent != null) {
+                ancestors.add(parent.getKey());
+                ancestors.addAll(getGroupAncestorKeys(parent, traversal));
+            }
+        }
+        traversal.visiting.remove(key);
+
+        final Set<String> ancestorKeys = ancestors.build();
+
+        // The closure is incomplete for every group on a cycle, don't index it
+        if (!traversal.circular) {
+            index.put(key, ancestorKeys);
+        }
+        return ancestorKeys;
+    }
+
+    private static Map<String, Set<String>> getIndex() {
+        return CacheFactoryLocator.getCacheFactory().getCache(CACHE_NAME);
+    }
+
+    /**
+     * Tracks the groups on the current path of a closure computation.
+     */
+    private static final class Traversal {
+        private final Set<String> visiting = new HashSet<String>();
+        private boolean circular = false;
+    }
+}
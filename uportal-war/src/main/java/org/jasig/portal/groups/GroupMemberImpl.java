@@ -136,7 +136,15 @@ public boolean deepContains(IGroupMember gm) throws GroupsException
  */
 public java.util.Iterator getAllContainingGroups() throws GroupsException
 {
-    return primGetAllContainingGroups(this, new HashSet()).iterator();
+    Set ancestorKeys = GroupAncestryIndex.getAncestorGroupKeys(this);
+    Collection groupsColl = new ArrayList(ancestorKeys.size());
+    for (Iterator itr = ancestorKeys.iterator(); itr.hasNext(); )
+    {
+        IEntityGroup group = getCompositeGroupService().findGroup((String) itr.next());
+        if ( group != null )
+            { groupsColl.add(group); }
+    }
+    return groupsColl.iterator();
 }
 
 /**
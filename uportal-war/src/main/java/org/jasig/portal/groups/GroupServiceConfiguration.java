@@ -47,6 +47,9 @@ public class GroupServiceConfiguration
     // The file containing the configuration:
     private static String SERVICES_XML = "/properties/groups/compositeGroupServices.xml";
 
+    private static final int DEFAULT_COMPONENT_SERVICE_THREADS = 10;
+    private static final long DEFAULT_COMPONENT_SERVICE_TIMEOUT = 120000;
+
     // Singleton instance.
     private static GroupServiceConfiguration configuration;
 
@@ -142,6 +145,41 @@ public String getNodeSeparator() {
         ? IGroupConstants.NODE_SEPARATOR
         : (String)nodeSeparator;
 }
+/**
+ * Returns the maximum number of threads used to call component services in
+ * parallel, 0 if they are called one after the other.
+ */
+public int getComponentServiceThreads() {
+    Object threads = getAttributes().get("componentServiceThreads");
+    return ( threads == null )
+        ? DEFAULT_COMPONENT_SERVICE_THREADS
+        : Integer.parseInt((String)threads);
+}
+/**
+ * Returns the milliseconds to wait for all component services to answer a
+ * parallel call.  A parallel call is never left waiting without a limit, 
+ * values of 0 or less are replaced by the default.
+ */
+public long getComponentServiceTimeout() {
+    Object timeout = getAttributes().get("componentServiceTimeout");
+    if ( timeout == null )
+        { return DEFAULT_COMPONENT_SERVICE_TIMEOUT; }
+
+    long configuredTimeout = Long.parseLong((String)timeout);
+    if ( configuredTimeout <= 0 )
+    {
+        log.warn("componentServiceTimeout must be greater than 0, using " + DEFAULT_COMPONENT_SERVICE_TIMEOUT + "ms instead of " + configuredTimeout);
+        return DEFAULT_COMPONENT_SERVICE_TIMEOUT;
+    }
+    return configuredTimeout;
+}
+/**
+ * Returns true if the results of the component services that answered are
+ * used when another component service times out.
+ */
+public boolean isPartialResults() {
+    return "TRUE".equalsIgnoreCase((String)getAttributes().get("partialResults"));
+}
 public List getServiceDescriptors()
 {
     return serviceDescriptors;
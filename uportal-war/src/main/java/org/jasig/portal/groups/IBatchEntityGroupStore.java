@@ -0,0 +1,65 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional extension of <code>IEntityGroupStore</code> for stores that can
+ * answer membership questions about many groups or members at once.  Group
+ * services use it to read a group hierarchy one level at a time instead of
+ * querying the store once for every group in the hierarchy.
+ * <p>
+ * The returned maps have no entry for a group or member that has no results.
+ */
+public interface IBatchEntityGroupStore extends IEntityGroupStore
+{
+/**
+ * Returns the <code>IEntityGroups</code> that each of the <code>IGroupMembers</code>
+ * belongs to.
+ * @return Map of member to the groups that contain it
+ * @param members the group members in question
+ */
+public Map<IGroupMember, List<IEntityGroup>> findContainingGroups(Collection<? extends IGroupMember> members) throws GroupsException;
+/**
+ * Returns the <code>IEntities</code> that are members of each of the
+ * <code>IEntityGroups</code>.
+ * @return Map of group to its member entities
+ * @param groups the groups in question
+ */
+public Map<IEntityGroup, List<IEntity>> findEntitiesForGroups(Collection<? extends IEntityGroup> groups) throws GroupsException;
+/**
+ * Returns the keys of the <code>IEntityGroups</code> that are members of each
+ * of the <code>IEntityGroups</code>, including the keys of foreign member groups.
+ * @return Map of group to the keys of its member groups
+ * @param groups the groups in question
+ * @see IEntityGroupStore#findMemberGroupKeys(IEntityGroup)
+ */
+public Map<IEntityGroup, List<String>> findMemberGroupKeys(Collection<? extends IEntityGroup> groups) throws GroupsException;
+/**
+ * Returns the <code>IEntityGroups</code> from this store that are members of
+ * each of the <code>IEntityGroups</code>.
+ * @return Map of group to its member groups
+ * @param groups the groups in question
+ */
+public Map<IEntityGroup, List<IEntityGroup>> findMemberGroups(Collection<? extends IEntityGroup> groups) throws GroupsException;
+}
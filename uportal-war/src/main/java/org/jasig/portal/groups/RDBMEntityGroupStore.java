@@ -26,8 +26,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,7 +46,7 @@ import org.jasig.portal.utils.SqlTransaction;
  * @author Dan Ellentuck
  * @version $Revision$
  */
-public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants {
+public class RDBMEntityGroupStore implements IBatchEntityGroupStore, IGroupConstants {
     private static final Log log = LogFactory.getLog(RDBMEntityGroupStore.class);
     private static RDBMEntityGroupStore singleton;
 
@@ -52,6 +55,9 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     private static String QUOTE = "'";
     private static String EQUALS_PARAM = EQ + "?";
 
+    // Maximum number of keys in the IN list of a batch query:
+    private static final int MAX_IN_LIST_SIZE = 100;
+
     // Constant strings for GROUP table:
     private static String GROUP_TABLE = "UP_GROUP";
     private static String GROUP_TABLE_ALIAS = "T1";
@@ -664,6 +670,336 @@ public Iterator findMemberGroups(IEntityGroup group) throws GroupsException
 
     return groups.iterator();
 }
+/**
+ * Find the groups that each of the members belongs to.  Members are queried
+ * in batches of up to <code>MAX_IN_LIST_SIZE</code> keys per statement.
+ * @param members the group members in question
+ * @return Map of member to the groups that contain it
+ */
+public Map<IGroupMember, List<IEntityGroup>> findContainingGroups(Collection<? extends IGroupMember> members)
+throws GroupsException
+{
+    Map<IGroupMember, List<IEntityGroup>> containingGroups = new HashMap<IGroupMember, List<IEntityGroup>>();
+
+    // A statement can only match members of one member type, entity type and service.
+    Map<String, Map<String, IGroupMember>> partitions = new LinkedHashMap<String, Map<String, IGroupMember>>();
+    for ( IGroupMember gm : members )
+    {
+        String partitionKey = null;
+        String memberKey = null;
+        if ( gm.isGroup() )
+        {
+            IEntityGroup group = (IEntityGroup) gm;
+            partitionKey = MEMBER_IS_GROUP + gm.getLeafType().getName() + GROUP_NODE_SEPARATOR + group.getServiceName();
+            memberKey = group.getLocalKey();
+        }
+        else
+        {
+            partitionKey = MEMBER_IS_ENTITY + gm.getLeafType().getName();
+            memberKey = gm.getKey();
+        }
+
+        Map<String, IGroupMember> partition = partitions.get(partitionKey);
+        if ( partition == null )
+        {
+            partition = new LinkedHashMap<String, IGroupMember>();
+            partitions.put(partitionKey, partition);
+        }
+        partition.put(memberKey, gm);
+    }
+
+    if ( partitions.isEmpty() )
+        { return containingGroups; }
+
+    Connection conn = null;
+    try
+    {
+        conn = RDBMServices.getConnection();
+        for ( Map<String, IGroupMember> partition : partitions.values() )
+        {
+            IGroupMember first = partition.values().iterator().next();
+            boolean isGroup = first.isGroup();
+            String serviceName = ( isGroup ) ? ((IEntityGroup)first).getServiceName().toString() : null;
+            int type = EntityTypes.getEntityTypeID(first.getLeafType()).intValue();
+
+            List<String> memberKeys = new ArrayList<String>(partition.keySet());
+            for ( int start = 0; start < memberKeys.size(); start += MAX_IN_LIST_SIZE )
+            {
+                List<String> batch = memberKeys.subList(start, Math.min(start + MAX_IN_LIST_SIZE, memberKeys.size()));
+                String sql = getFindContainingGroupsForMembersSql(isGroup, batch.size());
+                PreparedStatement ps = conn.prepareStatement(sql);
+                try
+                {
+                    int idx = 1;
+                    if ( isGroup )
+                        { ps.setString(idx++, serviceName); }
+                    ps.setInt(idx++, type);
+                    for ( String memberKey : batch )
+                        { ps.setString(idx++, memberKey); }
+                    if (log.isDebugEnabled())
+                        log.debug(
+                                "RDBMEntityGroupStore.findContainingGroups(): " + ps +
+                                " (" + serviceName + ", " + type + ", " + batch + ", memberIsGroup = " + isGroup + ")");
+                    ResultSet rs = ps.executeQuery();
+                    try
+                    {
+                        while (rs.next())
+                        {
+                            IEntityGroup eg = instanceFromResultSet(rs);
+                            IGroupMember gm = partition.get(rs.getString(6));
+                            if ( eg != null && gm != null )
+                                { addToList(containingGroups, gm, eg); }
+                        }
+                    }
+                    finally
+                        { rs.close(); }
+                }
+                finally
+                    { ps.close(); }
+            }
+        }
+    }
+    catch (Exception e)
+    {
+        log.error( "RDBMEntityGroupStore.findContainingGroups(): " + e);
+        throw new GroupsException("Problem retrieving containing groups: " + e);
+    }
+    finally
+        { RDBMServices.releaseConnection(conn); }
+
+    return containingGroups;
+}
+
+/**
+ * Find the <code>IEntities</code> that are members of each of the groups.
+ * @param groups the entity groups in question
+ * @return Map of group to its member entities
+ */
+public Map<IEntityGroup, List<IEntity>> findEntitiesForGroups(Collection<? extends IEntityGroup> groups)
+throws GroupsException
+{
+    Map<IEntityGroup, List<IEntity>> entities = new HashMap<IEntityGroup, List<IEntity>>();
+    Map<String, IEntityGroup> groupsByKey = getGroupsByLocalKey(groups);
+    if ( groupsByKey.isEmpty() )
+        { return entities; }
+
+    Connection conn = null;
+    try
+    {
+        conn = RDBMServices.getConnection();
+        List<String> groupKeys = new ArrayList<String>(groupsByKey.keySet());
+        for ( int start = 0; start < groupKeys.size(); start += MAX_IN_LIST_SIZE )
+        {
+            List<String> batch = groupKeys.subList(start, Math.min(start + MAX_IN_LIST_SIZE, groupKeys.size()));
+            String sql = getFindMembersForGroupsSql(MEMBER_IS_ENTITY, batch.size());
+            PreparedStatement ps = conn.prepareStatement(sql);
+            try
+            {
+                setStrings(ps, 1, batch);
+                if (log.isDebugEnabled())
+                    log.debug(
+                            "RDBMEntityGroupStore.findEntitiesForGroups(): " + ps + " (" + batch + ")");
+                ResultSet rs = ps.executeQuery();
+                try
+                {
+                    while (rs.next())
+                    {
+                        IEntityGroup group = groupsByKey.get(rs.getString(1));
+                        IEntity e = newEntity(group.getLeafType(), rs.getString(3));
+                        addToList(entities, group, e);
+                    }
+                }
+                finally
+                    { rs.close(); }
+            }
+            finally
+                { ps.close(); }
+        }
+    }
+    catch (SQLException sqle)
+    {
+        log.error("Problem retrieving Entities for Groups: " + groupsByKey.keySet(), sqle);
+        throw new GroupsException("Problem retrieving Entities for Groups", sqle);
+    }
+    finally
+        { RDBMServices.releaseConnection(conn); }
+
+    return entities;
+}
+
+/**
+ * Find the keys of groups that are members of each of the groups.
+ * @param groups the org.jasig.portal.groups.IEntityGroups
+ * @return Map of group to the keys of its member groups
+ */
+public Map<IEntityGroup, List<String>> findMemberGroupKeys(Collection<? extends IEntityGroup> groups)
+throws GroupsException
+{
+    Map<IEntityGroup, List<String>> memberGroupKeys = new HashMap<IEntityGroup, List<String>>();
+    Map<String, IEntityGroup> groupsByKey = getGroupsByLocalKey(groups);
+    if ( groupsByKey.isEmpty() )
+        { return memberGroupKeys; }
+
+    Connection conn = null;
+    try
+    {
+        conn = RDBMServices.getConnection();
+        List<String> groupKeys = new ArrayList<String>(groupsByKey.keySet());
+        for ( int start = 0; start < groupKeys.size(); start += MAX_IN_LIST_SIZE )
+        {
+            List<String> batch = groupKeys.subList(start, Math.min(start + MAX_IN_LIST_SIZE, groupKeys.size()));
+            String sql = getFindMembersForGroupsSql(MEMBER_IS_GROUP, batch.size());
+            PreparedStatement ps = conn.prepareStatement(sql);
+            try
+            {
+                setStrings(ps, 1, batch);
+                if (log.isDebugEnabled())
+                    log.debug(
+                            "RDBMEntityGroupStore.findMemberGroupKeys(): " + ps + " (" + batch + ")");
+                ResultSet rs = ps.executeQuery();
+                try
+                {
+                    while (rs.next())
+                    {
+                        IEntityGroup group = groupsByKey.get(rs.getString(1));
+                        addToList(memberGroupKeys, group, rs.getString(2) + GROUP_NODE_SEPARATOR + rs.getString(3));
+                    }
+                }
+                finally
+                    { rs.close(); }
+            }
+            finally
+                { ps.close(); }
+        }
+    }
+    catch (Exception sqle)
+    {
+        log.error( "RDBMEntityGroupStore.findMemberGroupKeys(): " + sqle);
+        throw new GroupsException("Problem retrieving member group keys: " + sqle);
+    }
+    finally
+        { RDBMServices.releaseConnection(conn); }
+
+    return memberGroupKeys;
+}
+
+/**
+ * Find the groups in this store that are members of each of the groups.
+ * @param groups the org.jasig.portal.groups.IEntityGroups
+ * @return Map of group to its member groups
+ */
+public Map<IEntityGroup, List<IEntityGroup>> findMemberGroups(Collection<? extends IEntityGroup> groups)
+throws GroupsException
+{
+    Map<IEntityGroup, List<IEntityGroup>> memberGroups = new HashMap<IEntityGroup, List<IEntityGroup>>();
+
+    // A statement can only match member groups of one service.
+    Map<String, Map<String, IEntityGroup>> groupsByService = new LinkedHashMap<String, Map<String, IEntityGroup>>();
+    for ( IEntityGroup group : groups )
+    {
+        String serviceName = group.getServiceName().toString();
+        Map<String, IEntityGroup> groupsByKey = groupsByService.get(serviceName);
+        if ( groupsByKey == null )
+        {
+            groupsByKey = new LinkedHashMap<String, IEntityGroup>();
+            groupsByService.put(serviceName, groupsByKey);
+        }
+        groupsByKey.put(group.getLocalKey(), group);
+    }
+
+    if ( groupsByService.isEmpty() )
+        { return memberGroups; }
+
+    Connection conn = null;
+    try
+    {
+        conn = RDBMServices.getConnection();
+        for ( Map.Entry<String, Map<String, IEntityGroup>> entry : groupsByService.entrySet() )
+        {
+            String serviceName = entry.getKey();
+            Map<String, IEntityGroup> groupsByKey = entry.getValue();
+            List<String> groupKeys = new ArrayList<String>(groupsByKey.keySet());
+            for ( int start = 0; start < groupKeys.size(); start += MAX_IN_LIST_SIZE )
+            {
+                List<String> batch = groupKeys.subList(start, Math.min(start + MAX_IN_LIST_SIZE, groupKeys.size()));
+                String sql = getFindMemberGroupsForGroupsSql(batch.size());
+                PreparedStatement ps = conn.prepareStatement(sql);
+                try
+                {
+                    ps.setString(1, serviceName);
+                    setStrings(ps, 2, batch);
+                    if (log.isDebugEnabled())
+                        log.debug(
+                                "RDBMEntityGroupStore.findMemberGroups(): " + ps +
+                                " (" + serviceName + ", " + batch + ")");
+                    ResultSet rs = ps.executeQuery();
+                    try
+                    {
+                        while (rs.next())
+                        {
+                            IEntityGroup eg = instanceFromResultSet(rs);
+                            IEntityGroup group = groupsByKey.get(rs.getString(6));
+                            if ( eg != null && group != null )
+                                { addToList(memberGroups, group, eg); }
+                        }
+                    }
+                    finally
+                        { rs.close(); }
+                }
+                finally
+                    { ps.close(); }
+            }
+        }
+    }
+    catch (Exception sqle)
+    {
+        log.error( "RDBMEntityGroupStore.findMemberGroups(): " + sqle);
+        throw new GroupsException("Problem retrieving member groups: " + sqle);
+    }
+    finally
+        { RDBMServices.releaseConnection(conn); }
+
+    return memberGroups;
+}
+/**
+ * Adds the value to the list for the key, creating the list if needed.
+ */
+private static <K, V> void addToList(Map<K, List<V>> map, K key, V value)
+{
+    List<V> list = map.get(key);
+    if ( list == null )
+    {
+        list = new ArrayList<V>();
+        map.put(key, list);
+    }
+    list.add(value);
+}
+/**
+ * @return Map of local key to group
+ */
+private static Map<String, IEntityGroup> getGroupsByLocalKey(Collection<? extends IEntityGroup> groups)
+{
+    Map<String, IEntityGroup> groupsByKey = new LinkedHashMap<String, IEntityGroup>();
+    for ( IEntityGroup group : groups )
+        { groupsByKey.put(group.getLocalKey(), group); }
+    return groupsByKey;
+}
+/**
+ * @return java.lang.String " IN (?, ?, ...)" with count parameters
+ */
+private static java.lang.String inParams(int count)
+{
+    StringBuffer buff = new StringBuffer(8 + count * 3);
+    buff.append(" IN (");
+    for ( int i = 0; i < count; i++ )
+    {
+        if ( i > 0 )
+            { buff.append(", "); }
+        buff.append("?");
+    }
+    buff.append(")");
+    return buff.toString();
+}
 /**
  * @return java.lang.String
  */
@@ -914,6 +1250,79 @@ private static java.lang.String getFindContainingGroupsForGroupSql()
     }
     return findContainingGroupsForGroupSql;
 }
+/**
+ * @param isGroup true to match member groups, false to match member entities
+ * @param count the number of member keys in the IN list
+ * @return java.lang.String
+ */
+private static java.lang.String getFindContainingGroupsForMembersSql(boolean isGroup, int count)
+{
+    StringBuffer buff = new StringBuffer(500);
+    buff.append("SELECT ");
+    buff.append(getAllGroupColumnsWithTableAlias());
+    buff.append(", ");
+    buff.append(memberAlias(MEMBER_MEMBER_KEY_COLUMN));
+    buff.append(" FROM " + GROUP_TABLE_WITH_ALIAS + ", " + MEMBER_TABLE_WITH_ALIAS);
+    buff.append(" WHERE ");
+    buff.append(groupAlias(GROUP_ID_COLUMN) + EQ);
+    buff.append(memberAlias(MEMBER_GROUP_ID_COLUMN));
+    if ( isGroup )
+    {
+        buff.append(" AND ");
+        buff.append(memberAlias(MEMBER_MEMBER_SERVICE_COLUMN) + EQUALS_PARAM);
+    }
+    buff.append(" AND ");
+    buff.append(groupAlias(GROUP_TYPE_COLUMN) + EQUALS_PARAM);
+    buff.append(" AND ");
+    buff.append(memberAlias(MEMBER_IS_GROUP_COLUMN) + EQ);
+    buff.append(sqlQuote(( isGroup ) ? MEMBER_IS_GROUP : MEMBER_IS_ENTITY));
+    buff.append(" AND ");
+    buff.append(memberAlias(MEMBER_MEMBER_KEY_COLUMN) + inParams(count));
+    return buff.toString();
+}
+/**
+ * @param count the number of group keys in the IN list
+ * @return java.lang.String
+ */
+private static java.lang.String getFindMemberGroupsForGroupsSql(int count)
+{
+    StringBuffer buff = new StringBuffer(500);
+    buff.append("SELECT ");
+    buff.append(getAllGroupColumnsWithTableAlias());
+    buff.append(", ");
+    buff.append(memberAlias(MEMBER_GROUP_ID_COLUMN));
+    buff.append(" FROM " + GROUP_TABLE_WITH_ALIAS + ", " + MEMBER_TABLE_WITH_ALIAS);
+    buff.append(" WHERE ");
+    buff.append(groupAlias(GROUP_ID_COLUMN) + EQ);
+    buff.append(memberAlias(MEMBER_MEMBER_KEY_COLUMN));
+    buff.append(" AND ");
+    buff.append(memberAlias(MEMBER_IS_GROUP_COLUMN) + EQ);
+    buff.append(sqlQuote(MEMBER_IS_GROUP));
+    buff.append(" AND ");
+    buff.append(memberAlias(MEMBER_MEMBER_SERVICE_COLUMN) + EQUALS_PARAM);
+    buff.append(" AND ");
+    buff.append(memberAlias(MEMBER_GROUP_ID_COLUMN) + inParams(count));
+    return buff.toString();
+}
+/**
+ * @param isGroup MEMBER_IS_GROUP or MEMBER_IS_ENTITY
+ * @param count the number of group keys in the IN list
+ * @return java.lang.String
+ */
+private static java.lang.String getFindMembersForGroupsSql(String isGroup, int count)
+{
+    StringBuffer buff = new StringBuffer(200);
+    buff.append("SELECT ");
+    buff.append(MEMBER_GROUP_ID_COLUMN + ", " + MEMBER_MEMBER_SERVICE_COLUMN + ", " + MEMBER_MEMBER_KEY_COLUMN);
+    buff.append(" FROM ");
+    buff.append(MEMBER_TABLE);
+    buff.append(" WHERE ");
+    buff.append(MEMBER_GROUP_ID_COLUMN + inParams(count));
+    buff.append(" AND ");
+    buff.append(MEMBER_IS_GROUP_COLUMN + EQ);
+    buff.append(sqlQuote(isGroup));
+    return buff.toString();
+}
 /**
  * @return java.lang.String
  */
@@ -1607,6 +2016,14 @@ protected static void setAutoCommit(Connection conn, boolean newValue) throws ja
     SqlTransaction.setAutoCommit(conn, newValue);
 }
 
+/**
+ * Sets consecutive String parameters starting at the index.
+ */
+private static void setStrings(PreparedStatement ps, int index, List<String> values) throws SQLException
+{
+    for ( String value : values )
+        { ps.setString(index++, value); }
+}
 /**
  * @return org.jasig.portal.groups.RDBMEntityGroupStore
  */
@@ -26,6 +26,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.InvalidNameException;
 import javax.naming.Name;
@@ -34,6 +37,7 @@ import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.concurrency.CachingException;
 import org.jasig.portal.services.EntityCachingService;
 import org.jasig.portal.services.GroupService;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * @author Dan Ellentuck
@@ -47,6 +51,9 @@ implements ICompositeGroupService
 
     // See CompositeGroupService.xml:
     protected IIndividualGroupService defaultService;
+
+    // Calls the component services, sequentially until the services are initialized:
+    protected ComponentServiceFanOut componentServiceFanOut = new ComponentServiceFanOut(null, 0, false);
 /**
  * ReferenceCompositeGroupService constructor comment.
  */
@@ -58,12 +65,12 @@ public ReferenceCompositeGroupService() throws GroupsException
 /**
  * Returns groups that contain the <code>IGroupMember</code>.  Delegates to the
  * component services, but only after checking that they might actually contain
- * a membership for this member.
+ * a membership for this member.  The services are queried in parallel.
  * @param gm IGroupMember
  */
-public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
+public Iterator findContainingGroups(final IGroupMember gm) throws GroupsException
 {
-    Collection allGroups = new ArrayList();
+    List<IIndividualGroupService> containingServices = new ArrayList<IIndividualGroupService>();
     IIndividualGroupService service = null;
 
     for ( Iterator services = getComponentServices().values().iterator(); services.hasNext(); )
@@ -71,13 +78,25 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
         service = (IIndividualGroupService) services.next();
         if ( gm.isEntity() || service.isEditable() ||
           getComponentService(((IEntityGroup)gm).getServiceName()) == service )
+            { containingServices.add(service); }
+    }
+
+    Map<IIndividualGroupService, List<IEntityGroup>> results = getComponentServiceFanOut().invokeAll(
+      "findContainingGroups", containingServices, new ComponentServiceFanOut.ServiceCall<List<IEntityGroup>>() {
+        @Override
+        public List<IEntityGroup> call(IIndividualGroupService service) throws GroupsException
         {
-            {
-                for ( Iterator groups = service.findContainingGroups(gm); groups.hasNext(); )
-                    { allGroups.add((IEntityGroup) groups.next()); }
-            }
+            // Drain the Iterator while still on the service thread, it may be backed by the store.
+            List<IEntityGroup> groups = new ArrayList<IEntityGroup>();
+            for ( Iterator itr = service.findContainingGroups(gm); itr.hasNext(); )
+                { groups.add((IEntityGroup) itr.next()); }
+            return groups;
         }
-    }
+    });
+
+    Collection allGroups = new ArrayList();
+    for ( List<IEntityGroup> groups : results.values() )
+        { allGroups.addAll(groups); }
     return allGroups.iterator();
 }
 /**
@@ -119,6 +138,13 @@ protected IIndividualGroupService getComponentService(CompositeEntityIdentifier
 {
     return getComponentService(entId.getServiceName());
 }
+/**
+ * Returns the helper that calls the component services in parallel.
+ */
+protected ComponentServiceFanOut getComponentServiceFanOut()
+{
+    return componentServiceFanOut;
+}
 /**
  * Returns the <code>IIndividualGroupService</code> designated as the default service
  * in the configuration document.
@@ -235,10 +261,29 @@ protected void initializeComponentServices() throws GroupsException
         Name defaultServiceName = GroupService.parseServiceName(cfg.getDefaultService());
         defaultService = (IIndividualGroupService)getComponentService(defaultServiceName);
 
+        componentServiceFanOut = newComponentServiceFanOut(cfg);
     }
     catch (Exception ex)
         { throw new GroupsException("Problem initializing component services", ex); }
 }
+/**
+ * Returns the helper used to call the component services.  The services are
+ * called on a private pool of daemon threads, when all of the threads are busy
+ * the calling thread makes the call itself.
+ */
+protected ComponentServiceFanOut newComponentServiceFanOut(GroupServiceConfiguration cfg)
+{
+    int threads = cfg.getComponentServiceThreads();
+    if ( threads <= 0 || getComponentServices().size() <= 1 )
+        { return new ComponentServiceFanOut(null, 0, false); }
+
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("uPortal-GroupService-");
+    threadFactory.setDaemon(true);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    return new ComponentServiceFanOut(executor, cfg.getComponentServiceTimeout(), cfg.isPartialResults());
+}
 /**
  * Returns a <code>CompositeEntityIdentifier</code> for the group identified
  * by <code>key</code>.
@@ -270,89 +315,87 @@ protected IEntityGroup primFindGroup(String key) throws GroupsException
    * Find EntityIdentifiers for entities whose name matches the query string
    * according to the specified method and is of the specified type
    */
-public EntityIdentifier[] searchForEntities(String query, int method, Class type)
+public EntityIdentifier[] searchForEntities(final String query, final int method, final Class type)
 throws GroupsException
 {
-    Set allIds = new HashSet();
-
-    for ( Iterator services = getComponentServices().values().iterator(); services.hasNext(); )
-    {
-        IIndividualGroupService service = (IIndividualGroupService) services.next();
-        EntityIdentifier[] ids = service.searchForEntities(query, method, type);
-        for (int i=0; i<ids.length; i++)
-            { allIds.add(ids[i]);}
-    }
-    return (EntityIdentifier[])allIds.toArray(new EntityIdentifier[allIds.size()]);
+    return searchComponentServices("searchForEntities", false, new ComponentServiceFanOut.ServiceCall<EntityIdentifier[]>() {
+        @Override
+        public EntityIdentifier[] call(IIndividualGroupService service) throws GroupsException
+            { return service.searchForEntities(query, method, type); }
+    });
 }
  /**
    * Find EntityIdentifiers for entities whose name matches the query string
    * according to the specified method, is of the specified type  and
    * descends from the specified group
    */
-public EntityIdentifier[] searchForEntities(String query, int method, Class type, IEntityGroup ancestor)
+public EntityIdentifier[] searchForEntities(final String query, final int method, final Class type, final IEntityGroup ancestor)
 throws GroupsException
 {
-    Set allIds = new HashSet();
-
-    for ( Iterator services = getComponentServices().values().iterator(); services.hasNext(); )
-    {
-        IIndividualGroupService service = (IIndividualGroupService) services.next();
-        EntityIdentifier[] ids = service.searchForEntities(query, method, type, ancestor);
-        for (int i=0; i<ids.length; i++)
-            { allIds.add(ids[i]);}
-    }
-    return (EntityIdentifier[])allIds.toArray(new EntityIdentifier[allIds.size()]);
+    return searchComponentServices("searchForEntities", false, new ComponentServiceFanOut.ServiceCall<EntityIdentifier[]>() {
+        @Override
+        public EntityIdentifier[] call(IIndividualGroupService service) throws GroupsException
+            { return service.searchForEntities(query, method, type, ancestor); }
+    });
 }
  /**
    * Find EntityIdentifiers for groups whose name matches the query string
    * according to the specified method and matches the provided leaf type
    */
-public EntityIdentifier[] searchForGroups(String query, int method, Class leaftype)
+public EntityIdentifier[] searchForGroups(final String query, final int method, final Class leaftype)
 throws GroupsException
 {
-    Set allIds = new HashSet();
-
-    for ( Iterator services = getComponentServices().values().iterator(); services.hasNext(); )
-    {
-        IIndividualGroupService service = (IIndividualGroupService) services.next();
-        EntityIdentifier[] ids = service.searchForGroups(query, method, leaftype);
-        for (int i=0; i<ids.length; i++)
-        {
-            try
-            {
-                CompositeEntityIdentifier cei = new CompositeEntityIdentifier(ids[i].getKey(),ids[i].getType());
-                cei.setServiceName(service.getServiceName());
-                allIds.add(cei);
-            }
-            catch (javax.naming.InvalidNameException ine) {}
-        }
-    }
-    return (EntityIdentifier[])allIds.toArray(new EntityIdentifier[allIds.size()]);
+    return searchComponentServices("searchForGroups", true, new ComponentServiceFanOut.ServiceCall<EntityIdentifier[]>() {
+        @Override
+        public EntityIdentifier[] call(IIndividualGroupService service) throws GroupsException
+            { return service.searchForGroups(query, method, leaftype); }
+    });
 }
  /**
    * Find EntityIdentifiers for groups whose name matches the query string
    * according to the specified method, has the provided leaf type  and
    * descends from the specified group
    */
-public EntityIdentifier[] searchForGroups(String query, int method, Class leaftype, IEntityGroup ancestor)
+public EntityIdentifier[] searchForGroups(final String query, final int method, final Class leaftype, final IEntityGroup ancestor)
 throws GroupsException
 {
-    Set allIds = new HashSet();
+    return searchComponentServices("searchForGroups", true, new ComponentServiceFanOut.ServiceCall<EntityIdentifier[]>() {
+        @Override
+        public EntityIdentifier[] call(IIndividualGroupService service) throws GroupsException
+            { return service.searchForGroups(query, method, leaftype, ancestor); }
+    });
+}
+/**
+ * Runs a search on all of the component services in parallel and combines
+ * the results.  Group ids are qualified with the name of the service that
+ * found them.
+ */
+protected EntityIdentifier[] searchComponentServices(String operation, boolean groups,
+  ComponentServiceFanOut.ServiceCall<EntityIdentifier[]> search) throws GroupsException
+{
+    Collection<IIndividualGroupService> services = getComponentServices().values();
+    Map<IIndividualGroupService, EntityIdentifier[]> results =
+      getComponentServiceFanOut().invokeAll(operation, services, search);
 
-    for ( Iterator services = getComponentServices().values().iterator(); services.hasNext(); )
+    Set allIds = new HashSet();
+    for ( Map.Entry<IIndividualGroupService, EntityIdentifier[]> result : results.entrySet() )
     {
-        IIndividualGroupService service = (IIndividualGroupService) services.next();
-        EntityIdentifier[] ids = service.searchForGroups(query, method, leaftype, ancestor);
+        EntityIdentifier[] ids = result.getValue();
         for (int i=0; i<ids.length; i++)
-          {
-            try
+        {
+            if ( !groups )
+                { allIds.add(ids[i]); }
+            else
             {
-                CompositeEntityIdentifier cei = new CompositeEntityIdentifier(ids[i].getKey(),ids[i].getType());
-                cei.setServiceName(service.getServiceName());
-                allIds.add(cei);
+                try
+                {
+                    CompositeEntityIdentifier cei = new CompositeEntityIdentifier(ids[i].getKey(),ids[i].getType());
+                    cei.setServiceName(result.getKey().getServiceName());
+                    allIds.add(cei);
+                }
+                catch (javax.naming.InvalidNameException ine) {}
             }
-            catch (javax.naming.InvalidNameException ine) {}
-          }
+        }
     }
     return (EntityIdentifier[])allIds.toArray(new EntityIdentifier[allIds.size()]);
 }
@@ -21,10 +21,14 @@ package org.jasig.portal.groups;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.Name;
 
@@ -32,12 +36,21 @@ import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.concurrency.CachingException;
 import org.jasig.portal.concurrency.IEntityLock;
 import org.jasig.portal.concurrency.LockingException;
+import org.jasig.portal.io.xml.portlet.PortletPortalDataType;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.security.provider.AnyUnblockedGrantPermissionPolicy;
 import org.jasig.portal.services.EntityCachingService;
 import org.jasig.portal.services.EntityLockService;
 import org.jasig.portal.services.GroupService;
+import org.jasig.portal.spring.locator.CacheFactoryLocator;
+import org.jasig.portal.spring.locator.PortalDataChangeDaoLocator;
+import org.jasig.portal.spring.locator.PortletDefinitionRegistryLocator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Reference individual, or leaf, group service.
  *
@@ -57,6 +70,18 @@ implements IIndividualGroupService, ILockableGroupService
 
     // Entity searcher
     protected IEntitySearcher entitySearcher;
+
+    // Maximum number of groups read ahead by a single walk up the group hierarchy
+    // or by a single read of the member groups of a group.
+    private static final int READ_AHEAD_MAX_GROUPS = 500;
+
+    // Memberships read ahead from an IBatchEntityGroupStore, keyed by group key.
+    // Each entry is used once and expires quickly so changes made on peer
+    // servers are still picked up.
+    private final Cache<String, List<IEntityGroup>> readAheadContainingGroups =
+        CacheBuilder.newBuilder().maximumSize(READ_AHEAD_MAX_GROUPS * 4).expireAfterWrite(10, TimeUnit.SECONDS).build();
+    private final Cache<String, ReadAheadMembers> readAheadMembers =
+        CacheBuilder.newBuilder().maximumSize(READ_AHEAD_MAX_GROUPS * 4).expireAfterWrite(10, TimeUnit.SECONDS).build();
     
 /**
  * ReferenceGroupsService constructor.
@@ -204,7 +229,7 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
 {
     Collection groups = new ArrayList(10);
     IEntityGroup group = null;
-    for ( Iterator it = getGroupStore().findContainingGroups(gm); it.hasNext(); )
+    for ( Iterator it = primFindContainingGroups(gm); it.hasNext(); )
     {
         group = (IEntityGroup) it.next();
         group.setLocalGroupService(this);
@@ -223,6 +248,71 @@ public Iterator findContainingGroups(IGroupMember gm) throws GroupsException
     return groups.iterator();
 }
 
+/**
+ * Returns the containing groups for the <code>IGroupMember</code> from the store.
+ * If the store is an <code>IBatchEntityGroupStore</code> the containing groups
+ * of every ancestor are read ahead with one query per level of the hierarchy,
+ * so the walk up the hierarchy that usually follows does not go back to the
+ * store for each group.
+ * @param gm IGroupMember
+ */
+private Iterator primFindContainingGroups(IGroupMember gm) throws GroupsException
+{
+    IEntityGroupStore store = getGroupStore();
+    if ( ! (store instanceof IBatchEntityGroupStore) )
+        { return store.findContainingGroups(gm); }
+
+    if ( gm.isGroup() )
+    {
+        List<IEntityGroup> readAhead = readAheadContainingGroups.getIfPresent(gm.getKey());
+        if ( readAhead != null )
+        {
+            readAheadContainingGroups.invalidate(gm.getKey());
+            return readAhead.iterator();
+        }
+    }
+
+    List<IEntityGroup> containingGroups = new ArrayList<IEntityGroup>();
+    for ( Iterator it = store.findContainingGroups(gm); it.hasNext(); )
+        { containingGroups.add((IEntityGroup) it.next()); }
+    readAheadAncestors((IBatchEntityGroupStore) store, containingGroups);
+    return containingGroups.iterator();
+}
+
+/**
+ * Reads ahead the containing groups of the groups and of all of their
+ * ancestors, one level of the hierarchy at a time.
+ */
+private void readAheadAncestors(IBatchEntityGroupStore store, List<IEntityGroup> groups)
+throws GroupsException
+{
+    Set<String> visited = new HashSet<String>();
+    List<IEntityGroup> level = new ArrayList<IEntityGroup>();
+    for ( IEntityGroup group : groups )
+    {
+        if ( visited.add(group.getKey()) && readAheadContainingGroups.getIfPresent(group.getKey()) == null )
+            { level.add(group); }
+    }
+
+    while ( ! level.isEmpty() )
+    {
+        Map<IGroupMember, List<IEntityGroup>> containingGroups = store.findContainingGroups(level);
+        List<IEntityGroup> nextLevel = new ArrayList<IEntityGroup>();
+        for ( IEntityGroup group : level )
+        {
+            List<IEntityGroup> parents = valueOrEmpty(containingGroups, group);
+            readAheadContainingGroups.put(group.getKey(), parents);
+            for ( IEntityGroup parent : parents )
+            {
+                if ( visited.size() < READ_AHEAD_MAX_GROUPS && visited.add(parent.getKey())
+                  && readAheadContainingGroups.getIfPresent(parent.getKey()) == null )
+                    { nextLevel.add(parent); }
+            }
+        }
+        level = nextLevel;
+    }
+}
+
 /**
  * Returns a pre-existing <code>IEntityGroup</code> or null if it
  * does not exist.
@@ -323,10 +413,19 @@ public ILockableEntityGroup findGroupWithLock(
  * @param eg IEntityGroup
  */
 protected Iterator findLocalMemberGroups(IEntityGroup eg) throws GroupsException
+{
+    return primCacheMemberGroups(getGroupStore().findMemberGroups(eg));
+}
+
+/**
+ * Sets this service on and caches the member groups found in the store.
+ * @param memberGroups Iterator over IEntityGroups
+ */
+private Iterator primCacheMemberGroups(Iterator memberGroups) throws GroupsException
 {
     Collection groups = new ArrayList(10);
     IEntityGroup group = null;
-    for ( Iterator it = getGroupStore().findMemberGroups(eg); it.hasNext(); )
+    for ( Iterator it = memberGroups; it.hasNext(); )
     {
         group = (IEntityGroup) it.next();
         group.setLocalGroupService(this);
@@ -362,16 +461,26 @@ public Iterator findMemberEntities(IEntityGroup group) throws GroupsException
  * @param eg IEntityGroup
  */
 public Iterator findMemberGroups(IEntityGroup eg) throws GroupsException
+{
+    return primFindMemberGroups(findLocalMemberGroups(eg), getGroupStore().findMemberGroupKeys(eg));
+}
+
+/**
+ * Combines the local member groups with the groups for the remaining member
+ * group keys, which are found through the GroupService.
+ * @param localMemberGroups Iterator over the member IEntityGroups from this service
+ * @param memberGroupKeys the keys of all of the member groups
+ */
+private Iterator primFindMemberGroups(Iterator localMemberGroups, String[] memberGroupKeys) throws GroupsException
 {
     Map groups = new HashMap();
     IEntityGroup group = null;
-    for ( Iterator itr = findLocalMemberGroups(eg); itr.hasNext(); )
+    for ( Iterator itr = localMemberGroups; itr.hasNext(); )
     {
         group = (IEntityGroup) itr.next();
         groups.put(group.getKey(), group);
     }
 
-    String[] memberGroupKeys = getGroupStore().findMemberGroupKeys(eg);
     for (int i=0; i<memberGroupKeys.length; i++)
     {
         if ( ! groups.containsKey(memberGroupKeys[i]) )
@@ -393,6 +502,24 @@ public Iterator findMembers(IEntityGroup eg) throws GroupsException
     Collection members = new ArrayList(10);
     Iterator it = null;
 
+    IEntityGroupStore store = getGroupStore();
+    if ( store instanceof IBatchEntityGroupStore )
+    {
+        ReadAheadMembers readAhead = readAheadMembers.getIfPresent(eg.getKey());
+        if ( readAhead == null )
+            { readAhead = readAheadMemberGroups((IBatchEntityGroupStore) store, eg); }
+        else
+            { readAheadMembers.invalidate(eg.getKey()); }
+
+        List<String> memberGroupKeys = readAhead.memberGroupKeys;
+        for ( it = primFindMemberGroups(primCacheMemberGroups(readAhead.localMemberGroups.iterator()),
+                memberGroupKeys.toArray(new String[memberGroupKeys.size()])); it.hasNext(); )
+           { members.add(it.next()); }
+        members.addAll(readAhead.entities);
+
+        return members.iterator();
+    }
+
     for ( it = findMemberGroups(eg); it.hasNext(); )
        { members.add(it.next()); }
     for ( it = findMemberEntities(eg); it.hasNext(); )
@@ -401,6 +528,70 @@ public Iterator findMembers(IEntityGroup eg) throws GroupsException
     return members.iterator();
 }
 
+/**
+ * Reads the members of the group and reads ahead the members of its direct
+ * member groups in this store.  Deeper descendants are not read ahead, so a
+ * lookup of a large group loads at most one more level of the hierarchy.
+ * @return the members of the group
+ */
+private ReadAheadMembers readAheadMemberGroups(IBatchEntityGroupStore store, IEntityGroup eg)
+throws GroupsException
+{
+    ReadAheadMembers result = readMembers(store, Collections.singletonList(eg)).get(eg);
+
+    List<IEntityGroup> children = new ArrayList<IEntityGroup>();
+    for ( IEntityGroup child : result.localMemberGroups )
+    {
+        if ( children.size() < READ_AHEAD_MAX_GROUPS && ! child.getKey().equals(eg.getKey())
+          && readAheadMembers.getIfPresent(child.getKey()) == null )
+            { children.add(child); }
+    }
+
+    if ( ! children.isEmpty() )
+    {
+        for ( Map.Entry<IEntityGroup, ReadAheadMembers> childMembers : readMembers(store, children).entrySet() )
+            { readAheadMembers.put(childMembers.getKey().getKey(), childMembers.getValue()); }
+    }
+    return result;
+}
+
+/**
+ * Reads the members of the groups with one query for each kind of member.
+ */
+private Map<IEntityGroup, ReadAheadMembers> readMembers(IBatchEntityGroupStore store, List<IEntityGroup> groups)
+throws GroupsException
+{
+    Map<IEntityGroup, List<IEntityGroup>> memberGroups = store.findMemberGroups(groups);
+    Map<IEntityGroup, List<String>> memberGroupKeys = store.findMemberGroupKeys(groups);
+    Map<IEntityGroup, List<IEntity>> entities = store.findEntitiesForGroups(groups);
+
+    Map<IEntityGroup, ReadAheadMembers> members = new HashMap<IEntityGroup, ReadAheadMembers>();
+    for ( IEntityGroup group : groups )
+    {
+        members.put(group, new ReadAheadMembers(valueOrEmpty(memberGroups, group),
+          valueOrEmpty(memberGroupKeys, group), valueOrEmpty(entities, group)));
+    }
+    return members;
+}
+
+/**
+ * @return the list for the key or an empty list
+ */
+private static <K, V> List<V> valueOrEmpty(Map<K, List<V>> map, K key)
+{
+    List<V> values = map.get(key);
+    return ( values == null ) ? Collections.<V>emptyList() : values;
+}
+
+/**
+ * Discards the memberships that were read ahead.
+ */
+protected void invalidateReadAhead()
+{
+    readAheadContainingGroups.invalidateAll();
+    readAheadMembers.invalidateAll();
+}
+
 /**
  * Returns an <code>IEntity</code> representing a portal entity.  This does
  * not guarantee that the underlying entity actually exists.
@@ -811,6 +1002,9 @@ throws GroupsException
         if ( cacheInUse() )
            { cacheUpdate(gmi); }
     }
+    GroupAncestryIndex.groupDeleted(group);
+    invalidateReadAhead();
+    permissionSearchesChanged();
 }
 
 /**
@@ -840,6 +1034,48 @@ throws GroupsException
         if ( cacheInUse() )
            { cacheUpdate(gmi); }
     }
+    GroupAncestryIndex.groupMembershipChanged(egi);
+    invalidateReadAhead();
+    portletCategoriesChanged(egi);
+    if ( ! egi.getAddedMembers().isEmpty() || ! egi.getRemovedMembers().isEmpty() )
+        { permissionSearchesChanged(); }
+}
+
+/**
+ * The permission policy caches whether each group has an unblocked path to a GRANT
+ * through its containing groups, those answers are stale once membership changes.
+ */
+private void permissionSearchesChanged()
+{
+    CacheFactoryLocator.getCacheFactory().getCache(
+            AnyUnblockedGrantPermissionPolicy.HAS_UNBLOCKED_PATH_TO_GRANT_CACHE).clear();
+}
+
+/**
+ * Record a portlet definition change for each portlet added to or removed from
+ * a category, a portlet's categories are written into its export.
+ */
+private void portletCategoriesChanged(EntityGroupImpl egi)
+{
+    if ( egi.getLeafType() != IPortletDefinition.class )
+        { return; }
+
+    final List<IGroupMember> changedMembers = new ArrayList<IGroupMember>();
+    changedMembers.addAll(egi.getAddedMembers().values());
+    changedMembers.addAll(egi.getRemovedMembers().values());
+    for (final IGroupMember gm : changedMembers)
+    {
+        if ( gm.isEntity() )
+        {
+            final IPortletDefinition portletDefinition =
+                PortletDefinitionRegistryLocator.getPortletDefinitionRegistry().getPortletDefinition(gm.getKey());
+            if ( portletDefinition != null )
+            {
+                PortalDataChangeDaoLocator.getPortalDataChangeDao().dataModified(
+                    PortletPortalDataType.PORTLET_DEFINITION_QNAME.getLocalPart(), portletDefinition.getFName());
+            }
+        }
+    }
 }
 
 /**
@@ -873,4 +1109,21 @@ protected boolean isForeign(IGroupMember member)
     }
 }
 
+/**
+ * Members of a group read ahead from an <code>IBatchEntityGroupStore</code>.
+ */
+private static final class ReadAheadMembers
+{
+    private final List<IEntityGroup> localMemberGroups;
+    private final List<String> memberGroupKeys;
+    private final List<IEntity> entities;
+
+    private ReadAheadMembers(List<IEntityGroup> localMemberGroups, List<String> memberGroupKeys, List<IEntity> entities)
+    {
+        this.localMemberGroups = localMemberGroups;
+        this.memberGroupKeys = memberGroupKeys;
+        this.entities = entities;
+    }
+}
+
 }
@@ -0,0 +1,199 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.grouper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.internet2.middleware.grouperClient.ws.beans.WsGroup;
+import edu.internet2.middleware.grouperClient.ws.beans.WsSubject;
+
+/**
+ * Caches the results of another {@link GrouperLookups} in memory.
+ * <p>
+ * Results are kept for <code>ttlSeconds</code>. Groups that do not exist and
+ * lookups that found nothing are remembered for <code>negativeTtlSeconds</code>
+ * so a missing group or a subject with no memberships does not cause a web
+ * service call every time it is asked about. Lookups that fail are not cached.
+ * <p>
+ * Group lookups only call Grouper for the names that are not cached, in a single
+ * call. The groups returned with a subject's memberships are added to the group
+ * cache as well, as are the groups found by a search.
+ */
+class CachingGrouperLookups implements GrouperLookups {
+
+    /** Logger. */
+    protected final static Log LOGGER = LogFactory
+            .getLog(CachingGrouperLookups.class);
+
+    // Cached in place of a group that does not exist
+    private static final WsGroup MISSING_GROUP = new WsGroup();
+
+    private final GrouperLookups lookups;
+    private final LookupCache<WsGroup> groupsByName;
+    private final LookupCache<List<WsGroup>> groupsBySubject;
+    private final LookupCache<List<WsSubject>> membersByGroup;
+    private final LookupCache<List<WsGroup>> groupsByQuery;
+
+    /**
+     * @param lookups performs the lookups that are not cached
+     * @param ttlSeconds seconds to keep results
+     * @param negativeTtlSeconds seconds to keep empty results and missing groups
+     * @param maxSize maximum number of results to keep for each type of lookup
+     */
+    CachingGrouperLookups(GrouperLookups lookups, long ttlSeconds,
+            long negativeTtlSeconds, long maxSize) {
+        this.lookups = lookups;
+        this.groupsByName = new LookupCache<WsGroup>(ttlSeconds, negativeTtlSeconds, maxSize);
+        this.groupsBySubject = new LookupCache<List<WsGroup>>(ttlSeconds, negativeTtlSeconds, maxSize);
+        this.membersByGroup = new LookupCache<List<WsSubject>>(ttlSeconds, negativeTtlSeconds, maxSize);
+        this.groupsByQuery = new LookupCache<List<WsGroup>>(ttlSeconds, negativeTtlSeconds, maxSize);
+    }
+
+    public Map<String, WsGroup> findGroups(Collection<String> groupNames) {
+        final Map<String, WsGroup> groups = new HashMap<String, WsGroup>();
+        final Set<String> uncached = new LinkedHashSet<String>();
+        for (String groupName : groupNames) {
+            WsGroup wsGroup = groupsByName.get(groupName);
+            if (wsGroup == null) {
+                uncached.add(groupName);
+            } else if (wsGroup != MISSING_GROUP) {
+                groups.put(groupName, wsGroup);
+            }
+        }
+
+        if (!uncached.isEmpty()) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Looking up " + uncached.size() + " of "
+                        + groupNames.size() + " groups in Grouper");
+            }
+            Map<String, WsGroup> found = lookups.findGroups(uncached);
+            for (String groupName : uncached) {
+                WsGroup wsGroup = found.get(groupName);
+                if (wsGroup == null) {
+                    groupsByName.put(groupName, MISSING_GROUP, true);
+                } else {
+                    groupsByName.put(groupName, wsGroup, false);
+                    groups.put(groupName, wsGroup);
+                }
+            }
+        }
+
+        return groups;
+    }
+
+    public List<WsGroup> getGroupsForSubject(String subjectId, String sourceId, String stem) {
+        final String key = sourceId + "\n" + subjectId + "\n" + stem;
+        List<WsGroup> wsGroups = groupsBySubject.get(key);
+        if (wsGroups == null) {
+            wsGroups = Collections.unmodifiableList(new ArrayList<WsGroup>(
+                    lookups.getGroupsForSubject(subjectId, sourceId, stem)));
+            groupsBySubject.put(key, wsGroups, wsGroups.isEmpty());
+            for (WsGroup wsGroup : wsGroups) {
+                groupsByName.put(wsGroup.getName(), wsGroup, false);
+            }
+        }
+        return wsGroups;
+    }
+
+    public List<WsSubject> getMembers(String groupName, String sourceId) {
+        final String key = sourceId + "\n" + groupName;
+        List<WsSubject> wsSubjects = membersByGroup.get(key);
+        if (wsSubjects == null) {
+            wsSubjects = Collections.unmodifiableList(new ArrayList<WsSubject>(
+                    lookups.getMembers(groupName, sourceId)));
+            membersByGroup.put(key, wsSubjects, wsSubjects.isEmpty());
+        }
+        return wsSubjects;
+    }
+
+    public List<WsGroup> searchGroups(String query, boolean exact, String stem) {
+        final String key = exact + "\n" + stem + "\n" + query;
+        List<WsGroup> wsGroups = groupsByQuery.get(key);
+        if (wsGroups == null) {
+            wsGroups = Collections.unmodifiableList(new ArrayList<WsGroup>(
+                    lookups.searchGroups(query, exact, stem)));
+            groupsByQuery.put(key, wsGroups, wsGroups.isEmpty());
+            for (WsGroup wsGroup : wsGroups) {
+                groupsByName.put(wsGroup.getName(), wsGroup, false);
+            }
+        }
+        return wsGroups;
+    }
+
+    /**
+     * Discard all cached results, called after groups are changed through the store.
+     */
+    void clear() {
+        groupsByName.clear();
+        groupsBySubject.clear();
+        membersByGroup.clear();
+        groupsByQuery.clear();
+    }
+
+    /**
+     * Keeps found and not found results for different lengths of time.
+     */
+    private static final class LookupCache<V> {
+        private final Cache<String, V> found;
+        private final Cache<String, V> notFound;
+
+        LookupCache(long ttlSeconds, long negativeTtlSeconds, long maxSize) {
+            this.found = CacheBuilder.newBuilder().maximumSize(maxSize)
+                    .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+            this.notFound = CacheBuilder.newBuilder().maximumSize(maxSize)
+                    .expireAfterWrite(negativeTtlSeconds, TimeUnit.SECONDS).build();
+        }
+
+        V get(String key) {
+            V value = found.getIfPresent(key);
+            return value != null ? value : notFound.getIfPresent(key);
+        }
+
+        void put(String key, V value, boolean negative) {
+            if (negative) {
+                found.invalidate(key);
+                notFound.put(key, value);
+            } else {
+                notFound.invalidate(key);
+                found.put(key, value);
+            }
+        }
+
+        void clear() {
+            found.invalidateAll();
+            notFound.invalidateAll();
+        }
+    }
+
+}
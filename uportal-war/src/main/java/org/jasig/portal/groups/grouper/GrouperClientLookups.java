@@ -0,0 +1,124 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.grouper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import edu.internet2.middleware.grouperClient.api.GcFindGroups;
+import edu.internet2.middleware.grouperClient.api.GcGetGroups;
+import edu.internet2.middleware.grouperClient.api.GcGetMembers;
+import edu.internet2.middleware.grouperClient.ws.StemScope;
+import edu.internet2.middleware.grouperClient.ws.beans.WsFindGroupsResults;
+import edu.internet2.middleware.grouperClient.ws.beans.WsGetGroupsResults;
+import edu.internet2.middleware.grouperClient.ws.beans.WsGetMembersResults;
+import edu.internet2.middleware.grouperClient.ws.beans.WsGroup;
+import edu.internet2.middleware.grouperClient.ws.beans.WsQueryFilter;
+import edu.internet2.middleware.grouperClient.ws.beans.WsStemLookup;
+import edu.internet2.middleware.grouperClient.ws.beans.WsSubject;
+import edu.internet2.middleware.grouperClient.ws.beans.WsSubjectLookup;
+
+/**
+ * Performs the lookups with the Grouper client, every lookup is a web service call.
+ */
+class GrouperClientLookups implements GrouperLookups {
+
+    public Map<String, WsGroup> findGroups(Collection<String> groupNames) {
+        final Map<String, WsGroup> groups = new HashMap<String, WsGroup>();
+        if (groupNames.isEmpty()) {
+            return groups;
+        }
+
+        GcFindGroups gcFindGroups = new GcFindGroups();
+        for (String groupName : groupNames) {
+            gcFindGroups.addGroupName(groupName);
+        }
+        WsFindGroupsResults results = gcFindGroups.execute();
+
+        if (results != null && results.getGroupResults() != null) {
+            for (WsGroup wsGroup : results.getGroupResults()) {
+                groups.put(wsGroup.getName(), wsGroup);
+            }
+        }
+        return groups;
+    }
+
+    public List<WsGroup> getGroupsForSubject(String subjectId, String sourceId, String stem) {
+        GcGetGroups getGroups = new GcGetGroups();
+
+        // if only searching in a specific stem
+        if (!StringUtils.isBlank(stem)) {
+            getGroups.assignStemScope(StemScope.ALL_IN_SUBTREE);
+            getGroups.assignWsStemLookup(new WsStemLookup(stem, null));
+        }
+        getGroups.addSubjectLookup(new WsSubjectLookup(null, sourceId, subjectId));
+
+        WsGetGroupsResults results = getGroups.execute();
+        if (results == null || results.getResults() == null || results.getResults().length != 1
+                || results.getResults()[0].getWsGroups() == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(results.getResults()[0].getWsGroups());
+    }
+
+    public List<WsSubject> getMembers(String groupName, String sourceId) {
+        GcGetMembers gcGetMembers = new GcGetMembers();
+        gcGetMembers.addGroupName(groupName);
+        gcGetMembers.assignIncludeSubjectDetail(true);
+        if (sourceId != null) {
+            gcGetMembers.addSourceId(sourceId);
+        }
+
+        WsGetMembersResults results = gcGetMembers.execute();
+        if (results == null || results.getResults() == null
+                || results.getResults().length == 0
+                || results.getResults()[0].getWsSubjects() == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(results.getResults()[0].getWsSubjects());
+    }
+
+    public List<WsGroup> searchGroups(String query, boolean exact, String stem) {
+        WsQueryFilter filter = new WsQueryFilter();
+        filter.setQueryFilterType(exact ? "FIND_BY_GROUP_NAME_EXACT" : "FIND_BY_GROUP_NAME_APPROXIMATE");
+        filter.setGroupName(query);
+
+        // if only searching in a specific stem
+        if (!StringUtils.isBlank(stem)) {
+            filter.setStemName(stem);
+            filter.setStemNameScope(StemScope.ALL_IN_SUBTREE.name());
+        }
+
+        GcFindGroups groupSearch = new GcFindGroups();
+        groupSearch.assignQueryFilter(filter);
+        WsFindGroupsResults results = groupSearch.execute();
+        if (results == null || results.getGroupResults() == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(results.getGroupResults());
+    }
+
+}
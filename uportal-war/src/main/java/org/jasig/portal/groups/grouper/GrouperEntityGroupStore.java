@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -44,35 +45,25 @@ import org.jasig.portal.groups.ILockableEntityGroup;
 import org.jasig.portal.security.IPerson;
 
 import edu.internet2.middleware.grouperClient.api.GcAddMember;
-import edu.internet2.middleware.grouperClient.api.GcFindGroups;
-import edu.internet2.middleware.grouperClient.api.GcGetGroups;
-import edu.internet2.middleware.grouperClient.api.GcGetMembers;
 import edu.internet2.middleware.grouperClient.api.GcGetSubjects;
 import edu.internet2.middleware.grouperClient.api.GcGroupDelete;
 import edu.internet2.middleware.grouperClient.api.GcGroupSave;
-import edu.internet2.middleware.grouperClient.api.GcHasMember;
 import edu.internet2.middleware.grouperClient.util.GrouperClientUtils;
-import edu.internet2.middleware.grouperClient.ws.StemScope;
-import edu.internet2.middleware.grouperClient.ws.beans.WsFindGroupsResults;
-import edu.internet2.middleware.grouperClient.ws.beans.WsGetGroupsResult;
-import edu.internet2.middleware.grouperClient.ws.beans.WsGetGroupsResults;
-import edu.internet2.middleware.grouperClient.ws.beans.WsGetMembersResults;
 import edu.internet2.middleware.grouperClient.ws.beans.WsGetSubjectsResults;
 import edu.internet2.middleware.grouperClient.ws.beans.WsGroup;
 import edu.internet2.middleware.grouperClient.ws.beans.WsGroupLookup;
 import edu.internet2.middleware.grouperClient.ws.beans.WsGroupToSave;
-import edu.internet2.middleware.grouperClient.ws.beans.WsHasMemberResult;
-import edu.internet2.middleware.grouperClient.ws.beans.WsHasMemberResults;
-import edu.internet2.middleware.grouperClient.ws.beans.WsQueryFilter;
-import edu.internet2.middleware.grouperClient.ws.beans.WsStemLookup;
 import edu.internet2.middleware.grouperClient.ws.beans.WsSubject;
-import edu.internet2.middleware.grouperClient.ws.beans.WsSubjectLookup;
 
 /**
  * GrouperEntityGroupStore provides an implementation of the group store 
  * interface capable of retrieving groups information from Grouper web services.
  * This implementation uses the standard Grouper client jar to search for group
  * information.  It does not currently support write access or group locking.
+ * <p>
+ * Group, membership and member lookups are cached, see {@link CachingGrouperLookups}.
+ * The cache is configured with the <code>uportal.cache.*</code> properties in
+ * grouper.client.properties.
  * 
  * @author Bill Brown
  * @author Jen Bourey, jbourey@unicon.net
@@ -82,15 +73,35 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
         IEntityStore, IEntitySearcher {
 
     private final static String STEM_PREFIX = "uportal.stem";
-    
+
+    private final static String CACHE_TTL = "uportal.cache.ttlSeconds";
+
+    private final static String CACHE_NEGATIVE_TTL = "uportal.cache.negativeTtlSeconds";
+
+    private final static String CACHE_MAX_SIZE = "uportal.cache.maxSize";
+
     /** Logger. */
     protected final static Log LOGGER = LogFactory
             .getLog(GrouperEntityGroupStoreFactory.class);
 
+    /** Cached Grouper web service lookups. */
+    private final CachingGrouperLookups lookups;
+
     /**
      * Package protected constructor used by the factory method.
      */
     GrouperEntityGroupStore() { /* Package protected. */
+        this(new CachingGrouperLookups(new GrouperClientLookups(),
+                getCacheProperty(CACHE_TTL, 300),
+                getCacheProperty(CACHE_NEGATIVE_TTL, 60),
+                getCacheProperty(CACHE_MAX_SIZE, 10000)));
+    }
+
+    /**
+     * Package protected constructor, allows the Grouper lookups to be stubbed.
+     */
+    GrouperEntityGroupStore(CachingGrouperLookups lookups) {
+        this.lookups = lookups;
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(this + " created");
         }
@@ -103,23 +114,18 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
             throws GroupsException {
     
         String groupContainerName = group.getLocalKey();
-        String groupMemberName = member.getKey();
 
-        if (!validKey(groupContainerName)
-                || !validKey(groupMemberName)) {
+        if (!validKey(groupContainerName)) {
             return false;
         }
 
-        GcHasMember gcHasMember = new GcHasMember();
-        gcHasMember.assignGroupName(groupContainerName);
-        gcHasMember.addSubjectLookup(new WsSubjectLookup(null, "g:gsa",
-                groupMemberName));
-        WsHasMemberResults wsHasMemberResults = gcHasMember.execute();
-        if (GrouperClientUtils.length(wsHasMemberResults.getResults()) == 1) {
-            WsHasMemberResult wsHasMemberResult = wsHasMemberResults
-                    .getResults()[0];
-            return StringUtils.equals("IS_MEMBER", wsHasMemberResult
-                    .getResultMetadata().getResultCode());
+        // Answered from the member's (cached) memberships, which are usually
+        // already known from the member's last findContainingGroups(), rather
+        // than with a hasMember call for every group
+        for (Iterator<IEntityGroup> parents = findContainingGroups(member); parents.hasNext(); ) {
+            if (groupContainerName.equals(parents.next().getLocalKey())) {
+                return true;
+            }
         }
         return false;
     }
@@ -169,17 +175,6 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
         
         final List<IEntityGroup> parents = new LinkedList<IEntityGroup>();
 
-        GcGetGroups getGroups = new GcGetGroups();
-
-        String uportalStem = getStemPrefix();
-
-        // if only searching in a specific stem
-        if (!StringUtils.isBlank(uportalStem)) {
-            getGroups.assignStemScope(StemScope.ALL_IN_SUBTREE);
-            getGroups.assignWsStemLookup(new WsStemLookup(uportalStem, null));
-
-        }
-
         String key = null;
         String subjectSourceId = null;
         if (gm.isGroup()) {
@@ -198,8 +193,6 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
             // group type, just use the key.
             key = gm.getKey();
         }
-        getGroups.addSubjectLookup(new WsSubjectLookup(null, subjectSourceId,
-                key));
 
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Searching Grouper for parent groups of the entity with key: "
@@ -208,22 +201,19 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
 
             try {
                 
-                WsGetGroupsResults results = getGroups.execute();
-
+                List<WsGroup> wsGroups = lookups.getGroupsForSubject(key,
+                        subjectSourceId, getStemPrefix());
 
-                if (results == null || results.getResults() == null || results.getResults().length != 1) {
+                if (wsGroups.isEmpty()) {
                     LOGGER.debug("Grouper service returned no matches for key " + key);
                     return parents.iterator();
                 }
-                WsGetGroupsResult wsg = results.getResults()[0];
-                    if (wsg.getWsGroups() != null) {
-                        for (WsGroup g : wsg.getWsGroups()) {
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.trace("Retrieved group: " + g.getName());
-                            }
-                            IEntityGroup parent = createUportalGroupFromGrouperGroup(g);
-                      parents.add(parent);
+                for (WsGroup g : wsGroups) {
+                    if (LOGGER.isTraceEnabled()) {
+                        LOGGER.trace("Retrieved group: " + g.getName());
                     }
+                    IEntityGroup parent = createUportalGroupFromGrouperGroup(g);
+                    parents.add(parent);
                 }
 
                 if (LOGGER.isDebugEnabled()) {
@@ -255,22 +245,16 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
         try {
             
             // execute a search for members of the specified group
-            GcGetMembers getGroupsMembers = new GcGetMembers();
-            getGroupsMembers.addGroupName(group.getLocalKey());
-            getGroupsMembers.assignIncludeSubjectDetail(true);
-            WsGetMembersResults results = getGroupsMembers.execute();
+            List<WsSubject> gInfos = lookups.getMembers(group.getLocalKey(), null);
             
-            if (results == null || results.getResults() == null
-                    || results.getResults().length == 0
-                    || results.getResults()[0].getWsSubjects() == null) {
+            if (gInfos.isEmpty()) {
                 LOGGER.debug("No members found for Grouper group with key "
                         + group.getLocalKey());
                 return Collections.<IGroupMember>emptyList().iterator();
             }
 
-            WsSubject[] gInfos = results.getResults()[0].getWsSubjects();
             final List<IGroupMember> members = new ArrayList<IGroupMember>(
-                    gInfos.length);
+                    gInfos.size());
             
             // add each result to the member list
             for (WsSubject gInfo : gInfos) {
@@ -337,16 +321,9 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
                 return Collections.<IEntityGroup> emptyList().iterator();
             }
 
-            GcGetMembers gcGetMembers = new GcGetMembers();
-            gcGetMembers.addGroupName(group.getLocalKey());
-            gcGetMembers.assignIncludeSubjectDetail(true);
-            gcGetMembers.addSourceId("g:gsa");
+            List<WsSubject> subjects = lookups.getMembers(group.getLocalKey(), "g:gsa");
 
-            WsGetMembersResults results = gcGetMembers.execute();
-
-            if (results == null || results.getResults() == null
-					|| results.getResults().length == 0
-					|| results.getResults()[0].getWsSubjects() == null) {
+            if (subjects.isEmpty()) {
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER
                             .debug("No group-type members found for group with key "
@@ -355,20 +332,24 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
                 return Collections.<IEntityGroup> emptyList().iterator();
             }
 
-            final List<IEntityGroup> members = new ArrayList<IEntityGroup>();
-            WsSubject[] subjects = results.getResults()[0].getWsSubjects();
-
-			for (WsSubject wsSubject : subjects) {
+            // look up all of the member groups in one call
+            final List<String> memberGroupNames = new ArrayList<String>(subjects.size());
+            for (WsSubject wsSubject : subjects) {
                 if (validKey(wsSubject.getName())) {
-                    WsGroup wsGroup = findGroupFromKey(wsSubject
-                            .getName());
-                    if (wsGroup != null) {
-                        IEntityGroup member = createUportalGroupFromGrouperGroup(wsGroup);
-                        members.add(member);
-                        if (LOGGER.isTraceEnabled()) {
-                            LOGGER.trace("found IEntityGroup member: "
-                                    + member);
-                        }
+                    memberGroupNames.add(wsSubject.getName());
+                }
+            }
+            final Map<String, WsGroup> wsGroups = lookups.findGroups(memberGroupNames);
+
+            final List<IEntityGroup> members = new ArrayList<IEntityGroup>();
+            for (String memberGroupName : memberGroupNames) {
+                WsGroup wsGroup = wsGroups.get(memberGroupName);
+                if (wsGroup != null) {
+                    IEntityGroup member = createUportalGroupFromGrouperGroup(wsGroup);
+                    members.add(member);
+                    if (LOGGER.isTraceEnabled()) {
+                        LOGGER.trace("found IEntityGroup member: "
+                                + member);
                     }
                 }
             }
@@ -408,29 +389,19 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
             // TODO: searches need to be performed against the group display
             // name rather than the group key
             
-            GcFindGroups groupSearch = new GcFindGroups();
-            WsQueryFilter filter = new WsQueryFilter();
             //is this an exact search or fuzzy
-            if(method == IGroupConstants.IS){
-            	filter.setQueryFilterType("FIND_BY_GROUP_NAME_EXACT");
-            }else{
-            	filter.setQueryFilterType("FIND_BY_GROUP_NAME_APPROXIMATE");
-            }
-            filter.setGroupName(query);
-            groupSearch.assignQueryFilter(filter);
-            WsFindGroupsResults results = groupSearch.execute();
+            List<WsGroup> wsGroups = lookups.searchGroups(query,
+                    method == IGroupConstants.IS, getStemPrefix());
             
-            if (results != null && results.getGroupResults() != null) {
-                for (WsGroup g : results.getGroupResults()) {
-                  if (validKey(g.getName())) {
-                	  if (LOGGER.isTraceEnabled()) {
-                		  LOGGER.trace("Retrieved group: " + g.getName());
-                	  }
+            for (WsGroup g : wsGroups) {
+                if (validKey(g.getName())) {
+                    if (LOGGER.isTraceEnabled()) {
+                        LOGGER.trace("Retrieved group: " + g.getName());
+                    }
                     groups.add(new EntityIdentifier(g.getName(),
                             IEntityGroup.class));
                 }
             }
-            }
 
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Returning " + groups.size()
@@ -567,20 +538,11 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
 
 		if (key != null) {
 
-			GcFindGroups gcFindGroups = new GcFindGroups();
-			gcFindGroups.addGroupName(key);
-			WsFindGroupsResults results = gcFindGroups.execute();
+			wsGroup = lookups.findGroups(Collections.singleton(key)).get(key);
 
 			// if no results were returned, return null
-			if (results != null && results.getGroupResults() != null
-					&& results.getGroupResults().length > 0) {
-
-				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("found group from key " + key + ": "
-							+ results.getGroupResults()[0]);
-				}
-
-				wsGroup = results.getGroupResults()[0];
+			if (wsGroup != null && LOGGER.isDebugEnabled()) {
+				LOGGER.debug("found group from key " + key + ": " + wsGroup);
 			}
 		}
 
@@ -610,6 +572,18 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
         return uportalStem;
     }
 
+    /**
+     * Get a numeric setting of the lookup cache.
+     * 
+     * @param key the property name
+     * @param defaultValue the value used if the property is not set
+     * @return the value of the property
+     */
+    protected static long getCacheProperty(String key, long defaultValue) {
+        String value = GrouperClientUtils.propertiesValue(key, false);
+        return StringUtils.isBlank(value) ? defaultValue : Long.parseLong(value.trim());
+    }
+
     /**
      * 
      * @param key
@@ -652,6 +626,7 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
         wsGroupToSave.setWsGroup(wsGroup);
 
         new GcGroupSave().addGroupToSave(wsGroupToSave).execute();
+        lookups.clear();
 
         updateMembers(group);
     }
@@ -678,6 +653,7 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
             gcAddMember.addSubjectIdentifier(identifier);
         }
         gcAddMember.execute();
+        lookups.clear();
 
     }
 
@@ -689,6 +665,7 @@ public class GrouperEntityGroupStore implements IEntityGroupStore,
         String groupName = group.getLocalKey();
         new GcGroupDelete().addGroupLookup(new WsGroupLookup(groupName, null))
                 .execute();
+        lookups.clear();
     }
 
     /**
@@ -0,0 +1,68 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.grouper;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import edu.internet2.middleware.grouperClient.ws.beans.WsGroup;
+import edu.internet2.middleware.grouperClient.ws.beans.WsSubject;
+
+/**
+ * The Grouper web service lookups used by {@link GrouperEntityGroupStore}.
+ * 
+ * @see GrouperClientLookups
+ * @see CachingGrouperLookups
+ */
+interface GrouperLookups {
+
+    /**
+     * Look up several groups by name in a single call.
+     * 
+     * @param groupNames fully qualified group names
+     * @return the groups keyed by name, names with no matching group are not included
+     */
+    Map<String, WsGroup> findGroups(Collection<String> groupNames);
+
+    /**
+     * @param subjectId the subject identifier
+     * @param sourceId the subject source, <code>null</code> for any source
+     * @param stem if not blank only groups in this stem and its sub-stems are returned
+     * @return the groups the subject is a member of
+     */
+    List<WsGroup> getGroupsForSubject(String subjectId, String sourceId, String stem);
+
+    /**
+     * @param groupName fully qualified group name
+     * @param sourceId the subject source, <code>null</code> for members from any source
+     * @return the members of the group, with subject detail
+     */
+    List<WsSubject> getMembers(String groupName, String sourceId);
+
+    /**
+     * @param query the group name to search for
+     * @param exact if true only a group with exactly this name matches, otherwise the name is matched approximately
+     * @param stem if not blank only groups in this stem and its sub-stems are returned
+     * @return the matching groups
+     */
+    List<WsGroup> searchGroups(String query, boolean exact, String stem);
+
+}
@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -70,10 +71,12 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
    private Map groupDefinitions;
    private Map<String, IEntityGroup> groups;
    private Map<String, List> containingGroups;
+   private Map<String, List<GroupDefinition>> ancestorDefinitions;
       
    public PersonAttributesGroupStore() {
       groups = new HashMap<String, IEntityGroup>();
       containingGroups = new HashMap<String, List>();
+      ancestorDefinitions = new HashMap<String, List<GroupDefinition>>();
       try {
          props = new Properties();
          props.load(PersonAttributesGroupStore.class.getResourceAsStream("/properties/groups/pags.properties"));
@@ -85,6 +88,22 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
       }
    }
    
+   /**
+    * Creates a store for group definitions that have already been loaded, 
+    * keyed by group key.
+    */
+   PersonAttributesGroupStore(Map<String, GroupDefinition> groupDefinitions) {
+      groups = new HashMap<String, IEntityGroup>();
+      containingGroups = new HashMap<String, List>();
+      ancestorDefinitions = new HashMap<String, List<GroupDefinition>>();
+      this.groupDefinitions = groupDefinitions;
+      try {
+         initGroups();
+      } catch ( GroupsException e ) {
+         throw new RuntimeException("Problem initializing groups", e);
+      }
+   }
+   
    private IPersonAttributesConfiguration getConfig(String className) throws ClassNotFoundException, InstantiationException, IllegalAccessException {
       Class configClass = Class.forName(className);
       Object o = configClass.newInstance();
@@ -102,12 +121,20 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
        for ( i=groupDefs.iterator(); i.hasNext(); )
        {
            GroupDefinition groupDef = (GroupDefinition) i.next();
-           IEntityGroup group = new EntityTestingGroupImpl(groupDef.getKey(), IPERSON_CLASS);
-           group.setName(groupDef.getName());
-           group.setDescription(groupDef.getDescription());
-           cachePut(group);
+           cachePut(newGroup(groupDef));
        }
        cacheContainingGroupsForGroups();
+       cacheAncestorDefinitionsForGroups();
+   }
+   
+   /**
+    * Creates the group for a definition.
+    */
+   protected IEntityGroup newGroup(GroupDefinition groupDef) throws GroupsException {
+       IEntityGroup group = new EntityTestingGroupImpl(groupDef.getKey(), IPERSON_CLASS);
+       group.setName(groupDef.getName());
+       group.setDescription(groupDef.getDescription());
+       return group;
    }
    
 
@@ -146,23 +173,31 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
              { return false; }
          IPerson person = null;
          try {
-             IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
-             final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
-
-             RestrictedPerson rp = PersonFactory.createRestrictedPerson();
-             if (personAttributes != null) {
-                 rp.setAttributes(personAttributes.getAttributes());
-             }
-             
-             person = rp;
+             person = getPerson(member);
          }
          catch (Exception ex) { 
              log.error("Exception acquiring attributes for member " + member + " while checking if group " + group + " contains this member.", ex);
              return false; 
          }
-         return testRecursively(groupDef, person, member);
+         return testRecursively(groupDef, new PersonTestResults(person), member);
       }
    }
+   
+   /**
+    * Loads the attributes of the member from the person directory into a new
+    * <code>IPerson</code>.
+    */
+   private IPerson getPerson(IGroupMember member) {
+       IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+       final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+
+       RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+       if (personAttributes != null) {
+           rp.setAttributes(personAttributes.getAttributes());
+       }
+       
+       return rp;
+   }
 
    public void delete(IEntityGroup group) throws GroupsException {
       throw new UnsupportedOperationException("PersonAttributesGroupStore: Method delete() not supported.");
@@ -198,33 +233,49 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
            containingGroups.put(childGroup.getLocalKey(), parentGroupsList);
        }
    }
+   
+   /**
+    * Caches the definitions of all direct and indirect parents of each group so
+    * membership tests don't have to walk the group hierarchy.
+    */
+   private void cacheAncestorDefinitionsForGroups() throws GroupsException
+   {
+       for (Iterator<IEntityGroup> i=groups.values().iterator(); i.hasNext();)
+       {
+           IEntityGroup group = i.next();
+           Set<IEntityGroup> allParents = primGetAllContainingGroups(group, new HashSet<IEntityGroup>());
+           List<GroupDefinition> parentDefs = new ArrayList<GroupDefinition>(allParents.size());
+           for (Iterator<IEntityGroup> p=allParents.iterator(); p.hasNext();)
+           {
+               parentDefs.add((GroupDefinition) groupDefinitions.get(p.next().getLocalKey()));
+           }
+           ancestorDefinitions.put(group.getLocalKey(), parentDefs);
+       }
+   }
 
-   private boolean testRecursively(GroupDefinition groupDef, IPerson person,
+   private boolean testRecursively(GroupDefinition groupDef, PersonTestResults testResults,
        IGroupMember member)
    throws GroupsException {
-       if ( ! groupDef.contains(person) )
+       if ( ! testResults.contains(groupDef) )
            { return false;}
        else
        {
-           IEntityGroup group = cacheGet(groupDef.getKey());
-           IEntityGroup parentGroup = null;
-           Set<IEntityGroup> allParents = primGetAllContainingGroups(group, new HashSet<IEntityGroup>());
+           GroupDefinition parentGroupDef = null;
+           List<GroupDefinition> allParents = ancestorDefinitions.get(groupDef.getKey());
            boolean testPassed = true;
-           for (Iterator<IEntityGroup> i=allParents.iterator(); i.hasNext() && testPassed;)
+           for (Iterator<GroupDefinition> i=allParents.iterator(); i.hasNext() && testPassed;)
            {
-               parentGroup = i.next();
-               GroupDefinition parentGroupDef = 
-                 (GroupDefinition) groupDefinitions.get(parentGroup.getLocalKey());
-               testPassed = parentGroupDef.test(person);               
+               parentGroupDef = i.next();
+               testPassed = testResults.test(parentGroupDef);               
            }
            
            if (!testPassed && log.isWarnEnabled()) {
                StringBuffer sb = new StringBuffer();
-               sb.append("PAGS group=").append(group.getKey());
+               sb.append("PAGS group=").append(cacheGet(groupDef.getKey()).getKey());
                sb.append(" contained person=").append(member.getKey());
                sb.append(", but the person failed to be contained in ");
                sb.append("ancesters of this group");
-               sb.append((parentGroup != null ? " (parentGroup="+parentGroup.getKey()+")" : ""));
+               sb.append((parentGroupDef != null ? " (parentGroup="+cacheGet(parentGroupDef.getKey()).getKey()+")" : ""));
                sb.append(". This may indicate a ");
                sb.append("misconfigured PAGS group ");
                sb.append("store. Please check PAGSGroupStoreConfig.xml.");
@@ -240,8 +291,9 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
        while ( i.hasNext() )
        {
            IEntityGroup parentGroup = (IEntityGroup) i.next();
-           s.add(parentGroup);
-           primGetAllContainingGroups(parentGroup, s);
+           // avoid stack overflow in case of circular group dependencies
+           if ( s.add(parentGroup) )
+               { primGetAllContainingGroups(parentGroup, s); }
        }
        return s;
    }
@@ -261,12 +313,31 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
          ? parents.iterator()
          : Collections.EMPTY_LIST.iterator();
    }
+   /**
+    * Finds all of the groups containing the entity in a single pass.  The 
+    * attributes of the person are only retrieved once and the result of each 
+    * tester and group test is reused by every group that shares it.
+    */
    private Iterator<IEntityGroup> findContainingGroupsForEntity(IEntity member)
    throws GroupsException {
        List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+       if (member.getEntityType() != IPERSON_CLASS) 
+           { return results.iterator(); }
+       
+       IPerson person = null;
+       try {
+           person = getPerson(member);
+       }
+       catch (Exception ex) { 
+           log.error("Exception acquiring attributes for member " + member + " while finding the groups that contain this member.", ex);
+           return results.iterator(); 
+       }
+       
+       PersonTestResults testResults = new PersonTestResults(person);
        for (Iterator<IEntityGroup> i = groups.values().iterator(); i.hasNext(); ) {
           IEntityGroup group = i.next();
-          if ( contains(group, member)) 
+          GroupDefinition groupDef = (GroupDefinition) groupDefinitions.get(group.getLocalKey());
+          if ( testRecursively(groupDef, testResults, member) ) 
               { results.add(group); }
        }
        return results.iterator();
@@ -439,6 +510,60 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
       }
    }
 
+   /**
+    * Remembers the results of testing one person so that testers and group 
+    * definitions shared by several groups are only evaluated once.
+    */
+   private static class PersonTestResults {
+      private final IPerson person;
+      private final Map<IPersonTester, Boolean> testerResults = new IdentityHashMap<IPersonTester, Boolean>();
+      private final Map<String, Boolean> groupResults = new HashMap<String, Boolean>();
+      
+      public PersonTestResults(IPerson person) {
+         this.person = person;
+      }
+      
+      /**
+       * @see GroupDefinition#contains(IPerson)
+       */
+      public boolean contains(GroupDefinition groupDef) {
+         return ( groupDef.testGroups.isEmpty() ) ? false : test(groupDef);
+      }
+      
+      /**
+       * @see GroupDefinition#test(IPerson)
+       */
+      public boolean test(GroupDefinition groupDef) {
+         Boolean result = groupResults.get(groupDef.getKey());
+         if (result == null) {
+            result = Boolean.FALSE;
+            if (groupDef.testGroups.isEmpty()) {
+               result = Boolean.TRUE;
+            }
+            for (Iterator<TestGroup> i = groupDef.testGroups.iterator(); i.hasNext() && !result; ) {
+               result = test(i.next());
+            }
+            groupResults.put(groupDef.getKey(), result);
+         }
+         return result;
+      }
+      
+      private boolean test(TestGroup testGroup) {
+         for (Iterator<IPersonTester> i = testGroup.tests.iterator(); i.hasNext(); ) {
+            IPersonTester tester = i.next();
+            Boolean result = testerResults.get(tester);
+            if (result == null) {
+               result = tester.test(person);
+               testerResults.put(tester, result);
+            }
+            if (!result) {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+
    public IEntity newInstance(String key, Class type) throws GroupsException {
       if (EntityTypes.getEntityTypeID(type) == null) {
          throw new GroupsException("Invalid entity type: "+type.getName());
@@ -20,7 +20,9 @@
 package org.jasig.portal.groups.pags;
 
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.jasig.portal.groups.pags.PersonAttributesGroupStore.GroupDefinition;
@@ -44,6 +46,12 @@ import org.w3c.dom.Text;
 public class XMLPersonAttributesConfiguration
    implements IPersonAttributesConfiguration {
 
+   /*
+    * Testers are stateless so groups that declare the same test share a single
+    * instance, which lets the group store evaluate it once per person.
+    */
+   private final Map<List<String>, IPersonTester> testers = new HashMap<List<String>, IPersonTester>();
+
    public Map getConfig() {
       Map groupDefinitions;
       Document config = null;
@@ -143,6 +151,17 @@ public class XMLPersonAttributesConfiguration
       }
    }
    private IPersonTester initializeTester(String tester, String attribute, String value) {
+         List<String> testerKey = Arrays.asList(tester, attribute, value);
+         IPersonTester testerInst = testers.get(testerKey);
+         if (testerInst == null) {
+            testerInst = createTester(tester, attribute, value);
+            if (testerInst != null) {
+               testers.put(testerKey, testerInst);
+            }
+         }
+         return testerInst;
+      }
+   private IPersonTester createTester(String tester, String attribute, String value) {
          try {
             Class testerClass = Class.forName(tester);
             Constructor c = testerClass.getConstructor(new Class[]{String.class, String.class});
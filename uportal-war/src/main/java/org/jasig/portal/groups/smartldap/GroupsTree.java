@@ -0,0 +1,283 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.smartldap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.portal.groups.IEntityGroup;
+
+/**
+ * Immutable, single-object abstraction that contains all knowledge of 
+ * SmartLdap groups:
+ * <ul>
+ *   <li>Map of all groups keyed by 'key' (DN).  Includes the root group.</li>
+ *   <li>Map of all parent relationships keyed by the 'key' (DN) of the child;  
+ *       the values are lists of the 'keys' (DNs) of its parents.  
+ *       Includes the root group.</li>
+ *   <li>Map of all child relationships keyed by the 'key' (DN) of the parent;  
+ *       the values are lists of the 'keys' (DNs) of its children.  
+ *       Includes the root group.</li>
+ *   <li>Map of all 'keys' (DNs) of SmartLdap managed groups indexed by group 
+ *       name in upper case.  Includes the root group.</li>
+ * </ul>
+ * The tree also keeps the {@link LdapRecord}s it was built from.  Changes are 
+ * applied with {@link #withChangedRecords(Collection)}, which builds a new tree 
+ * and leaves this one untouched, so readers never need to synchronize.
+ */
+final class GroupsTree {
+    
+    /**
+     * Creates the groups read from a snapshot.
+     */
+    interface GroupFactory {
+        IEntityGroup createGroup(String key, String name, String description);
+    }
+    
+    // Instance Members.
+    private final IEntityGroup rootGroup;
+    private final Map<String,LdapRecord> records;
+    private final Map<String,IEntityGroup> groups;
+    private final Map<String,List<String>> parents;
+    private final Map<String,List<String>> children;
+    private final Map<String,List<String>> keysByUpperCaseName;
+    
+    /*
+     * Public API.
+     */
+    
+    public static GroupsTree build(IEntityGroup rootGroup, Collection<LdapRecord> records) {
+        
+        // Assertions.
+        if (rootGroup == null) {
+            String msg = "Argument 'rootGroup' cannot be null.";
+            throw new IllegalArgumentException(msg);
+        }
+        if (records == null) {
+            String msg = "Argument 'records' cannot be null.";
+            throw new IllegalArgumentException(msg);
+        }
+        
+        Map<String,LdapRecord> recordsByKey = new LinkedHashMap<String,LdapRecord>();
+        for (LdapRecord r : records) {
+            recordsByKey.put(r.getGroup().getLocalKey(), r);
+        }
+        
+        return new GroupsTree(rootGroup, recordsByKey);
+        
+    }
+    
+    /**
+     * @return A new tree with the changed records added to or replacing the 
+     * records of this tree
+     */
+    public GroupsTree withChangedRecords(Collection<LdapRecord> changedRecords) {
+        
+        Map<String,LdapRecord> recordsByKey = new LinkedHashMap<String,LdapRecord>(records);
+        for (LdapRecord r : changedRecords) {
+            recordsByKey.put(r.getGroup().getLocalKey(), r);
+        }
+        
+        return new GroupsTree(rootGroup, recordsByKey);
+        
+    }
+    
+    /**
+     * @return The records the tree was built from, does not include the root group
+     */
+    public Collection<LdapRecord> getRecords() {
+        return records.values();
+    }
+    
+    public Map<String,IEntityGroup> getGroups() {
+        return groups;
+    }
+
+    public Map<String,List<String>> getParents() {
+        return parents;
+    }
+
+    public Map<String,List<String>> getChildren() {
+        return children;
+    }
+
+    public Map<String,List<String>> getKeysByUpperCaseName() {
+        return keysByUpperCaseName;
+    }
+    
+    /**
+     * Writes the key, name, description and child keys of every record.
+     */
+    public void writeRecords(DataOutput out) throws IOException {
+        out.writeInt(records.size());
+        for (LdapRecord r : records.values()) {
+            IEntityGroup g = r.getGroup();
+            out.writeUTF(g.getLocalKey());
+            out.writeUTF(g.getName());
+            writeNullableUTF(out, g.getDescription());
+            
+            List<String> keysOfChildren = r.getKeysOfChildren();
+            out.writeInt(keysOfChildren.size());
+            for (String childKey : keysOfChildren) {
+                out.writeUTF(childKey);
+            }
+        }
+    }
+    
+    /**
+     * Reads records written by {@link #writeRecords(DataOutput)}.
+     */
+    public static List<LdapRecord> readRecords(DataInput in, GroupFactory groupFactory) throws IOException {
+        int size = in.readInt();
+        List<LdapRecord> rslt = new ArrayList<LdapRecord>(size);
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            String name = in.readUTF();
+            String description = readNullableUTF(in);
+            
+            int childCount = in.readInt();
+            List<String> keysOfChildren = new ArrayList<String>(childCount);
+            for (int c = 0; c < childCount; c++) {
+                keysOfChildren.add(in.readUTF());
+            }
+            
+            rslt.add(new LdapRecord(groupFactory.createGroup(key, name, description), keysOfChildren));
+        }
+        return rslt;
+    }
+    
+    /*
+     * Implementation.
+     */
+    
+    private GroupsTree(IEntityGroup rootGroup, Map<String,LdapRecord> records) {
+        
+        this.rootGroup = rootGroup;
+        this.records = Collections.unmodifiableMap(records);
+        
+        // Prepare the new local indeces...
+        Map<String,IEntityGroup> new_groups = new HashMap<String,IEntityGroup>();
+        Map<String,List<String>> new_parents = new HashMap<String,List<String>>();
+        Map<String,List<String>> new_children = new HashMap<String,List<String>>();
+        Map<String,List<String>> new_keysByUpperCaseName = new HashMap<String,List<String>>();
+        
+        // Do a first loop to build the main catalog (new_groups)...
+        for (LdapRecord r : records.values()) {
+            IEntityGroup g = r.getGroup();
+            new_groups.put(g.getLocalKey(), g);
+        }
+        
+        // Do a second loop to build local indeces...
+        for (LdapRecord r : records.values()) {
+
+            IEntityGroup g = r.getGroup();
+            
+            List<String> childrenList = new ArrayList<String>();
+            for (String childKey : r.getKeysOfChildren()) {
+                
+                // NB:  We're only interested in relationships between 
+                // objects in the main catalog (i.e. new_groups);  
+                // discard everything else...
+                if (!new_groups.containsKey(childKey) || childKey.equals(g.getLocalKey())) {
+                    continue;
+                }
+                
+                // new_parents (I am a parent for all my children)...
+                addToList(new_parents, childKey, g.getLocalKey());
+                
+                // new_children...
+                childrenList.add(childKey);
+                
+            }
+            new_children.put(g.getLocalKey(), Collections.unmodifiableList(childrenList));
+            
+            // new_keysByUpperCaseName...
+            addToList(new_keysByUpperCaseName, g.getName().toUpperCase(), g.getLocalKey());
+            
+        }
+        
+        /*
+         * Now load the root group into the collections...
+         */
+
+        // new_parents (I am a parent for all groups that have no other parent)...
+        List<String> childrenOfRoot = new ArrayList<String>();
+        for (String possibleChildKey : new_groups.keySet()) {
+            if (!new_parents.containsKey(possibleChildKey)) {
+                childrenOfRoot.add(possibleChildKey);
+            }
+        }
+        for (String childKey : childrenOfRoot) {
+            addToList(new_parents, childKey, rootGroup.getLocalKey());
+        }
+        
+        // new_groups (me)...
+        new_groups.put(rootGroup.getLocalKey(), rootGroup);
+
+        // new_children...
+        new_children.put(rootGroup.getLocalKey(), Collections.unmodifiableList(childrenOfRoot));
+        
+        // new_keysByUpperCaseName...
+        addToList(new_keysByUpperCaseName, rootGroup.getName().toUpperCase(), rootGroup.getLocalKey());
+        
+        // Instance Members.
+        this.groups = Collections.unmodifiableMap(new_groups);
+        this.parents = unmodifiableLists(new_parents);
+        this.children = Collections.unmodifiableMap(new_children);
+        this.keysByUpperCaseName = unmodifiableLists(new_keysByUpperCaseName);
+        
+    }
+    
+    private static void addToList(Map<String,List<String>> map, String key, String value) {
+        List<String> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<String>(1);
+            map.put(key, list);
+        }
+        list.add(value);
+    }
+    
+    private static Map<String,List<String>> unmodifiableLists(Map<String,List<String>> map) {
+        for (Map.Entry<String,List<String>> y : map.entrySet()) {
+            y.setValue(Collections.unmodifiableList(y.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+    
+    private static void writeNullableUTF(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+    
+    private static String readNullableUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+}
@@ -19,9 +19,19 @@
 
 package org.jasig.portal.groups.smartldap;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -29,7 +39,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 
+import javax.naming.directory.SearchControls;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.danann.cernunnos.Task;
@@ -48,9 +63,14 @@ import org.jasig.portal.groups.IGroupMember;
 import org.jasig.portal.groups.ILockableEntityGroup;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.security.PersonFactory;
+import org.jasig.portal.spring.locator.ApplicationContextLocator;
 import org.jasig.portal.spring.locator.PersonAttributeDaoLocator;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.scheduling.TaskScheduler;
 
 public final class SmartLdapGroupStore implements IEntityGroupStore {
 		
@@ -58,17 +78,63 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     private ApplicationContext spring_context = null;
     
     /**
-     * Period after which SmartLdap will drop and rebuild the groups tree.  May 
+     * Period after which SmartLdap will refresh the groups tree.  May 
      * be overridden in SmartLdapGroupStoreConfix.xml.  A value of zero or less 
      * (negative) disables this feature.
      */
     private long groupsTreeRefreshIntervalSeconds = 900;  // default
 
+    /**
+     * If true, refreshes only read the groups changed since the previous 
+     * refresh and apply them to the existing tree.  May be overridden in 
+     * SmartLdapGroupStoreConfix.xml.
+     */
+    private boolean incrementalRefresh = false;  // default
+
+    /**
+     * Name of the LDAP attribute holding the time a group was last modified, 
+     * used by incremental refreshes.  May be overridden in 
+     * SmartLdapGroupStoreConfix.xml.
+     */
+    private String modifyTimestampAttributeName = "modifyTimestamp";  // default
+
+    /**
+     * Period after which an incremental refresh is replaced by a full rebuild 
+     * of the groups tree, which picks up deleted and renamed groups.  May be 
+     * overridden in SmartLdapGroupStoreConfix.xml.
+     */
+    private long groupsTreeFullRefreshIntervalSeconds = 86400;  // default
+
+    /**
+     * File the groups tree is saved to after each refresh and restored from 
+     * when the store is first used.  Null (the default) disables the 
+     * snapshot;  set it in SmartLdapGroupStoreConfix.xml to a file in a 
+     * directory only the portal can write to.
+     */
+    private File groupsTreeSnapshotFile = null;
+
     /**
      * Timestamp (milliseconds) of the last tree refresh.
      */
     private volatile long lastTreeRefreshTime = 0;
 
+    /**
+     * Timestamp (milliseconds) of the start of the last full rebuild of the tree.
+     */
+    private volatile long lastFullRefreshTime = 0;
+
+    /**
+     * Timestamp (milliseconds) of the start of the last successful refresh;  
+     * incremental refreshes read the groups changed since this time.
+     */
+    private volatile long lastSyncTime = 0;
+
+    /**
+     * True once refreshes have been scheduled on the portal's task scheduler.
+     */
+    private volatile boolean refreshScheduled = false;
+
+    private final Object refreshLock = new Object();
     private final ScriptRunner runner;
     private final Task initTask;
     private final Log log = LogFactory.getLog(getClass());
@@ -78,20 +144,10 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
      */
     
     /**
-     * Single-object abstraction that contains all knowledge of SmartLdap groups:
-     * <ul>
-     *   <li>Map of all groups keyed by 'key' (DN).  Includes ROOT_GROUP.</li>
-     *   <li>Map of all parent relationships keyed by the 'key' (DN) of the child;  
-     *       the values are lists of the 'keys' (DNs) of its parents.  
-     *       Includes ROOT_GROUP.</li>
-     *   <li>Map of all child relationships keyed by the 'key' (DN) of the parent;  
-     *       the values are lists of the 'keys' (DNs) of its children.  
-     *       Includes ROOT_GROUP.</li>
-     *   <li>Map of all 'keys' (DNs) of SmartLdap managed groups indexed by group 
-     *       name in upper case.  Includes ROOT_GROUP.</li>
-     * </ul>
+     * Single-object abstraction that contains all knowledge of SmartLdap 
+     * groups.  The tree is immutable;  refreshes replace it.
      */
-    private GroupsTree groupsTree;
+    private volatile GroupsTree groupsTree;
 
     /*
      * Public API.
@@ -105,6 +161,11 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     public static final String ROOT_DESC = "A root group provided for the SmartLdapGroupStore.";
 
     public static final IEntityGroup ROOT_GROUP = createRootGroup();
+    
+    private static final String TASK_SCHEDULER_BEAN_NAME = "uPortalTaskScheduler";
+    private static final String GENERALIZED_TIME_FORMAT = "yyyyMMddHHmmss'.0Z'";
+    private static final long INCREMENTAL_REFRESH_OVERLAP_MILLIS = 5 * 60 * 1000L;
+    private static final int SNAPSHOT_VERSION = 1;
 
     public boolean contains(IEntityGroup group, IGroupMember member) throws GroupsException {
         log.warn("Unsupported method accessed:  SmartLdapGroupStore.contains");
@@ -467,6 +528,21 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
 		if (spring_context.containsBean("groupsTreeRefreshIntervalSeconds")) {
 		    groupsTreeRefreshIntervalSeconds = (Long) spring_context.getBean("groupsTreeRefreshIntervalSeconds");
 		}
+		
+		// Incremental refresh & snapshot settings
+		if (spring_context.containsBean("incrementalRefresh")) {
+		    incrementalRefresh = (Boolean) spring_context.getBean("incrementalRefresh");
+		}
+		if (spring_context.containsBean("modifyTimestampAttributeName")) {
+		    modifyTimestampAttributeName = (String) spring_context.getBean("modifyTimestampAttributeName");
+		}
+		if (spring_context.containsBean("groupsTreeFullRefreshIntervalSeconds")) {
+		    groupsTreeFullRefreshIntervalSeconds = (Long) spring_context.getBean("groupsTreeFullRefreshIntervalSeconds");
+		}
+		if (spring_context.containsBean("groupsTreeSnapshotFile")) {
+		    String snapshotFile = (String) spring_context.getBean("groupsTreeSnapshotFile");
+		    groupsTreeSnapshotFile = StringUtils.isNotBlank(snapshotFile) ? new File(snapshotFile) : null;
+		}
 
 		// Cernunnos tech...
 		runner = new ScriptRunner();
@@ -487,6 +563,11 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             return false;
         }
         
+        if (refreshScheduled) {
+            // The portal's task scheduler takes care of refreshes.
+            return false;
+        }
+        
         // The 'lastTreeRefreshTime' member variable is volatile.  As of JDK 5, 
         // this fact should make reads of this variable dependable in a multi-
         // threaded environment.
@@ -497,7 +578,11 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
 
     /**
      * Verifies that the collection of groups needs rebuilding and, if so, 
-     * spawns a new worker <code>Thread</code> for that purpose.
+     * refreshes it.  When there is no tree yet it is restored from the 
+     * snapshot or, failing that, built in the calling thread;  later 
+     * refreshes are scheduled on the portal's task scheduler.  If the 
+     * scheduler isn't available a new worker <code>Thread</code> is 
+     * spawned for each refresh.
      */
     private synchronized void refreshTree() {
         
@@ -509,49 +594,110 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         
         log.info("Refreshing groups tree for SmartLdap");
         
-        // We must join the builder thread if
-        // we don't have an existing groupsTree.
-        final boolean doJoin = groupsTree == null;
+        if (groupsTree == null) {
+            
+            // We can't answer anything without a groupsTree;  a snapshot 
+            // spares us from waiting for a full LDAP crawl.
+            final boolean restored = readSnapshot();
+            if (!restored) {
+                log.info("Building the SmartLdap groups tree in the current thread");
+                refreshTreeNow();
+            }
+            
+            // Even if the refresh failed, don't try 
+            // again for another groupsTreeRefreshIntervalSeconds.
+            lastTreeRefreshTime = System.currentTimeMillis();
+            
+            if (groupsTreeRefreshIntervalSeconds > 0 && !refreshScheduled) {
+                // A restored tree is brought up to date right away.
+                final long initialDelay = restored ? 0 : groupsTreeRefreshIntervalSeconds * 1000L;
+                refreshScheduled = scheduleRefreshes(initialDelay);
+            }
+            return;
+            
+        }
         
-        // In most cases, re-build the tree in a separate thread;  the current 
-        // request can proceed with the newly-expired groupsTree.
+        // The current request can proceed with the newly-expired groupsTree.
         Thread refresh = new Thread("SmartLdap Refresh Worker") {
             public void run() {
-                // Replace the old with the new...
-                try {
-                    groupsTree = buildGroupsTree();
-                } catch (Throwable t) {
-                    log.error("SmartLdapGroupStore failed to build the groups tree", t);
-                }
+                refreshTreeNow();
             }
         };
         refresh.setDaemon(true);
         refresh.start();
-        if (doJoin) {
-            try {
-                log.info("Joining the SmartLdap Refresh Worker Thread");
-                refresh.join();
-            } catch (InterruptedException ie) {
-                throw new RuntimeException(ie);
-            }
-        }
         
         // Even if the refresh thread failed, don't try 
         // again for another groupsTreeRefreshIntervalSeconds.
         lastTreeRefreshTime = System.currentTimeMillis();
 
     }
+    
+    /**
+     * Schedules periodic refreshes on the portal's task scheduler.
+     * 
+     * @return false if the task scheduler isn't available
+     */
+    private boolean scheduleRefreshes(long initialDelay) {
+        
+        final TaskScheduler taskScheduler;
+        try {
+            final ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
+            if (!applicationContext.containsBean(TASK_SCHEDULER_BEAN_NAME)) {
+                log.info("No '" + TASK_SCHEDULER_BEAN_NAME + "' bean is available, SmartLdap will refresh the groups tree in worker threads");
+                return false;
+            }
+            taskScheduler = applicationContext.getBean(TASK_SCHEDULER_BEAN_NAME, TaskScheduler.class);
+        } catch (RuntimeException re) {
+            log.warn("Failed to find the portal task scheduler, SmartLdap will refresh the groups tree in worker threads", re);
+            return false;
+        }
+        
+        taskScheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refreshTreeNow();
+            }
+        }, new Date(System.currentTimeMillis() + initialDelay), groupsTreeRefreshIntervalSeconds * 1000L);
+        
+        return true;
+
+    }
+    
+    /**
+     * Refreshes the groups tree in the current thread, incrementally if that's 
+     * enabled and a full rebuild isn't due, and saves the snapshot.
+     */
+    private void refreshTreeNow() {
+        
+        synchronized (refreshLock) {
+            
+            final long timestamp = System.currentTimeMillis();
+            try {
+                final GroupsTree current = groupsTree;
+                final boolean fullRefreshDue = timestamp > lastFullRefreshTime + (groupsTreeFullRefreshIntervalSeconds * 1000L);
+                if (incrementalRefresh && current != null && lastSyncTime > 0 && !fullRefreshDue) {
+                    // Replace the old with the patched...
+                    groupsTree = refreshGroupsTree(current, lastSyncTime);
+                } else {
+                    // Replace the old with the new...
+                    groupsTree = buildGroupsTree();
+                    lastFullRefreshTime = timestamp;
+                }
+                lastSyncTime = timestamp;
+            } catch (Throwable t) {
+                log.error("SmartLdapGroupStore failed to build the groups tree", t);
+                return;
+            }
+            
+            writeSnapshot();
+            
+        }
+
+    }
 
     private GroupsTree buildGroupsTree() {
         
         long timestamp = System.currentTimeMillis();
         
-        // Prepare the new local indeces...
-        Map<String,IEntityGroup> new_groups = Collections.synchronizedMap(new HashMap<String,IEntityGroup>());
-        Map<String,List<String>> new_parents = Collections.synchronizedMap(new HashMap<String,List<String>>());
-        Map<String,List<String>> new_children = Collections.synchronizedMap(new HashMap<String,List<String>>());
-        Map<String,List<String>> new_keysByUpperCaseName = Collections.synchronizedMap(new HashMap<String,List<String>>());
-
         // Gather IEntityGroup objects from LDAP...
         RuntimeRequestResponse req = new RuntimeRequestResponse();
         Set<LdapRecord> set = new HashSet<LdapRecord>();
@@ -570,121 +716,134 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             log.info(msg);
         }
         
-        // Do a first loop to build the main catalog (new_groups)...
-        for (LdapRecord r : set) {
-            
-            // new_groups (me)...
-            IEntityGroup g = r.getGroup();
-            new_groups.put(g.getLocalKey(), g);
+        GroupsTree rslt = GroupsTree.build(ROOT_GROUP, set);
 
+        if (log.isInfoEnabled()) {
+            long benchmark = System.currentTimeMillis() - timestamp;
+            log.info("Refresh of groups tree completed in " + benchmark + " milliseconds");
+            log.info("Total number of LDAP queries:  " + (queryCounter.getCount() + 1));
+            logTreeSize(rslt);
         }
         
-        // Do a second loop to build local indeces...
-        for (LdapRecord r : set) {
-
-            IEntityGroup g = r.getGroup();
-
-            // new_parents (I am a parent for all my children)...
-            for (String childKey : r.getKeysOfChildren()) {
-                
-                // NB:  We're only interested in relationships between 
-                // objects in the main catalog (i.e. new_groups);  
-                // discard everything else...
-                if (!new_groups.containsKey(childKey)) {
-                    break;
-                }
+        logTreeContents(rslt);
 
-                List<String> parentsList = new_parents.get(childKey);
-                if (parentsList == null) {
-                    // first parent for this child...
-                    parentsList = Collections.synchronizedList(new LinkedList<String>());
-                    new_parents.put(childKey, parentsList);
-                }
-                parentsList.add(g.getLocalKey());
+        return rslt;
 
+    }
+    
+    /**
+     * Reads the groups modified since the specified time and applies them to 
+     * the current tree.  Deleted groups and groups that were added to a group 
+     * without being modified themselves are picked up by the next full rebuild.
+     */
+    private GroupsTree refreshGroupsTree(GroupsTree current, long since) {
+        
+        long timestamp = System.currentTimeMillis();
+        
+        // Overlap the previous refresh to allow for clock differences and 
+        // replication delays;  applying a record twice does no harm.
+        final SimpleDateFormat generalizedTime = new SimpleDateFormat(GENERALIZED_TIME_FORMAT);
+        generalizedTime.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final String modifiedSince = generalizedTime.format(new Date(since - INCREMENTAL_REFRESH_OVERLAP_MILLIS));
+        final String changedFilter = "(&" + spring_context.getBean("filter") + "(" 
+                                    + modifyTimestampAttributeName + ">=" + modifiedSince + "))";
+        
+        final LdapTemplate ldapTemplate = new LdapTemplate((ContextSource) spring_context.getBean("ldapContext"));
+        final AttributesMapper attributesMapper = (AttributesMapper) spring_context.getBean("attributesMapper");
+        
+        // Groups under the baseDn...
+        final List<LdapRecord> changed = new ArrayList<LdapRecord>();
+        changed.addAll(searchRecords(ldapTemplate, (String) spring_context.getBean("baseDn"), changedFilter, attributesMapper));
+        int queryCount = 1;
+
+        // Member groups found under the resolveDns, only if they're already 
+        // in the tree or are members of a group that is...
+        if (spring_context.containsBean("resolveMemberGroups") && (Boolean) spring_context.getBean("resolveMemberGroups")) {
+            final Set<String> memberKeys = new HashSet<String>();
+            for (LdapRecord r : current.getRecords()) {
+                memberKeys.addAll(r.getKeysOfChildren());
             }
-            
-            // new_children...
-            List<String> childrenList = Collections.synchronizedList(new LinkedList<String>());
-            for (String childKey : r.getKeysOfChildren()) {
-                // NB:  We're only interested in relationships between 
-                // objects in the main catalog (i.e. new_groups);  
-                // discard everything else...
-                if (new_groups.containsKey(childKey)) {
-                    childrenList.add(childKey);
-                }
-            }
-            new_children.put(g.getLocalKey(), childrenList);
-            
-            // new_keysByUpperCaseName...
-            List<String> groupsWithMyName = new_keysByUpperCaseName.get(g.getName().toUpperCase());
-            if (groupsWithMyName == null) {
-                // I am the first group with my name (pretty likely)...
-                groupsWithMyName = Collections.synchronizedList(new LinkedList<String>());
-                new_keysByUpperCaseName.put(g.getName().toUpperCase(), groupsWithMyName);
+            for (LdapRecord r : changed) {
+                memberKeys.addAll(r.getKeysOfChildren());
             }
-            groupsWithMyName.add(g.getLocalKey());
             
-        }       
-        
-        /*
-         * Now load the ROOT_GROUP into the collections...
-         */
-
-        // new_groups (me)...
-        new_groups.put(ROOT_GROUP.getLocalKey(), ROOT_GROUP);
-
-        // new_parents (I am a parent for all groups that have no other parent)...
-        List<String> childrenOfRoot = Collections.synchronizedList(new LinkedList<String>());   // for later...
-        for (String possibleChildKey : new_groups.keySet()) {
-            if (!possibleChildKey.equals(ROOT_GROUP.getLocalKey()) && !new_parents.containsKey(possibleChildKey)) {
-                List<String> p = Collections.synchronizedList(new LinkedList<String>());
-                p.add(ROOT_GROUP.getLocalKey());
-                new_parents.put(possibleChildKey, p);
-                childrenOfRoot.add(possibleChildKey);   // for later...
+            for (String resolveDn : getResolveDns()) {
+                for (LdapRecord r : searchRecords(ldapTemplate, resolveDn, changedFilter, attributesMapper)) {
+                    final String key = r.getGroup().getLocalKey();
+                    if (current.getGroups().containsKey(key) || memberKeys.contains(key)) {
+                        changed.add(r);
+                    }
+                }
+                queryCount++;
             }
         }
         
-        // new_children...
-        new_children.put(ROOT_GROUP.getLocalKey(), childrenOfRoot);
+        if (log.isInfoEnabled()) {
+            log.info("Incremental refresh found " + changed.size() + " groups modified since " + modifiedSince);
+        }
         
-        // new_keysByUpperCaseName...
-        List<String> groupsWithMyName = new_keysByUpperCaseName.get(ROOT_GROUP.getName().toUpperCase());
-        if (groupsWithMyName == null) {
-            // I am the first group with my name (pretty likely)...
-            groupsWithMyName = Collections.synchronizedList(new LinkedList<String>());
-            new_keysByUpperCaseName.put(ROOT_GROUP.getName().toUpperCase(), groupsWithMyName);
+        if (changed.isEmpty()) {
+            return current;
         }
-        groupsWithMyName.add(ROOT_GROUP.getLocalKey());
-
+        
+        GroupsTree rslt = current.withChangedRecords(changed);
+        
         if (log.isInfoEnabled()) {
             long benchmark = System.currentTimeMillis() - timestamp;
-            log.info("Refresh of groups tree completed in " + benchmark + " milliseconds");
-            log.info("Total number of LDAP queries:  " + (queryCounter.getCount() + 1));
-            String msg = "init() :: final size of each collection is as follows..."
-                            + "\n\tgroups=" + new_groups.size()
-                            + "\n\tparents=" + new_parents.size()
-                            + "\n\tchildren=" + new_children.size()
-                            + "\n\tkeysByUpperCaseName=" + new_keysByUpperCaseName.size();
-            log.info(msg);
+            log.info("Incremental refresh of groups tree completed in " + benchmark + " milliseconds");
+            log.info("Total number of LDAP queries:  " + queryCount);
+            logTreeSize(rslt);
+        }
+        
+        logTreeContents(rslt);
+        
+        return rslt;
+
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<LdapRecord> searchRecords(LdapTemplate ldapTemplate, String base, String filter, AttributesMapper attributesMapper) {
+        return ldapTemplate.search(base, filter, SearchControls.SUBTREE_SCOPE, attributesMapper);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<String> getResolveDns() {
+        if (spring_context.containsBean("resolveDnList")) {
+            return (List<String>) spring_context.getBean("resolveDnList");
+        }
+        if (spring_context.containsBean("resolveDn")) {
+            return Collections.singletonList((String) spring_context.getBean("resolveDn"));
         }
+        return Collections.emptyList();
+    }
+    
+    private void logTreeSize(GroupsTree tree) {
+        String msg = "init() :: final size of each collection is as follows..."
+                        + "\n\tgroups=" + tree.getGroups().size()
+                        + "\n\tparents=" + tree.getParents().size()
+                        + "\n\tchildren=" + tree.getChildren().size()
+                        + "\n\tkeysByUpperCaseName=" + tree.getKeysByUpperCaseName().size();
+        log.info(msg);
+    }
+    
+    private void logTreeContents(GroupsTree tree) {
         
         if (log.isTraceEnabled()) {
             
             StringBuilder msg = new StringBuilder();
 
-            // new_groups...
+            // groups...
             msg.setLength(0);
-            msg.append("Here are the keys of the new_groups collection:");
-            for (String s : new_groups.keySet()) {
+            msg.append("Here are the keys of the groups collection:");
+            for (String s : tree.getGroups().keySet()) {
                 msg.append("\n\t").append(s);
             }
             log.trace(msg.toString());
             
-            // new_parents...
+            // parents...
             msg.setLength(0);
-            msg.append("Here are the parents of each child in the new_parents collection:");
-            for (Map.Entry<String,List<String>> y : new_parents.entrySet()) {
+            msg.append("Here are the parents of each child in the parents collection:");
+            for (Map.Entry<String,List<String>> y : tree.getParents().entrySet()) {
                 msg.append("\n\tchild=").append(y.getKey());
                 for (String s : y.getValue()) {
                     msg.append("\n\t\tparent=").append(s);
@@ -692,10 +851,10 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             }
             log.trace(msg.toString());
             
-            // new_children...
+            // children...
             msg.setLength(0);
-            msg.append("Here are the children of each parent in the new_children collection:");
-            for (Map.Entry<String,List<String>> y : new_children.entrySet()) {
+            msg.append("Here are the children of each parent in the children collection:");
+            for (Map.Entry<String,List<String>> y : tree.getChildren().entrySet()) {
                 msg.append("\n\tparent=").append(y.getKey());
                 for (String s : y.getValue()) {
                     msg.append("\n\t\tchild=").append(s);
@@ -703,9 +862,9 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             }
             log.trace(msg.toString());
             
-            // new_keysByUpperCaseName...
-            msg.append("Here are the groups that have each name in the new_keysByUpperCaseName collection:");
-            for (Map.Entry<String,List<String>> y : new_keysByUpperCaseName.entrySet()) {
+            // keysByUpperCaseName...
+            msg.append("Here are the groups that have each name in the keysByUpperCaseName collection:");
+            for (Map.Entry<String,List<String>> y : tree.getKeysByUpperCaseName().entrySet()) {
                 msg.append("\n\tname=").append(y.getKey());
                 for (String s : y.getValue()) {
                     msg.append("\n\t\tgroup=").append(s);
@@ -715,9 +874,102 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             
         }
 
-        return new GroupsTree(new_groups, new_parents, new_children, new_keysByUpperCaseName);
+    }
+    
+    /**
+     * Restores the groups tree from the snapshot file, if there is one that 
+     * was written for the current baseDn and filter.
+     * 
+     * @return true if the tree was restored
+     */
+    private boolean readSnapshot() {
+        
+        if (groupsTreeSnapshotFile == null || !groupsTreeSnapshotFile.exists()) {
+            return false;
+        }
+        
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(groupsTreeSnapshotFile)));
+            if (in.readInt() != SNAPSHOT_VERSION || !getSnapshotSource().equals(in.readUTF())) {
+                log.info("Ignoring SmartLdap groups tree snapshot from a different version or configuration:  " + groupsTreeSnapshotFile);
+                return false;
+            }
+            final long snapshotFullRefreshTime = in.readLong();
+            final long snapshotSyncTime = in.readLong();
+            
+            final List<LdapRecord> records = GroupsTree.readRecords(in, new GroupsTree.GroupFactory() {
+                public IEntityGroup createGroup(String key, String name, String description) {
+                    try {
+                        IEntityGroup g = new EntityTestingGroupImpl(key, IPerson.class);
+                        g.setCreatorID("System");
+                        g.setName(name);
+                        g.setDescription(description);
+                        return g;
+                    } catch (GroupsException ge) {
+                        throw new RuntimeException("Failed to create group " + key, ge);
+                    }
+                }
+            });
+            
+            groupsTree = GroupsTree.build(ROOT_GROUP, records);
+            lastFullRefreshTime = snapshotFullRefreshTime;
+            lastSyncTime = snapshotSyncTime;
+            
+            log.info("Restored SmartLdap groups tree with " + records.size() + " groups from " + groupsTreeSnapshotFile);
+            return true;
+        } catch (Exception e) {
+            log.warn("Failed to read SmartLdap groups tree snapshot from " + groupsTreeSnapshotFile + ", the tree will be built from LDAP", e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
 
     }
+    
+    /**
+     * Saves the current groups tree to the snapshot file.
+     */
+    private void writeSnapshot() {
+        
+        final GroupsTree tree = groupsTree;
+        if (groupsTreeSnapshotFile == null || tree == null) {
+            return;
+        }
+        
+        // Write to a temp file and rename so a partially written snapshot is never read
+        final File tempFile = new File(groupsTreeSnapshotFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(getSnapshotSource());
+            out.writeLong(lastFullRefreshTime);
+            out.writeLong(lastSyncTime);
+            tree.writeRecords(out);
+            out.close();
+            out = null;
+            
+            if (!tempFile.renameTo(groupsTreeSnapshotFile)) {
+                groupsTreeSnapshotFile.delete();
+                if (!tempFile.renameTo(groupsTreeSnapshotFile)) {
+                    log.warn("Failed to rename " + tempFile + " to " + groupsTreeSnapshotFile + ", no SmartLdap groups tree snapshot was written");
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn("Failed to write SmartLdap groups tree snapshot to " + groupsTreeSnapshotFile, ioe);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+    }
+    
+    /**
+     * Identifies the LDAP configuration a snapshot was written for.
+     */
+    private String getSnapshotSource() {
+        return spring_context.getBean("baseDn") + "|" + spring_context.getBean("filter");
+    }
 
     /*
      * Nested Types.
@@ -741,66 +993,6 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     
     }
     
-    private static final class GroupsTree {
-        
-        // Instance Members.
-        private final Map<String,IEntityGroup> groups;
-        private final Map<String,List<String>> parents;
-        private final Map<String,List<String>> children;
-        private final Map<String,List<String>> keysByUpperCaseName;
-        
-        /*
-         * Public API.
-         */
-        
-        public GroupsTree(Map<String,IEntityGroup> groups, Map<String,List<String>> parents, 
-                                Map<String,List<String>> children, 
-                                Map<String,List<String>> keysByUpperCaseName) {
-            
-            // Assertions.
-            if (groups == null) {
-                String msg = "Argument 'groups' cannot be null.";
-                throw new IllegalArgumentException(msg);
-            }
-            if (parents == null) {
-                String msg = "Argument 'parents' cannot be null.";
-                throw new IllegalArgumentException(msg);
-            }
-            if (children == null) {
-                String msg = "Argument 'children' cannot be null.";
-                throw new IllegalArgumentException(msg);
-            }
-            if (keysByUpperCaseName == null) {
-                String msg = "Argument 'keysByUpperCaseName' cannot be null.";
-                throw new IllegalArgumentException(msg);
-            }
-            
-            // Instance Members.
-            this.groups = groups;
-            this.parents = parents;
-            this.children = children;
-            this.keysByUpperCaseName = keysByUpperCaseName;
-
-        }
-        
-        public Map<String,IEntityGroup> getGroups() {
-            return groups;
-        }
-
-        public Map<String,List<String>> getParents() {
-            return parents;
-        }
-
-        public Map<String,List<String>> getChildren() {
-            return children;
-        }
-
-        public Map<String,List<String>> getKeysByUpperCaseName() {
-            return keysByUpperCaseName;
-        }
-
-    }
-    
     private static final class SubQueryCounter {
         
         private int count = 0;
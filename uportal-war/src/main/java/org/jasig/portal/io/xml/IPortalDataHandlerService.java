@@ -20,6 +20,7 @@
 package org.jasig.portal.io.xml;
 
 import java.io.File;
+import java.util.Date;
 import java.util.Set;
 
 import javax.xml.transform.Result;
@@ -84,6 +85,13 @@ public interface IPortalDataHandlerService {
      * Options that control behavior of batch export operations
      */
     public class BatchExportOptions extends BatchOptions {
+        private Date changedSince = null;
+        
+        public BatchExportOptions setChangedSince(Date changedSince) {
+            this.changedSince = changedSince;
+            return this;
+        }
+        
         @Override
         public BatchExportOptions setFailOnError(boolean failOnError) {
             super.setFailOnError(failOnError);
@@ -99,6 +107,16 @@ public interface IPortalDataHandlerService {
             super.setLogDirectoryParent(logDirectoryParent);
             return this;
         }
+        
+        /**
+         * @return If set only data changed after this time is exported for the data types that track changes,
+         * and a list of the data deleted since then is written with the export. Changes recorded shortly
+         * before this time are also exported, see org.jasig.portal.io.changedSinceOverlapSeconds in
+         * portal.properties. Defaults to null.
+         */
+        public final Date getChangedSince() {
+            return this.changedSince;
+        }
     }
     /**
      * Options that control behavior of batch operations
@@ -135,9 +153,9 @@ public interface IPortalDataHandlerService {
     }
     
     /**
-     * Import a batch of files from a directory.
+     * Import a batch of files from a directory or from a zip archive with the same layout.
      * 
-     * @param directory Base directory to import from
+     * @param directory Base directory to import from, or a file ending in .zip to import its entries
      * @param pattern Optional ant path matcher pattern used for matching files to import. If not specified the default pattern set is used
      * @param options Optional set of options to better control the import
      */
@@ -197,7 +215,7 @@ public interface IPortalDataHandlerService {
      * Export all the portal data for each type and save it to the specified directory
      * 
      * @param typeIds TypeIds from {@link #getExportPortalDataTypes()} to export all data for
-     * @param directory Directory to save exported data to
+     * @param directory Directory to save exported data to, if the name ends in .zip a single zip archive with the same layout is written instead
      * @param options Optional set of options to better control the export
      */
     public void exportAllDataOfType(Set<String> typeIds, File directory, BatchExportOptions options);
@@ -205,7 +223,7 @@ public interface IPortalDataHandlerService {
     /**
      * Export all portal data for all data type and save it to the specified directory
      * 
-     * @param directory Directory to save exported data to
+     * @param directory Directory to save exported data to, if the name ends in .zip a single zip archive with the same layout is written instead
      * @param options Optional set of options to better control the export
      */
     public void exportAllData(File directory, BatchExportOptions options);
@@ -20,8 +20,8 @@
 package org.jasig.portal.io.xml;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,6 +30,7 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -66,6 +67,10 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.tools.ant.DirectoryScanner;
 import org.jasig.portal.concurrency.CallableWithoutResult;
+import org.jasig.portal.io.xml.change.IPortalDataChange;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.io.xml.layout.LayoutPortalDataType;
+import org.jasig.portal.layout.dlm.ConfigurationLoader;
 import org.jasig.portal.utils.AntPatternFileFilter;
 import org.jasig.portal.utils.ConcurrentDirectoryScanner;
 import org.jasig.portal.utils.PeriodicFlushingBufferedWriter;
@@ -75,10 +80,12 @@ import org.jasig.portal.xml.StaxUtils;
 import org.jasig.portal.xml.XmlUtilities;
 import org.jasig.portal.xml.XmlUtilitiesImpl;
 import org.jasig.portal.xml.stream.BufferedXMLEventReader;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ResourceLoaderAware;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
@@ -89,7 +96,9 @@ import org.springframework.oxm.XmlMappingException;
 import org.springframework.stereotype.Service;
 import org.w3c.dom.Node;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
 
 /**
@@ -108,11 +117,23 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
 	private static final ThreadLocal<String> IMPORT_BASE_DIR = new ThreadLocal<String>();
 	
 	private static final String REPORT_FORMAT = "%s,%s,%.2fms\n";
+	
+	private static final long PROGRESS_REPORT_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+	
+	/**
+	 * Written by incremental exports, lists the data deleted since the previous export
+	 */
+	static final String DELETED_DATA_MANIFEST = "deleted-data.txt";
     
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     // Order in which data must be imported
+    private List<IPortalDataType> dataTypeImportOrder = Collections.emptyList();
     private List<PortalDataKey> dataKeyImportOrder = Collections.emptyList();
+    // Data types that must be imported before each data type, types not listed depend on every type before them in the order
+    private Map<IPortalDataType, List<IPortalDataType>> dataTypeImportDependencies = Collections.emptyMap();
+    // Keys that must be imported before each PortalDataKey, includes indirect dependencies
+    private Map<PortalDataKey, Set<PortalDataKey>> dataKeyDependencies = Collections.emptyMap();
     // Map to lookup the associated IPortalDataType for each known PortalDataKey
     private Map<PortalDataKey, IPortalDataType> dataKeyTypes = Collections.emptyMap();
     
@@ -131,6 +152,8 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
     private Set<IPortalDataType> exportPortalDataTypes = Collections.emptySet();
     // Data exporters mapped by IPortalDateType#getTypeId()
     private Map<String, IDataExporter<Object>> portalDataExporters = Collections.emptyMap();
+    // Type ids of the data types whose changes are recorded by the portalDataChangeDao
+    private Set<String> changeTrackedDataTypeIds = Collections.emptySet();
     
     // All portal data types available for delete
     private Set<IPortalDataType> deletePortalDataTypes = Collections.emptySet();
@@ -142,7 +165,10 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
     private ExecutorService importExportThreadPool;
     private XmlUtilities xmlUtilities;
     private ResourceLoader resourceLoader;
+    private IPortalDataChangeDao portalDataChangeDao;
+    private ConfigurationLoader configurationLoader;
     
+    private long changedSinceOverlap = TimeUnit.MINUTES.toMillis(10);
     private long maxWait = -1;
     private TimeUnit maxWaitTimeUnit = TimeUnit.MILLISECONDS;
 
@@ -151,6 +177,29 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
         this.xmlUtilities = xmlUtilities;
     }
     
+    @Autowired
+    public void setPortalDataChangeDao(IPortalDataChangeDao portalDataChangeDao) {
+        this.portalDataChangeDao = portalDataChangeDao;
+    }
+    
+    @Autowired
+    public void setConfigurationLoader(ConfigurationLoader configurationLoader) {
+        this.configurationLoader = configurationLoader;
+    }
+    
+    /**
+     * When only changed data is exported changes recorded up to this many seconds before the
+     * requested time are also included. Change times are assigned by the portal servers when
+     * the change is written, so a change made by a transaction that was still running when the
+     * previous export started, by a server with a skewed clock, or rounded down by the database
+     * can carry a time before that export. Must be larger than the longest such delay, data
+     * exported twice is harmless as imports replace existing data.
+     */
+    @Value("${org.jasig.portal.io.changedSinceOverlapSeconds:600}")
+    public void setChangedSinceOverlapSeconds(int changedSinceOverlapSeconds) {
+        this.changedSinceOverlap = TimeUnit.SECONDS.toMillis(changedSinceOverlapSeconds);
+    }
+    
     @Autowired
     public void setImportExportThreadPool(@Qualifier("importExportThreadPool") ExecutorService importExportThreadPool) {
         this.importExportThreadPool = importExportThreadPool;
@@ -188,8 +237,68 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
         }
         
         dataKeyImportOrder.trimToSize();
+        this.dataTypeImportOrder = Collections.unmodifiableList(new ArrayList<IPortalDataType>(dataTypeImportOrder));
         this.dataKeyImportOrder = Collections.unmodifiableList(dataKeyImportOrder);
         this.dataKeyTypes = Collections.unmodifiableMap(dataKeyTypes);
+        this.dataKeyDependencies = this.buildDataKeyDependencies();
+    }
+    
+    /**
+     * Data types that must be completely imported before each data type is imported. Data types
+     * without an entry depend on every data type before them in the import order. Every dependency
+     * must come before the data type in the import order.
+     */
+    @javax.annotation.Resource(name="dataTypeImportDependencies")
+    public void setDataTypeImportDependencies(Map<IPortalDataType, List<IPortalDataType>> dataTypeImportDependencies) {
+        this.dataTypeImportDependencies = dataTypeImportDependencies;
+        this.dataKeyDependencies = this.buildDataKeyDependencies();
+    }
+    
+    /**
+     * Expands the data type dependencies into the keys each {@link PortalDataKey} must wait for. Keys
+     * of the same data type are imported in their listed order.
+     */
+    private Map<PortalDataKey, Set<PortalDataKey>> buildDataKeyDependencies() {
+        final Map<IPortalDataType, Set<IPortalDataType>> typeDependencies = new LinkedHashMap<IPortalDataType, Set<IPortalDataType>>();
+        final Map<PortalDataKey, Set<PortalDataKey>> keyDependencies = new LinkedHashMap<PortalDataKey, Set<PortalDataKey>>();
+        
+        for (final IPortalDataType portalDataType : this.dataTypeImportOrder) {
+            final Set<IPortalDataType> dependencies = new LinkedHashSet<IPortalDataType>();
+            final Collection<IPortalDataType> declaredDependencies = this.dataTypeImportDependencies.get(portalDataType);
+            if (declaredDependencies == null) {
+                dependencies.addAll(typeDependencies.keySet());
+            }
+            else {
+                for (final IPortalDataType dependency : declaredDependencies) {
+                    final Set<IPortalDataType> indirectDependencies = typeDependencies.get(dependency);
+                    if (indirectDependencies == null) {
+                        throw new IllegalArgumentException(portalDataType.getTypeId() + " depends on " + dependency.getTypeId() + 
+                                " which must be listed before it in the dataTypeImportOrder List");
+                    }
+                    dependencies.add(dependency);
+                    dependencies.addAll(indirectDependencies);
+                }
+            }
+            typeDependencies.put(portalDataType, dependencies);
+            
+            final Set<PortalDataKey> dependencyKeys = new LinkedHashSet<PortalDataKey>();
+            for (final IPortalDataType dependency : dependencies) {
+                dependencyKeys.addAll(dependency.getDataKeyImportOrder());
+            }
+            for (final PortalDataKey portalDataKey : portalDataType.getDataKeyImportOrder()) {
+                keyDependencies.put(portalDataKey, Collections.unmodifiableSet(new LinkedHashSet<PortalDataKey>(dependencyKeys)));
+                dependencyKeys.add(portalDataKey);
+            }
+        }
+        
+        return Collections.unmodifiableMap(keyDependencies);
+    }
+    
+    /**
+     * @return The keys each {@link PortalDataKey} must wait for, including indirect dependencies
+     */
+    Map<PortalDataKey, Set<PortalDataKey>> getDataKeyDependencies() {
+        return this.dataKeyDependencies;
     }
     
     /**
@@ -268,6 +377,20 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
     	this.exportAllPortalDataTypes = ImmutableSet.copyOf(exportAllPortalDataTypes);
     }
     
+    /**
+     * Portal data types whose changes are recorded by the {@link IPortalDataChangeDao}. When
+     * exporting only changed data these types export just what changed, all other types are
+     * exported in full.
+     */
+    @javax.annotation.Resource(name="changeTrackedPortalDataTypes")
+    public void setChangeTrackedPortalDataTypes(Set<IPortalDataType> changeTrackedPortalDataTypes) {
+        final Set<String> typeIds = new LinkedHashSet<String>();
+        for (final IPortalDataType portalDataType : changeTrackedPortalDataTypes) {
+            typeIds.add(portalDataType.getTypeId());
+        }
+        this.changeTrackedDataTypeIds = ImmutableSet.copyOf(typeIds);
+    }
+    
     /**
      * {@link IDataDeleter} implementations to delegate delete operations to. 
      */
@@ -329,13 +452,16 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
             throw new IllegalArgumentException("The specified directory '" + directory + "' does not exist");
         }
         
+        //A zip archive is imported in place of a directory with the same layout
+        final boolean archive = PortalDataArchive.isArchive(directory);
+        
         //Create the file filter to use when searching for files to import
-        final FileFilter fileFilter;
+        final AntPatternFileFilter fileFilter;
         if (pattern != null) {
-            fileFilter = new AntPatternFileFilter(true, false, pattern, this.dataFileExcludes);
+            fileFilter = new AntPatternFileFilter(!archive, false, pattern, this.dataFileExcludes);
         }
         else {
-            fileFilter = new AntPatternFileFilter(true, false, this.dataFileIncludes, this.dataFileExcludes);
+            fileFilter = new AntPatternFileFilter(!archive, false, this.dataFileIncludes, this.dataFileExcludes);
         }
 
         
@@ -353,15 +479,41 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
         }
         
         
+        //Open the archive, entries are read from it until the import is complete
+        final PortalDataArchive.Reader archiveReader;
+        if (archive) {
+            try {
+                archiveReader = new PortalDataArchive.Reader(directory);
+            }
+            catch (IOException e) {
+                IOUtils.closeQuietly(reportWriter);
+                throw new RuntimeException("Failed to open data archive: " + directory, e);
+            }
+        }
+        else {
+            archiveReader = null;
+        }
+        
         //Convert directory to URI String to provide better logging output
-    	final URI directoryUri = directory.toURI();
-        final String directoryUriStr = directoryUri.toString();
+        final String directoryUriStr;
+        if (archiveReader != null) {
+            directoryUriStr = archiveReader.getBaseUri();
+        }
+        else {
+            final URI directoryUri = directory.toURI();
+            directoryUriStr = directoryUri.toString();
+        }
 		IMPORT_BASE_DIR.set(directoryUriStr);
         try {
-	        //Scan the specified directory for files to import
+	        //Scan the specified directory or archive for files to import
 	        logger.info("Scanning for files to Import from: {}", directory);
 	        final PortalDataKeyFileProcessor fileProcessor = new PortalDataKeyFileProcessor(this.dataKeyTypes, options);
-			this.directoryScanner.scanDirectoryNoResults(directory, fileFilter, fileProcessor);
+	        if (archiveReader != null) {
+	            archiveReader.scan(fileFilter, fileProcessor);
+	        }
+	        else {
+	            this.directoryScanner.scanDirectoryNoResults(directory, fileFilter, fileProcessor);
+	        }
 	        final long resourceCount = fileProcessor.getResourceCount();
 			logger.info("Found {} files to Import from: {}", resourceCount, directory);
 
@@ -371,68 +523,77 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
 	        //Map of files to import, grouped by type
 	        final ConcurrentMap<PortalDataKey, Queue<Resource>> dataToImport = fileProcessor.getDataToImport();
 	        
-	        //Import the data files
+	        //Every key must have a place in the import order
+	        final Set<PortalDataKey> unorderedDataKeys = new LinkedHashSet<PortalDataKey>(dataToImport.keySet());
+	        unorderedDataKeys.removeAll(this.dataKeyImportOrder);
+	        if (!unorderedDataKeys.isEmpty()) {
+	            throw new IllegalStateException("The following PortalDataKeys are not listed in the dataTypeImportOrder List: " + unorderedDataKeys);
+	        }
+	        
 	        for (final PortalDataKey portalDataKey : this.dataKeyImportOrder) {
-	            final Queue<Resource> files = dataToImport.remove(portalDataKey);
-	            if (files == null) {
-	                continue;
+	            final Queue<Resource> files = dataToImport.get(portalDataKey);
+	            if (files != null) {
+	                logger.info("Importing {} files of type {}", files.size(), portalDataKey);
+	                reportWriter.println(portalDataKey + "," + files.size());
 	            }
-	
-	            final Queue<ImportFuture<?>> importFutures = new LinkedList<ImportFuture<?>>();
-	            final List<FutureHolder<?>> failedFutures = new LinkedList<FutureHolder<?>>();
-	            
-	            final int fileCount = files.size();
-	            logger.info("Importing {} files of type {}", fileCount, portalDataKey);
-                reportWriter.println(portalDataKey + "," + fileCount);
-	            
-                while (!files.isEmpty()) {
-                    final Resource file = files.poll();
-                    
-	                //Check for completed futures on every iteration, needed to fail as fast as possible on an import exception
-	                final List<FutureHolder<?>> newFailed = waitForFutures(importFutures, reportWriter, logDirectory, false);
-	                failedFutures.addAll(newFailed);
-	                
-	                final AtomicLong importTime = new AtomicLong(-1);
-	                
-	                //Create import task
-	                final Callable<Object> task = new CallableWithoutResult() {
-                        @Override
-                        protected void callWithoutResult() {
-	                    	IMPORT_BASE_DIR.set(directoryUriStr);
-	                    	importTime.set(System.nanoTime());
+	        }
+	        
+	        //Import the data files, each key is started as soon as the keys it depends on are done
+	        final PortalDataImportScheduler importScheduler = new PortalDataImportScheduler(this.importExportThreadPool, this.dataKeyDependencies, failOnError,
+	                new PortalDataImportScheduler.Importer() {
+	                    @Override
+	                    public void importData(Resource resource, PortalDataKey portalDataKey) {
+	                        IMPORT_BASE_DIR.set(directoryUriStr);
 	                        try {
-	                        	importData(file, portalDataKey);
+	                            JaxbPortalDataHandlerService.this.importData(resource, portalDataKey);
 	                        }
 	                        finally {
-	                            importTime.set(System.nanoTime() - importTime.get());
-	                        	IMPORT_BASE_DIR.remove();
+	                            IMPORT_BASE_DIR.remove();
 	                        }
 	                    }
-	                };
-	                
-	                //Submit the import task
-	                final Future<?> importFuture = this.importExportThreadPool.submit(task);
-	                
-	                //Add the future for tracking
-	                importFutures.offer(new ImportFuture(importFuture, file, portalDataKey, importTime));
+	                });
+	        
+	        final List<FutureHolder<?>> failedFutures = new LinkedList<FutureHolder<?>>();
+	        final long importStart = System.currentTimeMillis();
+	        long nextProgressReport = importStart + PROGRESS_REPORT_INTERVAL;
+	        importScheduler.start(dataToImport);
+	        
+	        while (!importScheduler.isFinished()) {
+	            //Report each import as it completes
+	            final PortalDataImportScheduler.ScheduledImport completedImport = importScheduler.poll(1, TimeUnit.SECONDS);
+	            if (completedImport != null) {
+	                final Queue<ImportFuture<?>> completedFutures = new LinkedList<ImportFuture<?>>();
+	                completedFutures.offer(new ImportFuture(completedImport, completedImport.getResource(), completedImport.getPortalDataKey(), completedImport.getImportTime()));
+	                failedFutures.addAll(waitForFutures(completedFutures, reportWriter, logDirectory, true));
 	            }
 	            
-	            //Wait for all of the imports on of this type to complete
-	            final List<FutureHolder<?>> newFailed = waitForFutures(importFutures, reportWriter, logDirectory, true);
-                failedFutures.addAll(newFailed);
-                
-                if (failOnError && !failedFutures.isEmpty()) {
-                    throw new RuntimeException(failedFutures.size() + " " + portalDataKey + " entities failed to import.\n\n" +
-                    		"\tPer entity exception logs and a full report can be found in " + logDirectory + "\n");
-                }
-                
-                reportWriter.flush();
+	            failedFutures.addAll(cancelTimedOutImports(importScheduler, reportWriter));
+	            
+	            //Fail as fast as possible, nothing else is started once an import has failed
+	            if (failOnError && !failedFutures.isEmpty()) {
+	                importScheduler.stop();
+	            }
+	            
+	            final long now = System.currentTimeMillis();
+	            if (now >= nextProgressReport) {
+	                logImportProgress(importScheduler, importStart, now);
+	                nextProgressReport = now + PROGRESS_REPORT_INTERVAL;
+	            }
 	        }
+	        reportWriter.flush();
 	        
-	        if (!dataToImport.isEmpty()) {
-	            throw new IllegalStateException("The following PortalDataKeys are not listed in the dataTypeImportOrder List: " + dataToImport.keySet());
+	        if (failOnError && !failedFutures.isEmpty()) {
+	            final Set<String> failedDataTypes = new LinkedHashSet<String>();
+	            for (final FutureHolder<?> failedFuture : failedFutures) {
+	                failedDataTypes.add(failedFuture.getDataType());
+	            }
+	            throw new RuntimeException(failedFutures.size() + " " + failedDataTypes + " entities failed to import, " + 
+	                    importScheduler.getSkippedCount() + " entities were not imported.\n\n" +
+	                    "\tPer entity exception logs and a full report can be found in " + logDirectory + "\n");
 	        }
 	        
+	        logImportProgress(importScheduler, importStart, System.currentTimeMillis());
+	        
 	        logger.info("For a detailed report on the data import see " + importReport);
         }
         catch (InterruptedException e) {
@@ -440,10 +601,45 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
         }
         finally {
             IOUtils.closeQuietly(reportWriter);
+            IOUtils.closeQuietly(archiveReader);
         	IMPORT_BASE_DIR.remove();
         }
     }
 
+    /**
+     * Cancels the imports that have been running longer than the max wait
+     * 
+     * @return The imports that were cancelled
+     */
+    private List<FutureHolder<?>> cancelTimedOutImports(PortalDataImportScheduler importScheduler, PrintWriter reportWriter) {
+        if (this.maxWait <= 0) {
+            return Collections.emptyList();
+        }
+        
+        final long maxWaitMillis = this.maxWaitTimeUnit.toMillis(this.maxWait);
+        final List<FutureHolder<?>> timedOutFutures = new LinkedList<FutureHolder<?>>();
+        for (final PortalDataImportScheduler.ScheduledImport runningImport : importScheduler.getRunning()) {
+            if (runningImport.getRunningTime() > maxWaitMillis && runningImport.cancel(true)) {
+                final ImportFuture<?> futureHolder = new ImportFuture(runningImport, runningImport.getResource(), runningImport.getPortalDataKey(), runningImport.getImportTime());
+                logger.warn("Failed: " + futureHolder);
+                
+                futureHolder.setError(new TimeoutException("Import ran longer than " + maxWaitMillis + "ms"));
+                timedOutFutures.add(futureHolder);
+                reportWriter.printf(REPORT_FORMAT, "TIMEOUT", futureHolder.getDescription(), futureHolder.getExecutionTimeMillis());
+            }
+        }
+        return timedOutFutures;
+    }
+    
+    private void logImportProgress(PortalDataImportScheduler importScheduler, long importStart, long now) {
+        final long completed = importScheduler.getCompletedCount();
+        final double seconds = Math.max(now - importStart, 1) / 1000.0;
+        logger.info("Imported {} of {} files in {}s, {} running, {} files/second", new Object[] {
+                completed, importScheduler.getTotalCount(), Math.round(seconds), 
+                importScheduler.getRunning().size(), String.format("%.1f", completed / seconds)});
+        logger.debug("Data keys waiting for their dependencies: {}", importScheduler.getWaitingKeys());
+    }
+
     /**
      * Determine directory to log import/export reports to
      */
@@ -741,11 +937,47 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
         }
     }
 
+    /**
+     * Export the data as an entry in the archive
+     * 
+     * @return false if the data was not exported
+     */
+    private boolean exportData(String typeId, String dataId, PortalDataArchive.Writer archiveWriter) {
+        //Only the document being exported is held in memory, the archive is written as it goes
+        final ByteArrayOutputStream dataBuffer = new ByteArrayOutputStream();
+        final String fileName = this.exportData(typeId, dataId, new StreamResult(dataBuffer));
+        if (fileName == null) {
+            logger.info("Skipped: type={} id={}", typeId, dataId);
+            return false;
+        }
+        
+        final String entryName = PortalDataArchive.getEntryName(typeId, fileName);
+        try {
+            if (!archiveWriter.addEntry(entryName, dataBuffer.toByteArray())) {
+                logger.warn("Exporting " + typeId + " " + dataId + " but the archive already contains " + entryName + ", it will be skipped");
+                return false;
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to export " + typeId + " " + dataId, e);
+        }
+        logger.info("Exported: {}", entryName);
+        
+        return true;
+    }
+
     @Override
     public void exportAllDataOfType(Set<String> typeIds, File directory, BatchExportOptions options) {
         final Queue<ExportFuture<?>> exportFutures = new ConcurrentLinkedQueue<ExportFuture<?>>();
         final boolean failOnError = options != null ? options.isFailOnError() : true;
         
+        //If set only export what changed after this time, the export start is the point to use for the next export.
+        //Changes are read from before that time by the overlap to include changes whose recorded time is late.
+        final Date requestedChangedSince = options != null ? options.getChangedSince() : null;
+        final Date changedSince = requestedChangedSince != null ? new Date(requestedChangedSince.getTime() - this.changedSinceOverlap) : null;
+        final Date exportStart = new Date();
+        final Map<String, List<String>> deletedDataIds = new LinkedHashMap<String, List<String>>();
+        
         //Determine the parent directory to log to
         final File logDirectory = determineLogDirectory(options, "export");
 
@@ -759,6 +991,21 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
             throw new RuntimeException("Failed to create FileWriter for: " + exportReport, e);
         }
         
+        //A zip archive is written in place of a directory with the same layout
+        final PortalDataArchive.Writer archiveWriter;
+        if (PortalDataArchive.isArchive(directory)) {
+            try {
+                archiveWriter = new PortalDataArchive.Writer(directory);
+            }
+            catch (IOException e) {
+                IOUtils.closeQuietly(reportWriter);
+                throw new RuntimeException("Failed to create data archive: " + directory, e);
+            }
+        }
+        else {
+            archiveWriter = null;
+        }
+        
         try {
 	        for (final String typeId : typeIds) {
 	            final List<FutureHolder<?>> failedFutures = new LinkedList<FutureHolder<?>>();
@@ -768,10 +1015,8 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
 	            
 	            reportWriter.println(typeId + "," + typeDir);
 	            
-	            final Iterable<? extends IPortalData> dataForType = this.getPortalData(typeId);
-	            for (final IPortalData data : dataForType) {
-	                final String dataId = data.getDataId();
-	
+	            final Iterable<String> dataIdsForType = this.getDataIdsToExport(typeId, changedSince, deletedDataIds);
+	            for (final String dataId : dataIdsForType) {
 	                //Check for completed futures on every iteration, needed to fail as fast as possible on an import exception
 	                final List<FutureHolder<?>> newFailed = waitForFutures(exportFutures, reportWriter, logDirectory, false);
 	                failedFutures.addAll(newFailed);
@@ -784,7 +1029,12 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
                         protected void callWithoutResult() {
                             exportTime.set(System.nanoTime());
                             try {
-                                exportData(typeId, dataId, typeDir);
+                                if (archiveWriter != null) {
+                                    exportData(typeId, dataId, archiveWriter);
+                                }
+                                else {
+                                    exportData(typeId, dataId, typeDir);
+                                }
                             }
                             finally {
                                 exportTime.set(System.nanoTime() - exportTime.get());
@@ -810,12 +1060,92 @@ public class JaxbPortalDataHandlerService implements IPortalDataHandlerService,
                             "\tPer entity exception logs and a full report can be found in " + logDirectory);
                 }
 	        }
+	        
+	        if (changedSince != null) {
+	            this.writeDeletedDataManifest(directory, archiveWriter, changedSince, exportStart, deletedDataIds);
+	        }
+	        
+	        if (archiveWriter != null) {
+	            archiveWriter.finish();
+	            logger.info("Exported data archive: {}", directory);
+	        }
         }
         catch (InterruptedException e) {
             throw new RuntimeException("Interrupted while waiting for entities to export", e);
         }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to write data archive: " + directory, e);
+        }
         finally {
             IOUtils.closeQuietly(reportWriter);
+            IOUtils.closeQuietly(archiveWriter);
+        }
+    }
+
+    /**
+     * Determine the ids of the data of the type to export. If only changed data is being exported and
+     * changes to the type are tracked the ids of data deleted since then are added to deletedDataIds.
+     */
+    private Iterable<String> getDataIdsToExport(String typeId, Date changedSince, Map<String, List<String>> deletedDataIds) {
+        if (changedSince != null) {
+            if (this.changeTrackedDataTypeIds.contains(typeId)) {
+                final List<String> changedIds = new ArrayList<String>();
+                final List<String> deletedIds = new ArrayList<String>();
+                final boolean layoutType = LayoutPortalDataType.LEGACY_LAYOUT_QNAME.getLocalPart().equals(typeId);
+                for (final IPortalDataChange change : this.portalDataChangeDao.getPortalDataChanges(typeId, changedSince)) {
+                    if (layoutType && this.configurationLoader.getFragmentByOwnerId(change.getDataId()) != null) {
+                        //Fragment owner layouts are exported as fragment-layout data, not as user layouts
+                        continue;
+                    }
+                    
+                    if (change.isDeleted()) {
+                        deletedIds.add(change.getDataId());
+                    }
+                    else {
+                        changedIds.add(change.getDataId());
+                    }
+                }
+                
+                logger.info("{} {} changed and {} deleted since {}", new Object[] {changedIds.size(), typeId, deletedIds.size(), changedSince});
+                deletedDataIds.put(typeId, deletedIds);
+                return changedIds;
+            }
+            
+            logger.info("Changes to {} are not tracked, all of its data will be exported", typeId);
+        }
+        
+        return Iterables.transform(this.getPortalData(typeId), new Function<IPortalData, String>() {
+            @Override
+            public String apply(IPortalData data) {
+                return data.getDataId();
+            }
+        });
+    }
+    
+    /**
+     * Write the list of data deleted since the previous export, one typeId,dataId per line
+     */
+    private void writeDeletedDataManifest(File directory, PortalDataArchive.Writer archiveWriter, Date changedSince, Date exportStart,
+            Map<String, List<String>> deletedDataIds) throws IOException {
+        
+        final StringBuilder manifest = new StringBuilder();
+        manifest.append("# Data deleted between ").append(new DateTime(changedSince)).append(" and ").append(new DateTime(exportStart)).append("\n");
+        manifest.append("# Export data changed since ").append(new DateTime(exportStart)).append(" to continue from this export\n");
+        manifest.append("# Data changed within ").append(TimeUnit.MILLISECONDS.toSeconds(this.changedSinceOverlap))
+            .append(" seconds before the requested time is included, entries may repeat those of the previous export\n");
+        for (final Map.Entry<String, List<String>> deletedEntry : deletedDataIds.entrySet()) {
+            final String typeId = deletedEntry.getKey();
+            for (final String dataId : deletedEntry.getValue()) {
+                manifest.append(typeId).append(",").append(dataId).append("\n");
+            }
+        }
+        
+        final byte[] manifestBytes = manifest.toString().getBytes("UTF-8");
+        if (archiveWriter != null) {
+            archiveWriter.addEntry(DELETED_DATA_MANIFEST, manifestBytes);
+        }
+        else {
+            FileUtils.writeByteArrayToFile(new File(directory, DELETED_DATA_MANIFEST), manifestBytes);
         }
     }
 
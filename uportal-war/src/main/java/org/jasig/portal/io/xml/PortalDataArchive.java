@@ -0,0 +1,225 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.jasig.portal.utils.AntPatternFileFilter;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import com.google.common.base.Function;
+
+/**
+ * Batch portal data stored as a single zip archive instead of a directory tree. Each
+ * entry is one data file, named and laid out exactly as it would be in an export
+ * directory, so extracting an archive produces a directory that can be imported as
+ * before and zipping an existing data directory produces an archive that can be
+ * imported directly.
+ * <p>
+ * The central directory of the zip file is the index of the archive. Imports open
+ * entries on demand and never hold more than the file currently being read by each
+ * worker in memory. Exports write entries one at a time as the workers finish
+ * marshalling them.
+ */
+final class PortalDataArchive {
+    static final String EXTENSION = ".zip";
+    
+    private PortalDataArchive() {
+    }
+    
+    /**
+     * @return true if the file should be read or written as an archive instead of a directory
+     */
+    static boolean isArchive(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION) && !file.isDirectory();
+    }
+    
+    /**
+     * @return The name of the archive entry for the data, the same as its path in an export directory
+     */
+    static String getEntryName(String typeId, String fileName) {
+        return typeId + "/" + fileName + "." + typeId + ".xml";
+    }
+    
+    /**
+     * Reads data files out of an archive. The archive stays open until the reader is
+     * closed, the {@link Resource}s returned by {@link #scan(AntPatternFileFilter, Function)}
+     * can be read from multiple threads until then.
+     */
+    static final class Reader implements Closeable {
+        private final File archive;
+        private final ZipFile zipFile;
+        private final String archiveUri;
+        
+        Reader(File archive) throws IOException {
+            this.archive = archive;
+            this.zipFile = new ZipFile(archive);
+            this.archiveUri = archive.toURI().getSchemeSpecificPart();
+        }
+        
+        /**
+         * @return The URI prefix shared by all of the entries in the archive
+         */
+        public String getBaseUri() {
+            return this.getEntryUri("").toString();
+        }
+        
+        private URI getEntryUri(String entryName) {
+            try {
+                return new URI("jar", "file:" + this.archiveUri + "!/" + entryName, null);
+            }
+            catch (URISyntaxException e) {
+                throw new IllegalArgumentException("Could not create URI for entry [" + entryName + "] in " + this.archive, e);
+            }
+        }
+        
+        /**
+         * Passes every entry in the archive that matches the filter to the processor, in
+         * the order the entries are stored.
+         * 
+         * @return The number of entries that matched the filter
+         */
+        public int scan(AntPatternFileFilter filter, Function<Resource, ?> processor) {
+            int count = 0;
+            for (final Enumeration<? extends ZipEntry> entries = this.zipFile.entries(); entries.hasMoreElements(); ) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && filter.acceptPath(entry.getName())) {
+                    processor.apply(new ZipEntryResource(entry));
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.zipFile.close();
+        }
+        
+        private final class ZipEntryResource extends AbstractResource {
+            private final ZipEntry entry;
+
+            public ZipEntryResource(ZipEntry entry) {
+                this.entry = entry;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return zipFile.getInputStream(this.entry);
+            }
+
+            @Override
+            public URI getURI() throws IOException {
+                return getEntryUri(this.entry.getName());
+            }
+
+            @Override
+            public String getFilename() {
+                return FilenameUtils.getName(this.entry.getName());
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return this.entry.getSize();
+            }
+
+            @Override
+            public String getDescription() {
+                return "zip entry [" + this.entry.getName() + "] in " + archive;
+            }
+        }
+    }
+    
+    /**
+     * Writes data files into a new archive. Entries are written to a temporary file next
+     * to the archive which only replaces the archive once {@link #finish()} is called,
+     * closing the writer without finishing it discards everything written.
+     */
+    static final class Writer implements Closeable {
+        private final Set<String> entryNames = new HashSet<String>();
+        private final File archive;
+        private final File tempFile;
+        private final ZipOutputStream zipOutputStream;
+        private boolean closed = false;
+        
+        Writer(File archive) throws IOException {
+            this.archive = archive.getCanonicalFile();
+            this.archive.getParentFile().mkdirs();
+            this.tempFile = File.createTempFile(this.archive.getName() + "-", ".tmp", this.archive.getParentFile());
+            this.zipOutputStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(this.tempFile)));
+        }
+        
+        /**
+         * Adds an entry to the archive, safe to call from multiple threads.
+         * 
+         * @return false if the archive already has an entry with the same name, the data is not written
+         */
+        public synchronized boolean addEntry(String name, byte[] data) throws IOException {
+            if (this.closed) {
+                throw new IllegalStateException("Archive has already been closed: " + this.archive);
+            }
+            if (!this.entryNames.add(name)) {
+                return false;
+            }
+            
+            this.zipOutputStream.putNextEntry(new ZipEntry(name));
+            this.zipOutputStream.write(data);
+            this.zipOutputStream.closeEntry();
+            return true;
+        }
+        
+        /**
+         * Completes the archive and moves it into place, replacing any existing file
+         */
+        public synchronized void finish() throws IOException {
+            this.closed = true;
+            this.zipOutputStream.close();
+            
+            FileUtils.deleteQuietly(this.archive);
+            FileUtils.moveFile(this.tempFile, this.archive);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!this.closed) {
+                this.closed = true;
+                IOUtils.closeQuietly(this.zipOutputStream);
+            }
+            FileUtils.deleteQuietly(this.tempFile);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Runs a batch import as a graph of {@link PortalDataKey}s instead of one key at a time. The
+ * files of a key are submitted to the executor as soon as every file of the keys it depends
+ * on has been imported, so keys that do not depend on each other are imported at the same
+ * time and a few slow files only hold up the keys that actually need them.
+ * <p>
+ * Completed imports are handed back to the caller through {@link #poll(long, TimeUnit)} in
+ * the order they finish. Once {@link #stop()} is called, or an import fails when stopping on
+ * failure, no more keys are started and the files of keys that were not started yet are skipped.
+ */
+final class PortalDataImportScheduler {
+    /**
+     * Does the actual import of one file
+     */
+    interface Importer {
+        void importData(Resource resource, PortalDataKey portalDataKey);
+    }
+
+    private final ExecutorService executor;
+    private final Map<PortalDataKey, Set<PortalDataKey>> dependencies;
+    private final Importer importer;
+    private final boolean stopOnFailure;
+
+    private final BlockingQueue<ScheduledImport> completed = new LinkedBlockingQueue<ScheduledImport>();
+    private final Set<ScheduledImport> running = Collections.newSetFromMap(new ConcurrentHashMap<ScheduledImport, Boolean>());
+    private final AtomicLong completedCount = new AtomicLong();
+
+    //All of the following are guarded by this
+    private final Map<PortalDataKey, Queue<Resource>> waiting = new LinkedHashMap<PortalDataKey, Queue<Resource>>();
+    private final Map<PortalDataKey, Set<PortalDataKey>> blockedBy = new HashMap<PortalDataKey, Set<PortalDataKey>>();
+    private final Map<PortalDataKey, Set<PortalDataKey>> dependents = new HashMap<PortalDataKey, Set<PortalDataKey>>();
+    private final Map<PortalDataKey, Integer> remaining = new HashMap<PortalDataKey, Integer>();
+    private long totalCount = 0;
+    private long skippedCount = 0;
+    private long unfinished = 0;
+    private boolean stopped = false;
+
+    /**
+     * @param dependencies The keys each key depends on, must include indirect dependencies
+     * @param stopOnFailure If true no more keys are started once an import fails or is cancelled
+     */
+    PortalDataImportScheduler(ExecutorService executor, Map<PortalDataKey, Set<PortalDataKey>> dependencies, boolean stopOnFailure,
+            Importer importer) {
+        this.executor = executor;
+        this.dependencies = dependencies;
+        this.importer = importer;
+        this.stopOnFailure = stopOnFailure;
+    }
+
+    /**
+     * Schedule the files to import and start the keys that have no dependencies
+     */
+    public void start(Map<PortalDataKey, ? extends Queue<Resource>> dataToImport) {
+        final List<ScheduledImport> ready;
+        synchronized (this) {
+            for (final Map.Entry<PortalDataKey, ? extends Queue<Resource>> dataEntry : dataToImport.entrySet()) {
+                final Queue<Resource> files = dataEntry.getValue();
+                if (!files.isEmpty()) {
+                    final PortalDataKey portalDataKey = dataEntry.getKey();
+                    this.waiting.put(portalDataKey, files);
+                    this.remaining.put(portalDataKey, files.size());
+                    this.totalCount += files.size();
+                    this.unfinished += files.size();
+                }
+            }
+
+            //Only keys that have files to import can block other keys
+            final List<PortalDataKey> startKeys = new ArrayList<PortalDataKey>();
+            for (final PortalDataKey portalDataKey : this.waiting.keySet()) {
+                final Set<PortalDataKey> blocking = new HashSet<PortalDataKey>();
+                final Set<PortalDataKey> keyDependencies = this.dependencies.get(portalDataKey);
+                if (keyDependencies != null) {
+                    for (final PortalDataKey dependency : keyDependencies) {
+                        if (this.waiting.containsKey(dependency)) {
+                            blocking.add(dependency);
+                            this.getDependents(dependency).add(portalDataKey);
+                        }
+                    }
+                }
+
+                if (blocking.isEmpty()) {
+                    startKeys.add(portalDataKey);
+                }
+                else {
+                    this.blockedBy.put(portalDataKey, blocking);
+                }
+            }
+
+            ready = new ArrayList<ScheduledImport>();
+            for (final PortalDataKey portalDataKey : startKeys) {
+                this.release(portalDataKey, ready);
+            }
+        }
+
+        this.submit(ready);
+    }
+
+    /**
+     * @return The next completed import, null if none completed within the timeout
+     */
+    public ScheduledImport poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.completed.poll(timeout, unit);
+    }
+
+    /**
+     * @return true once every import has completed or been skipped and been returned by {@link #poll(long, TimeUnit)}
+     */
+    public synchronized boolean isFinished() {
+        return this.unfinished == 0 && this.completed.isEmpty();
+    }
+
+    /**
+     * Stop starting keys, files of keys that have not been started are skipped
+     */
+    public synchronized void stop() {
+        this.stopped = true;
+        for (final Queue<Resource> files : this.waiting.values()) {
+            this.skippedCount += files.size();
+            this.unfinished -= files.size();
+        }
+        this.waiting.clear();
+        this.blockedBy.clear();
+    }
+
+    /**
+     * @return Imports that are currently running
+     */
+    public Collection<ScheduledImport> getRunning() {
+        return Collections.unmodifiableSet(this.running);
+    }
+
+    public long getCompletedCount() {
+        return this.completedCount.get();
+    }
+
+    public synchronized long getTotalCount() {
+        return this.totalCount;
+    }
+
+    public synchronized long getSkippedCount() {
+        return this.skippedCount;
+    }
+
+    /**
+     * @return Keys that still have files waiting for their dependencies
+     */
+    public synchronized Set<PortalDataKey> getWaitingKeys() {
+        return new HashSet<PortalDataKey>(this.waiting.keySet());
+    }
+
+    private Set<PortalDataKey> getDependents(PortalDataKey portalDataKey) {
+        Set<PortalDataKey> keyDependents = this.dependents.get(portalDataKey);
+        if (keyDependents == null) {
+            keyDependents = new HashSet<PortalDataKey>();
+            this.dependents.put(portalDataKey, keyDependents);
+        }
+        return keyDependents;
+    }
+
+    /**
+     * Must be called while synchronized, the imports are submitted by the caller once the lock is released
+     */
+    private void release(PortalDataKey portalDataKey, List<ScheduledImport> ready) {
+        final Queue<Resource> files = this.waiting.remove(portalDataKey);
+        for (final Resource file : files) {
+            ready.add(new ScheduledImport(file, portalDataKey, this.importer, new AtomicLong(-1)));
+        }
+    }
+
+    private void submit(List<ScheduledImport> ready) {
+        for (final ScheduledImport scheduledImport : ready) {
+            this.executor.execute(scheduledImport);
+        }
+    }
+
+    private void importDone(ScheduledImport scheduledImport) {
+        this.running.remove(scheduledImport);
+
+        final List<ScheduledImport> ready = new ArrayList<ScheduledImport>();
+        synchronized (this) {
+            this.completed.offer(scheduledImport);
+            this.completedCount.incrementAndGet();
+
+            if (this.stopOnFailure && scheduledImport.isFailed()) {
+                this.stop();
+            }
+
+            final PortalDataKey portalDataKey = scheduledImport.getPortalDataKey();
+            final int keyRemaining = this.remaining.get(portalDataKey) - 1;
+            this.remaining.put(portalDataKey, keyRemaining);
+
+            //Last file of the key, start the keys that were only waiting on it
+            if (keyRemaining == 0) {
+                final Set<PortalDataKey> keyDependents = this.dependents.remove(portalDataKey);
+                if (keyDependents != null && !this.stopped) {
+                    for (final PortalDataKey dependent : keyDependents) {
+                        final Set<PortalDataKey> blocking = this.blockedBy.get(dependent);
+                        blocking.remove(portalDataKey);
+                        if (blocking.isEmpty()) {
+                            this.blockedBy.remove(dependent);
+                            this.release(dependent, ready);
+                        }
+                    }
+                }
+            }
+
+            //Decrement after the offer so isFinished never misses an import
+            this.unfinished--;
+        }
+
+        this.submit(ready);
+    }
+
+    /**
+     * The import of one file for one {@link PortalDataKey}
+     */
+    final class ScheduledImport extends FutureTask<Object> {
+        private final Resource resource;
+        private final PortalDataKey portalDataKey;
+        private final AtomicLong importTime;
+        private volatile long startTime = -1;
+
+        private ScheduledImport(final Resource resource, final PortalDataKey portalDataKey, final Importer importer,
+                final AtomicLong importTime) {
+            super(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    importTime.set(System.nanoTime());
+                    try {
+                        importer.importData(resource, portalDataKey);
+                    }
+                    finally {
+                        importTime.set(System.nanoTime() - importTime.get());
+                    }
+                    return null;
+                }
+            });
+
+            this.resource = resource;
+            this.portalDataKey = portalDataKey;
+            this.importTime = importTime;
+        }
+
+        public Resource getResource() {
+            return this.resource;
+        }
+
+        public PortalDataKey getPortalDataKey() {
+            return this.portalDataKey;
+        }
+
+        /**
+         * @return Start time of the import while it runs, elapsed time in nanoseconds once it is done
+         */
+        public AtomicLong getImportTime() {
+            return this.importTime;
+        }
+
+        /**
+         * @return Milliseconds the import has been running, 0 if it has not started
+         */
+        public long getRunningTime() {
+            final long start = this.startTime;
+            return start < 0 ? 0 : System.currentTimeMillis() - start;
+        }
+
+        /**
+         * @return true if the import is done and either threw an exception or was cancelled
+         */
+        public boolean isFailed() {
+            if (!this.isDone()) {
+                return false;
+            }
+            if (this.isCancelled()) {
+                return true;
+            }
+            try {
+                this.get();
+                return false;
+            }
+            catch (ExecutionException e) {
+                return true;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * The import is only reported as complete once this method returns. A cancelled import
+         * is done as soon as it is cancelled but the interrupted worker may still be writing its
+         * data, the keys that depend on it must not start until the worker has left the import.
+         */
+        @Override
+        public void run() {
+            //Cancelled before it got to run
+            if (this.isDone()) {
+                importDone(this);
+                return;
+            }
+
+            this.startTime = System.currentTimeMillis();
+            running.add(this);
+            try {
+                super.run();
+            }
+            finally {
+                importDone(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "importing " + this.resource.getDescription();
+        }
+    }
+}
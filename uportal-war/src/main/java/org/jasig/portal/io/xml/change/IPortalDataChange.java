@@ -0,0 +1,47 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml.change;
+
+import java.util.Date;
+
+/**
+ * The most recent change to a piece of portal data, see {@link IPortalDataChangeDao}
+ */
+public interface IPortalDataChange {
+    /**
+     * @return The {@link org.jasig.portal.io.xml.IPortalDataType#getTypeId()} of the data
+     */
+    String getTypeId();
+    
+    /**
+     * @return The {@link org.jasig.portal.io.xml.IPortalData#getDataId()} of the data
+     */
+    String getDataId();
+    
+    /**
+     * @return When the data was last created, modified or deleted
+     */
+    Date getLastModified();
+    
+    /**
+     * @return true if the last change deleted the data
+     */
+    boolean isDeleted();
+}
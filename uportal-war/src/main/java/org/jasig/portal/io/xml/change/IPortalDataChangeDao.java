@@ -0,0 +1,45 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml.change;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tracks when portal data was last changed so that exports can be limited to the
+ * data changed since a previous export. Every change is recorded, only the most
+ * recent change to each piece of data is returned.
+ */
+public interface IPortalDataChangeDao {
+    /**
+     * Record that the data was created or modified
+     */
+    void dataModified(String typeId, String dataId);
+    
+    /**
+     * Record that the data was deleted
+     */
+    void dataDeleted(String typeId, String dataId);
+    
+    /**
+     * @return The most recent change to each piece of data of the type made after the specified time, oldest first
+     */
+    List<IPortalDataChange> getPortalDataChanges(String typeId, Date since);
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml.change.jpa;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.ParameterExpression;
+import javax.persistence.criteria.Root;
+
+import org.jasig.portal.io.xml.change.IPortalDataChange;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.jpa.BasePortalJpaDao;
+import org.springframework.stereotype.Repository;
+
+import com.google.common.base.Function;
+
+@Repository("portalDataChangeDao")
+public class JpaPortalDataChangeDao extends BasePortalJpaDao implements IPortalDataChangeDao {
+    private CriteriaQuery<PortalDataChangeImpl> findChangesSinceQuery;
+    private ParameterExpression<String> typeIdParameter;
+    private ParameterExpression<Date> sinceParameter;
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.typeIdParameter = this.createParameterExpression(String.class, "typeId");
+        this.sinceParameter = this.createParameterExpression(Date.class, "since");
+        
+        this.findChangesSinceQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<PortalDataChangeImpl>>() {
+            @Override
+            public CriteriaQuery<PortalDataChangeImpl> apply(CriteriaBuilder cb) {
+                final CriteriaQuery<PortalDataChangeImpl> criteriaQuery = cb.createQuery(PortalDataChangeImpl.class);
+                final Root<PortalDataChangeImpl> root = criteriaQuery.from(PortalDataChangeImpl.class);
+                criteriaQuery.select(root);
+                criteriaQuery.where(
+                        cb.equal(root.get(PortalDataChangeImpl_.typeId), typeIdParameter),
+                        cb.greaterThan(root.get(PortalDataChangeImpl_.lastModified), sinceParameter)
+                    );
+                criteriaQuery.orderBy(
+                        cb.asc(root.get(PortalDataChangeImpl_.lastModified)),
+                        cb.asc(root.get(PortalDataChangeImpl_.id))
+                    );
+                
+                return criteriaQuery;
+            }
+        });
+    }
+
+    @Override
+    @PortalTransactional
+    public void dataModified(String typeId, String dataId) {
+        this.recordChange(typeId, dataId, false);
+    }
+
+    @Override
+    @PortalTransactional
+    public void dataDeleted(String typeId, String dataId) {
+        this.recordChange(typeId, dataId, true);
+    }
+
+    @Override
+    @PortalTransactionalReadOnly
+    public List<IPortalDataChange> getPortalDataChanges(String typeId, Date since) {
+        final TypedQuery<PortalDataChangeImpl> query = this.createQuery(this.findChangesSinceQuery);
+        query.setParameter(this.typeIdParameter, typeId);
+        query.setParameter(this.sinceParameter, since);
+        
+        //Changes are appended, the last one recorded for each data id wins
+        final Map<String, IPortalDataChange> latestChanges = new LinkedHashMap<String, IPortalDataChange>();
+        for (final PortalDataChangeImpl change : query.getResultList()) {
+            latestChanges.remove(change.getDataId());
+            latestChanges.put(change.getDataId(), change);
+        }
+        
+        return new ArrayList<IPortalDataChange>(latestChanges.values());
+    }
+    
+    /**
+     * Always inserts a new row. This runs in the transaction of the write being tracked, updating
+     * a shared row per data id would let two concurrent writes for the same data conflict and roll
+     * back the tracked write along with the change record.
+     */
+    private void recordChange(String typeId, String dataId, boolean deleted) {
+        this.getEntityManager().persist(new PortalDataChangeImpl(typeId, dataId, new Date(), deleted));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml.change.jpa;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+
+import org.apache.commons.lang.Validate;
+import org.hibernate.annotations.Index;
+import org.jasig.portal.io.xml.change.IPortalDataChange;
+
+@Entity
+@Table(name = "UP_DATA_CHANGE")
+@SequenceGenerator(
+        name="UP_DATA_CHANGE_GEN",
+        sequenceName="UP_DATA_CHANGE_SEQ",
+        allocationSize=10
+    )
+@TableGenerator(
+        name="UP_DATA_CHANGE_GEN",
+        pkColumnValue="UP_DATA_CHANGE",
+        allocationSize=10
+    )
+class PortalDataChangeImpl implements IPortalDataChange, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(generator = "UP_DATA_CHANGE_GEN")
+    @Column(name = "CHANGE_ID")
+    private final long id;
+    
+    @Column(name = "TYPE_ID", length = 100, nullable = false)
+    private final String typeId;
+    
+    @Column(name = "DATA_ID", length = 255, nullable = false)
+    private final String dataId;
+    
+    @Column(name = "LAST_MODIFIED", nullable = false, updatable = false)
+    @Index(name = "IDX_UP_DATA_CHANGE_MODIFIED")
+    private final Date lastModified;
+    
+    @Column(name = "DELETED", nullable = false, updatable = false)
+    private final boolean deleted;
+    
+    @SuppressWarnings("unused")
+    private PortalDataChangeImpl() {
+        this.id = -1;
+        this.typeId = null;
+        this.dataId = null;
+        this.lastModified = null;
+        this.deleted = false;
+    }
+    
+    PortalDataChangeImpl(String typeId, String dataId, Date lastModified, boolean deleted) {
+        Validate.notNull(typeId, "typeId");
+        Validate.notNull(dataId, "dataId");
+        Validate.notNull(lastModified, "lastModified");
+        this.id = -1;
+        this.typeId = typeId;
+        this.dataId = dataId;
+        this.lastModified = lastModified;
+        this.deleted = deleted;
+    }
+
+    @Override
+    public String getTypeId() {
+        return this.typeId;
+    }
+
+    @Override
+    public String getDataId() {
+        return this.dataId;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return this.lastModified;
+    }
+
+    @Override
+    public boolean isDeleted() {
+        return this.deleted;
+    }
+    
+
+    @Override
+    public String toString() {
+        return "PortalDataChangeImpl [typeId=" + this.typeId + ", dataId=" + this.dataId + ", lastModified="
+                + this.lastModified + ", deleted=" + this.deleted + "]";
+    }
+}
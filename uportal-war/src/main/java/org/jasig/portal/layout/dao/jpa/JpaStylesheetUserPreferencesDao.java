@@ -28,12 +28,16 @@ import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
 
+import org.jasig.portal.IUserIdentityStore;
 import org.jasig.portal.IUserProfile;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.io.xml.layout.LayoutPortalDataType;
 import org.jasig.portal.jpa.BasePortalJpaDao;
 import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
 import org.jasig.portal.security.IPerson;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
 
@@ -54,6 +58,19 @@ public class JpaStylesheetUserPreferencesDao extends BasePortalJpaDao implements
     private ParameterExpression<Integer> userIdParameter;
     private ParameterExpression<Integer> profileIdParameter;
     
+    private IUserIdentityStore userIdentityStore;
+    private IPortalDataChangeDao portalDataChangeDao;
+    
+    @Autowired
+    public void setUserIdentityStore(IUserIdentityStore userIdentityStore) {
+        this.userIdentityStore = userIdentityStore;
+    }
+    
+    @Autowired
+    public void setPortalDataChangeDao(IPortalDataChangeDao portalDataChangeDao) {
+        this.portalDataChangeDao = portalDataChangeDao;
+    }
+    
     @Override
     public void afterPropertiesSet() throws Exception {
         this.stylesheetDescriptorParameter = this.createParameterExpression(StylesheetDescriptorImpl.class, "stylesheetDescriptor");
@@ -181,11 +198,25 @@ public class JpaStylesheetUserPreferencesDao extends BasePortalJpaDao implements
     @Override
     public void storeStylesheetUserPreferences(IStylesheetUserPreferences stylesheetUserPreferences) {
         this.getEntityManager().persist(stylesheetUserPreferences);
+        this.layoutModified(stylesheetUserPreferences);
     }
     
     @PortalTransactional
     @Override
     public void deleteStylesheetUserPreferences(IStylesheetUserPreferences stylesheetUserPreferences) {
         this.getEntityManager().remove(stylesheetUserPreferences);
+        this.layoutModified(stylesheetUserPreferences);
+    }
+    
+    /**
+     * Stylesheet user preferences are exported as part of the user's layout, track the change so
+     * incremental exports include the layout. Nothing is recorded if the user no longer exists,
+     * the deletion of the user records the deleted layout.
+     */
+    protected void layoutModified(IStylesheetUserPreferences stylesheetUserPreferences) {
+        final String userName = this.userIdentityStore.getPortalUserName(stylesheetUserPreferences.getUserId());
+        if (userName != null) {
+            this.portalDataChangeDao.dataModified(LayoutPortalDataType.LEGACY_LAYOUT_QNAME.getLocalPart(), userName);
+        }
     }
 }
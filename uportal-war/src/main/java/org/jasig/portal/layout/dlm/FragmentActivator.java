@@ -20,8 +20,12 @@
 package org.jasig.portal.layout.dlm;
 
 import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 
@@ -517,6 +521,34 @@ public class FragmentActivator
         }
     }
     
+    /**
+     * @return A snapshot of the fragment owner ids and the locales each fragment has been activated
+     *         for since this node started. Used to re-activate the same fragments after a restart.
+     */
+    public Map<String, Set<Locale>> getActivatedFragmentLocales() {
+        final Map<String, Set<Locale>> activated = new LinkedHashMap<String, Set<Locale>>();
+        for (final Map.Entry<String, List<Locale>> entry : fragmentOwnerLocales.asMap().entrySet()) {
+            activated.put(entry.getKey(), new LinkedHashSet<Locale>(entry.getValue()));
+        }
+        return activated;
+    }
+    
+    /**
+     * Ensures the {@link UserView} for the fragment owned by the specified owner is activated and
+     * cached for the locale, activating it if needed.
+     * 
+     * @return false if no fragment definition exists for the owner id
+     */
+    public boolean activateUserView(String ownerId, Locale locale) {
+        final FragmentDefinition fd = configurationLoader.getFragmentByOwnerId(ownerId);
+        if (fd == null) {
+            return false;
+        }
+        
+        this.getUserView(fd, locale);
+        return true;
+    }
+    
     private net.sf.ehcache.Element getUserView(String ownerId, Locale locale) {
         return userViews.get(new Tuple<String, String>(ownerId, locale.toString()));
     }
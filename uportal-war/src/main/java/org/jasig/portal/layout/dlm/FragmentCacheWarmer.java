@@ -0,0 +1,284 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jasig.portal.i18n.LocaleManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps fragment {@link UserView}s warm across restarts. The fragment owner/locale pairs that
+ * {@link FragmentActivator} has activated are periodically written to a local snapshot file and
+ * again when the portal shuts down. When the portal starts the snapshot is read and each
+ * fragment is re-activated so the first users after a restart do not pay the full fragment
+ * activation cost. By default the warm-up runs entirely in the background, the refresh of the
+ * root application context, and so the start of request handling, can be made to wait for it for up
+ * to {@link #setMaxWarmupWait(int)} seconds.
+ * <p>
+ * Nothing is snapshotted or warmed until a snapshot file is configured, it should be placed in a
+ * directory owned by the portal rather than in a shared temp directory.
+ * <p>
+ * Per-user layouts are not snapshotted, {@link DistributedLayoutManager} always reloads the layout
+ * of an authenticated user at login and the rendering transform caches are keyed on per-request
+ * navigational state that cannot be reproduced outside of a request.
+ */
+@Service
+public class FragmentCacheWarmer implements ApplicationListener<ContextRefreshedEvent>, DisposableBean {
+    private static final String SEPARATOR = "\t";
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AtomicBoolean warmupStarted = new AtomicBoolean(false);
+    private FragmentActivator fragmentActivator;
+    private Executor executor;
+    private File snapshotFile;
+    private boolean enabled = true;
+    private int maxWarmupWait = 0;
+
+    @Autowired
+    public void setFragmentActivator(FragmentActivator fragmentActivator) {
+        this.fragmentActivator = fragmentActivator;
+    }
+
+    @Autowired
+    public void setExecutor(@Qualifier("uPortalTaskExecutor") Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * File the fragment snapshot is written to and read from, if blank no snapshot is written or
+     * read. Defaults to blank
+     */
+    @Value("${org.jasig.portal.layout.dlm.FragmentCacheWarmer.snapshotFile:}")
+    public void setSnapshotFile(String snapshotFile) {
+        if (StringUtils.isNotBlank(snapshotFile)) {
+            this.snapshotFile = new File(snapshotFile);
+        }
+        else {
+            this.snapshotFile = null;
+        }
+    }
+
+    /**
+     * If false no snapshots are written and no warm-up is done on startup, defaults to true
+     */
+    @Value("${org.jasig.portal.layout.dlm.FragmentCacheWarmer.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Seconds to hold up the portal startup while fragments are warmed, 0 to warm them entirely in
+     * the background. Defaults to 0
+     */
+    @Value("${org.jasig.portal.layout.dlm.FragmentCacheWarmer.maxWarmupWait:0}")
+    public void setMaxWarmupWait(int maxWarmupWait) {
+        this.maxWarmupWait = maxWarmupWait;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        //Child contexts propagate their refresh events, only warm up once
+        if (!this.enabled || this.snapshotFile == null || !this.warmupStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        final Map<String, Set<Locale>> activatedFragments = this.readSnapshot();
+        if (activatedFragments.isEmpty()) {
+            return;
+        }
+
+        final FutureTask<Object> warmup = new FutureTask<Object>(new Runnable() {
+            @Override
+            public void run() {
+                warmFragments(activatedFragments);
+            }
+        }, null);
+        this.executor.execute(warmup);
+        
+        if (this.maxWarmupWait <= 0) {
+            return;
+        }
+
+        //Hold up the context refresh, the container does not route requests to the portal until it completes
+        try {
+            warmup.get(this.maxWarmupWait, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e) {
+            this.logger.warn("Fragment warm-up did not complete in {} seconds, portal startup will continue while it finishes in the background", this.maxWarmupWait);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            this.logger.warn("Fragment warm-up failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        this.writeSnapshot();
+    }
+
+    /**
+     * Write the currently activated fragments to the snapshot file, called periodically by the
+     * task scheduler so a snapshot exists even if the portal is not shut down cleanly.
+     */
+    public void writeSnapshot() {
+        if (!this.enabled || this.snapshotFile == null) {
+            return;
+        }
+
+        final Map<String, Set<Locale>> activatedFragments = this.fragmentActivator.getActivatedFragmentLocales();
+        if (activatedFragments.isEmpty()) {
+            //Don't replace a useful snapshot with an empty one if nothing has been activated yet
+            return;
+        }
+
+        //Write to a temp file and rename so a partially written snapshot is never read
+        final File tempFile = new File(this.snapshotFile.getPath() + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+            for (final Map.Entry<String, Set<Locale>> entry : activatedFragments.entrySet()) {
+                for (final Locale locale : entry.getValue()) {
+                    writer.write(entry.getKey());
+                    writer.write(SEPARATOR);
+                    writer.write(locale.toString());
+                    writer.newLine();
+                }
+            }
+            writer.close();
+            writer = null;
+
+            if (!tempFile.renameTo(this.snapshotFile)) {
+                this.snapshotFile.delete();
+                if (!tempFile.renameTo(this.snapshotFile)) {
+                    this.logger.warn("Failed to rename {} to {}, no fragment cache snapshot was written", tempFile, this.snapshotFile);
+                    return;
+                }
+            }
+
+            this.logger.debug("Wrote snapshot of {} activated fragments to {}", activatedFragments.size(), this.snapshotFile);
+        }
+        catch (IOException e) {
+            this.logger.warn("Failed to write fragment cache snapshot to " + this.snapshotFile, e);
+        }
+        finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * @return The fragment owner/locale pairs from the snapshot file, empty if no snapshot exists
+     */
+    protected Map<String, Set<Locale>> readSnapshot() {
+        final Map<String, Set<Locale>> activatedFragments = new LinkedHashMap<String, Set<Locale>>();
+        if (this.snapshotFile == null) {
+            return activatedFragments;
+        }
+        if (!this.snapshotFile.exists()) {
+            this.logger.debug("No fragment cache snapshot exists at {}, skipping warm-up", this.snapshotFile);
+            return activatedFragments;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.snapshotFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = StringUtils.splitPreserveAllTokens(line, SEPARATOR);
+                if (parts.length != 2 || StringUtils.isBlank(parts[0])) {
+                    this.logger.debug("Ignoring malformed fragment cache snapshot line: {}", line);
+                    continue;
+                }
+
+                Set<Locale> locales = activatedFragments.get(parts[0]);
+                if (locales == null) {
+                    locales = new LinkedHashSet<Locale>();
+                    activatedFragments.put(parts[0], locales);
+                }
+                locales.add(LocaleManager.parseLocale(parts[1]));
+            }
+        }
+        catch (IOException e) {
+            this.logger.warn("Failed to read fragment cache snapshot from " + this.snapshotFile + ", skipping warm-up", e);
+            activatedFragments.clear();
+        }
+        finally {
+            IOUtils.closeQuietly(reader);
+        }
+
+        return activatedFragments;
+    }
+
+    protected void warmFragments(Map<String, Set<Locale>> activatedFragments) {
+        final long start = System.currentTimeMillis();
+        int activated = 0;
+        for (final Map.Entry<String, Set<Locale>> entry : activatedFragments.entrySet()) {
+            final String ownerId = entry.getKey();
+            for (final Locale locale : entry.getValue()) {
+                try {
+                    if (this.fragmentActivator.activateUserView(ownerId, locale)) {
+                        activated++;
+                    }
+                    else {
+                        this.logger.debug("No fragment definition exists for owner {}, it will not be warmed", ownerId);
+                    }
+                }
+                catch (Exception e) {
+                    this.logger.warn("Failed to warm fragment owned by " + ownerId + " for locale " + locale, e);
+                }
+            }
+        }
+
+        this.logger.info("Warmed {} fragment user views from {} in {}ms",
+                new Object[] { activated, this.snapshotFile, System.currentTimeMillis() - start });
+    }
+}
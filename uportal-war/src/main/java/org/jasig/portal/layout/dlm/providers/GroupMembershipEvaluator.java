@@ -28,6 +28,7 @@ import org.dom4j.Element;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.groups.EffectiveGroups;
 import org.jasig.portal.groups.GroupsException;
 import org.jasig.portal.groups.IEntityGroup;
 import org.jasig.portal.groups.IGroupConstants;
@@ -133,20 +134,20 @@ public class GroupMembershipEvaluator extends Evaluator
               return false;
           
           IEntityGroup group = getGroup(groupKey);
-          EntityIdentifier ei = p.getEntityIdentifier();
           
           try
           {
-              IGroupMember groupMember = GroupService.getGroupMember(ei);
               boolean isMember =false;
               
               if (evaluatorMode == MEMBER_OF_MODE)
               {
+                  EntityIdentifier ei = p.getEntityIdentifier();
+                  IGroupMember groupMember = GroupService.getGroupMember(ei);
                   isMember = groupMember.isMemberOf(group);
               }
               else
               { 
-                  isMember = groupMember.isDeepMemberOf(group);
+                  isMember = EffectiveGroups.getEffectiveGroups(p).isMemberOf(group);
               }
               return isMember;
           } catch (GroupsException e)
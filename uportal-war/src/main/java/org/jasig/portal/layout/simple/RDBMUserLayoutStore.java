@@ -42,6 +42,8 @@ import org.jasig.portal.IUserProfile;
 import org.jasig.portal.UserProfile;
 import org.jasig.portal.i18n.ILocaleStore;
 import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.io.xml.layout.LayoutPortalDataType;
 import org.jasig.portal.jpa.BasePortalJpaDao;
 import org.jasig.portal.layout.IUserLayoutStore;
 import org.jasig.portal.layout.LayoutStructure;
@@ -113,6 +115,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
   protected ICounterStore counterStore;
   protected IPortletDefinitionRegistry portletDefinitionRegistry;
   protected IStylesheetDescriptorDao stylesheetDescriptorDao;
+  protected IPortalDataChangeDao portalDataChangeDao;
   protected SQLExceptionTranslator exceptionTranslator;
   
   // I18n property
@@ -128,6 +131,11 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
         this.stylesheetDescriptorDao = stylesheetDescriptorDao;
     }
 
+    @Autowired
+    public void setPortalDataChangeDao(IPortalDataChangeDao portalDataChangeDao) {
+        this.portalDataChangeDao = portalDataChangeDao;
+    }
+
     @Autowired
     public void setPlatformTransactionManager(@Qualifier(BasePortalJpaDao.PERSISTENCE_UNIT_NAME) PlatformTransactionManager platformTransactionManager) {
         this.transactionOperations = new TransactionTemplate(platformTransactionManager);
@@ -1237,7 +1245,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
       this.transactionOperations.execute(new TransactionCallback<Object>() {
           @Override
           public Object doInTransaction(TransactionStatus status) {
-              return jdbcOperations.execute(new ConnectionCallback<Object>() {
+              jdbcOperations.execute(new ConnectionCallback<Object>() {
                   @Override
                   public Object doInConnection(Connection con) throws SQLException, DataAccessException {
 
@@ -1457,6 +1465,10 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
           return null;
                   }
               });
+              
+              //Track the change in the same transaction so incremental exports include the layout
+              portalDataChangeDao.dataModified(LayoutPortalDataType.LEGACY_LAYOUT_QNAME.getLocalPart(), person.getUserName());
+              return null;
           }
       });
       if (log.isDebugEnabled()) {
@@ -52,6 +52,11 @@ public interface IPortletCookieService {
      */
     public void addCookie(HttpServletRequest request, IPortletWindowId portletWindowId, Cookie cookie);
     
+    /**
+     * Writes the queued portal cookie expiration updates to persistent storage
+     */
+    public void flushPortalCookieExpirations();
+    
     /**
      * Purges expired cookies
      */
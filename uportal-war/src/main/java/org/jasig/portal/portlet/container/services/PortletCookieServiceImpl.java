@@ -22,10 +22,12 @@ package org.jasig.portal.portlet.container.services;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
@@ -34,6 +36,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.apache.commons.lang.time.DateUtils;
 import org.jasig.portal.concurrency.FunctionWithoutResult;
 import org.jasig.portal.concurrency.locking.ClusterMutex;
 import org.jasig.portal.concurrency.locking.IClusterLockService;
@@ -44,8 +47,11 @@ import org.jasig.portal.portlet.dao.IPortletCookieDao;
 import org.jasig.portal.portlet.om.IPortalCookie;
 import org.jasig.portal.portlet.om.IPortletCookie;
 import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.utils.BatchedPurger;
+import org.jasig.portal.utils.BatchedPurger.PurgeBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -54,12 +60,18 @@ import org.springframework.web.util.WebUtils;
 
 /**
  * {@link Service} bean to encapsulate business logic regarding portlet cookie persistence.
+ * <p>
+ * Refreshes of the portal cookie expiration date are written behind. Each refresh is queued in
+ * memory, keyed by cookie value so repeated refreshes of the same cookie coalesce, and the queue
+ * is written to the database in a single batch by {@link #flushPortalCookieExpirations()} which
+ * is called periodically by the task scheduler, before expired cookies are purged and on shutdown.
+ * Portlet cookies are still written immediately so they are visible to every portal in the cluster.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 @Service("portletCookieService")
-public class PortletCookieServiceImpl implements IPortletCookieService, ServletContextAware {
+public class PortletCookieServiceImpl implements IPortletCookieService, ServletContextAware, DisposableBean {
     
 	/**
 	 * Name of the {@link HttpSession} attribute used for storing a concurrent map of portlet cookies that do not need to be persisted.
@@ -71,11 +83,16 @@ public class PortletCookieServiceImpl implements IPortletCookieService, ServletC
 	static final String SESSION_ATTRIBUTE__PORTAL_COOKIE_ID = PortletCookieServiceImpl.class.getName() + ".PORTAL_COOKIE_ID";
 	
 	private static final String PURGE_LOCK_NAME = PortletCookieServiceImpl.class.getName() + ".PURGE_LOCK";
+	private static final String PURGE_NAME = "PortletCookies";
     
 	protected final Logger logger = LoggerFactory.getLogger(getClass());
 	
 	private IPortletCookieDao portletCookieDao;
 	private IClusterLockService clusterLockService;
+	private BatchedPurger batchedPurger;
+	
+	//portal cookie value -> expiration date not yet written to the database
+	private final ConcurrentMap<String, Date> pendingPortalCookieExpirations = new ConcurrentHashMap<String, Date>();
     
     protected static final int DEFAULT_MAX_AGE = (int)TimeUnit.DAYS.toSeconds(365);
     private String cookieName = DEFAULT_PORTAL_COOKIE_NAME;
@@ -97,6 +114,11 @@ public class PortletCookieServiceImpl implements IPortletCookieService, ServletC
         this.clusterLockService = clusterLockService;
     }
 
+    @Autowired
+    public void setBatchedPurger(BatchedPurger batchedPurger) {
+        this.batchedPurger = batchedPurger;
+    }
+
     @Value("${org.jasig.portal.portlet.container.services.PortletCookieServiceImpl.purgeExpiredCookiesPeriod}")
     public void setPurgeExpiredCookiesPeriod(long purgeExpiredCookiesPeriod) {
         this.purgeExpiredCookiesPeriod = purgeExpiredCookiesPeriod;
@@ -107,6 +129,11 @@ public class PortletCookieServiceImpl implements IPortletCookieService, ServletC
 		this.path = servletContext.getContextPath() + "/";
 	}
 
+    @Override
+    public void destroy() throws Exception {
+        this.flushPortalCookieExpirations();
+    }
+
 	/**
      * @param maxAge The max number of seconds the portal cookie should live for. Defaults to 365 days. 
      */
@@ -164,10 +191,10 @@ public class PortletCookieServiceImpl implements IPortletCookieService, ServletC
         //Create the browser cookie
         final Cookie cookie = this.convertToCookie(portalCookie, this.portalCookieAlwaysSecure || request.isSecure());
         
-        //Update the expiration date of the portal cookie stored in the DB if the update interval has passed
-        final Date expires = portalCookie.getExpires();
+        //Queue an update of the expiration date of the portal cookie stored in the DB if the update interval has passed
+        final Date expires = this.getPortalCookieExpiration(portalCookie);
         if ((System.currentTimeMillis() - this.maxAgeUpdateInterval) > (expires.getTime() - TimeUnit.SECONDS.toMillis(this.maxAge))) {
-            this.portletCookieDao.updatePortalCookieExpiration(portalCookie, cookie.getMaxAge());
+            this.pendingPortalCookieExpirations.put(portalCookie.getValue(), DateUtils.addSeconds(new Date(), cookie.getMaxAge()));
             
             // Update expiration dates of portlet cookies stored in session
             removeExpiredPortletCookies(request);
@@ -176,6 +203,50 @@ public class PortletCookieServiceImpl implements IPortletCookieService, ServletC
         response.addCookie(cookie);
     }
    
+    /**
+     * @return The latest expiration date of the portal cookie, including a queued update that has not been written yet
+     */
+    protected Date getPortalCookieExpiration(IPortalCookie portalCookie) {
+        final Date expires = portalCookie.getExpires();
+        final Date pendingExpires = this.pendingPortalCookieExpirations.get(portalCookie.getValue());
+        if (pendingExpires != null && pendingExpires.after(expires)) {
+            return pendingExpires;
+        }
+        return expires;
+    }
+    
+    @Override
+    public void flushPortalCookieExpirations() {
+        if (this.pendingPortalCookieExpirations.isEmpty()) {
+            return;
+        }
+        
+        //Only remove the exact values being written, a refresh queued during the flush waits for the next one
+        final Map<String, Date> expirations = new LinkedHashMap<String, Date>();
+        for (final Entry<String, Date> pendingEntry : this.pendingPortalCookieExpirations.entrySet()) {
+            final String value = pendingEntry.getKey();
+            final Date expiration = pendingEntry.getValue();
+            if (this.pendingPortalCookieExpirations.remove(value, expiration)) {
+                expirations.put(value, expiration);
+            }
+        }
+        
+        if (expirations.isEmpty()) {
+            return;
+        }
+        
+        try {
+            this.portletCookieDao.updatePortalCookieExpirations(expirations);
+        }
+        catch (RuntimeException e) {
+            //Re-queue the updates that have not been superseded so they are retried by the next flush
+            for (final Entry<String, Date> expirationEntry : expirations.entrySet()) {
+                this.pendingPortalCookieExpirations.putIfAbsent(expirationEntry.getKey(), expirationEntry.getValue());
+            }
+            logger.warn("Failed to write " + expirations.size() + " portal cookie expiration updates, they will be retried", e);
+        }
+    }
+    
    /**
     * Remove expired session only portlet cookies.
     * 
@@ -269,6 +340,9 @@ public class PortletCookieServiceImpl implements IPortletCookieService, ServletC
     
     @Override
     public boolean purgeExpiredCookies() {
+        //Write queued expiration updates first so recently used cookies are not purged
+        this.flushPortalCookieExpirations();
+        
         try {
             final long purgeExpiredLastRunDelay = (long)(purgeExpiredCookiesPeriod * .95);
             final TryLockFunctionResult<Object> result = this.clusterLockService.doInTryLock(
@@ -277,7 +351,13 @@ public class PortletCookieServiceImpl implements IPortletCookieService, ServletC
                     new FunctionWithoutResult<ClusterMutex>() {
                         @Override
                         protected void applyWithoutResult(ClusterMutex input) {
-                            portletCookieDao.purgeExpiredCookies();
+                            //Delete in batches so the cookie tables are never locked for long
+                            batchedPurger.purge(PURGE_NAME, new PurgeBatch() {
+                                @Override
+                                public int purge(int batchSize) {
+                                    return portletCookieDao.purgeExpiredCookies(batchSize);
+                                }
+                            });
                         }
                     });
             return result.getLockStatus() ==  LockStatus.EXECUTED;
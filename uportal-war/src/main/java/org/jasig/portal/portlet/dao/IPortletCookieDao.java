@@ -19,6 +19,9 @@
 
 package org.jasig.portal.portlet.dao;
 
+import java.util.Date;
+import java.util.Map;
+
 import javax.servlet.http.Cookie;
 
 import org.jasig.portal.portlet.om.IPortalCookie;
@@ -39,11 +42,12 @@ public interface IPortletCookieDao {
 	public IPortalCookie createPortalCookie(int maxAge);
 	
 	/**
-	 * @param maxAge The cookies maximum age in seconds
-	 * @param portalCookie
-	 * @return
+	 * Update the expiration dates of many {@link IPortalCookie}s in a single transaction. Cookies that
+	 * no longer exist are ignored and an expiration date is never moved earlier.
+	 * 
+	 * @param expirations Map of portal cookie value to new expiration date
 	 */
-	public IPortalCookie updatePortalCookieExpiration(IPortalCookie portalCookie, int maxAge);
+	public void updatePortalCookieExpirations(Map<String, Date> expirations);
 	
 	/**
 	 * 
@@ -67,4 +71,14 @@ public interface IPortletCookieDao {
      * from persistence that have expired.
      */
     public void purgeExpiredCookies();
+    
+    /**
+     * Delete up to maxPurge expired {@link IPortalCookie}s and {@link IPortletCookie}s in a single transaction.
+     * Portlet cookies are deleted before the portal cookies they belong to. Intended to be called repeatedly
+     * until fewer than maxPurge cookies are deleted.
+     * 
+     * @param maxPurge The maximum number of cookies to delete
+     * @return The number of cookies deleted
+     */
+    public int purgeExpiredCookies(int maxPurge);
 }
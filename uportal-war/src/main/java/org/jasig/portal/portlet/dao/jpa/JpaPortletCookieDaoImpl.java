@@ -23,6 +23,7 @@ import java.security.SecureRandom;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
@@ -55,10 +56,17 @@ import com.google.common.base.Function;
 @Repository("portletCookieDao")
 @Qualifier("persistence")
 public class JpaPortletCookieDaoImpl extends BasePortalJpaDao implements IPortletCookieDao {
+    private static final String IDS_PARAMETER = "ids";
+    
 	private final SecureRandom secureRandom = new SecureRandom();
 
 	private String deletePortalCookieQueryString;
 	private String deletePortletCookieQueryString;
+	private String findExpiredPortalCookieIdsQueryString;
+	private String findExpiredPortletCookieIdsQueryString;
+	private String findExpiredByParentPortletCookieIdsQueryString;
+	private String deletePortalCookiesByIdQueryString;
+	private String deletePortletCookiesByIdQueryString;
 	private CriteriaQuery<PortletCookieImpl> findExpiredByParentPortletCookiesQuery;
     private ParameterExpression<Date> nowParameter;
 
@@ -74,6 +82,27 @@ public class JpaPortletCookieDaoImpl extends BasePortalJpaDao implements IPortle
                 "DELETE FROM " + PortletCookieImpl.class.getName() + " e " +
                 "WHERE e." + PortletCookieImpl_.expires.getName() + " <= :" + this.nowParameter.getName();
         
+        //Id queries for batched purging, each is driven by the index on the EXPIRES column
+        this.findExpiredPortalCookieIdsQueryString = 
+                "SELECT e." + PortalCookieImpl_.internalPortalCookieId.getName() + " FROM " + PortalCookieImpl.class.getName() + " e " +
+                "WHERE e." + PortalCookieImpl_.expires.getName() + " <= :" + this.nowParameter.getName();
+        
+        this.findExpiredPortletCookieIdsQueryString = 
+                "SELECT e." + PortletCookieImpl_.internalPortletCookieId.getName() + " FROM " + PortletCookieImpl.class.getName() + " e " +
+                "WHERE e." + PortletCookieImpl_.expires.getName() + " <= :" + this.nowParameter.getName();
+        
+        this.findExpiredByParentPortletCookieIdsQueryString = 
+                "SELECT e." + PortletCookieImpl_.internalPortletCookieId.getName() + " FROM " + PortletCookieImpl.class.getName() + " e " +
+                "WHERE e." + PortletCookieImpl_.portalCookie.getName() + "." + PortalCookieImpl_.expires.getName() + " <= :" + this.nowParameter.getName();
+        
+        this.deletePortalCookiesByIdQueryString = 
+                "DELETE FROM " + PortalCookieImpl.class.getName() + " e " +
+                "WHERE e." + PortalCookieImpl_.internalPortalCookieId.getName() + " IN (:" + IDS_PARAMETER + ")";
+        
+        this.deletePortletCookiesByIdQueryString = 
+                "DELETE FROM " + PortletCookieImpl.class.getName() + " e " +
+                "WHERE e." + PortletCookieImpl_.internalPortletCookieId.getName() + " IN (:" + IDS_PARAMETER + ")";
+        
         this.findExpiredByParentPortletCookiesQuery = this.createCriteriaQuery(new Function<CriteriaBuilder, CriteriaQuery<PortletCookieImpl>>() {
             @Override
             public CriteriaQuery<PortletCookieImpl> apply(CriteriaBuilder cb) {
@@ -126,15 +155,21 @@ public class JpaPortletCookieDaoImpl extends BasePortalJpaDao implements IPortle
 
     @Override
     @PortalTransactional
-    public IPortalCookie updatePortalCookieExpiration(IPortalCookie portalCookie, int maxAge) {
-        
-        //Calculate expiration date and update the portal cookie
-        Date expiration = DateUtils.addSeconds(new Date(), maxAge);
-        portalCookie.setExpires(expiration);
-        
-        this.getEntityManager().persist(portalCookie);
+    public void updatePortalCookieExpirations(Map<String, Date> expirations) {
+        //Cookies are loaded into the transaction so the updates are flushed together as a JDBC batch
+        int updated = 0;
+        for (final Map.Entry<String, Date> expirationEntry : expirations.entrySet()) {
+            final IPortalCookie portalCookie = this.getPortalCookie(expirationEntry.getKey());
+            final Date expiration = expirationEntry.getValue();
+            if (portalCookie != null && expiration.after(portalCookie.getExpires())) {
+                portalCookie.setExpires(expiration);
+                updated++;
+            }
+        }
         
-        return portalCookie;
+        if (logger.isDebugEnabled()) {
+            logger.debug("updated expiration of " + updated + " of " + expirations.size() + " portal cookies");
+        }
     }
     
 	@Override
@@ -175,6 +210,50 @@ public class JpaPortletCookieDaoImpl extends BasePortalJpaDao implements IPortle
 		}
 	}
 
+	@Override
+	@PortalTransactional
+	public int purgeExpiredCookies(int maxPurge) {
+	    final Date now = new Date();
+	    
+	    //Portlet cookies that have expired themselves, then those whose portal cookie has expired
+	    int purged = this.deleteExpired(this.findExpiredPortletCookieIdsQueryString, this.deletePortletCookiesByIdQueryString, now, maxPurge);
+	    if (purged < maxPurge) {
+	        purged += this.deleteExpired(this.findExpiredByParentPortletCookieIdsQueryString, this.deletePortletCookiesByIdQueryString, now, maxPurge - purged);
+	    }
+	    
+	    //Only once no expired portal cookie has portlet cookies left are the portal cookies deleted
+	    if (purged < maxPurge) {
+	        purged += this.deleteExpired(this.findExpiredPortalCookieIdsQueryString, this.deletePortalCookiesByIdQueryString, now, maxPurge - purged);
+	    }
+	    
+	    if (logger.isDebugEnabled()) {
+	        logger.debug("purged " + purged + " expired portal and portlet cookies");
+	    }
+	    
+	    return purged;
+	}
+	
+	/**
+	 * Find up to maxPurge ids with the find query and delete them with the delete query
+	 */
+	private int deleteExpired(String findIdsQueryString, String deleteByIdQueryString, Date now, int maxPurge) {
+	    final EntityManager entityManager = this.getEntityManager();
+	    
+	    final TypedQuery<Long> findIdsQuery = entityManager.createQuery(findIdsQueryString, Long.class);
+	    findIdsQuery.setParameter(this.nowParameter.getName(), now);
+	    findIdsQuery.setMaxResults(maxPurge);
+	    final List<Long> ids = findIdsQuery.getResultList();
+	    if (ids.isEmpty()) {
+	        return 0;
+	    }
+	    
+	    final Query deleteQuery = entityManager.createQuery(deleteByIdQueryString);
+	    deleteQuery.setParameter(IDS_PARAMETER, ids);
+	    deleteQuery.executeUpdate();
+	    
+	    return ids.size();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.jasig.portal.portlet.dao.IPortletCookieDao#updatePortletCookie(org.jasig.portal.portlet.om.IPortalCookie, javax.servlet.http.Cookie)
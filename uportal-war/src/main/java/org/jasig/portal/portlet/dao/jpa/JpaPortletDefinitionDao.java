@@ -33,6 +33,8 @@ import javax.persistence.criteria.Root;
 
 import org.apache.commons.lang.Validate;
 import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.io.xml.portlet.PortletPortalDataType;
 import org.jasig.portal.jpa.BasePortalJpaDao;
 import org.jasig.portal.jpa.OpenEntityManager;
 import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
@@ -40,6 +42,7 @@ import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionId;
 import org.jasig.portal.portlet.om.IPortletType;
 import org.jasig.portal.spring.tx.DialectAwareTransactional;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
 
@@ -53,12 +56,20 @@ import com.google.common.base.Function;
  */
 @Repository
 public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortletDefinitionDao {
+    private static final String PORTLET_DEFINITION_TYPE_ID = PortletPortalDataType.PORTLET_DEFINITION_QNAME.getLocalPart();
+    
     private CriteriaQuery<PortletDefinitionImpl> findAllPortletDefinitions;
     private CriteriaQuery<PortletDefinitionImpl> findDefinitionByNameQuery;
     private CriteriaQuery<PortletDefinitionImpl> findDefinitionByNameOrTitleQuery;
     private CriteriaQuery<PortletDefinitionImpl> searchDefinitionByNameOrTitleQuery;
     private ParameterExpression<String> nameParameter;
     private ParameterExpression<String> titleParameter;
+    private IPortalDataChangeDao portalDataChangeDao;
+    
+    @Autowired
+    public void setPortalDataChangeDao(IPortalDataChangeDao portalDataChangeDao) {
+        this.portalDataChangeDao = portalDataChangeDao;
+    }
     
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -229,6 +240,7 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         }
         
         entityManager.remove(persistentPortletDefinition);
+        this.portalDataChangeDao.dataDeleted(PORTLET_DEFINITION_TYPE_ID, persistentPortletDefinition.getFName());
 	}
 
 	@Override
@@ -253,6 +265,7 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         final PortletDefinitionImpl portletDefinition = new PortletDefinitionImpl(portletType, fname, name, title, applicationId, portletName, isFramework);
         
         this.getEntityManager().persist(portletDefinition);
+        this.portalDataChangeDao.dataModified(PORTLET_DEFINITION_TYPE_ID, fname);
         
         return portletDefinition;
     }
@@ -264,6 +277,7 @@ public class JpaPortletDefinitionDao extends BasePortalJpaDao implements IPortle
         Validate.notNull(portletDefinition, "portletDefinition can not be null");
         
         this.getEntityManager().persist(portletDefinition);
+        this.portalDataChangeDao.dataModified(PORTLET_DEFINITION_TYPE_ID, portletDefinition.getFName());
         return portletDefinition;
     }
 
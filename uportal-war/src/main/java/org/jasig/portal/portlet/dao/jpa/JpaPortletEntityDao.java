@@ -34,6 +34,9 @@ import javax.persistence.criteria.Root;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.jasig.portal.IUserIdentityStore;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.io.xml.layout.LayoutPortalDataType;
 import org.jasig.portal.jpa.BasePortalJpaDao;
 import org.jasig.portal.jpa.OpenEntityManager;
 import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
@@ -63,6 +66,8 @@ public class JpaPortletEntityDao extends BasePortalJpaDao implements IPortletEnt
     private ParameterExpression<PortletDefinitionImpl> portletDefinitionParameter;
 
     private IPortletDefinitionDao portletDefinitionDao;
+    private IUserIdentityStore userIdentityStore;
+    private IPortalDataChangeDao portalDataChangeDao;
     
     
     @Autowired
@@ -70,6 +75,16 @@ public class JpaPortletEntityDao extends BasePortalJpaDao implements IPortletEnt
         this.portletDefinitionDao = portletDefinitionDao;
     }
     
+    @Autowired
+    public void setUserIdentityStore(IUserIdentityStore userIdentityStore) {
+        this.userIdentityStore = userIdentityStore;
+    }
+    
+    @Autowired
+    public void setPortalDataChangeDao(IPortalDataChangeDao portalDataChangeDao) {
+        this.portalDataChangeDao = portalDataChangeDao;
+    }
+    
     @Override
     public void afterPropertiesSet() throws Exception {
         this.userIdParameter = this.createParameterExpression(Integer.class, "userId");
@@ -150,6 +165,7 @@ public class JpaPortletEntityDao extends BasePortalJpaDao implements IPortletEnt
         }
         
         entityManager.remove(persistentPortletEntity);
+        this.layoutModified(persistentPortletEntity);
     }
 
     @Override
@@ -232,6 +248,17 @@ public class JpaPortletEntityDao extends BasePortalJpaDao implements IPortletEnt
         Validate.notNull(portletEntity, "portletEntity can not be null");
 
         this.getEntityManager().persist(portletEntity);
+        this.layoutModified(portletEntity);
+    }
+    
+    /**
+     * Records a change to the layout of the entity's user, entity preferences are exported with the layout.
+     */
+    protected void layoutModified(IPortletEntity portletEntity) {
+        final String userName = this.userIdentityStore.getPortalUserName(portletEntity.getUserId());
+        if (userName != null) {
+            this.portalDataChangeDao.dataModified(LayoutPortalDataType.LEGACY_LAYOUT_QNAME.getLocalPart(), userName);
+        }
     }
     
     protected long getNativePortletEntityId(IPortletEntityId portletEntityId) {
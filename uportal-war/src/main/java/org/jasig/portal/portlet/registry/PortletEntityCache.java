@@ -20,21 +20,20 @@
 package org.jasig.portal.portlet.registry;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jasig.portal.portlet.om.IPortletEntityDescriptor;
 import org.jasig.portal.portlet.om.IPortletEntityId;
-import org.jasig.portal.utils.threading.NoopLock;
 
 import com.google.common.base.Function;
 
 /**
  * Utility for caching portlet entities and entity data in memory. Ensures a consistent view for accessing the data by
  * different sets of keys
+ * <p>
+ * Reads do not lock. Writes for an entity lock one of a fixed set of lock stripes chosen by the entity id so that
+ * an entity is only ever created once while entities with different ids can be created concurrently.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -42,42 +41,21 @@ import com.google.common.base.Function;
  */
 class PortletEntityCache<T extends IPortletEntityDescriptor> implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final int LOCK_STRIPES = 16;
     
-    private final Lock writeLock;
-    private final Lock readLock;
-    
-    private final Map<SubscribeKey, T> entitiesBySubscribeKey = new HashMap<SubscribeKey, T>();
-    private final Map<IPortletEntityId, T> entitiesById = new HashMap<IPortletEntityId, T>();
-    
-    public PortletEntityCache() {
-        this(true);
-    }
-    
-    /**
-     * @param threadSafe If set to false no locking is done around read or write operations and this class is NOT thread safe
-     */
-    public PortletEntityCache(boolean threadSafe) {
-        if (threadSafe) {
-            final ReadWriteLock cacheLock = new ReentrantReadWriteLock(true);
-            writeLock = cacheLock.writeLock();
-            readLock = cacheLock.readLock();
-        }
-        else {
-            writeLock = NoopLock.INSTANCE;
-            readLock = NoopLock.INSTANCE;
-        }
-    }
+    private final ConcurrentMap<SubscribeKey, T> entitiesBySubscribeKey = new ConcurrentHashMap<SubscribeKey, T>();
+    private final ConcurrentMap<IPortletEntityId, T> entitiesById = new ConcurrentHashMap<IPortletEntityId, T>();
+    private final StripeLock[] locks = StripeLock.createLocks(LOCK_STRIPES);
     
     public T storeIfAbsentEntity(IPortletEntityId portletEntityId, Function<IPortletEntityId, T> entityCreator) {
-        //Check if the entity already exists (uses a read lock)
-        T existingEntity = this.getEntity(portletEntityId);
+        //Check if the entity already exists
+        T existingEntity = this.entitiesById.get(portletEntityId);
         if (existingEntity != null) {
             return existingEntity;
         }
         
-        writeLock.lock();
-        try {
-            //Check again inside the write lock
+        synchronized (this.getLock(portletEntityId)) {
+            //Check again inside the lock
             existingEntity = this.entitiesById.get(portletEntityId);
             if (existingEntity != null) {
                 return existingEntity;
@@ -89,23 +67,19 @@ class PortletEntityCache<T extends IPortletEntityDescriptor> implements Serializ
             
             return entity;
         }
-        finally {
-            writeLock.unlock();
-        }
     }
     
     public T storeIfAbsentEntity(T entity) {
         final IPortletEntityId portletEntityId = entity.getPortletEntityId();
         
-        //Check if the entity already exists (uses a read lock)
-        T existingEntity = this.getEntity(portletEntityId);
+        //Check if the entity already exists
+        T existingEntity = this.entitiesById.get(portletEntityId);
         if (existingEntity != null) {
             return existingEntity;
         }
         
-        writeLock.lock();
-        try {
-            //Check again inside the write lock
+        synchronized (this.getLock(portletEntityId)) {
+            //Check again inside the lock
             existingEntity = this.entitiesById.get(portletEntityId);
             if (existingEntity != null) {
                 return existingEntity;
@@ -113,22 +87,17 @@ class PortletEntityCache<T extends IPortletEntityDescriptor> implements Serializ
             
             this.storeEntity(entity);
         }
-        finally {
-            writeLock.unlock();
-        }
         
         return entity;
     }
     
     public void storeEntity(T entity) {
-        writeLock.lock();
-        try {
+        final IPortletEntityId portletEntityId = entity.getPortletEntityId();
+        
+        synchronized (this.getLock(portletEntityId)) {
             final SubscribeKey subscribeKey = new SubscribeKey(entity.getUserId(), entity.getLayoutNodeId());
             this.entitiesBySubscribeKey.put(subscribeKey, entity);
-            this.entitiesById.put(entity.getPortletEntityId(), entity);
-        }
-        finally {
-            writeLock.unlock();
+            this.entitiesById.put(portletEntityId, entity);
         }
     }
     
@@ -137,43 +106,27 @@ class PortletEntityCache<T extends IPortletEntityDescriptor> implements Serializ
             return null;
         }
         
-        readLock.lock();
-        try {
-            final SubscribeKey subscribeKey = new SubscribeKey(userId, layoutNodeId);
-            return this.entitiesBySubscribeKey.get(subscribeKey);
-        }
-        finally {
-            readLock.unlock();
-        }
+        final SubscribeKey subscribeKey = new SubscribeKey(userId, layoutNodeId);
+        return this.entitiesBySubscribeKey.get(subscribeKey);
     }
     
     public T getEntity(IPortletEntityId portletEntityId) {
-        if (this.entitiesById.isEmpty()) {
-            return null;
-        }
-        
-        readLock.lock();
-        try {
-            return this.entitiesById.get(portletEntityId);
-        }
-        finally {
-            readLock.unlock();
-        }
+        return this.entitiesById.get(portletEntityId);
     }
     
     public void removeEntity(IPortletEntityId portletEntityId) {
-        writeLock.lock();
-        try {
+        synchronized (this.getLock(portletEntityId)) {
             final T entity = this.entitiesById.remove(portletEntityId);
             if (entity != null) {
                 final int userId = entity.getUserId();
                 final String layoutNodeId = entity.getLayoutNodeId();
                 final SubscribeKey subscribeKey = new SubscribeKey(userId, layoutNodeId);
-                this.entitiesBySubscribeKey.remove(subscribeKey);
+                this.entitiesBySubscribeKey.remove(subscribeKey, entity);
             }
         }
-        finally {
-            writeLock.unlock();
-        }
     }
-}
\ No newline at end of file
+    
+    private Object getLock(IPortletEntityId portletEntityId) {
+        return StripeLock.getLock(this.locks, portletEntityId);
+    }
+}
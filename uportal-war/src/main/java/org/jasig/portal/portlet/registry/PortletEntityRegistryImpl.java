@@ -721,8 +721,8 @@ public class PortletEntityRegistryImpl implements IPortletEntityRegistry {
         @SuppressWarnings("unchecked")
         PortletEntityCache<IPortletEntity> cache = (PortletEntityCache<IPortletEntity>)request.getAttribute(entityMapAttribute);
         if (cache == null) {
-            cache = new PortletEntityCache<IPortletEntity>(false);
-            request.setAttribute(PORTLET_ENTITY_ATTRIBUTE, cache);
+            cache = new PortletEntityCache<IPortletEntity>();
+            request.setAttribute(entityMapAttribute, cache);
         }
         
         return cache;
@@ -731,6 +731,14 @@ public class PortletEntityRegistryImpl implements IPortletEntityRegistry {
     protected PortletEntityCache<PortletEntityData> getPortletEntityDataMap(HttpServletRequest request) {
         request = portalRequestUtils.getOriginalPortalRequest(request);
         final HttpSession session = request.getSession();
+        
+        //The cache is thread safe, only lock the session when it needs to be created
+        @SuppressWarnings("unchecked")
+        final PortletEntityCache<PortletEntityData> existingCache = (PortletEntityCache<PortletEntityData>)session.getAttribute(PORTLET_ENTITY_DATA_ATTRIBUTE);
+        if (existingCache != null) {
+            return existingCache;
+        }
+        
         final Object mutex = WebUtils.getSessionMutex(session);
         synchronized (mutex) {
             @SuppressWarnings("unchecked")
@@ -21,24 +21,24 @@ package org.jasig.portal.portlet.registry;
 
 import java.io.Serializable;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.jasig.portal.portlet.om.IPortletEntityId;
 import org.jasig.portal.portlet.om.IPortletWindowDescriptor;
 import org.jasig.portal.portlet.om.IPortletWindowId;
-import org.jasig.portal.utils.threading.NoopLock;
+import org.jasig.portal.utils.ConcurrentMapUtils;
 
 import com.google.common.base.Function;
 
 /**
  * Utility for caching portlet windows and window data in memory. Ensures a consistent view for accessing the data by
  * different sets of keys
+ * <p>
+ * Reads do not lock. Writes for a window lock one of a fixed set of lock stripes chosen by the window id so that
+ * a window is only ever created once while windows with different ids can be created concurrently.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -46,42 +46,21 @@ import com.google.common.base.Function;
  */
 class PortletWindowCache<T extends IPortletWindowDescriptor> implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final int LOCK_STRIPES = 16;
     
-    private final Lock writeLock;
-    private final Lock readLock;
-    
-    private final Map<IPortletEntityId, Set<T>> windowSetByEntityId = new HashMap<IPortletEntityId, Set<T>>();
-    private final Map<IPortletWindowId, T> windowsById = new HashMap<IPortletWindowId, T>();
-    
-    public PortletWindowCache() {
-        this(true);
-    }
-    
-    /**
-     * @param threadSafe If set to false no locking is done around read or write operations and this class is NOT thread safe
-     */
-    public PortletWindowCache(boolean threadSafe) {
-        if (threadSafe) {
-            final ReadWriteLock cacheLock = new ReentrantReadWriteLock(true);
-            writeLock = cacheLock.writeLock();
-            readLock = cacheLock.readLock();
-        }
-        else {
-            writeLock = NoopLock.INSTANCE;
-            readLock = NoopLock.INSTANCE;
-        }
-    }
+    private final ConcurrentMap<IPortletEntityId, Set<T>> windowSetByEntityId = new ConcurrentHashMap<IPortletEntityId, Set<T>>();
+    private final ConcurrentMap<IPortletWindowId, T> windowsById = new ConcurrentHashMap<IPortletWindowId, T>();
+    private final StripeLock[] locks = StripeLock.createLocks(LOCK_STRIPES);
     
     public T storeIfAbsentWindow(IPortletWindowId portletWindowId, Function<IPortletWindowId, T> windowCreator) {
-        //Check if the entity already exists (uses a read lock)
-        T existingWindow = this.getWindow(portletWindowId);
+        //Check if the window already exists
+        T existingWindow = this.windowsById.get(portletWindowId);
         if (existingWindow != null) {
             return existingWindow;
         }
         
-        writeLock.lock();
-        try {
-            //Check again inside the write lock
+        synchronized (this.getLock(portletWindowId)) {
+            //Check again inside the lock
             existingWindow = this.windowsById.get(portletWindowId);
             if (existingWindow != null) {
                 return existingWindow;
@@ -93,23 +72,19 @@ class PortletWindowCache<T extends IPortletWindowDescriptor> implements Serializ
             
             return window;
         }
-        finally {
-            writeLock.unlock();
-        }
     }
     
     public T storeIfAbsentWindow(T window) {
         final IPortletWindowId portletWindowId = window.getPortletWindowId();
         
-        //Check if the entity already exists (uses a read lock)
-        T existingWindow = this.getWindow(portletWindowId);
+        //Check if the window already exists
+        T existingWindow = this.windowsById.get(portletWindowId);
         if (existingWindow != null) {
             return existingWindow;
         }
         
-        writeLock.lock();
-        try {
-            //Check again inside the write lock
+        synchronized (this.getLock(portletWindowId)) {
+            //Check again inside the lock
             existingWindow = this.windowsById.get(portletWindowId);
             if (existingWindow != null) {
                 return existingWindow;
@@ -117,40 +92,25 @@ class PortletWindowCache<T extends IPortletWindowDescriptor> implements Serializ
             
             this.storeWindow(window);
         }
-        finally {
-            writeLock.unlock();
-        }
         
         return window;
     }
     
     public void storeWindow(T window) {
-        writeLock.lock();
-        try {
+        final IPortletWindowId portletWindowId = window.getPortletWindowId();
+        
+        synchronized (this.getLock(portletWindowId)) {
+            //Add to the entity set first so a window found by id is always in its entity's set
             final IPortletEntityId portletEntityId = window.getPortletEntityId();
             final Set<T> windowSet = this.getWindowSet(portletEntityId, true);
             windowSet.add(window);
             
-            final IPortletWindowId portletWindowId = window.getPortletWindowId();
             this.windowsById.put(portletWindowId, window);
         }
-        finally {
-            writeLock.unlock();
-        }
     }
     
     public boolean containsWindow(IPortletWindowId portletWindowId) {
-        if (this.windowSetByEntityId.isEmpty()) {
-            return false;
-        }
-        
-        readLock.lock();
-        try {
-            return this.windowsById.containsKey(portletWindowId);
-        }
-        finally {
-            readLock.unlock();
-        }
+        return this.windowsById.containsKey(portletWindowId);
     }
     
     public Set<T> getWindows(IPortletEntityId portletEntityId) {
@@ -158,37 +118,20 @@ class PortletWindowCache<T extends IPortletWindowDescriptor> implements Serializ
             return null;
         }
         
-        readLock.lock();
-        try {
-            final Set<T> windowSet = this.getWindowSet(portletEntityId, false);
-            if (windowSet == null) {
-                return Collections.emptySet();
-            }
-            
-            return Collections.unmodifiableSet(windowSet);
-        }
-        finally {
-            readLock.unlock();
+        final Set<T> windowSet = this.getWindowSet(portletEntityId, false);
+        if (windowSet == null) {
+            return Collections.emptySet();
         }
+        
+        return Collections.unmodifiableSet(windowSet);
     }
     
     public T getWindow(IPortletWindowId portletWindowId) {
-        if (this.windowsById.isEmpty()) {
-            return null;
-        }
-        
-        readLock.lock();
-        try {
-            return this.windowsById.get(portletWindowId);
-        }
-        finally {
-            readLock.unlock();
-        }
+        return this.windowsById.get(portletWindowId);
     }
     
     public void removeWindow(IPortletWindowId portletWindowId) {
-        writeLock.lock();
-        try {
+        synchronized (this.getLock(portletWindowId)) {
             final T window = this.windowsById.remove(portletWindowId);
             if (window != null) {
                 final IPortletEntityId portletEntityId = window.getPortletEntityId();
@@ -198,17 +141,18 @@ class PortletWindowCache<T extends IPortletWindowDescriptor> implements Serializ
                 }
             }
         }
-        finally {
-            writeLock.unlock();
-        }
     }
 
     protected Set<T> getWindowSet(final IPortletEntityId portletEntityId, boolean create) {
         Set<T> windowSet = this.windowSetByEntityId.get(portletEntityId);
         if (windowSet == null && create) {
-            windowSet = new LinkedHashSet<T>();
-            this.windowSetByEntityId.put(portletEntityId, windowSet);
+            //Windows are rarely added, a copy-on-write set keeps iteration order and lock free reads
+            windowSet = ConcurrentMapUtils.putIfAbsent(this.windowSetByEntityId, portletEntityId, new CopyOnWriteArraySet<T>());
         }
         return windowSet;
     }
-}
\ No newline at end of file
+    
+    private Object getLock(IPortletWindowId portletWindowId) {
+        return StripeLock.getLock(this.locks, portletWindowId);
+    }
+}
@@ -674,7 +674,7 @@ public class PortletWindowRegistryImpl implements IPortletWindowRegistry {
         @SuppressWarnings("unchecked")
         PortletWindowCache<IPortletWindow> windowCache = (PortletWindowCache<IPortletWindow>)request.getAttribute(mapAttributeName);
         if (windowCache == null) {
-            windowCache = new PortletWindowCache<IPortletWindow>(false);
+            windowCache = new PortletWindowCache<IPortletWindow>();
             request.setAttribute(mapAttributeName, windowCache);
         }
         
@@ -693,7 +693,11 @@ public class PortletWindowRegistryImpl implements IPortletWindowRegistry {
             return null;
         }
         
-        PortletWindowCache<PortletWindowData> windowCache;
+        //The cache is thread safe, only lock the session when it needs to be created
+        PortletWindowCache<PortletWindowData> windowCache = (PortletWindowCache<PortletWindowData>)session.getAttribute(PORTLET_WINDOW_DATA_ATTRIBUTE);
+        if (windowCache != null) {
+            return windowCache;
+        }
         
         final Object mutex = WebUtils.getSessionMutex(session);
         synchronized (mutex) {
@@ -0,0 +1,51 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.registry;
+
+import java.io.Serializable;
+
+/**
+ * Serializable monitor used to stripe locking in the session scoped entity and window caches
+ */
+final class StripeLock implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private StripeLock() {
+    }
+    
+    static StripeLock[] createLocks(int stripes) {
+        final StripeLock[] locks = new StripeLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new StripeLock();
+        }
+        return locks;
+    }
+    
+    /**
+     * @return The lock for the key, the same key always maps to the same lock
+     */
+    static StripeLock getLock(StripeLock[] locks, Object key) {
+        //Spread the hash bits so keys with similar hashes use different stripes
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return locks[(h & 0x7fffffff) % locks.length];
+    }
+}
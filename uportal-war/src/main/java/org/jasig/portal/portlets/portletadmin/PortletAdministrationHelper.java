@@ -91,6 +91,7 @@ import org.jasig.portal.portlets.StringListAttribute;
 import org.jasig.portal.portlets.groupselector.EntityEnum;
 import org.jasig.portal.portlets.portletadmin.xmlsupport.IChannelPublishingDefinitionDao;
 import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
 import org.jasig.portal.security.IPermission;
 import org.jasig.portal.security.IPermissionManager;
 import org.jasig.portal.security.IPerson;
@@ -122,6 +123,7 @@ public class PortletAdministrationHelper implements ServletContextAware {
     private IPortletPublishingService portletPublishingService; 
     private PortletDelegationLocator portletDelegationLocator;
     private IChannelPublishingDefinitionDao portletPublishingDefinitionDao;
+    private IAuthorizationService authorizationService;
     private ServletContext servletContext;
     
 	@Override
@@ -171,6 +173,10 @@ public class PortletAdministrationHelper implements ServletContextAware {
 	public void setPortletChannelPublishingDefinitionDao(IChannelPublishingDefinitionDao portletPublishingDefinitionDao) {
         this.portletPublishingDefinitionDao = portletPublishingDefinitionDao;
     }
+	@Autowired
+	public void setAuthorizationService(IAuthorizationService authorizationService) {
+	    this.authorizationService = authorizationService;
+	}
 
     /**
 	 * Construct a new PortletDefinitionForm for the given IPortletDefinition id.
@@ -775,11 +781,14 @@ public class PortletAdministrationHelper implements ServletContextAware {
             return true;
         }
 	    
+		final List<String> categoryIds = new ArrayList<String>(categories.size());
 		for (JsonEntityBean category : categories) {
-			if (ap.canManage(state, category.getId())) {
-				logger.debug("Found permission for category " + category.getName() + " and lifecycle state " + state.toString());
-				return true;
-			}
+			categoryIds.add(category.getId());
+		}
+		final Set<String> permittedCategoryIds = this.authorizationService.getCategoriesPrincipalCanManage(ap, state, categoryIds);
+		if (!permittedCategoryIds.isEmpty()) {
+			logger.debug("Found permission for categories " + permittedCategoryIds + " and lifecycle state " + state.toString());
+			return true;
 		}
 		logger.debug("No permission for lifecycle state " + state.toString());
 		return false;
@@ -27,6 +27,7 @@ import java.util.Map.Entry;
 import javax.servlet.http.HttpServletRequest;
 
 import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.groups.EffectiveGroups;
 import org.jasig.portal.groups.IGroupMember;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.services.GroupService;
@@ -65,13 +66,12 @@ public class UserGroupSkinMappingTransformerConfigurationSource extends SkinMapp
         final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
         final IPerson person = userInstance.getPerson();
 
-        final EntityIdentifier personIdentifier = person.getEntityIdentifier();
-        final IGroupMember groupMember = GroupService.getGroupMember(personIdentifier);
+        final EffectiveGroups effectiveGroups = EffectiveGroups.getEffectiveGroups(person);
 
         final Map<IGroupMember, String> groupMemberToSkinMapping = groupMemberToSkinMappingCreator.get();
         for (final Entry<IGroupMember, String> groupToSkinEntry : groupMemberToSkinMapping.entrySet()) {
             final IGroupMember group = groupToSkinEntry.getKey();
-            if (groupMember.isDeepMemberOf(group)) {
+            if (effectiveGroups.isMemberOf(group)) {
                 final String skin = groupToSkinEntry.getValue();
                 this.logger.debug("Setting skin override {} for {} because they are a member of {}",
                         new Object[] { skin, person.getUserName(), group });
@@ -36,6 +36,7 @@ import org.jasig.portal.layout.dlm.Evaluator;
 import org.jasig.portal.layout.dlm.FragmentDefinition;
 import org.jasig.portal.layout.dlm.providers.SubscribedTabEvaluatorFactory;
 import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.services.AuthorizationService;
 import org.jasig.portal.user.IUserInstance;
@@ -82,6 +83,9 @@ public class SubscribableTabsRESTController {
     @Autowired
     private MessageSource messageSource;
     
+    @Autowired
+    private IAuthorizationService authorizationService;
+    
     @RequestMapping(value="/subscribableTabs.json", method = RequestMethod.GET)
     public ModelAndView getSubscriptionList(HttpServletRequest request)  {
 
@@ -123,29 +127,35 @@ public class SubscribableTabsRESTController {
 
         final List<SubscribableFragment> jsonFragments = new ArrayList<SubscribableFragment>();
 
-    	// get the list of fragment definitions from DLM
-        final List<FragmentDefinition> fragmentDefinitions = configurationLoader.getFragments();
+    	// get the list of subscribable fragment definitions from DLM
+        final List<FragmentDefinition> fragmentDefinitions = new ArrayList<FragmentDefinition>();
+        final List<String> owners = new ArrayList<String>();
+        for (FragmentDefinition fragmentDefinition : configurationLoader.getFragments()) {
+            if (isSubscribable(fragmentDefinition)) {
+                fragmentDefinitions.add(fragmentDefinition);
+                owners.add(fragmentDefinition.getOwnerId());
+            }
+        }
+        
+        // check which of the fragments the current user has permission to
+        // subscribe to in a single evaluation
+        final Set<String> permittedOwners = authorizationService.getPermittedTargets(principal, "UP_FRAGMENT", "FRAGMENT_SUBSCRIBE", owners);
         
         final Locale locale = RequestContextUtils.getLocale(request);
 
         // iterate through the list
         for (FragmentDefinition fragmentDefinition : fragmentDefinitions) {
             
-            if (isSubscribable(fragmentDefinition, principal)) {
-                
-                String owner = fragmentDefinition.getOwnerId();
+            String owner = fragmentDefinition.getOwnerId();
+            
+            if (permittedOwners.contains(owner)) {
                 
-                // check to see if the current user has permission to subscribe to
-                // this fragment
-                if (principal.hasPermission("UP_FRAGMENT", "FRAGMENT_SUBSCRIBE", owner)) {
-                    
-                    // create a JSON fragment bean and add it to our list
-                    boolean subscribed = subscribedOwners.contains(owner);
-                    final String name = getMessage("fragment." + owner + ".name", fragmentDefinition.getName(), locale);
-                    final String description = getMessage("fragment." + owner + ".description", fragmentDefinition.getDescription(), locale);
-                    SubscribableFragment jsonFragment = new SubscribableFragment(name, description, owner, subscribed);
-                    jsonFragments.add(jsonFragment);
-                }
+                // create a JSON fragment bean and add it to our list
+                boolean subscribed = subscribedOwners.contains(owner);
+                final String name = getMessage("fragment." + owner + ".name", fragmentDefinition.getName(), locale);
+                final String description = getMessage("fragment." + owner + ".description", fragmentDefinition.getDescription(), locale);
+                SubscribableFragment jsonFragment = new SubscribableFragment(name, description, owner, subscribed);
+                jsonFragments.add(jsonFragment);
                 
             }
                         
@@ -157,13 +167,11 @@ public class SubscribableTabsRESTController {
 		
 	}
 	
-	protected boolean isSubscribable(FragmentDefinition definition, IAuthorizationPrincipal principal) {
+	protected boolean isSubscribable(FragmentDefinition definition) {
 
-	    String owner = definition.getOwnerId();
-        
         for (Evaluator evaluator : definition.getEvaluators()) {
             if (evaluator.getFactoryClass().equals(SubscribedTabEvaluatorFactory.class)) {
-                return principal.hasPermission("UP_FRAGMENT", "FRAGMENT_SUBSCRIBE", owner);
+                return true;
             }
         }
         
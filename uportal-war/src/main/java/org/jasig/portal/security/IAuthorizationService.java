@@ -19,6 +19,8 @@
 
 package org.jasig.portal.security;
 
+import java.util.Collection;
+import java.util.Set;
 import java.util.Vector;
 
 import org.jasig.portal.AuthorizationException;
@@ -86,6 +88,37 @@ public interface IAuthorizationService
  */
     public boolean canPrincipalSubscribe(IAuthorizationPrincipal principal, String channelPublishId)
     throws AuthorizationException;
+/**
+ * Answers which of the Channels the principal has permission to render, evaluating
+ * all of them in one pass.
+ * @return Set of the channelPublishIds the principal can render
+ * @param principal IAuthorizationPrincipal
+ * @param channelPublishIds Collection of channelPublishIds
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+    public Set<String> getPortletsPrincipalCanRender(IAuthorizationPrincipal principal, Collection<String> channelPublishIds)
+    throws AuthorizationException;
+/**
+ * Answers which of the Channels the principal has permission to subscribe to, evaluating
+ * all of them in one pass.
+ * @return Set of the channelPublishIds the principal can subscribe to
+ * @param principal IAuthorizationPrincipal
+ * @param channelPublishIds Collection of channelPublishIds
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+    public Set<String> getPortletsPrincipalCanSubscribe(IAuthorizationPrincipal principal, Collection<String> channelPublishIds)
+    throws AuthorizationException;
+/**
+ * Answers which of the categories the principal has permission to manage Channels
+ * in for the lifecycle state, evaluating all of them in one pass.
+ * @return Set of the categoryIds the principal can manage
+ * @param principal IAuthorizationPrincipal
+ * @param state PortletLifecycleState
+ * @param categoryIds Collection of categoryIds
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+    public Set<String> getCategoriesPrincipalCanManage(IAuthorizationPrincipal principal, PortletLifecycleState state, Collection<String> categoryIds)
+    throws AuthorizationException;
 /**
  * Answers if the owner has given the principal permission to perform the activity on
  * the target.  Params <code>owner</code> and <code>activity</code> must be non-null.
@@ -105,6 +138,26 @@ public interface IAuthorizationService
       String activity,
       String target)
     throws AuthorizationException;
+/**
+ * Answers which of the targets the owner has given the principal permission to
+ * perform the activity on.  Params <code>owner</code> and <code>activity</code>
+ * must be non-null.  The groups of the principal and their permissions are
+ * retrieved once and shared by all of the targets.
+ *
+ * @return Set of the permitted targets
+ * @param principal IAuthorizationPrincipal
+ * @param owner java.lang.String
+ * @param activity java.lang.String
+ * @param targets Collection of targets
+ * @exception AuthorizationException indicates authorization information could not
+ * be retrieved.
+ */
+    public Set<String> getPermittedTargets(
+      IAuthorizationPrincipal principal,
+      String owner,
+      String activity,
+      Collection<String> targets)
+    throws AuthorizationException;
 /**
  * Returns the <code>IPermissions</code> owner has granted this <code>Principal</code> for
  * the specified activity and target.  This includes inherited <code>IPermissions</code>.
@@ -19,6 +19,9 @@
 
 package org.jasig.portal.security;
 
+import java.util.List;
+import java.util.Set;
+
 import org.jasig.portal.IBasicEntity;
 
 /**
@@ -31,4 +34,13 @@ import org.jasig.portal.IBasicEntity;
  */
 public interface IPermissionSet extends IBasicEntity {
     public IPermission[] getPermissions();
+    
+    /**
+     * Returns the permissions in this set that match the owner and activity and whose
+     * target is either the specified target or one of the groups containing it. Null 
+     * owner, activity and target arguments match any value.
+     * 
+     * @param containingGroups The keys of the groups that contain the target, must not be null
+     */
+    public List<IPermission> getPermissions(String owner, String activity, String target, Set<String> containingGroups);
 }
@@ -20,10 +20,15 @@
 package org.jasig.portal.security.provider;
 
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.AuthorizationException;
@@ -36,6 +41,9 @@ import org.jasig.portal.security.IAuthorizationService;
 import org.jasig.portal.security.IPermission;
 import org.jasig.portal.security.IPermissionPolicy;
 import org.jasig.portal.services.GroupService;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 /**
@@ -64,13 +72,29 @@ import org.springframework.stereotype.Service;
  *  Principal -- Small group (DENY) -- Bigger group -- Huge group
  *  Principal -- Some other group -- Bigger other group (GRANT) -- Huge group
  *  Results in GRANT because there is an unblocked path to a GRANT.
+ *
+ *  Whether a group has an unblocked path to a GRANT does not depend on how the
+ *  group was reached, so the answer for each group examined during a search is
+ *  cached and shared by every principal that is a member of that group.
  */
 @Service("anyUnblockedGrantPermissionPolicy")
 public class AnyUnblockedGrantPermissionPolicy
     implements IPermissionPolicy {
 
+    /**
+     * Name of the cache of per-group search results, it must be cleared when permissions or the
+     * group structure change.
+     */
+    public static final String HAS_UNBLOCKED_PATH_TO_GRANT_CACHE = "org.jasig.portal.security.provider.AnyUnblockedGrantPermissionPolicy.HAS_UNBLOCKED_PATH_TO_GRANT";
+
     protected final Log log = LogFactory.getLog(getClass());
     
+    private Ehcache hasUnblockedPathToGrantCache;
+    
+    @Autowired
+    public void setHasUnblockedPathToGrantCache(@Qualifier(HAS_UNBLOCKED_PATH_TO_GRANT_CACHE) Ehcache hasUnblockedPathToGrantCache) {
+        this.hasUnblockedPathToGrantCache = hasUnblockedPathToGrantCache;
+    }
 
     public boolean doesPrincipalHavePermission(IAuthorizationService service, IAuthorizationPrincipal principal, String owner, String activity, String target) throws AuthorizationException {
         // the API states that the service, owner, and activity arguments must 
@@ -141,8 +165,9 @@ public class AnyUnblockedGrantPermissionPolicy
         boolean hasUnblockedPathToGrant;
         try {
             // track groups we've already explored to avoid infinite loop
-            Set<IGroupMember> seenGroups = new HashSet<IGroupMember>(100);
-            hasUnblockedPathToGrant = hasUnblockedPathToGrant(service, principal, owner, activity, target, seenGroups);
+            final GrantSearch search = new GrantSearch(owner, activity, target);
+            hasUnblockedPathToGrant = hasUnblockedPathToGrant(service, principal, search);
+            cacheSearchResults(search);
         } catch (Exception e) {
             log.error("Error searching for unblocked path to grant for principal [" + principal + "]", e);
             // fail closed
@@ -161,7 +186,11 @@ public class AnyUnblockedGrantPermissionPolicy
 
     }
 
-    private boolean hasUnblockedPathToGrant(IAuthorizationService service, IAuthorizationPrincipal principal, String owner, String activity, String target, Set<IGroupMember> seenGroups) throws GroupsException {
+    private boolean hasUnblockedPathToGrant(IAuthorizationService service, IAuthorizationPrincipal principal, GrantSearch search) throws GroupsException {
+        final String owner = search.owner;
+        final String activity = search.activity;
+        final String target = search.target;
+        final Set<IGroupMember> seenGroups = search.seenGroups;
 
     	if (log.isTraceEnabled()) {
     		log.trace("Searching for unblocked path to GRANT for principal [" + principal + "] to [" + activity + "] on target [" + target + "] having already checked ["+ seenGroups + "]");
@@ -175,12 +204,30 @@ public class AnyUnblockedGrantPermissionPolicy
         		log.trace("Declining to re-examine principal [" + principal + "] for permission to [" + activity + "] on [" + target + "] because this group is among already checked groups [" + seenGroups + "]");
         	}
         	
+            // A group that is still being examined means the groups form a cycle and
+            // the results of this search depend on the path taken
+            if (search.pathGroups.contains(principalAsGroupMember)) {
+                search.complete = false;
+            }
             return false;
         }
 
         seenGroups.add(principalAsGroupMember);
+        search.pathGroups.add(principalAsGroupMember);
+        try {
+            final boolean result = searchContainingGroups(service, principalAsGroupMember, search);
+            search.results.put(principal.getPrincipalString(), result);
+            return result;
+        }
+        finally {
+            search.pathGroups.remove(principalAsGroupMember);
+        }
+    }
 
-
+    private boolean searchContainingGroups(IAuthorizationService service, IGroupMember principalAsGroupMember, GrantSearch search) throws GroupsException {
+        final String owner = search.owner;
+        final String activity = search.activity;
+        final String target = search.target;
 
         Iterator<IGroupMember> immediatelyContainingGroups = principalAsGroupMember.getContainingGroups();
 
@@ -208,10 +255,18 @@ public class AnyUnblockedGrantPermissionPolicy
                     }
 
                     if (! parentPermissionsContainsDeny) {
-                        // there's no blocking deny, so recursively check to see if the parent has an unblocked path to a grant
-
+                        // there's no blocking deny, so check to see if the parent has an unblocked
+                        // path to a grant, either from an earlier search or recursively
 
-                        boolean parentHasUnblockedPathToGrant = hasUnblockedPathToGrant(service, parentPrincipal, owner, activity, target, seenGroups);
+                        final Element cachedResult = this.hasUnblockedPathToGrantCache.get(search.getCacheKey(parentPrincipal));
+                        final boolean parentHasUnblockedPathToGrant;
+                        if (cachedResult != null) {
+                            parentHasUnblockedPathToGrant = (Boolean) cachedResult.getObjectValue();
+                        }
+                        else {
+                            parentHasUnblockedPathToGrant = hasUnblockedPathToGrant(service, parentPrincipal, search);
+                        }
+                        
                         if (parentHasUnblockedPathToGrant) {
                             return true;
                         }
@@ -228,12 +283,26 @@ public class AnyUnblockedGrantPermissionPolicy
                 // group structure is broken, permission may be granted by
                 // an unbroken portion
                 log.error("Error evaluating permissions of parent group [" + parentGroup + "]", e);
+                search.complete = false;
             }
 
         }
         return false;
     }
 
+    /**
+     * Caches the result for every principal examined by the search. A GRANT found is
+     * always valid, a missing GRANT is only cached if the search was able to examine
+     * every containing group.
+     */
+    private void cacheSearchResults(GrantSearch search) {
+        for (final Map.Entry<String, Boolean> result : search.results.entrySet()) {
+            if (search.complete || result.getValue()) {
+                this.hasUnblockedPathToGrantCache.put(new Element(search.getCacheKey(result.getKey()), result.getValue()));
+            }
+        }
+    }
+
     /**
      * Returns a Set containing those IPermission instances where the present
      * date is neither after the permission expiration if present nor before
@@ -297,4 +366,31 @@ public class AnyUnblockedGrantPermissionPolicy
 
     }
 
+    /**
+     * State of a single search for an unblocked path to a GRANT
+     */
+    private static final class GrantSearch {
+        private final String owner;
+        private final String activity;
+        private final String target;
+        private final Set<IGroupMember> seenGroups = new HashSet<IGroupMember>(100);
+        private final Set<IGroupMember> pathGroups = new HashSet<IGroupMember>();
+        private final Map<String, Boolean> results = new HashMap<String, Boolean>();
+        private boolean complete = true;
+
+        public GrantSearch(String owner, String activity, String target) {
+            this.owner = owner;
+            this.activity = activity;
+            this.target = target;
+        }
+
+        public CacheKey getCacheKey(IAuthorizationPrincipal principal) {
+            return getCacheKey(principal.getPrincipalString());
+        }
+
+        public CacheKey getCacheKey(String principalString) {
+            return CacheKey.build(AnyUnblockedGrantPermissionPolicy.class.getName(), principalString, owner, activity, target);
+        }
+    }
+
 }
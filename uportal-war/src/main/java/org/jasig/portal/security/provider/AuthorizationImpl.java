@@ -22,9 +22,14 @@ package org.jasig.portal.security.provider;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
@@ -381,28 +386,236 @@ public boolean canPrincipalSubscribe(IAuthorizationPrincipal principal, String p
     }    
     PortletLifecycleState state = portlet.getLifecycleState();
     
-    /*
-     * Each channel lifecycle state now has its own subscribe permission.  The
-     * following logic checks the appropriate permission for the lifecycle.
-     */
-    String permission;
+    String permission = getSubscribeActivity(state, portletDefinitionId);
+
+    // test the appropriate permission
+    return doesPrincipalHavePermission(principal, owner, permission, target);
+
+}
+
+/**
+ * Each channel lifecycle state now has its own subscribe permission.  Returns
+ * the appropriate permission for the lifecycle.
+ */
+private String getSubscribeActivity(PortletLifecycleState state, String portletDefinitionId)
+{
     if (state.equals(PortletLifecycleState.PUBLISHED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.APPROVED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.CREATED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_CREATED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_CREATED_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.EXPIRED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY;
     } else {
 			throw new AuthorizationException(
 					"Unrecognized lifecycle state for channel "
 							+ portletDefinitionId);
     }
+}
 
-    // test the appropriate permission
-    return doesPrincipalHavePermission(principal, owner, permission, target);
+/**
+ * Answers which of the Channels the principal has permission to RENDER.
+ * @return Set of the channelPublishIds the principal can render
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitionIds Collection of channelPublishIds
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+@Override
+public Set<String> getPortletsPrincipalCanRender(IAuthorizationPrincipal principal, Collection<String> portletDefinitionIds)
+throws AuthorizationException
+{
+    // Same assumption as canPrincipalRender, anyone who can subscribe can render
+    return getPortletsPrincipalCanSubscribe(principal, portletDefinitionIds);
+}
+
+/**
+ * Answers which of the Channels the principal has permission to SUBSCRIBE to.
+ * @return Set of the channelPublishIds the principal can subscribe to
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitionIds Collection of channelPublishIds
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+@Override
+public Set<String> getPortletsPrincipalCanSubscribe(IAuthorizationPrincipal principal, Collection<String> portletDefinitionIds)
+throws AuthorizationException
+{
+    String owner = IPermission.PORTAL_SUBSCRIBE;
+    
+    // group the channel targets by the subscribe permission of their lifecycle state
+    final Map<String, List<String>> targetsByActivity = new LinkedHashMap<String, List<String>>();
+    for (final String portletDefinitionId : portletDefinitionIds) {
+        IPortletDefinition portlet = this.portletDefinitionRegistry.getPortletDefinition(portletDefinitionId);
+        if (portlet == null) {
+            continue;
+        }
+        
+        final String activity = getSubscribeActivity(portlet.getLifecycleState(), portletDefinitionId);
+        List<String> targets = targetsByActivity.get(activity);
+        if (targets == null) {
+            targets = new ArrayList<String>();
+            targetsByActivity.put(activity, targets);
+        }
+        targets.add(IPermission.PORTLET_PREFIX + portletDefinitionId);
+    }
+    
+    final Set<String> permittedPortletDefinitionIds = new LinkedHashSet<String>();
+    for (final Map.Entry<String, List<String>> targetsEntry : targetsByActivity.entrySet()) {
+        for (final String target : getPermittedTargets(principal, owner, targetsEntry.getKey(), targetsEntry.getValue())) {
+            permittedPortletDefinitionIds.add(target.substring(IPermission.PORTLET_PREFIX.length()));
+        }
+    }
+    return permittedPortletDefinitionIds;
+}
+
+/**
+ * Answers which of the categories the principal has permission to manage
+ * channels in for the lifecycle state.
+ * @return Set of the categoryIds the principal can manage
+ * @param principal IAuthorizationPrincipal
+ * @param state PortletLifecycleState
+ * @param categoryIds Collection of categoryIds
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+@Override
+public Set<String> getCategoriesPrincipalCanManage(IAuthorizationPrincipal principal, PortletLifecycleState state, Collection<String> categoryIds)
+throws AuthorizationException
+{
+    String owner = IPermission.PORTAL_PUBLISH;
+    
+    for (final String categoryId : categoryIds) {
+        PortletCategory category = PortletCategoryRegistryLocator.getPortletCategoryRegistry().getPortletCategory(categoryId);
+        if (category == null){
+            throw new AuthorizationException("Unable to locate category " + categoryId);
+        }
+    }
+    int order = state.getOrder();
+    
+    // Same lifecycle rules as canPrincipalManage(principal, state, categoryId)
+    final List<String> activities = new ArrayList<String>(4);
+    if (order <= PortletLifecycleState.EXPIRED.getOrder()) {
+        activities.add(IPermission.PORTLET_MANAGER_EXPIRED_ACTIVITY);
+    }
+    if (order <= PortletLifecycleState.PUBLISHED.getOrder()) {
+        activities.add(IPermission.PORTLET_MANAGER_ACTIVITY);
+    }
+    if (order <= PortletLifecycleState.APPROVED.getOrder()) {
+        activities.add(IPermission.PORTLET_MANAGER_APPROVED_ACTIVITY);
+    }
+    if (order <= PortletLifecycleState.CREATED.getOrder()) {
+        activities.add(IPermission.PORTLET_MANAGER_CREATED_ACTIVITY);
+    }
+    
+    final Set<String> permittedCategoryIds = new LinkedHashSet<String>();
+    final Set<String> remainingCategoryIds = new LinkedHashSet<String>(categoryIds);
+    for (final String activity : activities) {
+        final Set<String> permitted = getPermittedTargets(principal, owner, activity, remainingCategoryIds);
+        permittedCategoryIds.addAll(permitted);
+        remainingCategoryIds.removeAll(permitted);
+        if (remainingCategoryIds.isEmpty()) {
+            break;
+        }
+    }
+    return permittedCategoryIds;
+}
+
+/**
+ * Answers which of the targets the owner has given the principal (or any of its
+ * parents) permission to perform the activity on.  The groups of the principal
+ * and their permissions are retrieved once for all of the targets.
+ * <p>
+ * When the default policy is {@link AnyUnblockedGrantPermissionPolicy}, the
+ * principal is not a super-user and none of the permissions held by the principal
+ * or its groups are for one of the synthetic ALL targets, a target can only be
+ * granted by a permission for the target itself or for a group containing it.
+ * Targets without such a permission are then rejected without asking the policy.
+ * In every other case each target is evaluated by the policy.
+ *
+ * @return Set of the permitted targets
+ * @param principal IAuthorizationPrincipal
+ * @param owner java.lang.String
+ * @param activity java.lang.String
+ * @param targets Collection of targets
+ * @exception AuthorizationException indicates authorization information could not
+ * be retrieved.
+ */
+@Override
+public Set<String> getPermittedTargets(
+    IAuthorizationPrincipal principal,
+    String owner,
+    String activity,
+    Collection<String> targets)
+throws AuthorizationException
+{
+    final Set<String> permittedTargets = new LinkedHashSet<String>();
+    if (targets.isEmpty()) {
+        return permittedTargets;
+    }
+    
+    // Collect the targets of every permission the principal and its groups hold
+    final Set<String> referencedTargets = new HashSet<String>();
+    final Set<String> noContainingGroups = Collections.emptySet();
+    addPermissionTargets(referencedTargets, principal, owner, activity, noContainingGroups);
+    for (Iterator i = getInheritedPrincipals(principal); i.hasNext(); ) {
+        IAuthorizationPrincipal p = (IAuthorizationPrincipal) i.next();
+        addPermissionTargets(referencedTargets, p, owner, activity, noContainingGroups);
+    }
+    
+    final boolean prefilterTargets = canPrefilterTargets(principal, referencedTargets);
+    if (prefilterTargets && referencedTargets.isEmpty()) {
+        return permittedTargets;
+    }
+    
+    for (final String target : targets) {
+        if ((!prefilterTargets
+                    || referencedTargets.contains(target)
+                    || !Collections.disjoint(referencedTargets, getContainingGroupKeys(target)))
+                && doesPrincipalHavePermission(principal, owner, activity, target)) {
+            permittedTargets.add(target);
+        }
+    }
+    
+    if (log.isDebugEnabled()) {
+        log.debug("AuthorizationImpl.getPermittedTargets(): principal [" + principal + "] owner [" + owner +
+                "] activity [" + activity + "] is permitted " + permittedTargets.size() + " of " + targets.size() + " targets");
+    }
+    
+    return permittedTargets;
+}
 
+/**
+ * Answers if targets that are not referenced by any permission of the principal or
+ * its groups can be rejected without evaluating them.  Only the rules of
+ * {@link AnyUnblockedGrantPermissionPolicy} are known, it also grants permission to
+ * super-users and through the ALL_PORTLETS, ALL_CATEGORIES and ALL_GROUPS targets.
+ * @return boolean
+ * @param principal IAuthorizationPrincipal
+ * @param referencedTargets targets of the permissions of the principal and its groups
+ */
+private boolean canPrefilterTargets(IAuthorizationPrincipal principal, Set<String> referencedTargets)
+throws AuthorizationException
+{
+    final IPermissionPolicy policy = getDefaultPermissionPolicy();
+    if (policy == null || !AnyUnblockedGrantPermissionPolicy.class.equals(policy.getClass())) {
+        return false;
+    }
+    
+    if (referencedTargets.contains(IPermission.ALL_PORTLETS_TARGET)
+            || referencedTargets.contains(IPermission.ALL_CATEGORIES_TARGET)
+            || referencedTargets.contains(IPermission.ALL_GROUPS_TARGET)
+            || referencedTargets.contains(IPermission.ALL_TARGET)) {
+        return false;
+    }
+    
+    return !doesPrincipalHavePermission(principal, IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY, IPermission.ALL_TARGET);
+}
+
+private void addPermissionTargets(Set<String> targets, IAuthorizationPrincipal principal, String owner, String activity, Set<String> noContainingGroups)
+throws AuthorizationException
+{
+    for (final IPermission permission : primGetPermissionSetForPrincipal(principal).getPermissions(owner, activity, null, noContainingGroups)) {
+        targets.add(permission.getTarget());
+    }
 }
 
 /**
@@ -591,7 +804,7 @@ throws GroupsException
 private Iterator getGroupsForPrincipal(IAuthorizationPrincipal principal)
 throws GroupsException
 {
-    IGroupMember gm = getGroupMemberForPrincipal(principal);
+    IGroupMember gm = getGroupMember(principal);
     return gm.getAllContainingGroups();
 }
 
@@ -845,17 +1058,21 @@ public IUpdatingPermissionManager newUpdatingPermissionManager(String owner)
 }
 
 /**
- * Returns permissions for a principal.  First check the entity caching
+ * Returns the permission set for a principal.  First check the entity caching
  * service, and if the permissions have not been cached, retrieve and
  * cache them.
- * @return IPermission[]
+ * @return IPermissionSet
  * @param principal org.jasig.portal.security.IAuthorizationPrincipal
  */
-private IPermission[] primGetPermissionsForPrincipal(IAuthorizationPrincipal principal)
+private IPermissionSet primGetPermissionSetForPrincipal(IAuthorizationPrincipal principal)
 throws AuthorizationException
 {
     if ( ! this.cachePermissions )
-        { return getUncachedPermissionsForPrincipal(principal, null, null, null);}
+    {
+        IPermission[] permissions =
+          getUncachedPermissionsForPrincipal(principal, null, null, null);
+        return new PermissionSetImpl(permissions, principal);
+    }
 
     IPermissionSet ps = null;
     // Check the caching service for the Permissions first.
@@ -873,7 +1090,7 @@ throws AuthorizationException
             cacheAdd(ps);
         }
     }      // end synchronized
-    return ps.getPermissions();
+    return ps;
 }
 
 /**
@@ -892,79 +1109,25 @@ throws AuthorizationException
 {
 
     /*
-     * Get a list of all permissions for the specified principal, then iterate
-     * through them to build a list of the permissions matching the specified
+     * Get the permission set for the specified principal, then use its owner,
+     * activity and target index to find the permissions matching the specified
      * criteria.
      */
 
-    IPermission[] perms = primGetPermissionsForPrincipal(principal);
+    IPermissionSet ps = primGetPermissionSetForPrincipal(principal);
     if ( owner == null && activity == null && target == null )
-        { return perms; }
+        { return ps.getPermissions(); }
 
 	Set<String> containingGroups;
 	
 	if (target != null) {
-		
-        final Element element = this.entityParentsCache.get(target);
-        if (element != null) {
-            containingGroups = (Set<String>) element.getObjectValue();
-        }
-        else {
-        	containingGroups = new HashSet<String>();
-        	
-        	//Ignore target entity lookups for the various synthetic ALL targets
-        	if (!IPermission.ALL_CATEGORIES_TARGET.equals(target) &&
-                    !IPermission.ALL_GROUPS_TARGET.equals(target) &&
-                    !IPermission.ALL_PORTLETS_TARGET.equals(target) &&
-                    !IPermission.ALL_TARGET.equals(target)) {
-        	    
-            	IGroupMember targetEntity = GroupService.findGroup(target);
-        		if (targetEntity == null) {
-                    if (target.startsWith(IPermission.PORTLET_PREFIX)) {
-        				targetEntity = GroupService.getGroupMember(target.replace(IPermission.PORTLET_PREFIX, ""), IPortletDefinition.class);
-        			} else {
-        				targetEntity = GroupService.getGroupMember(target, IPerson.class);
-        			}
-        		}
-        		
-        		if (targetEntity != null) {
-        			for (Iterator containing = targetEntity.getAllContainingGroups(); containing.hasNext();) {
-        				containingGroups.add(((IEntityGroup)containing.next()).getKey());
-        			}
-        		}
-            }
-    		
-    		this.entityParentsCache.put(new Element(target, containingGroups));
-        	
-        }
-
-		
+	    containingGroups = getContainingGroupKeys(target);
 	} else {
 		containingGroups = new HashSet<String>();
 	}
 
-    List<IPermission> al = new ArrayList<IPermission>(perms.length);
-    
-    for ( int i=0; i<perms.length; i++ ) {
-        String permissionTarget = perms[i].getTarget();
-        
-        if (
-        		// owner matches
-        		(owner == null || owner.equals(perms[i].getOwner())) &&
-        		// activity matches
-                (activity == null || activity.equals(perms[i].getActivity())) &&
-                // target matches or is a member of the current permission target
-                (target == null || target.equals(permissionTarget) 
-                		|| containingGroups.contains(permissionTarget))    
-            ) {
-        	
-            al.add(perms[i]);
-        } 
-        
-    }
-
+    List<IPermission> al = ps.getPermissions(owner, activity, target, containingGroups);
 
-    
     if (log.isTraceEnabled()) {
         log.trace(
                 "AuthorizationImpl.primGetPermissionsForPrincipal(): " +
@@ -982,6 +1145,49 @@ throws AuthorizationException
 
 }
 
+/**
+ * Returns the keys of all of the groups that directly or indirectly contain the
+ * target.  The synthetic ALL targets are not members of any group.
+ * @return Set of group keys
+ * @param target java.lang.String
+ */
+@SuppressWarnings("unchecked")
+private Set<String> getContainingGroupKeys(String target)
+throws AuthorizationException
+{
+    final Element element = this.entityParentsCache.get(target);
+    if (element != null) {
+        return (Set<String>) element.getObjectValue();
+    }
+
+    Set<String> containingGroups = new HashSet<String>();
+    
+    //Ignore target entity lookups for the various synthetic ALL targets
+    if (!IPermission.ALL_CATEGORIES_TARGET.equals(target) &&
+            !IPermission.ALL_GROUPS_TARGET.equals(target) &&
+            !IPermission.ALL_PORTLETS_TARGET.equals(target) &&
+            !IPermission.ALL_TARGET.equals(target)) {
+        
+        IGroupMember targetEntity = GroupService.findGroup(target);
+        if (targetEntity == null) {
+            if (target.startsWith(IPermission.PORTLET_PREFIX)) {
+                targetEntity = GroupService.getGroupMember(target.replace(IPermission.PORTLET_PREFIX, ""), IPortletDefinition.class);
+            } else {
+                targetEntity = GroupService.getGroupMember(target, IPerson.class);
+            }
+        }
+        
+        if (targetEntity != null) {
+            for (Iterator containing = targetEntity.getAllContainingGroups(); containing.hasNext();) {
+                containingGroups.add(((IEntityGroup)containing.next()).getKey());
+            }
+        }
+    }
+    
+    this.entityParentsCache.put(new Element(target, containingGroups));
+    return containingGroups;
+}
+
 /**
  * @return IPermission[]
  * @param owner String
@@ -19,8 +19,13 @@
 
 package org.jasig.portal.security.provider;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.jasig.portal.EntityIdentifier;
 import org.jasig.portal.security.IAuthorizationPrincipal;
@@ -38,12 +43,19 @@ import org.jasig.portal.security.IPermissionSet;
  * Separating caching of principals and permissions lets a client keep 
  * a reference to a principal over time while being guaranteed the 
  * latest version of its permissions.   
+ * <p>
+ * The permissions are also indexed by owner, activity and target when 
+ * the set is created so that permission checks for a specific owner and 
+ * activity only look at the matching permissions.  The set is replaced 
+ * in the cache whenever the principal's permissions change so the index 
+ * never needs to be updated.
  */
 
 public class PermissionSetImpl implements IPermissionSet {
 
     private EntityIdentifier entityIdentifier;
     private IPermission[] permissions;
+    private Map<String, Map<String, Map<String, List<IPermission>>>> permissionIndex;
     private static Class IPS_TYPE = IPermissionSet.class; 
 
 public PermissionSetImpl(IPermission[] perms, IAuthorizationPrincipal principal) 
@@ -54,8 +66,44 @@ public PermissionSetImpl(IPermission[] perms, String key, Class type)
 {
     super();
     permissions = perms;
+    permissionIndex = indexPermissions(perms);
     entityIdentifier = new EntityIdentifier(key, type);
 }
+/**
+ * Builds the owner -> activity -> target index of the permissions.
+ */
+private static Map<String, Map<String, Map<String, List<IPermission>>>> indexPermissions(IPermission[] perms)
+{
+    Map<String, Map<String, Map<String, List<IPermission>>>> ownerIndex = 
+        new HashMap<String, Map<String, Map<String, List<IPermission>>>>();
+    for ( int i=0; i<perms.length; i++ )
+    {
+        IPermission perm = perms[i];
+        
+        Map<String, Map<String, List<IPermission>>> activityIndex = ownerIndex.get(perm.getOwner());
+        if ( activityIndex == null )
+        {
+            activityIndex = new HashMap<String, Map<String, List<IPermission>>>();
+            ownerIndex.put(perm.getOwner(), activityIndex);
+        }
+        
+        Map<String, List<IPermission>> targetIndex = activityIndex.get(perm.getActivity());
+        if ( targetIndex == null )
+        {
+            targetIndex = new HashMap<String, List<IPermission>>();
+            activityIndex.put(perm.getActivity(), targetIndex);
+        }
+        
+        List<IPermission> targetPerms = targetIndex.get(perm.getTarget());
+        if ( targetPerms == null )
+        {
+            targetPerms = new ArrayList<IPermission>(1);
+            targetIndex.put(perm.getTarget(), targetPerms);
+        }
+        targetPerms.add(perm);
+    }
+    return ownerIndex;
+}
 /** 
  * @return IPermission[]
  */
@@ -63,6 +111,76 @@ public IPermission[] getPermissions() {
     return permissions;
 }
 
+/**
+ * @see IPermissionSet#getPermissions(String, String, String, Set)
+ */
+public List<IPermission> getPermissions(String owner, String activity, String target, Set<String> containingGroups) {
+    if ( owner == null || activity == null )
+        { return scanPermissions(owner, activity, target, containingGroups); }
+    
+    Map<String, Map<String, List<IPermission>>> activityIndex = permissionIndex.get(owner);
+    Map<String, List<IPermission>> targetIndex = activityIndex == null ? null : activityIndex.get(activity);
+    if ( targetIndex == null )
+        { return Collections.emptyList(); }
+    
+    List<IPermission> result = new ArrayList<IPermission>();
+    if ( target == null )
+    {
+        for ( List<IPermission> targetPerms : targetIndex.values() )
+            { result.addAll(targetPerms); }
+        return result;
+    }
+    
+    addPermissions(result, targetIndex.get(target));
+    
+    // Probe whichever of the containing groups and the indexed targets is smaller
+    if ( containingGroups.size() < targetIndex.size() )
+    {
+        for ( String group : containingGroups )
+        {
+            if ( !group.equals(target) )
+                { addPermissions(result, targetIndex.get(group)); }
+        }
+    }
+    else
+    {
+        for ( Map.Entry<String, List<IPermission>> targetEntry : targetIndex.entrySet() )
+        {
+            String permissionTarget = targetEntry.getKey();
+            if ( !permissionTarget.equals(target) && containingGroups.contains(permissionTarget) )
+                { result.addAll(targetEntry.getValue()); }
+        }
+    }
+    return result;
+}
+private static void addPermissions(List<IPermission> result, List<IPermission> perms)
+{
+    if ( perms != null )
+        { result.addAll(perms); }
+}
+/**
+ * Un-indexed matching used when the owner or activity are not specified.
+ */
+private List<IPermission> scanPermissions(String owner, String activity, String target, Set<String> containingGroups) {
+    List<IPermission> result = new ArrayList<IPermission>();
+    for ( int i=0; i<permissions.length; i++ )
+    {
+        String permissionTarget = permissions[i].getTarget();
+        
+        if (
+                // owner matches
+                (owner == null || owner.equals(permissions[i].getOwner())) &&
+                // activity matches
+                (activity == null || activity.equals(permissions[i].getActivity())) &&
+                // target matches or is a member of the current permission target
+                (target == null || target.equals(permissionTarget) 
+                        || containingGroups.contains(permissionTarget))    
+            ) 
+            { result.add(permissions[i]); } 
+    }
+    return result;
+}
+
 /** 
  * @return EntityIdentifier IPermission[]
  */
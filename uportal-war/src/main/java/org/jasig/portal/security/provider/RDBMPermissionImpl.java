@@ -30,12 +30,20 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
+import net.sf.ehcache.Ehcache;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.AuthorizationException;
 import org.jasig.portal.RDBMServices;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.io.xml.portlet.PortletPortalDataType;
+import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
+import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.security.IPermission;
 import org.jasig.portal.security.IPermissionStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -48,6 +56,10 @@ import org.springframework.stereotype.Repository;
 public class RDBMPermissionImpl implements IPermissionStore {
 
     private static final Log log = LogFactory.getLog(RDBMPermissionImpl.class);
+    
+    private IPortletDefinitionDao portletDefinitionDao;
+    private IPortalDataChangeDao portalDataChangeDao;
+    private Ehcache hasUnblockedPathToGrantCache;
 
     // sql Strings:
     private static String PERMISSION_TABLE = "UP_PERMISSION";
@@ -120,6 +132,23 @@ public class RDBMPermissionImpl implements IPermissionStore {
 
     }
 
+@Autowired
+public void setPortletDefinitionDao(IPortletDefinitionDao portletDefinitionDao)
+{
+    this.portletDefinitionDao = portletDefinitionDao;
+}
+@Autowired
+public void setPortalDataChangeDao(IPortalDataChangeDao portalDataChangeDao)
+{
+    this.portalDataChangeDao = portalDataChangeDao;
+}
+@Autowired
+public void setHasUnblockedPathToGrantCache(
+        @Qualifier(AnyUnblockedGrantPermissionPolicy.HAS_UNBLOCKED_PATH_TO_GRANT_CACHE) Ehcache hasUnblockedPathToGrantCache)
+{
+    this.hasUnblockedPathToGrantCache = hasUnblockedPathToGrantCache;
+}
+
 /**
  * Add the IPermissions to the store.
  * @param perms org.jasig.portal.security.IPermission[]
@@ -138,6 +167,7 @@ public void add(IPermission[] perms) throws AuthorizationException
             log.error("Exception adding permissions " + perms, ex);
             throw new AuthorizationException(ex);
         }
+        permissionsChanged(perms);
     }
 }
 /**
@@ -175,6 +205,7 @@ public void add(IPermission perm) throws AuthorizationException
     }
     finally
         { RDBMServices.releaseConnection(conn); }
+    permissionsChanged(perm);
 }
 /**
  * Delete the IPermissions from the store.
@@ -194,6 +225,7 @@ public void delete(IPermission[] perms) throws AuthorizationException
             log.error("Exception deleting permissions " + Arrays.toString(perms), ex);
             throw new AuthorizationException("Exception deleting permissions " + Arrays.toString(perms), ex);
         }
+        permissionsChanged(perms);
     }
 }
 /**
@@ -222,6 +254,7 @@ public void delete(IPermission perm) throws AuthorizationException
     }
     finally
         { RDBMServices.releaseConnection(conn); }
+    permissionsChanged(perm);
 }
 /**
  * Answer if this entity exists in the database.
@@ -866,6 +899,7 @@ public void update(IPermission[] perms) throws AuthorizationException
             log.error("Exception updating permissions " + perms, ex);
             throw new AuthorizationException(ex);
         }
+        permissionsChanged(perms);
     }
 }
 /**
@@ -896,6 +930,7 @@ public void update(IPermission perm) throws AuthorizationException
     }
     finally
         { RDBMServices.releaseConnection(conn); }
+    permissionsChanged(perm);
 }
 /**
  * @return long
@@ -904,4 +939,35 @@ private static long getTimestampMillis(Timestamp ts)
 {
     return ts.getTime();
 }
+/**
+ * Clears the cached group search results of the permission policy, a group's unblocked
+ * path to a GRANT can change with any permission, and tracks portlet permission changes.
+ */
+private void permissionsChanged(IPermission... perms)
+{
+    hasUnblockedPathToGrantCache.removeAll();
+    portletPermissionsChanged(perms);
+}
+/**
+ * Subscribe permissions are exported as part of the portlet definition, track the
+ * change so incremental exports include the portlet.
+ */
+private void portletPermissionsChanged(IPermission... perms)
+{
+    for (final IPermission perm : perms)
+    {
+        final String target = perm.getTarget();
+        if ( IPermission.PORTAL_SUBSCRIBE.equals(perm.getOwner()) && target != null
+                && target.startsWith(IPermission.PORTLET_PREFIX) )
+        {
+            final String portletDefinitionId = target.substring(IPermission.PORTLET_PREFIX.length());
+            final IPortletDefinition portletDefinition = portletDefinitionDao.getPortletDefinition(portletDefinitionId);
+            if ( portletDefinition != null )
+            {
+                portalDataChangeDao.dataModified(
+                        PortletPortalDataType.PORTLET_DEFINITION_QNAME.getLocalPart(), portletDefinition.getFName());
+            }
+        }
+    }
+}
 }
@@ -30,6 +30,8 @@ import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.AuthorizationException;
 import org.jasig.portal.IUserIdentityStore;
 import org.jasig.portal.events.IPortalAuthEventFactory;
+import org.jasig.portal.groups.EffectiveGroups;
+import org.jasig.portal.groups.GroupsException;
 import org.jasig.portal.properties.PropertiesManager;
 import org.jasig.portal.security.IAdditionalDescriptor;
 import org.jasig.portal.security.IOpaqueCredentials;
@@ -211,6 +213,13 @@ public class Authentication {
                 log.error("Exception retrieving ID", ae);
                 throw new PortalSecurityException("Authentication Service: Exception retrieving UID");
             }
+            // Resolve the user's groups once so per-request group checks don't have to
+            try {
+                EffectiveGroups.refresh(person);
+            }
+            catch (final GroupsException ge) {
+                log.warn("Failed to resolve the groups of " + person.getName() + " at login, they will be resolved on first use", ge);
+            }
         }
         
         this.portalEventFactory.publishLoginEvent(request, this, person);
@@ -33,7 +33,10 @@ public interface PortalShellBuildHelper {
 
     void dataList(String target, String type);
 
-    void dataExport(String target, String dataDir, String type, String sysid, String logDir);
+    /**
+     * @param changedSince Optional ISO-8601 date, if set only data changed after it is exported for data types that track changes
+     */
+    void dataExport(String target, String dataDir, String type, String sysid, String logDir, String changedSince);
 
     void dataImport(String target, String dataDir, String pattern, String file, String logDir);
 
@@ -33,6 +33,7 @@ import org.jasig.portal.tools.DbTest;
 import org.jasig.portal.tools.dbloader.DbLoaderConfigBuilder;
 import org.jasig.portal.tools.dbloader.IDbLoader;
 import org.jasig.portal.tools.dbloader.ISchemaExport;
+import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.stereotype.Service;
@@ -211,11 +212,17 @@ public class PortalShellBuildHelperImpl implements PortalShellBuildHelper {
     }
 
     @Override
-    public void dataExport(String target, String dataDir, String type, String sysid, String logDir) {
+    public void dataExport(String target, String dataDir, String type, String sysid, String logDir, String changedSince) {
         PortalShell.LOGGER.info("");
         PortalShell.LOGGER.info("");
 
         final File dataDirFile = new File(dataDir);
+        final IPortalDataHandlerService.BatchExportOptions exportOptions = new IPortalDataHandlerService.BatchExportOptions().setLogDirectoryParent(logDir);
+        if (StringUtils.isNotBlank(changedSince)) {
+            exportOptions.setChangedSince(new DateTime(changedSince.trim()).toDate());
+            PortalShell.LOGGER.info("Exporting only data changed since: " + exportOptions.getChangedSince());
+        }
+        
         if (StringUtils.isNotBlank(type) && StringUtils.isNotBlank(sysid)) {
             try {
                 for (final String id : COMMA_DELIM.split(sysid)) {
@@ -240,7 +247,7 @@ public class PortalShellBuildHelperImpl implements PortalShellBuildHelper {
 
                 portalDataHandlerService.exportAllDataOfType(types,
                         dataDirFile,
-                        new IPortalDataHandlerService.BatchExportOptions().setLogDirectoryParent(logDir));
+                        exportOptions);
             }
             catch (Exception e) {
                 throw new RuntimeException(target + " to " + dataDir + " of " + type + " failed", e);
@@ -250,7 +257,7 @@ public class PortalShellBuildHelperImpl implements PortalShellBuildHelper {
             try {
                 PortalShell.LOGGER.info("Exporting All Data to: " + dataDir);
                 portalDataHandlerService.exportAllData(dataDirFile,
-                        new IPortalDataHandlerService.BatchExportOptions().setLogDirectoryParent(logDir));
+                        exportOptions);
             }
             catch (Exception e) {
                 throw new RuntimeException(target + " to " + dataDir + " failed", e);
@@ -266,7 +273,15 @@ public class PortalShellBuildHelperImpl implements PortalShellBuildHelper {
         if (StringUtils.isBlank(dataDir)) {
             PortalShell.LOGGER.info("Importing Data from: " + file);
             try {
-                portalDataHandlerService.importData(new FileSystemResource(file));
+                if (file.toLowerCase().endsWith(".zip")) {
+                    //A data archive is a batch import of all of its entries
+                    portalDataHandlerService.importData(new File(file),
+                            null,
+                            new IPortalDataHandlerService.BatchImportOptions().setLogDirectoryParent(logDir));
+                }
+                else {
+                    portalDataHandlerService.importData(new FileSystemResource(file));
+                }
             }
             catch (Exception e) {
                 throw new RuntimeException(target + " for " + file + " failed", e);
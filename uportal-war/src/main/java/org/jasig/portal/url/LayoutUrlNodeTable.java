@@ -0,0 +1,273 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.url;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * URL routing tables for a single version of a user's layout. The layout DOM is traversed once
+ * when the table is built and the results are shared by every request until the layout changes.
+ * <p>
+ * The tables map every folder and channel node to the tab that contains it, tab ids to the
+ * folder name used for them in URLs, folder names back to layout node ids and parent folders
+ * plus portlet fnames to the first matching channel subscribe id. The folder names of portlet
+ * windows are remembered as they are requested, up to {@link #MAX_PORTLET_FOLDER_NAMES} windows.
+ */
+final class LayoutUrlNodeTable {
+    private static final String FOLDER = "folder";
+    private static final String CHANNEL = "channel";
+    private static final String ID_ATTR = "ID";
+    private static final String FNAME_ATTR = "fname";
+    
+    /**
+     * Transient and delegate windows get new ids for the same layout, the least recently used
+     * folder names are dropped once this many windows have been seen.
+     */
+    static final int MAX_PORTLET_FOLDER_NAMES = 500;
+
+    private final String layoutCacheKey;
+    private final char pathElementSeparator;
+
+    //nodeId -> tabId
+    private final Map<String, String> tabIdsByNodeId;
+    //tabId -> folder name
+    private final Map<String, List<String>> folderNamesByTabId = new HashMap<String, List<String>>();
+    //tabIds whose folder name must be qualified with the targeted node id
+    private final Set<String> qualifiedTabIds = new LinkedHashSet<String>();
+    //externalId -> nodeIds
+    private final Map<String, List<String>> nodeIdsByExternalId = new HashMap<String, List<String>>();
+    //folderId -> fname -> subscribeId
+    private final Map<String, Map<String, String>> subscribeIdsByFolderId;
+    private final Cache<IPortletWindowId, String> portletFolderNames = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PORTLET_FOLDER_NAMES)
+            .<IPortletWindowId, String>build();
+
+    /**
+     * @param layoutCacheKey The cache key of the layout the document came from
+     * @param layout The user's layout document
+     * @param pathElementSeparator Separator between a folder name and a qualifying node id
+     */
+    public LayoutUrlNodeTable(String layoutCacheKey, Document layout, char pathElementSeparator) {
+        this.layoutCacheKey = layoutCacheKey;
+        this.pathElementSeparator = pathElementSeparator;
+
+        final Map<String, String> tabIdsByNodeId = new LinkedHashMap<String, String>();
+        final Map<String, Map<String, String>> subscribeIdsByFolderId = new HashMap<String, Map<String, String>>();
+        final List<String> parentFolderIds = new ArrayList<String>();
+
+        // '/layout' - layouts
+        for (Node root = layout.getFirstChild(); root != null; root = root.getNextSibling()) {
+            // '/layout/folder' - root/header/footer folders
+            for (Node rootFolder = root.getFirstChild(); rootFolder != null; rootFolder = rootFolder.getNextSibling()) {
+                // '/layout/folder/folder' - tabs
+                for (Node tab = rootFolder.getFirstChild(); tab != null; tab = tab.getNextSibling()) {
+                    if (isLayoutNode(tab)) {
+                        final String tabId = ((Element) tab).getAttribute(ID_ATTR);
+                        indexTab(tab, tabId, tabIdsByNodeId);
+                    }
+                }
+
+                indexSubscribeIds(rootFolder, parentFolderIds, subscribeIdsByFolderId);
+            }
+        }
+
+        this.tabIdsByNodeId = tabIdsByNodeId;
+        this.subscribeIdsByFolderId = subscribeIdsByFolderId;
+    }
+
+    private static boolean isLayoutNode(Node node) {
+        final String nodeName = node.getNodeName();
+        return FOLDER.equals(nodeName) || CHANNEL.equals(nodeName);
+    }
+
+    private static void indexTab(Node node, String tabId, Map<String, String> tabIdsByNodeId) {
+        final Element e = (Element) node;
+        final String id = e.getAttribute(ID_ATTR);
+        if (!tabIdsByNodeId.containsKey(id)) {
+            tabIdsByNodeId.put(id, tabId);
+        }
+
+        if (FOLDER.equals(e.getNodeName())) {
+            for (Node child = e.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (isLayoutNode(child)) {
+                    indexTab(child, tabId, tabIdsByNodeId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the first channel, in document order, with each fname under each folder.
+     */
+    private static void indexSubscribeIds(Node node, List<String> parentFolderIds, Map<String, Map<String, String>> subscribeIdsByFolderId) {
+        if (!isLayoutNode(node)) {
+            return;
+        }
+
+        final Element e = (Element) node;
+        if (CHANNEL.equals(e.getNodeName())) {
+            final String fname = e.getAttribute(FNAME_ATTR);
+            final String subscribeId = e.getAttribute(ID_ATTR);
+            for (final String folderId : parentFolderIds) {
+                Map<String, String> subscribeIds = subscribeIdsByFolderId.get(folderId);
+                if (subscribeIds == null) {
+                    subscribeIds = new HashMap<String, String>();
+                    subscribeIdsByFolderId.put(folderId, subscribeIds);
+                }
+                if (!subscribeIds.containsKey(fname)) {
+                    subscribeIds.put(fname, subscribeId);
+                }
+            }
+            return;
+        }
+
+        parentFolderIds.add(e.getAttribute(ID_ATTR));
+        for (Node child = e.getFirstChild(); child != null; child = child.getNextSibling()) {
+            indexSubscribeIds(child, parentFolderIds, subscribeIdsByFolderId);
+        }
+        parentFolderIds.remove(parentFolderIds.size() - 1);
+    }
+
+    /**
+     * Set the URL folder name of a tab, only called while the table is being built
+     *
+     * @param qualified If true the targeted layout node id is appended to the folder name
+     */
+    void setTabFolderName(String tabId, String folderName, boolean qualified) {
+        this.folderNamesByTabId.put(tabId, Collections.singletonList(folderName));
+        if (qualified) {
+            this.qualifiedTabIds.add(tabId);
+        }
+    }
+
+    /**
+     * Add an externalId for a layout node, only called while the table is being built
+     */
+    void addExternalId(String externalId, String nodeId) {
+        List<String> nodeIds = this.nodeIdsByExternalId.get(externalId);
+        if (nodeIds == null) {
+            nodeIds = new ArrayList<String>(1);
+            this.nodeIdsByExternalId.put(externalId, nodeIds);
+        }
+        if (!nodeIds.contains(nodeId)) {
+            nodeIds.add(nodeId);
+        }
+    }
+
+    /**
+     * @return The cache key of the layout this table was built from
+     */
+    public String getLayoutCacheKey() {
+        return this.layoutCacheKey;
+    }
+
+    /**
+     * @return The ids of all tabs in the layout
+     */
+    public Set<String> getTabIds() {
+        return new LinkedHashSet<String>(this.tabIdsByNodeId.values());
+    }
+
+    /**
+     * @return The id of the tab containing the node, null if the node is not in a tab
+     */
+    public String getTabId(String layoutNodeId) {
+        return this.tabIdsByNodeId.get(layoutNodeId);
+    }
+
+    /**
+     * @return true if the folder or channel exists in the layout
+     */
+    public boolean containsNode(String layoutNodeId) {
+        return this.tabIdsByNodeId.containsKey(layoutNodeId);
+    }
+
+    /**
+     * @return The URL folder names for the layout node, empty if the node is not in a tab
+     */
+    public List<String> getFolderNamesForLayoutNode(String layoutNodeId) {
+        final String tabId = this.tabIdsByNodeId.get(layoutNodeId);
+        if (tabId == null) {
+            return Collections.emptyList();
+        }
+
+        final List<String> folderNames = this.folderNamesByTabId.get(tabId);
+        if (folderNames == null) {
+            return Collections.singletonList(tabId);
+        }
+
+        if (this.qualifiedTabIds.contains(tabId)) {
+            return Collections.singletonList(folderNames.get(0) + this.pathElementSeparator + layoutNodeId);
+        }
+
+        return folderNames;
+    }
+
+    /**
+     * @return The ids of the nodes with the externalId, in preference order, empty if no node has the externalId
+     */
+    public List<String> getNodeIdsForExternalId(String externalId) {
+        final List<String> nodeIds = this.nodeIdsByExternalId.get(externalId);
+        if (nodeIds == null) {
+            return Collections.emptyList();
+        }
+        return nodeIds;
+    }
+
+    /**
+     * @return The subscribe id of the first channel with the fname under the folder, null if there is none
+     */
+    public String getSubscribeId(String parentFolderId, String fname) {
+        final Map<String, String> subscribeIds = this.subscribeIdsByFolderId.get(parentFolderId);
+        if (subscribeIds == null) {
+            return null;
+        }
+        return subscribeIds.get(fname);
+    }
+
+    /**
+     * @return The previously recorded folder name for the portlet window, null if none has been recorded
+     */
+    public String getPortletFolderName(IPortletWindowId portletWindowId) {
+        return this.portletFolderNames.getIfPresent(portletWindowId);
+    }
+
+    /**
+     * Record the folder name for the portlet window
+     */
+    public void setPortletFolderName(IPortletWindowId portletWindowId, String folderName) {
+        this.portletFolderNames.put(portletWindowId, folderName);
+    }
+}
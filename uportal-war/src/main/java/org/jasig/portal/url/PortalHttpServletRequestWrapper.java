@@ -35,6 +35,7 @@ import org.apache.commons.lang.Validate;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.groups.EffectiveGroups;
 import org.jasig.portal.groups.IGroupMember;
 import org.jasig.portal.i18n.LocaleManager;
 import org.jasig.portal.security.IPerson;
@@ -225,10 +226,8 @@ public class PortalHttpServletRequestWrapper extends AbstractHttpServletRequestW
         //Load the group information about the current user
         final IUserInstance userInstance = this.userInstanceManager.getUserInstance(this.getWrappedRequest());
         final IPerson person = userInstance.getPerson();
-        final EntityIdentifier personEntityId = person.getEntityIdentifier();
-        final IGroupMember personGroupMember = GroupService.getGroupMember(personEntityId);
         
-        return personGroupMember.isDeepMemberOf(groupForRole);
+        return EffectiveGroups.getEffectiveGroups(person).isMemberOf(groupForRole);
     }
 
     /* (non-Javadoc)
@@ -19,7 +19,6 @@
 
 package org.jasig.portal.url;
 
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -28,16 +27,18 @@ import java.util.Map.Entry;
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.xpath.XPathExpression;
 
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
 import org.apache.commons.lang.StringUtils;
 import org.jasig.portal.IUserPreferencesManager;
 import org.jasig.portal.PortalException;
-import org.jasig.portal.concurrency.caching.RequestCache;
 import org.jasig.portal.dao.usertype.FunctionalNameType;
+import org.jasig.portal.layout.INodeIdResolver;
 import org.jasig.portal.layout.IStylesheetUserPreferencesService;
 import org.jasig.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.IUserLayoutManager;
-import org.jasig.portal.layout.PortletTabIdResolver;
 import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.layout.om.IStylesheetParameterDescriptor;
@@ -50,11 +51,15 @@ import org.jasig.portal.portlet.registry.IPortletEntityRegistry;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.jasig.portal.utils.cache.UsernameTaggedCacheEntryPurger;
 import org.jasig.portal.xml.xpath.XPathOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
 
 import com.google.common.base.Function;
 
@@ -67,6 +72,8 @@ import com.google.common.base.Function;
 @Service
 public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
     public static final String EXTERNAL_ID_ATTR = "externalId";
+    
+    private static final String LAYOUT_URL_NODE_TABLE_ATTR = SingleTabUrlNodeSyntaxHelper.class.getName() + ".LAYOUT_URL_NODE_TABLE";
 
     private static final char PORTLET_PATH_ELEMENT_SEPERATOR = '.';
     
@@ -81,6 +88,12 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
     private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEntityRegistry portletEntityRegistry;
+    private Ehcache layoutUrlNodeTableCache;
+    
+    @Autowired
+    public void setLayoutUrlNodeTableCache(@Qualifier("org.jasig.portal.url.LayoutUrlNodeTable") Ehcache layoutUrlNodeTableCache) {
+        this.layoutUrlNodeTableCache = layoutUrlNodeTableCache;
+    }
     
     @Autowired
     public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
@@ -171,48 +184,10 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         return null;
     }
 
-    @RequestCache(keyMask={false, true})
     @Override
     public List<String> getFolderNamesForLayoutNode(HttpServletRequest request, String layoutNodeId) {
-        final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
-        final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
-        final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
-        final IUserLayout userLayout = userLayoutManager.getUserLayout();
-        
-        final String tabId = userLayout.findNodeId(new PortletTabIdResolver(layoutNodeId));
-        
-        if (StringUtils.isEmpty(tabId)) {
-            return Collections.emptyList();
-        }
-        
-        String externalId = stylesheetUserPreferencesService.getLayoutAttribute(request, PreferencesScope.STRUCTURE, tabId, EXTERNAL_ID_ATTR);
-        if (externalId != null) {
-            final Map<String, String> allNodesAndValuesForAttribute = stylesheetUserPreferencesService.getAllNodesAndValuesForAttribute(request, PreferencesScope.STRUCTURE, EXTERNAL_ID_ATTR);
-
-            boolean appendNodeId = false;
-            for (final Entry<String, String> nodeAttributeEntry : allNodesAndValuesForAttribute.entrySet()) {
-                final String entryNodeId = nodeAttributeEntry.getKey();
-                final String entryValue = nodeAttributeEntry.getValue();
-                if (!tabId.equals(entryNodeId) && externalId.equals(entryValue)) {
-                    appendNodeId = true;
-                    break;
-                }
-            }
-            
-            if (!FunctionalNameType.isValid(externalId)) {
-                logger.warn("ExternalId {} for tab {} is not a valid fname. It will be converted for use in the URL but this results in additional overhead", externalId, tabId);
-                externalId = FunctionalNameType.makeValid(externalId);
-            }
-            
-            if (appendNodeId) {
-                externalId = externalId + PORTLET_PATH_ELEMENT_SEPERATOR + layoutNodeId;
-            }
-            
-            return Arrays.asList(externalId);
-        }
-        else {
-            return Arrays.asList(tabId);
-        }
+        final LayoutUrlNodeTable layoutUrlNodeTable = this.getLayoutUrlNodeTable(request);
+        return layoutUrlNodeTable.getFolderNamesForLayoutNode(layoutNodeId);
     }
 
     @Override
@@ -231,21 +206,15 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         }
         
         // Search the users layout attributes for a layout node with a matching externalId value
+        final LayoutUrlNodeTable layoutUrlNodeTable = this.getLayoutUrlNodeTable(request);
         String firstMatchingNodeId = null;
-        final Map<String, String> allNodesAndValuesForAttribute = stylesheetUserPreferencesService.getAllNodesAndValuesForAttribute(request, PreferencesScope.STRUCTURE, EXTERNAL_ID_ATTR);
-        for (final Entry<String, String> entry : allNodesAndValuesForAttribute.entrySet()) {
-            final String value = entry.getValue();
-            //Have to test against the fname safe version of the externalId since the folderName could have already been translated
-            if (value.equals(folderName) || FunctionalNameType.makeValid(value).equals(folderName)) {
-                final String nodeId = entry.getKey();
-                
-                if (nodeId.equals(layoutNodeId)) {
-                    //ExternalId matched as well as the layoutNodeId, clear the firstMatchingNodeId since we found the nodeId here
-                    return nodeId;
-                }
-                else if (firstMatchingNodeId == null) {
-                    firstMatchingNodeId = nodeId;
-                }
+        for (final String nodeId : layoutUrlNodeTable.getNodeIdsForExternalId(folderName)) {
+            if (nodeId.equals(layoutNodeId)) {
+                //ExternalId matched as well as the layoutNodeId, clear the firstMatchingNodeId since we found the nodeId here
+                return nodeId;
+            }
+            else if (firstMatchingNodeId == null) {
+                firstMatchingNodeId = nodeId;
             }
         }
         
@@ -260,6 +229,10 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         
         
         //Verify the parsed layoutNodeId matches a node in the user's layout 
+        if (layoutUrlNodeTable.containsNode(layoutNodeId)) {
+            return layoutNodeId;
+        }
+        
         final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
         final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
@@ -280,9 +253,14 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         return node.getId();
     }
 
-    @RequestCache(keyMask={false, true})
     @Override
     public String getFolderNameForPortlet(HttpServletRequest request, IPortletWindowId portletWindowId) {
+        final LayoutUrlNodeTable layoutUrlNodeTable = this.getLayoutUrlNodeTable(request);
+        final String folderName = layoutUrlNodeTable.getPortletFolderName(portletWindowId);
+        if (folderName != null) {
+            return folderName;
+        }
+        
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
         final IPortletEntity portletEntity = portletWindow.getPortletEntity();
         final IPortletDefinition portletDefinition = portletEntity.getPortletDefinition();
@@ -291,7 +269,9 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         final String layoutNodeId = portletEntity.getLayoutNodeId();
         
         //Build the targeted portlet string (fname + subscribeId)
-        return fname + PORTLET_PATH_ELEMENT_SEPERATOR + layoutNodeId;
+        final String portletFolderName = fname + PORTLET_PATH_ELEMENT_SEPERATOR + layoutNodeId;
+        layoutUrlNodeTable.setPortletFolderName(portletWindowId, portletFolderName);
+        return portletFolderName;
     }
 
     
@@ -333,12 +313,10 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         
         //If a layout node is targeted then look for a matching subscribeId under that targeted node
         if (targetedLayoutNodeId != null) {
-        	final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
-        	final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
-        	final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
+        	final LayoutUrlNodeTable layoutUrlNodeTable = this.getLayoutUrlNodeTable(request);
         	
         	//First look for the layout node only under the specified folder 
-        	subscribeId = userLayoutManager.getSubscribeId(targetedLayoutNodeId, fname);
+        	subscribeId = layoutUrlNodeTable.getSubscribeId(targetedLayoutNodeId, fname);
         }
 
         //Find a subscribeId based on the fname
@@ -357,4 +335,90 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         return portletWindow.getPortletWindowId();
     }
 
+    /**
+     * Get the URL routing tables for the current version of the user's layout, building them if needed.
+     * The tables are cached across requests and replaced whenever the layout or the externalId
+     * layout attributes change.
+     */
+    private LayoutUrlNodeTable getLayoutUrlNodeTable(HttpServletRequest request) {
+        final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
+        final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
+        final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
+        final String layoutCacheKey = userLayoutManager.getCacheKey();
+        
+        //Tables are resolved once per request
+        LayoutUrlNodeTable layoutUrlNodeTable = (LayoutUrlNodeTable) request.getAttribute(LAYOUT_URL_NODE_TABLE_ATTR);
+        if (layoutUrlNodeTable != null && layoutUrlNodeTable.getLayoutCacheKey().equals(layoutCacheKey)) {
+            return layoutUrlNodeTable;
+        }
+        
+        final Map<String, String> externalIds = stylesheetUserPreferencesService.getAllNodesAndValuesForAttribute(request, PreferencesScope.STRUCTURE, EXTERNAL_ID_ATTR);
+        
+        final String userName = userInstance.getPerson().getUserName();
+        final CacheKey cacheKey = CacheKey.<String, String>builder(LayoutUrlNodeTable.class.getName())
+                .addTag(UsernameTaggedCacheEntryPurger.createCacheEntryTag(userName))
+                .addAll(userName, layoutCacheKey)
+                .putAll(externalIds)
+                .build();
+        
+        final Element element = this.layoutUrlNodeTableCache.get(cacheKey);
+        if (element != null) {
+            layoutUrlNodeTable = (LayoutUrlNodeTable) element.getObjectValue();
+        }
+        else {
+            layoutUrlNodeTable = this.buildLayoutUrlNodeTable(request, userLayoutManager.getUserLayout(), layoutCacheKey, externalIds);
+            this.layoutUrlNodeTableCache.put(new Element(cacheKey, layoutUrlNodeTable));
+        }
+        
+        request.setAttribute(LAYOUT_URL_NODE_TABLE_ATTR, layoutUrlNodeTable);
+        return layoutUrlNodeTable;
+    }
+
+    private LayoutUrlNodeTable buildLayoutUrlNodeTable(final HttpServletRequest request, IUserLayout userLayout, final String layoutCacheKey, Map<String, String> externalIds) {
+        //Traverse the layout DOM once to build the node tables
+        final LayoutUrlNodeTable[] tableHolder = new LayoutUrlNodeTable[1];
+        userLayout.findNodeId(new INodeIdResolver() {
+            @Override
+            public String traverseDocument(Document document) {
+                tableHolder[0] = new LayoutUrlNodeTable(layoutCacheKey, document, PORTLET_PATH_ELEMENT_SEPERATOR);
+                return null;
+            }
+        });
+        final LayoutUrlNodeTable layoutUrlNodeTable = tableHolder[0];
+        
+        //Index the nodes by externalId, have to index the fname safe version of the externalId as well since the folderName could have already been translated
+        for (final Entry<String, String> entry : externalIds.entrySet()) {
+            final String value = entry.getValue();
+            final String nodeId = entry.getKey();
+            layoutUrlNodeTable.addExternalId(value, nodeId);
+            layoutUrlNodeTable.addExternalId(FunctionalNameType.makeValid(value), nodeId);
+        }
+        
+        //Determine the folder name for each tab
+        for (final String tabId : layoutUrlNodeTable.getTabIds()) {
+            String externalId = stylesheetUserPreferencesService.getLayoutAttribute(request, PreferencesScope.STRUCTURE, tabId, EXTERNAL_ID_ATTR);
+            if (externalId == null) {
+                continue;
+            }
+            
+            boolean appendNodeId = false;
+            for (final Entry<String, String> nodeAttributeEntry : externalIds.entrySet()) {
+                final String entryNodeId = nodeAttributeEntry.getKey();
+                final String entryValue = nodeAttributeEntry.getValue();
+                if (!tabId.equals(entryNodeId) && externalId.equals(entryValue)) {
+                    appendNodeId = true;
+                    break;
+                }
+            }
+            
+            if (!FunctionalNameType.isValid(externalId)) {
+                logger.warn("ExternalId {} for tab {} is not a valid fname. It will be converted for use in the URL but this results in additional overhead", externalId, tabId);
+                externalId = FunctionalNameType.makeValid(externalId);
+            }
+            
+            layoutUrlNodeTable.setTabFolderName(tabId, externalId, appendNodeId);
+        }
+        
+        return layoutUrlNodeTable;
+    }
 }
@@ -67,6 +67,9 @@ public class UrlCanonicalizingFilter extends OncePerRequestFilter {
     
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        //Parse the request before any portlet worker threads are started, all later lookups read the cached request info
+        final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(request);
+        
         if ("GET".equals(request.getMethod())) {
             final String canonicalUrl = this.urlSyntaxProvider.getCanonicalUrl(request);
             
@@ -100,7 +103,6 @@ public class UrlCanonicalizingFilter extends OncePerRequestFilter {
             }
         }
         
-        final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(request);
         final UrlType urlType = portalRequestInfo.getUrlType();
         final UrlState urlState = portalRequestInfo.getUrlState();
         
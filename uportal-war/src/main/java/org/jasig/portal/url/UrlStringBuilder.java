@@ -22,20 +22,26 @@ package org.jasig.portal.url;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.Validate;
 
 /**
  * Builds a URL.
  * 
+ * Path elements and parameters that only contain ASCII characters are encoded directly into
+ * a per-thread buffer, only values with non-ASCII characters are passed to {@link URLEncoder}.
+ * 
  * This class is not thread safe.
  * 
  * @author Eric Dalquist
@@ -43,13 +49,32 @@ import org.apache.commons.lang.Validate;
  */
 public final class UrlStringBuilder implements Serializable, Cloneable {
     private static final long serialVersionUID = 1L;
+    
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final int MAX_BUFFER_SIZE = 8192;
+    
+    /**
+     * Encodings that have been validated, the value is true if the encoding maps ASCII characters
+     * to the same single bytes as US-ASCII and ASCII characters can be percent encoded directly
+     */
+    private static final ConcurrentMap<String, Boolean> ASCII_COMPATIBLE_ENCODINGS = new ConcurrentHashMap<String, Boolean>();
+    
+    /**
+     * Reused URL buffer, avoids growing a new StringBuilder for every URL
+     */
+    private static final ThreadLocal<StringBuilder> URL_BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
 
     private final String encoding;
     private final String protocol;
     private final String host;
     private final Integer port;
     private final String context;
-    private final List<String> path = new LinkedList<String>();
+    private final List<String> path = new ArrayList<String>();
     private final Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
     
     /**
@@ -91,12 +116,27 @@ public final class UrlStringBuilder implements Serializable, Cloneable {
     }
 
     protected void checkEncoding(String encoding) {
+        if (ASCII_COMPATIBLE_ENCODINGS.containsKey(encoding)) {
+            return;
+        }
+        
         try {
             URLEncoder.encode("", encoding);
         }
         catch (UnsupportedEncodingException e) {
             throw new IllegalArgumentException("Encoding '" + encoding + "' is not supported", e);
         }
+        
+        ASCII_COMPATIBLE_ENCODINGS.put(encoding, isAsciiCompatible(encoding));
+    }
+    
+    private static boolean isAsciiCompatible(String encoding) {
+        final char[] ascii = new char[128];
+        for (int c = 0; c < ascii.length; c++) {
+            ascii[c] = (char) c;
+        }
+        final String asciiString = new String(ascii);
+        return Arrays.equals(asciiString.getBytes(Charset.forName("US-ASCII")), asciiString.getBytes(Charset.forName(encoding)));
     }
     
     protected <T> List<T> copy(List<T> l) {
@@ -104,7 +144,13 @@ public final class UrlStringBuilder implements Serializable, Cloneable {
     }
     
     protected <T> List<T> copy(T[] t) {
-        return t == null ? null : new ArrayList<T>(Arrays.asList(t));
+        if (t == null) {
+            return null;
+        }
+        
+        final List<T> l = new ArrayList<T>(t.length);
+        Collections.addAll(l, t);
+        return l;
     }
     
     protected String encode(String s) {
@@ -116,6 +162,52 @@ public final class UrlStringBuilder implements Serializable, Cloneable {
         }
     }
     
+    /**
+     * Appends the encoded form of the string to the URL, produces the same result as
+     * {@link URLEncoder#encode(String, String)}. Strings that only contain ASCII characters
+     * are encoded directly into the buffer without creating any intermediate objects.
+     */
+    protected void appendEncoded(StringBuilder url, String s) {
+        final int length = s.length();
+        if (!this.isAsciiCompatibleEncoding() || !isAscii(s, length)) {
+            url.append(this.encode(s));
+            return;
+        }
+        
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') 
+                    || c == '.' || c == '-' || c == '*' || c == '_') {
+                url.append(c);
+            }
+            else if (c == ' ') {
+                url.append('+');
+            }
+            else {
+                url.append('%').append(HEX_DIGITS[(c >> 4) & 0xF]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+    }
+    
+    private boolean isAsciiCompatibleEncoding() {
+        Boolean asciiCompatible = ASCII_COMPATIBLE_ENCODINGS.get(this.encoding);
+        if (asciiCompatible == null) {
+            //Deserialized instances may use an encoding not yet checked in this JVM
+            this.checkEncoding(this.encoding);
+            asciiCompatible = ASCII_COMPATIBLE_ENCODINGS.get(this.encoding);
+        }
+        return asciiCompatible;
+    }
+    
+    private static boolean isAscii(String s, int length) {
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     /**
      * Sets a URL parameter, replacing any existing parameter with the same name.
      * 
@@ -322,67 +414,78 @@ public final class UrlStringBuilder implements Serializable, Cloneable {
      */
     @Override
     public String toString() {
-        final StringBuilder url = new StringBuilder();
+        final StringBuilder url = URL_BUFFER.get();
+        url.setLength(0);
         
+        try {
+            this.appendTo(url);
+            return url.toString();
+        }
+        finally {
+            //Don't hold on to buffers grown by unusually large URLs
+            if (url.capacity() > MAX_BUFFER_SIZE) {
+                URL_BUFFER.remove();
+            }
+        }
+    }
+    
+    private void appendTo(StringBuilder url) {
         //Add protocol://host:port if they are set
         if (this.host != null) {
             url.append(this.protocol).append("://").append(this.host);
             
             if (this.port != null) {
-                url.append(":").append(this.port);
+                url.append(':').append(this.port);
             }
         }
         
         if (this.context != null) {
-            url.append("/").append(context);
+            url.append('/').append(context);
         }
         
         //If no host/port/context and no path start with a /
         else if (this.path.size() == 0) {
-            url.append("/");
+            url.append('/');
         }
 
         //Add the path
         for (final String element : this.path) {
-            url.append("/").append(this.encode(element));
+            url.append('/');
+            this.appendEncoded(url, element);
         }
         
         //Add parameters
         if (this.parameters.size() > 0) {
-            url.append("?");
+            url.append('?');
 
             for (final Iterator<Map.Entry<String, List<String>>> paramEntryItr = this.parameters.entrySet().iterator(); paramEntryItr.hasNext(); ) {
                 final Entry<String, List<String>> paramEntry = paramEntryItr.next();
-                String name = paramEntry.getKey();
+                final String name = paramEntry.getKey();
                 final List<String> values = paramEntry.getValue();
 
-                name = this.encode(name);
-                
                 if (values == null || values.size() == 0) {
-                    url.append(name);
+                    this.appendEncoded(url, name);
                 }
                 else {
                     for (final Iterator<String> valueItr = values.iterator(); valueItr.hasNext(); ) {
-                        String value = valueItr.next();
-                        if (value == null) {
-                            value = "";
+                        final String value = valueItr.next();
+                        
+                        this.appendEncoded(url, name);
+                        url.append('=');
+                        if (value != null) {
+                            this.appendEncoded(url, value);
                         }
-
-                        value = this.encode(value);
-                        url.append(name).append("=").append(value);
                         
                         if (valueItr.hasNext()) {
-                            url.append("&");
+                            url.append('&');
                         }
                     }
                 }
                 
                 if (paramEntryItr.hasNext()) {
-                    url.append("&");
+                    url.append('&');
                 }
             }
         }
-
-        return url.toString();
     }
 }
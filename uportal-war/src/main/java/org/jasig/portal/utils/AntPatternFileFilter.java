@@ -102,10 +102,21 @@ public class AntPatternFileFilter implements FileFilter {
         return accept(pathname, path);
     }
 
+    /**
+     * Tests a relative path that does not exist on the file system, such as the name of an
+     * entry in an archive. Directories are never accepted by this method.
+     */
+    public boolean acceptPath(String path) {
+        return accept(null, FilenameUtils.separatorsToSystem(path));
+    }
+
+    /**
+     * @param pathname The file being tested, null if only the path is known
+     */
     protected boolean accept(File pathname, final String path) {
         logger.debug("checking path: {}", path);
         for (final String include : this.includes) {
-            if ((acceptDirectories && pathname.isDirectory()) || 
+            if ((acceptDirectories && pathname != null && pathname.isDirectory()) || 
             		SelectorUtils.matchPath(include, path, false) || 
             		SelectorUtils.match(include, path, false)) {
 
@@ -0,0 +1,88 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+/**
+ * Purges large amounts of data in bounded batches instead of a single bulk delete. Each batch is
+ * expected to be its own transaction so row locks are only held for the duration of one batch,
+ * batches are separated by a short pause and a single purge stops once its time budget is used
+ * up, leaving the remaining data for the next run.
+ */
+public interface BatchedPurger {
+    /**
+     * Run the purge until a batch purges fewer than the batch size or the time budget is used up
+     * 
+     * @param purgeName Name the purge is tracked under for JMX reporting
+     * @param batch Callback that purges a single batch
+     */
+    PurgeResult purge(String purgeName, PurgeBatch batch);
+    
+    /**
+     * Purges a single batch of data
+     */
+    public interface PurgeBatch {
+        /**
+         * @param batchSize The maximum number of rows to purge
+         * @return The number of rows purged, less than batchSize if there is nothing left to purge
+         */
+        int purge(int batchSize);
+    }
+    
+    /**
+     * Results of a single purge
+     */
+    public static final class PurgeResult {
+        private final int purged;
+        private final int batches;
+        private final boolean complete;
+        
+        public PurgeResult(int purged, int batches, boolean complete) {
+            this.purged = purged;
+            this.batches = batches;
+            this.complete = complete;
+        }
+
+        /**
+         * @return Total number of rows purged
+         */
+        public int getPurged() {
+            return this.purged;
+        }
+
+        /**
+         * @return Number of batches run
+         */
+        public int getBatches() {
+            return this.batches;
+        }
+
+        /**
+         * @return false if the purge stopped before everything was purged
+         */
+        public boolean isComplete() {
+            return this.complete;
+        }
+
+        @Override
+        public String toString() {
+            return "PurgeResult [purged=" + this.purged + ", batches=" + this.batches + ", complete=" + this.complete + "]";
+        }
+    }
+}
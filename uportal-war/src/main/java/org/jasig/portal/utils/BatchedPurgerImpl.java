@@ -0,0 +1,185 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Default {@link BatchedPurger}, the batch size, time budget and pause between batches are shared
+ * by every purge and can be changed at runtime via JMX.
+ */
+@ManagedResource("uPortal:section=Framework,name=BatchedPurger")
+@Service
+public class BatchedPurgerImpl implements BatchedPurger, BatchedPurgerMXBean {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final ConcurrentMap<String, AtomicLong> runningPurgeProgress = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Long> lastRunPurgedCounts = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, Long> lastRunDurations = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, AtomicLong> totalPurgedCounts = new ConcurrentHashMap<String, AtomicLong>();
+    
+    private volatile int batchSize = 1000;
+    private volatile long timeBudget = 300000;
+    private volatile long batchPause = 100;
+    
+    /**
+     * Maximum number of rows purged per batch, defaults to 1000
+     */
+    @Value("${org.jasig.portal.utils.BatchedPurgerImpl.batchSize:1000}")
+    @Override
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than 0: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Maximum time in milliseconds a single purge runs for, defaults to 5 minutes
+     */
+    @Value("${org.jasig.portal.utils.BatchedPurgerImpl.timeBudget:300000}")
+    @Override
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Time in milliseconds to pause between batches, defaults to 100ms
+     */
+    @Value("${org.jasig.portal.utils.BatchedPurgerImpl.batchPause:100}")
+    @Override
+    public void setBatchPause(long batchPause) {
+        this.batchPause = batchPause;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    @Override
+    public long getTimeBudget() {
+        return this.timeBudget;
+    }
+
+    @Override
+    public long getBatchPause() {
+        return this.batchPause;
+    }
+
+    @Override
+    public Map<String, Long> getRunningPurgeProgress() {
+        return toLongMap(this.runningPurgeProgress);
+    }
+
+    @Override
+    public Map<String, Long> getLastRunPurgedCounts() {
+        return new LinkedHashMap<String, Long>(this.lastRunPurgedCounts);
+    }
+
+    @Override
+    public Map<String, Long> getLastRunDurations() {
+        return new LinkedHashMap<String, Long>(this.lastRunDurations);
+    }
+
+    @Override
+    public Map<String, Long> getTotalPurgedCounts() {
+        return toLongMap(this.totalPurgedCounts);
+    }
+
+    @Override
+    public PurgeResult purge(String purgeName, PurgeBatch batch) {
+        final int batchSize = this.batchSize;
+        final long batchPause = this.batchPause;
+        final long start = System.currentTimeMillis();
+        final long deadline = start + this.timeBudget;
+        
+        final AtomicLong progress = new AtomicLong();
+        this.runningPurgeProgress.put(purgeName, progress);
+        
+        int purged = 0;
+        int batches = 0;
+        boolean complete = false;
+        try {
+            while (true) {
+                final int batchPurged = batch.purge(batchSize);
+                batches++;
+                purged += batchPurged;
+                progress.addAndGet(batchPurged);
+                
+                if (batchPurged < batchSize) {
+                    complete = true;
+                    break;
+                }
+                
+                if (System.currentTimeMillis() + batchPause >= deadline) {
+                    logger.info("{} used up its time budget of {}ms after purging {} rows in {} batches, the rest will be purged by the next run",
+                            new Object[] { purgeName, this.timeBudget, purged, batches });
+                    break;
+                }
+                
+                if (batchPause > 0) {
+                    try {
+                        Thread.sleep(batchPause);
+                    }
+                    catch (InterruptedException e) {
+                        logger.warn("Interrupted while purging " + purgeName + ", the rest will be purged by the next run", e);
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            this.runningPurgeProgress.remove(purgeName, progress);
+            
+            this.lastRunPurgedCounts.put(purgeName, (long) purged);
+            this.lastRunDurations.put(purgeName, System.currentTimeMillis() - start);
+            
+            AtomicLong total = this.totalPurgedCounts.get(purgeName);
+            if (total == null) {
+                total = ConcurrentMapUtils.putIfAbsent(this.totalPurgedCounts, purgeName, new AtomicLong());
+            }
+            total.addAndGet(purged);
+        }
+        
+        logger.debug("{} purged {} rows in {} batches and {}ms", new Object[] { purgeName, purged, batches, System.currentTimeMillis() - start });
+        
+        return new PurgeResult(purged, batches, complete);
+    }
+    
+    private static Map<String, Long> toLongMap(Map<String, AtomicLong> counters) {
+        final Map<String, Long> values = new LinkedHashMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> counterEntry : counters.entrySet()) {
+            values.put(counterEntry.getKey(), counterEntry.getValue().get());
+        }
+        return values;
+    }
+}
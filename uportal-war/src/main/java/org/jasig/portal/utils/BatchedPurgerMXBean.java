@@ -0,0 +1,77 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import java.util.Map;
+
+/**
+ * JMX stats and configuration for BatchedPurgerImpl
+ */
+public interface BatchedPurgerMXBean {
+    /**
+     * @return Maximum number of rows purged per batch
+     */
+    int getBatchSize();
+    
+    /**
+     * @param batchSize Maximum number of rows purged per batch
+     */
+    void setBatchSize(int batchSize);
+    
+    /**
+     * @return Maximum time in milliseconds a single purge runs for before leaving the rest for the next run
+     */
+    long getTimeBudget();
+    
+    /**
+     * @param timeBudget Maximum time in milliseconds a single purge runs for before leaving the rest for the next run
+     */
+    void setTimeBudget(long timeBudget);
+    
+    /**
+     * @return Time in milliseconds to pause between batches
+     */
+    long getBatchPause();
+    
+    /**
+     * @param batchPause Time in milliseconds to pause between batches
+     */
+    void setBatchPause(long batchPause);
+    
+    /**
+     * @return Number of rows purged so far by each purge that is currently running
+     */
+    Map<String, Long> getRunningPurgeProgress();
+    
+    /**
+     * @return Number of rows purged by the last run of each purge
+     */
+    Map<String, Long> getLastRunPurgedCounts();
+    
+    /**
+     * @return Duration in milliseconds of the last run of each purge
+     */
+    Map<String, Long> getLastRunDurations();
+    
+    /**
+     * @return Total number of rows purged by each purge since startup
+     */
+    Map<String, Long> getTotalPurgedCounts();
+}
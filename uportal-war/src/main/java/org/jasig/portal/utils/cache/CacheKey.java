@@ -19,7 +19,11 @@
 
 package org.jasig.portal.utils.cache;
 
+import java.io.Externalizable;
 import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -32,7 +36,6 @@ import java.util.Properties;
 import java.util.Set;
 
 import org.codehaus.jackson.JsonGenerationException;
-import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.map.AnnotationIntrospector;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -48,11 +51,16 @@ import com.google.common.collect.ImmutableSet;
  * <br/>
  * Tags can be added to a key which are used with the {@link TaggedCacheEntry} facilities. These tags ARE NOT included
  * in CacheKey comparison. 
+ * <br/>
+ * Keys with one to four components hold them in fields of a size specific implementation, larger keys hold
+ * the component array they were built from. Array components are compared deeply, all other components with
+ * their own equals. Keys are replicated using a compact {@link Externalizable} form that only contains the
+ * source, tags and components.
  * 
  * @author Eric Dalquist
  */
-public final class CacheKey implements Serializable, TaggedCacheEntry {
-    private static final long serialVersionUID = 1L;
+public abstract class CacheKey implements Serializable, TaggedCacheEntry {
+    private static final long serialVersionUID = 2L;
     
     private final static ObjectWriter WRITER;
     static {
@@ -62,6 +70,8 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
         mapper.getSerializationConfig().withAnnotationIntrospector(pair);
         WRITER = mapper.writerWithDefaultPrettyPrinter();
     }
+    
+    private static final Serializable[] NO_COMPONENTS = new Serializable[0];
 
     /**
      * Utility for building more complex cache keys
@@ -158,7 +168,7 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
                 }
             }
             
-            return new CacheKey(this.source, key, this.tags);
+            return create(this.source, key, this.tags);
         }
         
         private void checkKeyList() {
@@ -178,16 +188,22 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
         return new CacheKeyBuilder<K, V>(source);
     }
     
+    /**
+     * The key array is not copied, it must not be modified after the key is built
+     */
     public static CacheKey build(String source, Serializable... key) {
-        return new CacheKey(source, key.clone(), null);
+        return create(source, key, null);
     }
     
+    /**
+     * The key array is not copied, it must not be modified after the key is built
+     */
     public static CacheKey buildTagged(String source, CacheEntryTag tag, Serializable... key) {
-        return new CacheKey(source, key.clone(), ImmutableSet.of(tag));
+        return create(source, key, Collections.singleton(tag));
     }
     
     public static CacheKey build(String source, Collection<? extends Serializable> key) {
-        return new CacheKey(source, key.toArray(new Serializable[key.size()]), null);
+        return create(source, key.toArray(new Serializable[key.size()]), null);
     }
     
     public static CacheKey build(String source, Map<? extends Serializable, ? extends Serializable> keyData) {
@@ -198,19 +214,39 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
             key[mapIndex++] = new Serializable[] { ve.getKey(), ve.getValue() };
         }
         
-        return new CacheKey(source, key, null);
+        return create(source, key, null);
+    }
+    
+    /**
+     * Picks the implementation for the number of components. Keys with the same number of components always
+     * have the same implementation which is what allows equals to compare the classes of the keys.
+     */
+    static CacheKey create(String source, Serializable[] key, Set<CacheEntryTag> tags) {
+        if (key == null) {
+            key = NO_COMPONENTS;
+        }
+        
+        switch (key.length) {
+            case 1: 
+                return new CacheKey1(source, tags, key[0]);
+            case 2: 
+                return new CacheKey2(source, tags, key[0], key[1]);
+            case 3: 
+                return new CacheKey3(source, tags, key[0], key[1], key[2]);
+            case 4: 
+                return new CacheKey4(source, tags, key[0], key[1], key[2], key[3]);
+            default:
+                return new CacheKeyN(source, tags, key);
+        }
     }
 
     private final String source;
     private final Set<CacheEntryTag> tags;
-    private final Serializable[] key;
-    @JsonIgnore
     private final int hashCode;
     
-    CacheKey(String source, Serializable[] key, Set<CacheEntryTag> tags) {
+    CacheKey(String source, Set<CacheEntryTag> tags, int hashCode) {
         this.source = source;
-        this.key = key;
-        if (tags == null) {
+        if (tags == null || tags.isEmpty()) {
             this.tags = null;
         }
         else if (tags.size() == 1) {
@@ -219,11 +255,18 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
         else {
             this.tags = ImmutableSet.copyOf(tags);
         }
-        this.hashCode = this.internalHashCode();
+        this.hashCode = hashCode;
     }
 
+    /**
+     * @return A copy of the components of the key
+     */
     public Serializable getKey() {
-        return this.key;
+        final Serializable[] key = new Serializable[this.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = this.get(i);
+        }
+        return key;
     }
     
     public String getSource() {
@@ -234,22 +277,29 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
     public Set<CacheEntryTag> getTags() {
         return this.tags;
     }
-
-    private int internalHashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + Arrays.deepHashCode(key);
-        result = prime * result + ((source == null) ? 0 : source.hashCode());
-        return result;
-    }
+    
+    /**
+     * @return The number of components in the key
+     */
+    abstract int size();
+    
+    /**
+     * @return The component at the index
+     */
+    abstract Serializable get(int index);
+    
+    /**
+     * @return true if all components are equal, only called with a key of the same class
+     */
+    abstract boolean componentsEqual(CacheKey other);
     
     @Override
-    public int hashCode() {
+    public final int hashCode() {
         return this.hashCode;
     }
 
     @Override
-    public boolean equals(Object obj) {
+    public final boolean equals(Object obj) {
         if (this == obj)
             return true;
         if (obj == null)
@@ -259,15 +309,13 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
         if (hashCode() != obj.hashCode())
             return false;
         CacheKey other = (CacheKey) obj;
-        if (!Arrays.deepEquals(key, other.key))
-            return false;
         if (source == null) {
             if (other.source != null)
                 return false;
         }
         else if (!source.equals(other.source))
             return false;
-        return true;
+        return this.componentsEqual(other);
     }
 
     @Override
@@ -287,6 +335,278 @@ public final class CacheKey implements Serializable, TaggedCacheEntry {
         }
         
         //Fall back on a simpler tostring
-        return "CacheKey [source=" + source + ", key=" + Arrays.toString(key) + ", tags=" + tags + "]";
+        return "CacheKey [source=" + source + ", key=" + Arrays.deepToString((Object[]) getKey()) + ", tags=" + tags + "]";
+    }
+    
+    /**
+     * Replaces the key with its compact form when serialized
+     */
+    Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(this);
+    }
+    
+    static int hashSource(String source) {
+        return 31 + (source == null ? 0 : source.hashCode());
+    }
+    
+    static int hashComponent(int hash, Object component) {
+        final int componentHash;
+        if (component == null) {
+            componentHash = 0;
+        }
+        else if (component.getClass().isArray()) {
+            componentHash = Arrays.deepHashCode(new Object[] { component });
+        }
+        else {
+            componentHash = component.hashCode();
+        }
+        return 31 * hash + componentHash;
+    }
+    
+    static boolean componentEquals(Object c1, Object c2) {
+        if (c1 == c2) {
+            return true;
+        }
+        if (c1 == null || c2 == null) {
+            return false;
+        }
+        if (c1.getClass().isArray()) {
+            return c2.getClass().isArray() && Arrays.deepEquals(new Object[] { c1 }, new Object[] { c2 });
+        }
+        return c1.equals(c2);
+    }
+    
+    private static final class CacheKey1 extends CacheKey {
+        private static final long serialVersionUID = 1L;
+        
+        private final Serializable k0;
+        
+        CacheKey1(String source, Set<CacheEntryTag> tags, Serializable k0) {
+            super(source, tags, hashComponent(hashSource(source), k0));
+            this.k0 = k0;
+        }
+
+        @Override
+        int size() {
+            return 1;
+        }
+
+        @Override
+        Serializable get(int index) {
+            if (index == 0) {
+                return this.k0;
+            }
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: 1");
+        }
+
+        @Override
+        boolean componentsEqual(CacheKey other) {
+            final CacheKey1 o = (CacheKey1) other;
+            return componentEquals(this.k0, o.k0);
+        }
+    }
+    
+    private static final class CacheKey2 extends CacheKey {
+        private static final long serialVersionUID = 1L;
+        
+        private final Serializable k0;
+        private final Serializable k1;
+        
+        CacheKey2(String source, Set<CacheEntryTag> tags, Serializable k0, Serializable k1) {
+            super(source, tags, hashComponent(hashComponent(hashSource(source), k0), k1));
+            this.k0 = k0;
+            this.k1 = k1;
+        }
+
+        @Override
+        int size() {
+            return 2;
+        }
+
+        @Override
+        Serializable get(int index) {
+            switch (index) {
+                case 0: return this.k0;
+                case 1: return this.k1;
+                default: throw new IndexOutOfBoundsException("Index: " + index + ", Size: 2");
+            }
+        }
+
+        @Override
+        boolean componentsEqual(CacheKey other) {
+            final CacheKey2 o = (CacheKey2) other;
+            return componentEquals(this.k0, o.k0) && componentEquals(this.k1, o.k1);
+        }
+    }
+    
+    private static final class CacheKey3 extends CacheKey {
+        private static final long serialVersionUID = 1L;
+        
+        private final Serializable k0;
+        private final Serializable k1;
+        private final Serializable k2;
+        
+        CacheKey3(String source, Set<CacheEntryTag> tags, Serializable k0, Serializable k1, Serializable k2) {
+            super(source, tags, hashComponent(hashComponent(hashComponent(hashSource(source), k0), k1), k2));
+            this.k0 = k0;
+            this.k1 = k1;
+            this.k2 = k2;
+        }
+
+        @Override
+        int size() {
+            return 3;
+        }
+
+        @Override
+        Serializable get(int index) {
+            switch (index) {
+                case 0: return this.k0;
+                case 1: return this.k1;
+                case 2: return this.k2;
+                default: throw new IndexOutOfBoundsException("Index: " + index + ", Size: 3");
+            }
+        }
+
+        @Override
+        boolean componentsEqual(CacheKey other) {
+            final CacheKey3 o = (CacheKey3) other;
+            return componentEquals(this.k0, o.k0) && componentEquals(this.k1, o.k1) && componentEquals(this.k2, o.k2);
+        }
+    }
+    
+    private static final class CacheKey4 extends CacheKey {
+        private static final long serialVersionUID = 1L;
+        
+        private final Serializable k0;
+        private final Serializable k1;
+        private final Serializable k2;
+        private final Serializable k3;
+        
+        CacheKey4(String source, Set<CacheEntryTag> tags, Serializable k0, Serializable k1, Serializable k2, Serializable k3) {
+            super(source, tags, hashComponent(hashComponent(hashComponent(hashComponent(hashSource(source), k0), k1), k2), k3));
+            this.k0 = k0;
+            this.k1 = k1;
+            this.k2 = k2;
+            this.k3 = k3;
+        }
+
+        @Override
+        int size() {
+            return 4;
+        }
+
+        @Override
+        Serializable get(int index) {
+            switch (index) {
+                case 0: return this.k0;
+                case 1: return this.k1;
+                case 2: return this.k2;
+                case 3: return this.k3;
+                default: throw new IndexOutOfBoundsException("Index: " + index + ", Size: 4");
+            }
+        }
+
+        @Override
+        boolean componentsEqual(CacheKey other) {
+            final CacheKey4 o = (CacheKey4) other;
+            return componentEquals(this.k0, o.k0) && componentEquals(this.k1, o.k1) 
+                    && componentEquals(this.k2, o.k2) && componentEquals(this.k3, o.k3);
+        }
+    }
+    
+    /**
+     * Keys with no components or more than four components
+     */
+    private static final class CacheKeyN extends CacheKey {
+        private static final long serialVersionUID = 1L;
+        
+        private final Serializable[] key;
+        
+        CacheKeyN(String source, Set<CacheEntryTag> tags, Serializable[] key) {
+            super(source, tags, 31 * hashSource(source) + Arrays.deepHashCode(key));
+            this.key = key;
+        }
+
+        @Override
+        int size() {
+            return this.key.length;
+        }
+
+        @Override
+        Serializable get(int index) {
+            return this.key[index];
+        }
+
+        @Override
+        boolean componentsEqual(CacheKey other) {
+            return Arrays.deepEquals(this.key, ((CacheKeyN) other).key);
+        }
+    }
+    
+    /**
+     * Serialized form of all CacheKey implementations. Writes the source, the tags and the components without
+     * any of the class and field descriptors of default serialization, the key is rebuilt when read.
+     */
+    static final class SerializedForm implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        
+        private String source;
+        private Set<CacheEntryTag> tags;
+        private Serializable[] key;
+        
+        /**
+         * Used by serialization
+         */
+        public SerializedForm() {
+        }
+        
+        SerializedForm(CacheKey cacheKey) {
+            this.source = cacheKey.getSource();
+            this.tags = cacheKey.getTags();
+            this.key = (Serializable[]) cacheKey.getKey();
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeObject(this.source);
+            
+            if (this.tags == null) {
+                out.writeInt(0);
+            }
+            else {
+                out.writeInt(this.tags.size());
+                for (final CacheEntryTag tag : this.tags) {
+                    out.writeObject(tag);
+                }
+            }
+            
+            out.writeInt(this.key.length);
+            for (final Serializable component : this.key) {
+                out.writeObject(component);
+            }
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            this.source = (String) in.readObject();
+            
+            final int tagCount = in.readInt();
+            if (tagCount > 0) {
+                this.tags = new LinkedHashSet<CacheEntryTag>(tagCount);
+                for (int i = 0; i < tagCount; i++) {
+                    this.tags.add((CacheEntryTag) in.readObject());
+                }
+            }
+            
+            this.key = new Serializable[in.readInt()];
+            for (int i = 0; i < this.key.length; i++) {
+                this.key[i] = (Serializable) in.readObject();
+            }
+        }
+        
+        private Object readResolve() throws ObjectStreamException {
+            return create(this.source, this.key, this.tags);
+        }
     }
 }
@@ -21,6 +21,8 @@ package org.jasig.portal.utils.cache;
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Ehcache;
@@ -29,6 +31,9 @@ import net.sf.ehcache.event.CacheEventListenerAdapter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Service;
 
 import com.google.common.cache.CacheBuilder;
@@ -39,13 +44,32 @@ import com.google.common.collect.MapMaker;
 /**
  * Tracks entries added to {@link Ehcache} instances that have keys or values which implement {@link TaggedCacheEntry}.
  * Allows for external removal of elements that match a specified tag
+ * <p>
+ * Tagged entries are removed from the local caches without replicating each removal. Instead a single
+ * element keyed by the tag is put into the {@link #TAG_PURGE_BROADCAST_CACHE_NAME} cache which is replicated by
+ * copy. This listener is registered for remote events on that cache and every other portal in the cluster
+ * purges the tag from its own caches when the element arrives.
  * 
  * @author Eric Dalquist
  */
+@ManagedResource("uPortal:section=Framework,name=TagTrackingCacheEventListener")
 @Service("tagTrackingCacheEventListener")
-public class TagTrackingCacheEventListener extends CacheEventListenerAdapter implements TaggedCacheEntryPurger {
+public class TagTrackingCacheEventListener extends CacheEventListenerAdapter implements TaggedCacheEntryPurger, TagTrackingCacheEventListenerMXBean {
+    public static final String TAG_PURGE_BROADCAST_CACHE_NAME = "org.jasig.portal.utils.cache.TagTrackingCacheEventListener.TAG_PURGE_BROADCAST";
+    
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
+    private final AtomicLong localPurgeCount = new AtomicLong();
+    private final AtomicLong remotePurgeCount = new AtomicLong();
+    private final AtomicLong broadcastFailureCount = new AtomicLong();
+    private final AtomicLong purgedCacheCount = new AtomicLong();
+    private final AtomicLong purgedKeyCount = new AtomicLong();
+    private final AtomicLong maxPurgedKeyCount = new AtomicLong();
+    private final AtomicLong totalPurgeTime = new AtomicLong();
+    private final AtomicLong totalBroadcastDelay = new AtomicLong();
+    
+    private Ehcache tagPurgeBroadcastCache;
+    
     // tag type -> set of caches that contain keys tagged with that type
     // I don't believe that this will leak Ehcache references as this class should have the same lifecycle as the CacheManager
     private final LoadingCache<String, Set<Ehcache>> taggedCaches =
@@ -72,11 +96,99 @@ public class TagTrackingCacheEventListener extends CacheEventListenerAdapter imp
                 }
             });
     
+    @Autowired
+    public void setTagPurgeBroadcastCache(@Qualifier(TAG_PURGE_BROADCAST_CACHE_NAME) Ehcache tagPurgeBroadcastCache) {
+        this.tagPurgeBroadcastCache = tagPurgeBroadcastCache;
+    }
+    
+    @Override
+    public long getLocalPurgeCount() {
+        return this.localPurgeCount.get();
+    }
+
+    @Override
+    public long getRemotePurgeCount() {
+        return this.remotePurgeCount.get();
+    }
+
+    @Override
+    public long getBroadcastFailureCount() {
+        return this.broadcastFailureCount.get();
+    }
+
+    @Override
+    public long getPurgedCacheCount() {
+        return this.purgedCacheCount.get();
+    }
+
+    @Override
+    public long getPurgedKeyCount() {
+        return this.purgedKeyCount.get();
+    }
+
+    @Override
+    public long getMaxPurgedKeyCount() {
+        return this.maxPurgedKeyCount.get();
+    }
+
+    @Override
+    public long getTotalPurgeTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalPurgeTime.get());
+    }
+
+    @Override
+    public long getTotalBroadcastDelay() {
+        return this.totalBroadcastDelay.get();
+    }
+
     /**
-     * Remove all cache entries with keys that have the specified tag
+     * Remove all cache entries with keys that have the specified tag from this portal and broadcast
+     * the purge to the rest of the cluster
      */
     @Override
     public void purgeCacheEntries(CacheEntryTag tag) {
+        this.localPurgeCount.incrementAndGet();
+        this.purgeLocalCacheEntries(tag);
+        
+        //The element is put on every purge so repeated purges of the same tag are replicated as updates
+        try {
+            this.tagPurgeBroadcastCache.put(new Element(tag, System.currentTimeMillis()));
+        }
+        catch (RuntimeException e) {
+            this.broadcastFailureCount.incrementAndGet();
+            logger.warn("Failed to broadcast purge of tag " + tag + ", only entries on this portal were removed", e);
+        }
+    }
+    
+    /**
+     * Purge the tag from the local caches when a purge is broadcast by another portal
+     */
+    protected void purgeBroadcastCacheEntries(Element element) {
+        final Object tag = element.getObjectKey();
+        if (!(tag instanceof CacheEntryTag)) {
+            logger.warn("Ignoring tag purge broadcast with unexpected key {}", tag);
+            return;
+        }
+        
+        this.remotePurgeCount.incrementAndGet();
+        final Object sent = element.getObjectValue();
+        if (sent instanceof Long) {
+            this.totalBroadcastDelay.addAndGet(Math.max(0, System.currentTimeMillis() - (Long) sent));
+        }
+        
+        logger.debug("Received purge broadcast for tag {}", tag);
+        this.purgeLocalCacheEntries((CacheEntryTag) tag);
+    }
+    
+    /**
+     * Remove all cache entries with keys that have the specified tag from the caches on this portal,
+     * the removals are not replicated.
+     */
+    protected void purgeLocalCacheEntries(CacheEntryTag tag) {
+        final long start = System.nanoTime();
+        int purgedCaches = 0;
+        int purgedKeys = 0;
+        
         final String tagType = tag.getTagType();
         final Set<Ehcache> caches = taggedCaches.getIfPresent(tagType);
         
@@ -96,11 +208,22 @@ public class TagTrackingCacheEventListener extends CacheEventListenerAdapter imp
                     if (taggedKeys != null) {
                         logger.debug("Removing all keys from {} for tag {}", new Object[] { cacheName, tag });
                         
-                        cache.removeAll(taggedKeys);
+                        purgedCaches++;
+                        purgedKeys += taggedKeys.size();
+                        cache.removeAll(taggedKeys, true);
                     }
                 }
             }
         }
+        
+        this.purgedCacheCount.addAndGet(purgedCaches);
+        this.purgedKeyCount.addAndGet(purgedKeys);
+        this.totalPurgeTime.addAndGet(System.nanoTime() - start);
+        
+        long max = this.maxPurgedKeyCount.get();
+        while (purgedKeys > max && !this.maxPurgedKeyCount.compareAndSet(max, purgedKeys)) {
+            max = this.maxPurgedKeyCount.get();
+        }
     }
     
     /**
@@ -179,7 +302,20 @@ public class TagTrackingCacheEventListener extends CacheEventListenerAdapter imp
 
     @Override
     public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
-        putElement(cache, element);
+        if (TAG_PURGE_BROADCAST_CACHE_NAME.equals(cache.getName())) {
+            purgeBroadcastCacheEntries(element);
+        }
+        else {
+            putElement(cache, element);
+        }
+    }
+    
+    @Override
+    public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+        //Repeated purges of a tag replace the existing broadcast element
+        if (TAG_PURGE_BROADCAST_CACHE_NAME.equals(cache.getName())) {
+            purgeBroadcastCacheEntries(element);
+        }
     }
     
     @Override
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.cache;
+
+/**
+ * JMX stats for tag purges done by TagTrackingCacheEventListener
+ */
+public interface TagTrackingCacheEventListenerMXBean {
+    /**
+     * @return Number of tag purges requested on this portal
+     */
+    long getLocalPurgeCount();
+    
+    /**
+     * @return Number of tag purges received from other portals in the cluster
+     */
+    long getRemotePurgeCount();
+    
+    /**
+     * @return Number of tag purges that could not be broadcast to the cluster
+     */
+    long getBroadcastFailureCount();
+    
+    /**
+     * @return Total number of caches entries were removed from by tag purges
+     */
+    long getPurgedCacheCount();
+    
+    /**
+     * @return Total number of tagged keys removed by tag purges
+     */
+    long getPurgedKeyCount();
+    
+    /**
+     * @return Largest number of tagged keys removed by a single tag purge
+     */
+    long getMaxPurgedKeyCount();
+    
+    /**
+     * @return Total time spent removing tagged entries in milliseconds
+     */
+    long getTotalPurgeTime();
+    
+    /**
+     * @return Total time in milliseconds between tag purges being broadcast and received from other portals,
+     * only accurate when the portal clocks are synchronized
+     */
+    long getTotalBroadcastDelay();
+}
@@ -107,6 +107,12 @@ public final class PortalWebUtils {
     
     @SuppressWarnings("unchecked")
     public static <K, V> ConcurrentMap<K, V> getMapSessionAttribute(HttpSession session, String name, boolean create) {
+        //Once created the map is never replaced, only lock the session if it doesn't exist yet
+        final ConcurrentMap<K, V> existingMap = (ConcurrentMap<K, V>)session.getAttribute(name);
+        if (existingMap != null) {
+            return existingMap;
+        }
+        
         final Object mutex = WebUtils.getSessionMutex(session);
         synchronized (mutex) {
             ConcurrentMap<K, V> map = (ConcurrentMap<K, V>)session.getAttribute(name);
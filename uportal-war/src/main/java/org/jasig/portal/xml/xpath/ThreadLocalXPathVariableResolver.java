@@ -31,12 +31,17 @@ import javax.xml.xpath.XPathVariableResolver;
 class ThreadLocalXPathVariableResolver implements XPathVariableResolver {
     private final ThreadLocal<Map<String, ?>> localVariables = new ThreadLocal<Map<String, ?>>();
     
-    public void setVariables(Map<String, ?> variables) {
-        this.localVariables.set(variables);
+    public Map<String, ?> getVariables() {
+        return this.localVariables.get();
     }
     
-    public void clearVariables() {
-        this.localVariables.set(null);
+    public void setVariables(Map<String, ?> variables) {
+        if (variables == null) {
+            this.localVariables.remove();
+        }
+        else {
+            this.localVariables.set(variables);
+        }
     }
     
     /* (non-Javadoc)
@@ -0,0 +1,223 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.xml.xpath;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Implementation of {@link XPathOperations} that caches compiled {@link XPathExpression} instances.
+ * <p>
+ * Compiled expressions are not thread safe, so the cache keeps a queue of idle compiled instances for
+ * each expression string, bounded to the most recently used expressions. A use takes an instance out of
+ * the queue, or compiles a new one if every instance is busy, and puts it back when done. The number of
+ * idle instances of an expression never exceeds the number of threads that used it at the same time.
+ * Nothing is held in thread locals between uses so container threads keep no reference to the portal
+ * once a request completes.
+ */
+@ManagedResource("uPortal:section=Framework,name=XPathCache")
+@Service
+public class XPathCacheImpl implements XPathOperations, XPathCacheMXBean {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final ThreadLocalXPathVariableResolver variableResolver = new ThreadLocalXPathVariableResolver();
+    private final XPathFactory xPathFactory = XPathFactory.newInstance();
+    private final NamespaceContext namespaceContext;
+    
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong totalCompileTime = new AtomicLong();
+    private volatile int maxExpressions = 100;
+    private volatile LoadingCache<String, Queue<XPathExpression>> expressionCache = this.createExpressionCache(this.maxExpressions);
+    
+    public XPathCacheImpl() {
+        this(null);
+    }
+    
+    public XPathCacheImpl(NamespaceContext namespaceContext) {
+        this.namespaceContext = namespaceContext;
+    }
+    
+    /**
+     * Maximum number of distinct expressions to keep compiled instances of, defaults to 100
+     */
+    public void setMaxExpressions(int maxExpressions) {
+        this.maxExpressions = maxExpressions;
+        this.expressionCache = this.createExpressionCache(maxExpressions);
+    }
+
+    @Override
+    public int getMaxExpressions() {
+        return this.maxExpressions;
+    }
+    
+    @Override
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    @Override
+    public long getTotalCompileTime() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalCompileTime.get());
+    }
+
+    @Override
+    public <T> T doWithExpression(String expression, Function<XPathExpression, T> callback) {
+        return this.<T>doWithExpression(expression, null, callback);
+    }
+
+    @Override
+    public <T> T doWithExpression(String expression, Map<String, ?> variables, Function<XPathExpression, T> callback) {
+        final Queue<XPathExpression> idleExpressions;
+        try {
+            idleExpressions = this.expressionCache.get(expression);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to create expression queue for: " + expression, e.getCause());
+        }
+        
+        //The instance is taken out of the queue while in use so concurrent and nested uses get their own
+        XPathExpression xPathExpression = idleExpressions.poll();
+        if (xPathExpression != null) {
+            this.hitCount.incrementAndGet();
+        }
+        else {
+            xPathExpression = this.compile(expression);
+        }
+        
+        final Map<String, ?> previousVariables = this.variableResolver.getVariables();
+        try {
+            this.variableResolver.setVariables(variables);
+            return callback.apply(xPathExpression);
+        }
+        finally {
+            this.variableResolver.setVariables(previousVariables);
+            idleExpressions.offer(xPathExpression);
+        }
+    }
+
+    @Override
+    public <T> T evaluate(String expression, final Object item, final QName returnType) {
+        return this.<T>evaluate(expression, null, item, returnType);
+    }
+
+    @Override
+    public <T> T evaluate(String expression, Map<String, ?> variables, final Object item, final QName returnType) {
+        return this.doWithExpression(expression, variables, new Function<XPathExpression, T>() {
+            /* (non-Javadoc)
+             * @see com.google.common.base.Function#apply(java.lang.Object)
+             */
+            @SuppressWarnings("unchecked")
+            @Override
+            public T apply(XPathExpression xpathExpression) {
+                try {
+                    return (T)xpathExpression.evaluate(item, returnType);
+                }
+                catch (XPathExpressionException e) {
+                    throw new RuntimeException("Failed to execute XPathExpression '" + xpathExpression + "'", e);
+                }
+            }
+        });
+    }
+    
+    protected XPath newXPath() {
+        //XPathFactory is not thread safe, only called when compiling
+        final XPath xPath;
+        synchronized (this.xPathFactory) {
+            xPath = this.xPathFactory.newXPath();
+        }
+        
+        if (this.namespaceContext != null) {
+            xPath.setNamespaceContext(this.namespaceContext);
+        }
+        xPath.setXPathVariableResolver(this.variableResolver);
+        
+        return xPath;
+    }
+    
+    protected XPathExpression compile(String expression) {
+        this.missCount.incrementAndGet();
+        logger.debug("Compiling XPathExpression from: {}", expression);
+        
+        final long start = System.nanoTime();
+        try {
+            return this.newXPath().compile(expression);
+        }
+        catch (XPathExpressionException e) {
+            throw new RuntimeException("Failed to compile XPath expression '" + expression + "'", e);
+        }
+        finally {
+            this.totalCompileTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+    
+    private LoadingCache<String, Queue<XPathExpression>> createExpressionCache(int maxExpressions) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maxExpressions)
+                .removalListener(new RemovalListener<String, Queue<XPathExpression>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Queue<XPathExpression>> notification) {
+                        if (notification.wasEvicted()) {
+                            evictionCount.incrementAndGet();
+                        }
+                    }
+                })
+                .build(new CacheLoader<String, Queue<XPathExpression>>() {
+                    @Override
+                    public Queue<XPathExpression> load(String expression) {
+                        return new ConcurrentLinkedQueue<XPathExpression>();
+                    }
+                });
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.xml.xpath;
+
+/**
+ * JMX stats for XPathCacheImpl
+ */
+public interface XPathCacheMXBean {
+    /**
+     * @return Number of expression uses that found an idle compiled expression in the cache
+     */
+    long getHitCount();
+    
+    /**
+     * @return Number of expressions that had to be compiled
+     */
+    long getMissCount();
+    
+    /**
+     * @return Number of expressions whose compiled instances were dropped because the cache was full
+     */
+    long getEvictionCount();
+    
+    /**
+     * @return Total time spent compiling expressions in milliseconds
+     */
+    long getTotalCompileTime();
+    
+    /**
+     * @return Maximum number of distinct expressions the cache keeps compiled instances of
+     */
+    int getMaxExpressions();
+}
@@ -23,6 +23,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.jasig.portal.url.IPortalRequestUtils;
@@ -33,6 +35,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 /**
  * @author Eric Dalquist
@@ -155,6 +159,33 @@ public class RequestCacheAspectTest {
         assertEquals(6, cacheTestInterface.testMethodCacheDefaultCount());
     }
 
+    @Test
+    public void testThreadLocalRequestLookup() {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        when(this.portalRequestUtils.getCurrentPortalRequest()).thenReturn(request);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            assertEquals("testMethodCacheDefault(1)", cacheTestInterface.testMethodCacheDefault("1", false, false));
+            assertEquals("testMethodCacheDefault(1)", cacheTestInterface.testMethodCacheDefault("1", false, false));
+            assertEquals("testMethodCacheDefault(2)", cacheTestInterface.testMethodCacheDefault("2", false, false));
+            assertEquals(2, cacheTestInterface.testMethodCacheDefaultCount());
+            
+            //The request cache is only looked up once per request and thread
+            verify(this.portalRequestUtils, times(1)).getCurrentPortalRequest();
+            
+            //A new request on the same thread gets a new cache
+            final MockHttpServletRequest nextRequest = new MockHttpServletRequest();
+            when(this.portalRequestUtils.getCurrentPortalRequest()).thenReturn(nextRequest);
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(nextRequest));
+            
+            assertEquals("testMethodCacheDefault(1)", cacheTestInterface.testMethodCacheDefault("1", false, false));
+            assertEquals(3, cacheTestInterface.testMethodCacheDefaultCount());
+        }
+        finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
     @Test
     public void testMethodCacheDefaultNoRequest() {
         when(this.portalRequestUtils.getCurrentPortalRequest()).thenThrow(new IllegalStateException());
@@ -0,0 +1,138 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.caching;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.jasig.portal.url.IPortalRequestUtils;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.jasig.portal.utils.web.PortalWebUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Microbenchmark of cache hits through {@link RequestCacheAspect} compared with the key and lookup
+ * work the aspect used to do on every invocation: building the long signature string, a
+ * {@link CacheKey} and looking up the request cache map. Ignored by default, remove the
+ * {@link Ignore} annotation to run it. Each case is warmed up before it is timed and the
+ * average time per invocation is written to stdout.
+ */
+@Ignore
+public class RequestCacheBenchmark {
+    private static final int WARMUP_ITERATIONS = 50000;
+    private static final int ITERATIONS = 1000000;
+    
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private IPortalRequestUtils portalRequestUtils;
+    
+    @Before
+    public void setup() {
+        this.portalRequestUtils = mock(IPortalRequestUtils.class);
+        when(this.portalRequestUtils.getCurrentPortalRequest()).thenReturn(this.request);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(this.request));
+    }
+    
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+    
+    @Test
+    public void benchmarkRequestCacheAspect() {
+        final RequestCacheAspect aspect = new RequestCacheAspect();
+        aspect.setPortalRequestUtils(this.portalRequestUtils);
+        run("request cache aspect", createProxy(aspect));
+        
+        aspect.setThreadLocalLookup(false);
+        run("request cache aspect, no thread local lookup", createProxy(aspect));
+    }
+    
+    @Test
+    public void benchmarkLegacyKeys() {
+        final LegacyKeyAspect aspect = new LegacyKeyAspect();
+        aspect.portalRequestUtils = this.portalRequestUtils;
+        run("legacy signature and CacheKey", createProxy(aspect));
+    }
+    
+    private CacheTestInterface createProxy(Object aspect) {
+        final AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new CacheTestImpl());
+        proxyFactory.addAspect(aspect);
+        return proxyFactory.getProxy();
+    }
+    
+    private void run(String name, CacheTestInterface cacheTest) {
+        int length = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            length += cacheTest.testMethodCacheDefault("arg" + (i & 15), false, false).length();
+        }
+        
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            length += cacheTest.testMethodCacheDefault("arg" + (i & 15), false, false).length();
+        }
+        final long duration = System.nanoTime() - start;
+        
+        //Print the accumulated length so the calls can't be optimized away
+        System.out.println(name + ": " + (duration / ITERATIONS) + "ns/call (" + length + " chars)");
+    }
+    
+    /**
+     * Does the per-invocation key and lookup work of the original aspect, without statistics
+     */
+    @Aspect
+    public static class LegacyKeyAspect {
+        private static final String CACHE_MAP = LegacyKeyAspect.class.getName() + ".CACHE_MAP";
+        
+        private IPortalRequestUtils portalRequestUtils;
+        
+        @Around("execution(public * *(..)) && @annotation(requestCache)")
+        public Object cacheRequest(ProceedingJoinPoint pjp, RequestCache requestCache) throws Throwable {
+            final Signature signature = pjp.getSignature();
+            final CacheKey cacheKey = CacheKey.build(signature.toLongString(), signature.getDeclaringType(), pjp.getArgs());
+            //The original aspect also built the short signature string to find the method statistics
+            signature.toString();
+            
+            final HttpServletRequest currentPortalRequest = this.portalRequestUtils.getCurrentPortalRequest();
+            final ConcurrentMap<CacheKey, Object> cache = PortalWebUtils.getMapRequestAttribute(currentPortalRequest, CACHE_MAP);
+            
+            Object result = cache.get(cacheKey);
+            if (result == null) {
+                result = pjp.proceed();
+                cache.put(cacheKey, result);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.IPortalInfoProvider;
+import org.jasig.portal.concurrency.locking.IClusterLockService.LockStatus;
+import org.jasig.portal.concurrency.locking.IClusterLockService.TryLockFunctionResult;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import com.google.common.base.Function;
+
+/**
+ * Tests the shared lease renewal mode of {@link ClusterLockServiceImpl} against an in-memory mutex table
+ */
+public class ClusterLockServiceImplLeaseTest {
+    private static final String SERVER_NAME = "server_1";
+
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final InMemoryClusterLockDao clusterLockDao = new InMemoryClusterLockDao();
+    private ClusterLockServiceImpl clusterLockService;
+    private ThreadPoolTaskScheduler taskScheduler;
+    private ExecutorService lockMonitorExecutorService;
+
+    @Before
+    public void setup() {
+        this.taskScheduler = new ThreadPoolTaskScheduler();
+        this.taskScheduler.setDaemon(true);
+        this.taskScheduler.initialize();
+
+        this.lockMonitorExecutorService = mock(ExecutorService.class);
+
+        this.clusterLockService = this.createClusterLockService(true);
+        this.clusterLockService.setLockMonitorExecutorService(this.lockMonitorExecutorService);
+    }
+
+    @After
+    public void teardown() {
+        this.taskScheduler.shutdown();
+    }
+
+    @Test
+    public void testLeaseExecutesOnCallingThread() throws InterruptedException {
+        final Thread caller = Thread.currentThread();
+        final TryLockFunctionResult<Boolean> result = this.clusterLockService.doInTryLock("TEST", new Function<ClusterMutex, Boolean>() {
+            @Override
+            public Boolean apply(ClusterMutex input) {
+                assertSame(caller, Thread.currentThread());
+                assertTrue(input.isLocked());
+                assertTrue(clusterLockService.isLockOwner("TEST"));
+                return Boolean.TRUE;
+            }
+        });
+
+        assertEquals(LockStatus.EXECUTED, result.getLockStatus());
+        assertTrue(result.getResult());
+        assertFalse(this.clusterLockDao.getClusterMutex("TEST").isLocked());
+        verifyZeroInteractions(this.lockMonitorExecutorService);
+    }
+
+    @Test
+    public void testLeaseLockedByOtherServer() throws InterruptedException {
+        this.clusterLockDao.getClusterMutex("TEST").lock("server_2");
+
+        final TryLockFunctionResult<Boolean> result = this.clusterLockService.doInTryLock("TEST", new Function<ClusterMutex, Boolean>() {
+            @Override
+            public Boolean apply(ClusterMutex input) {
+                throw new AssertionError("lock function must not be called");
+            }
+        });
+
+        assertEquals(LockStatus.SKIPPED_LOCKED, result.getLockStatus());
+        assertEquals("server_2", this.clusterLockDao.getClusterMutex("TEST").getServerId());
+    }
+
+    @Test
+    public void testLeaseRenewal() throws InterruptedException {
+        this.clusterLockService.setUpdateLockRate(Duration.millis(10));
+
+        this.clusterLockService.doInTryLock("TEST", new Function<ClusterMutex, Boolean>() {
+            @Override
+            public Boolean apply(ClusterMutex input) {
+                sleep(200);
+                return Boolean.TRUE;
+            }
+        });
+
+        assertTrue(this.clusterLockDao.updates.get() > 0);
+        assertFalse(this.clusterLockDao.getClusterMutex("TEST").isLocked());
+    }
+
+    @Test
+    public void testLeaseRevokedAfterMaximumDuration() throws InterruptedException {
+        this.clusterLockService.setUpdateLockRate(Duration.millis(10));
+        this.clusterLockService.setMaximumLockDuration(Duration.millis(50));
+
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        this.clusterLockService.doInTryLock("TEST", new Function<ClusterMutex, Boolean>() {
+            @Override
+            public Boolean apply(ClusterMutex input) {
+                try {
+                    Thread.sleep(5000);
+                }
+                catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                return Boolean.TRUE;
+            }
+        });
+
+        assertTrue(interrupted.get());
+        assertFalse(this.clusterLockDao.getClusterMutex("TEST").isLocked());
+        assertEquals(1, this.clusterLockDao.releases.get());
+    }
+
+    /**
+     * Every contending thread gets the lock and no two threads ever hold it at the same time
+     */
+    @Test
+    public void testFairness() throws Exception {
+        final int threadCount = 4;
+        final int attempts = 50;
+
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean(false);
+        final AtomicInteger[] executions = new AtomicInteger[threadCount];
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final AtomicInteger threadExecutions = new AtomicInteger();
+            executions[i] = threadExecutions;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int attempt = 0; attempt < attempts; attempt++) {
+                        try {
+                            clusterLockService.doInTryLock("TEST", new Function<ClusterMutex, Boolean>() {
+                                @Override
+                                public Boolean apply(ClusterMutex input) {
+                                    if (holders.incrementAndGet() > 1) {
+                                        overlapped.set(true);
+                                    }
+                                    threadExecutions.incrementAndGet();
+                                    sleep(1);
+                                    holders.decrementAndGet();
+                                    return Boolean.TRUE;
+                                }
+                            });
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                        sleep(1);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(overlapped.get());
+        for (int i = 0; i < threadCount; i++) {
+            assertTrue("thread " + i + " never acquired the lock", executions[i].get() > 0);
+        }
+    }
+
+    /**
+     * Compares lock acquisition latency of the lock worker and shared lease renewal modes, only logs
+     */
+    @Test
+    public void testAcquisitionBenchmark() throws InterruptedException {
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            final ClusterLockServiceImpl workerLockService = this.createClusterLockService(false);
+            workerLockService.setLockMonitorExecutorService(executorService);
+
+            final long workerNanos = this.timeAcquisitions(workerLockService, 500);
+            final long leaseNanos = this.timeAcquisitions(this.clusterLockService, 500);
+
+            this.logger.info("Average lock acquisition: lock worker {}us, shared lease {}us", workerNanos / 1000, leaseNanos / 1000);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private long timeAcquisitions(ClusterLockServiceImpl service, int count) throws InterruptedException {
+        final Function<ClusterMutex, Boolean> function = new Function<ClusterMutex, Boolean>() {
+            @Override
+            public Boolean apply(ClusterMutex input) {
+                return Boolean.TRUE;
+            }
+        };
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            assertTrue(service.doInTryLock("BENCHMARK", function).isExecuted());
+        }
+        return (System.nanoTime() - start) / count;
+    }
+
+    private ClusterLockServiceImpl createClusterLockService(boolean sharedLeaseRenewal) {
+        final IPortalInfoProvider portalInfoProvider = mock(IPortalInfoProvider.class);
+        when(portalInfoProvider.getUniqueServerName()).thenReturn(SERVER_NAME);
+
+        final ClusterLockServiceImpl service = new ClusterLockServiceImpl();
+        service.setPortalInfoProvider(portalInfoProvider);
+        service.setClusterLockDao(this.clusterLockDao);
+        service.setTaskScheduler(this.taskScheduler);
+        service.setSharedLeaseRenewal(sharedLeaseRenewal);
+        return service;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mutex table with the same locking semantics as {@link JpaClusterLockDao}
+     */
+    private static final class InMemoryClusterLockDao implements IClusterLockDao {
+        private final Map<String, ClusterMutex> mutexes = new HashMap<String, ClusterMutex>();
+        private final AtomicInteger updates = new AtomicInteger();
+        private final AtomicInteger releases = new AtomicInteger();
+
+        @Override
+        public synchronized ClusterMutex getClusterMutex(String mutexName) {
+            ClusterMutex clusterMutex = this.mutexes.get(mutexName);
+            if (clusterMutex == null) {
+                clusterMutex = new ClusterMutex(mutexName);
+                this.mutexes.put(mutexName, clusterMutex);
+            }
+            return clusterMutex;
+        }
+
+        @Override
+        public synchronized ClusterMutex getLock(String mutexName) {
+            final ClusterMutex clusterMutex = this.getClusterMutex(mutexName);
+            if (clusterMutex.isLocked()) {
+                return null;
+            }
+            clusterMutex.lock(SERVER_NAME);
+            return clusterMutex;
+        }
+
+        @Override
+        public synchronized void updateLock(String mutexName) {
+            this.validateLocked(mutexName).updateLock();
+            this.updates.incrementAndGet();
+        }
+
+        @Override
+        public synchronized void releaseLock(String mutexName) {
+            this.validateLocked(mutexName).unlock();
+            this.releases.incrementAndGet();
+        }
+
+        private ClusterMutex validateLocked(String mutexName) {
+            final ClusterMutex clusterMutex = this.getClusterMutex(mutexName);
+            if (!clusterMutex.isLocked() || !SERVER_NAME.equals(clusterMutex.getServerId())) {
+                throw new IllegalMonitorStateException("Mutex is not locked by this server: " + clusterMutex);
+            }
+            return clusterMutex;
+        }
+    }
+}
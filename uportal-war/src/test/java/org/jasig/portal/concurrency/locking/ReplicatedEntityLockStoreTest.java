@@ -0,0 +1,187 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.concurrency.locking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.RegisteredEventListeners;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.jasig.portal.concurrency.IEntityLock;
+import org.jasig.portal.concurrency.IEntityLockService;
+import org.jasig.portal.concurrency.LockingException;
+import org.jasig.portal.groups.IEntityGroup;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class ReplicatedEntityLockStoreTest {
+    private final List<ReplicatedEntityLockStore> stores = new ArrayList<ReplicatedEntityLockStore>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (final ReplicatedEntityLockStore store : this.stores) {
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void testAddFindDelete() throws Exception {
+        final ReplicatedEntityLockStore store = this.createStore(null, null);
+        final IEntityLock lock = newLock("1", IEntityLockService.WRITE_LOCK, "owner", 60000);
+        store.add(lock);
+
+        assertEquals(1, store.find(IEntityGroup.class, "1", null, null, null).length);
+        assertEquals(1, store.findUnexpired(new Date(), IEntityGroup.class, null, null, "owner").length);
+        assertEquals(0, store.find(IEntityGroup.class, "2", null, null, null).length);
+        assertNotNull(store.find(lock));
+
+        store.delete(lock);
+        assertNull(store.find(lock));
+        assertEquals(0, store.getLockCount());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        final ReplicatedEntityLockStore store = this.createStore(null, null);
+        final IEntityLock lock = newLock("1", IEntityLockService.READ_LOCK, "owner", 60000);
+        store.add(lock);
+
+        final Date newExpiration = new Date(System.currentTimeMillis() + 120000);
+        store.update(lock, newExpiration, IEntityLockService.WRITE_LOCK);
+        assertNull("The stored lock is a copy, the callers lock is only changed by the service", store.find(lock));
+
+        final IEntityLock[] found = store.find(IEntityGroup.class, "1", IEntityLockService.WRITE_LOCK, newExpiration, "owner");
+        assertEquals(1, found.length);
+
+        try {
+            store.update(newLock("2", IEntityLockService.READ_LOCK, "owner", 60000), newExpiration);
+            fail("Expected LockingException");
+        }
+        catch (LockingException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        final ReplicatedEntityLockStore store = this.createStore(null, null);
+        store.add(newLock("1", IEntityLockService.WRITE_LOCK, "owner", 50));
+        store.add(newLock("2", IEntityLockService.WRITE_LOCK, "owner", 60000));
+        store.add(newLock("3", IEntityLockService.WRITE_LOCK, "owner", -1));
+        assertEquals(2, store.getLockCount());
+
+        Thread.sleep(100);
+        assertEquals(0, store.find(IEntityGroup.class, "1", null, null, null).length);
+
+        // The wheel removes the expired lock within a couple of ticks
+        store.expireLocks(System.currentTimeMillis() + 20);
+        assertEquals(1, store.getLockCount());
+        assertEquals(1, store.find(IEntityGroup.class, "2", null, null, null).length);
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        final Ehcache cache = mock(Ehcache.class);
+        when(cache.getCacheEventNotificationService()).thenReturn(mock(RegisteredEventListeners.class));
+        final ReplicatedEntityLockStore local = this.createStore(cache, null);
+        final ReplicatedEntityLockStore remote = this.createStore(null, null);
+
+        final IEntityLock lock = newLock("1", IEntityLockService.WRITE_LOCK, "owner", 60000);
+        local.add(lock);
+        replicate(cache, remote);
+        assertEquals(1, remote.find(IEntityGroup.class, "1", IEntityLockService.WRITE_LOCK, lock.getExpirationTime(), "owner").length);
+
+        local.delete(lock);
+        replicate(cache, remote);
+        assertEquals(0, remote.find(IEntityGroup.class, "1", null, null, null).length);
+    }
+
+    @Test
+    public void testDatabaseStore() throws Exception {
+        final MemoryEntityLockStore databaseStore = new MemoryEntityLockStore();
+        databaseStore.add(newLock("1", IEntityLockService.WRITE_LOCK, "owner", 60000));
+
+        final ReplicatedEntityLockStore store = this.createStore(null, databaseStore);
+        assertEquals(1, store.find(IEntityGroup.class, "1", null, null, null).length);
+
+        // Changes are written to the database before the store returns
+        store.add(newLock("2", IEntityLockService.READ_LOCK, "owner", 60000));
+        store.delete(newLock("1", IEntityLockService.WRITE_LOCK, "owner", 60000));
+        assertEquals(0, databaseStore.find(IEntityGroup.class, "1", null, null, null).length);
+        assertEquals(1, databaseStore.find(IEntityGroup.class, "2", null, null, null).length);
+    }
+
+    @Test
+    public void testAddReloadsEntity() throws Exception {
+        final MemoryEntityLockStore databaseStore = new MemoryEntityLockStore();
+        final ReplicatedEntityLockStore store = this.createStore(null, databaseStore);
+
+        // Another portal locks the entity but the change is never replicated
+        final IEntityLock otherLock = newLock("1", IEntityLockService.WRITE_LOCK, "other", 60000);
+        databaseStore.add(otherLock);
+        assertEquals(0, store.find(IEntityGroup.class, "1", null, null, null).length);
+
+        // Adding a lock on the entity picks up the lock from the database so the lock service sees the conflict
+        final IEntityLock lock = newLock("1", IEntityLockService.WRITE_LOCK, "owner", 60000);
+        store.add(lock);
+        assertEquals(2, store.find(IEntityGroup.class, "1", null, null, null).length);
+        assertNotNull(store.find(lock));
+
+        // And drops the locks the database no longer has
+        databaseStore.delete(otherLock);
+        store.add(newLock("1", IEntityLockService.READ_LOCK, "owner", 60000));
+        assertEquals(1, store.find(IEntityGroup.class, "1", null, null, "owner").length);
+        assertEquals(0, store.find(IEntityGroup.class, "1", null, null, "other").length);
+    }
+
+    private ReplicatedEntityLockStore createStore(Ehcache cache, IEntityLockStore databaseStore) {
+        final ReplicatedEntityLockStore store = new ReplicatedEntityLockStore(cache, databaseStore, 10);
+        this.stores.add(store);
+        return store;
+    }
+
+    /**
+     * Sends the last change put into the cache to the remote store the way the cache replicator would
+     */
+    private static void replicate(Ehcache cache, ReplicatedEntityLockStore remote) {
+        final ArgumentCaptor<Element> element = ArgumentCaptor.forClass(Element.class);
+        verify(cache, atLeastOnce()).put(element.capture());
+        remote.applyReplicatedEvent(SerializationUtils.clone((Serializable) element.getValue().getObjectValue()));
+    }
+
+    private static IEntityLock newLock(String key, int lockType, String owner, long durationMillis) {
+        return new EntityLockImpl(IEntityGroup.class, key, lockType, new Date(System.currentTimeMillis() + durationMillis), owner);
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CompositeName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+public class ComponentServiceFanOutTest {
+    private ExecutorService executor;
+    private IIndividualGroupService local;
+    private IIndividualGroupService ldap;
+    private List<IIndividualGroupService> services;
+
+    @Before
+    public void setup() throws Exception {
+        this.executor = Executors.newCachedThreadPool();
+        this.local = mockService("local");
+        this.ldap = mockService("ldap");
+        this.services = Arrays.asList(this.local, this.ldap);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        final ComponentServiceFanOut fanOut = new ComponentServiceFanOut(this.executor, 5000, false);
+
+        // Each service waits for the other, the call only completes if they run at the same time
+        final CountDownLatch localStarted = new CountDownLatch(1);
+        final CountDownLatch ldapStarted = new CountDownLatch(1);
+        final StubCall call = new StubCall() {
+            @Override
+            protected String answer(String serviceName) throws Exception {
+                final boolean isLocal = "local".equals(serviceName);
+                (isLocal ? localStarted : ldapStarted).countDown();
+                assertTrue((isLocal ? ldapStarted : localStarted).await(5, TimeUnit.SECONDS));
+                return serviceName;
+            }
+        };
+
+        final Map<IIndividualGroupService, String> results = fanOut.invokeAll("test", this.services, call);
+        assertEquals(Arrays.asList(this.local, this.ldap), Arrays.asList(results.keySet().toArray()));
+        assertEquals(Arrays.asList("local", "ldap"), Arrays.asList(results.values().toArray()));
+
+        assertEquals(1, fanOut.getServiceStatistics().get("ldap").getLatency().getTotalSamples());
+    }
+
+    @Test
+    public void testSequentialWithoutExecutor() throws Exception {
+        final ComponentServiceFanOut fanOut = new ComponentServiceFanOut(null, 0, false);
+        final Thread caller = Thread.currentThread();
+        final StubCall call = new StubCall() {
+            @Override
+            protected String answer(String serviceName) throws Exception {
+                assertEquals(caller, Thread.currentThread());
+                return serviceName;
+            }
+        };
+
+        final Map<IIndividualGroupService, String> results = fanOut.invokeAll("test", this.services, call);
+        assertEquals(Arrays.asList("local", "ldap"), Arrays.asList(results.values().toArray()));
+    }
+
+    @Test
+    public void testTimeoutPartialResults() throws Exception {
+        final ComponentServiceFanOut fanOut = new ComponentServiceFanOut(this.executor, 100, true);
+        final CountDownLatch never = new CountDownLatch(1);
+        final StubCall call = new StubCall() {
+            @Override
+            protected String answer(String serviceName) throws Exception {
+                if ("ldap".equals(serviceName)) {
+                    never.await();
+                }
+                return serviceName;
+            }
+        };
+
+        final Map<IIndividualGroupService, String> results = fanOut.invokeAll("test", this.services, call);
+        assertEquals(Arrays.asList("local"), Arrays.asList(results.values().toArray()));
+        assertEquals(1, fanOut.getServiceStatistics().get("ldap").getTimeouts());
+        assertEquals(0, fanOut.getServiceStatistics().get("local").getTimeouts());
+    }
+
+    @Test
+    public void testRequestAttributesBound() throws Exception {
+        final ComponentServiceFanOut fanOut = new ComponentServiceFanOut(this.executor, 5000, false);
+        final RequestAttributes requestAttributes = new ServletRequestAttributes(new MockHttpServletRequest());
+        final StubCall call = new StubCall() {
+            @Override
+            protected String answer(String serviceName) throws Exception {
+                // Session and request scoped beans need the caller's attributes on every thread
+                assertSame(requestAttributes, RequestContextHolder.getRequestAttributes());
+                return serviceName;
+            }
+        };
+
+        RequestContextHolder.setRequestAttributes(requestAttributes);
+        try {
+            final Map<IIndividualGroupService, String> results = fanOut.invokeAll("test", this.services, call);
+            assertEquals(Arrays.asList("local", "ldap"), Arrays.asList(results.values().toArray()));
+            assertSame(requestAttributes, RequestContextHolder.getRequestAttributes());
+        }
+        finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTimeoutRequired() throws Exception {
+        new ComponentServiceFanOut(this.executor, 0, false);
+    }
+
+    @Test
+    public void testSlowServiceWithinTimeout() throws Exception {
+        final ComponentServiceFanOut fanOut = new ComponentServiceFanOut(this.executor, 5000, false);
+        final StubCall call = new StubCall() {
+            @Override
+            protected String answer(String serviceName) throws Exception {
+                if ("ldap".equals(serviceName)) {
+                    Thread.sleep(200);
+                }
+                return serviceName;
+            }
+        };
+
+        // A slow service that answers within the timeout is included
+        final Map<IIndividualGroupService, String> results = fanOut.invokeAll("test", this.services, call);
+        assertEquals(Arrays.asList("local", "ldap"), Arrays.asList(results.values().toArray()));
+        assertEquals(0, fanOut.getServiceStatistics().get("ldap").getTimeouts());
+    }
+
+    @Test
+    public void testTimeoutFails() throws Exception {
+        final ComponentServiceFanOut fanOut = new ComponentServiceFanOut(this.executor, 100, false);
+        final CountDownLatch never = new CountDownLatch(1);
+        final StubCall call = new StubCall() {
+            @Override
+            protected String answer(String serviceName) throws Exception {
+                if ("ldap".equals(serviceName)) {
+                    never.await();
+                }
+                return serviceName;
+            }
+        };
+
+        try {
+            fanOut.invokeAll("test", this.services, call);
+            fail("Expected GroupsException");
+        }
+        catch (GroupsException e) {
+            //expected
+        }
+        assertEquals(1, fanOut.getServiceStatistics().get("ldap").getTimeouts());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final ComponentServiceFanOut fanOut = new ComponentServiceFanOut(this.executor, 5000, true);
+        final StubCall call = new StubCall() {
+            @Override
+            protected String answer(String serviceName) throws Exception {
+                if ("ldap".equals(serviceName)) {
+                    throw new GroupsException("ldap is down");
+                }
+                return serviceName;
+            }
+        };
+
+        try {
+            fanOut.invokeAll("test", this.services, call);
+            fail("Expected GroupsException");
+        }
+        catch (GroupsException e) {
+            assertEquals("ldap is down", e.getMessage());
+        }
+        assertEquals(1, fanOut.getServiceStatistics().get("ldap").getFailures());
+        assertEquals(0, fanOut.getServiceStatistics().get("local").getFailures());
+    }
+
+    private IIndividualGroupService mockService(String name) throws Exception {
+        final IIndividualGroupService service = mock(IIndividualGroupService.class);
+        when(service.getServiceName()).thenReturn(new CompositeName(name));
+        return service;
+    }
+
+    /**
+     * Stub store call that dispatches on the service name.
+     */
+    private abstract static class StubCall implements ComponentServiceFanOut.ServiceCall<String> {
+        @Override
+        public final String call(IIndividualGroupService service) throws GroupsException {
+            try {
+                return this.answer(service.getServiceName().toString());
+            }
+            catch (GroupsException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new GroupsException(e);
+            }
+        }
+
+        protected abstract String answer(String serviceName) throws Exception;
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jasig.portal.spring.locator.CacheFactoryLocator;
+import org.jasig.portal.utils.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ImmutableSet;
+
+public class GroupAncestryIndexTest {
+    private final Map<Serializable, Object> index = new ConcurrentHashMap<Serializable, Object>();
+    private CacheFactoryLocator cacheFactoryLocator;
+
+    @Before
+    public void setup() throws Exception {
+        this.cacheFactoryLocator = new CacheFactoryLocator(new CacheFactory() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public <K extends Serializable, V> Map<K, V> getCache(String cacheName) {
+                assertEquals(GroupAncestryIndex.CACHE_NAME, cacheName);
+                return (Map<K, V>) index;
+            }
+
+            @Override
+            public <K extends Serializable, V> Map<K, V> getCache() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        this.cacheFactoryLocator.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.cacheFactoryLocator.destroy();
+    }
+
+    @Test
+    public void testDiamondAncestry() throws Exception {
+        // root -> a -> (b, c) -> d
+        final IEntityGroup root = mockGroup("root");
+        final IEntityGroup a = mockGroup("a", root);
+        final IEntityGroup b = mockGroup("b", a);
+        final IEntityGroup c = mockGroup("c", a);
+        final IEntityGroup d = mockGroup("d", b, c);
+        final IGroupMember entity = mockMember("user", d);
+
+        assertEquals(ImmutableSet.of("root", "a", "b", "c"), GroupAncestryIndex.getAncestorGroupKeys(d));
+        assertEquals(ImmutableSet.of("root", "a", "b", "c", "d"), GroupAncestryIndex.getAncestorGroupKeys(entity));
+
+        assertTrue(GroupAncestryIndex.isDeepMemberOf(d, root));
+        assertTrue(GroupAncestryIndex.isDeepMemberOf(entity, d));
+        assertTrue(GroupAncestryIndex.isDeepMemberOf(entity, root));
+        assertFalse(GroupAncestryIndex.isDeepMemberOf(b, c));
+
+        // Each group is only walked once, later queries are answered by the index
+        verify(a, times(1)).getContainingGroups();
+        verify(d, times(1)).getContainingGroups();
+    }
+
+    @Test
+    public void testCircularReference() throws Exception {
+        final IEntityGroup a = mockGroup("a");
+        final IEntityGroup b = mockGroup("b", a);
+        when(a.getContainingGroups()).thenAnswer(new GroupsAnswer(b));
+
+        assertTrue(GroupAncestryIndex.isDeepMemberOf(a, b));
+        assertTrue(this.index.isEmpty());
+    }
+
+    @Test
+    public void testGroupMembershipChanged() throws Exception {
+        final IEntityGroup root = mockGroup("root");
+        final IEntityGroup a = mockGroup("a", root);
+        GroupAncestryIndex.getAncestorGroupKeys(a);
+        assertFalse(this.index.isEmpty());
+
+        final IGroupMember user = mockMember("user");
+        final EntityGroupImpl changed = mock(EntityGroupImpl.class);
+        when(changed.getAddedMembers()).thenReturn(new HashMap(Collections.singletonMap("user", user)));
+        when(changed.getRemovedMembers()).thenReturn(new HashMap());
+        GroupAncestryIndex.groupMembershipChanged(changed);
+        assertFalse("Entity membership changes must not clear the index", this.index.isEmpty());
+
+        when(changed.getRemovedMembers()).thenReturn(new HashMap(Collections.singletonMap("a", a)));
+        GroupAncestryIndex.groupMembershipChanged(changed);
+        assertTrue(this.index.isEmpty());
+    }
+
+    @Test
+    public void testGeneration() throws Exception {
+        final String generation = GroupAncestryIndex.getGeneration();
+        assertEquals(generation, GroupAncestryIndex.getGeneration());
+
+        final IGroupMember user = mockMember("user");
+        final EntityGroupImpl changed = mock(EntityGroupImpl.class);
+        when(changed.getAddedMembers()).thenReturn(new HashMap(Collections.singletonMap("user", user)));
+        when(changed.getRemovedMembers()).thenReturn(new HashMap());
+        GroupAncestryIndex.groupMembershipChanged(changed);
+
+        final String entityChangedGeneration = GroupAncestryIndex.getGeneration();
+        assertFalse(generation.equals(entityChangedGeneration));
+
+        final IEntityGroup a = mockGroup("a");
+        when(changed.getAddedMembers()).thenReturn(new HashMap(Collections.singletonMap("a", a)));
+        GroupAncestryIndex.groupMembershipChanged(changed);
+        assertFalse(entityChangedGeneration.equals(GroupAncestryIndex.getGeneration()));
+    }
+
+    private IEntityGroup mockGroup(String key, IEntityGroup... parents) throws GroupsException {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getKey()).thenReturn(key);
+        when(group.getName()).thenReturn(key);
+        when(group.isGroup()).thenReturn(true);
+        when(group.getContainingGroups()).thenAnswer(new GroupsAnswer(parents));
+        return group;
+    }
+
+    private IGroupMember mockMember(String key, IEntityGroup... parents) throws GroupsException {
+        final IGroupMember member = mock(IGroupMember.class);
+        when(member.getKey()).thenReturn(key);
+        when(member.isGroup()).thenReturn(false);
+        when(member.getContainingGroups()).thenAnswer(new GroupsAnswer(parents));
+        return member;
+    }
+
+    private static final class GroupsAnswer implements Answer<Iterator> {
+        private final List<IEntityGroup> groups;
+
+        public GroupsAnswer(IEntityGroup... groups) {
+            this.groups = Arrays.asList(groups);
+        }
+
+        @Override
+        public Iterator answer(InvocationOnMock invocation) throws Throwable {
+            return this.groups.iterator();
+        }
+    }
+}
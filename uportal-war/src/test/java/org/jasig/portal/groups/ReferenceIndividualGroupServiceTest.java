@@ -0,0 +1,192 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ImmutableSet;
+
+public class ReferenceIndividualGroupServiceTest {
+    private final Map<IGroupMember, List<IEntityGroup>> parents = new HashMap<IGroupMember, List<IEntityGroup>>();
+    private final Map<IEntityGroup, List<IEntityGroup>> children = new HashMap<IEntityGroup, List<IEntityGroup>>();
+    private final Map<IEntityGroup, List<IEntity>> entities = new HashMap<IEntityGroup, List<IEntity>>();
+    
+    private IBatchEntityGroupStore store;
+    private ReferenceIndividualGroupService groupService;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() throws Exception {
+        this.store = mock(IBatchEntityGroupStore.class);
+        when(this.store.findMemberGroups(anyCollectionOf(IEntityGroup.class))).thenAnswer(new BatchAnswer<IEntityGroup, IEntityGroup>(this.children));
+        when(this.store.findEntitiesForGroups(anyCollectionOf(IEntityGroup.class))).thenAnswer(new BatchAnswer<IEntityGroup, IEntity>(this.entities));
+        when(this.store.findContainingGroups(anyCollectionOf(IGroupMember.class))).thenAnswer(new BatchAnswer<IGroupMember, IEntityGroup>(this.parents));
+        when(this.store.findMemberGroupKeys(anyCollectionOf(IEntityGroup.class))).thenAnswer(new Answer<Map<IEntityGroup, List<String>>>() {
+            @Override
+            public Map<IEntityGroup, List<String>> answer(InvocationOnMock invocation) throws Throwable {
+                final Map<IEntityGroup, List<String>> result = new HashMap<IEntityGroup, List<String>>();
+                for (final IEntityGroup group : (Collection<IEntityGroup>) invocation.getArguments()[0]) {
+                    final List<IEntityGroup> memberGroups = children.get(group);
+                    if (memberGroups != null) {
+                        final List<String> keys = new ArrayList<String>();
+                        for (final IEntityGroup memberGroup : memberGroups) {
+                            keys.add(memberGroup.getKey());
+                        }
+                        result.put(group, keys);
+                    }
+                }
+                return result;
+            }
+        });
+        
+        final ComponentGroupServiceDescriptor descriptor = new ComponentGroupServiceDescriptor();
+        descriptor.setName("local");
+        descriptor.setCachingEnabled(false);
+        this.groupService = new ReferenceIndividualGroupService(descriptor);
+        this.groupService.groupFactory = this.store;
+    }
+
+    @Test
+    public void testMemberGroupsReadAhead() throws Exception {
+        // root -> (a, b), a -> (c, user)
+        final IEntityGroup root = mockGroup("root");
+        final IEntityGroup a = mockGroup("a");
+        final IEntityGroup b = mockGroup("b");
+        final IEntityGroup c = mockGroup("c");
+        final IEntity user = mock(IEntity.class);
+        this.children.put(root, Arrays.asList(a, b));
+        this.children.put(a, Arrays.asList(c));
+        this.entities.put(a, Collections.singletonList(user));
+
+        assertEquals(ImmutableSet.of(a, b), toSet(this.groupService.findMembers(root)));
+        
+        // The group and its member groups are each read with one batch, grandchildren are not read ahead
+        verify(this.store, times(1)).findMemberGroups(Arrays.asList(root));
+        verify(this.store, times(1)).findMemberGroups(Arrays.asList(a, b));
+        verify(this.store, times(1)).findEntitiesForGroups(Arrays.asList(a, b));
+        verify(this.store, never()).findMemberGroups(Arrays.asList(c));
+
+        // The members of a were read ahead
+        assertEquals(ImmutableSet.of(c, user), toSet(this.groupService.findMembers(a)));
+        verify(this.store, never()).findMemberGroups(Arrays.asList(a));
+        
+        // Read ahead members are only used once
+        assertEquals(ImmutableSet.of(c, user), toSet(this.groupService.findMembers(a)));
+        verify(this.store, times(1)).findMemberGroups(Arrays.asList(a));
+        verify(this.store, times(1)).findMemberGroups(Arrays.asList(c));
+    }
+
+    @Test
+    public void testMemberGroupsNotReadAheadAfterUpdate() throws Exception {
+        final IEntityGroup root = mockGroup("root");
+        final IEntityGroup a = mockGroup("a");
+        this.children.put(root, Arrays.asList(a));
+        
+        this.groupService.findMembers(root);
+        this.groupService.invalidateReadAhead();
+        this.groupService.findMembers(a);
+        
+        verify(this.store, times(2)).findMemberGroups(Arrays.asList(a));
+    }
+
+    @Test
+    public void testContainingGroupsReadAhead() throws Exception {
+        // user -> d -> b -> root
+        final IEntityGroup root = mockGroup("root");
+        final IEntityGroup b = mockGroup("b");
+        final IEntityGroup d = mockGroup("d");
+        final IGroupMember user = mock(IGroupMember.class);
+        when(user.getKey()).thenReturn("user");
+        this.parents.put(d, Arrays.asList(b));
+        this.parents.put(b, Arrays.asList(root));
+        when(this.store.findContainingGroups(user)).thenReturn(Arrays.asList(d).iterator());
+
+        assertEquals(ImmutableSet.of(d), toSet(this.groupService.findContainingGroups(user)));
+        
+        // Each level of ancestors is read with one batch
+        verify(this.store, times(1)).findContainingGroups(Arrays.asList(d));
+        verify(this.store, times(1)).findContainingGroups(Arrays.asList(b));
+        verify(this.store, times(1)).findContainingGroups(Arrays.asList(root));
+        
+        // The walk up the hierarchy is answered from the read ahead
+        assertEquals(ImmutableSet.of(b), toSet(this.groupService.findContainingGroups(d)));
+        assertEquals(ImmutableSet.of(root), toSet(this.groupService.findContainingGroups(b)));
+        verify(this.store, never()).findContainingGroups(d);
+        verify(this.store, never()).findContainingGroups(b);
+    }
+
+    private IEntityGroup mockGroup(String key) {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getKey()).thenReturn(key);
+        when(group.isGroup()).thenReturn(true);
+        return group;
+    }
+    
+    private Set<Object> toSet(Iterator<?> members) {
+        final Set<Object> result = new HashSet<Object>();
+        while (members.hasNext()) {
+            result.add(members.next());
+        }
+        return result;
+    }
+    
+    private static final class BatchAnswer<K, V> implements Answer<Map<K, List<V>>> {
+        private final Map<? extends K, List<V>> values;
+
+        public BatchAnswer(Map<? extends K, List<V>> values) {
+            this.values = values;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Map<K, List<V>> answer(InvocationOnMock invocation) throws Throwable {
+            final Map<K, List<V>> result = new HashMap<K, List<V>>();
+            for (final K key : (Collection<K>) invocation.getArguments()[0]) {
+                final List<V> value = this.values.get(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+            return result;
+        }
+    }
+}
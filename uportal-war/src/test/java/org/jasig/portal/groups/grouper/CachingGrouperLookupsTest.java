@@ -0,0 +1,211 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.grouper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.internet2.middleware.grouperClient.ws.beans.WsGroup;
+import edu.internet2.middleware.grouperClient.ws.beans.WsSubject;
+
+public class CachingGrouperLookupsTest {
+    private StubGrouperServer server;
+    private CachingGrouperLookups lookups;
+
+    @Before
+    public void setup() {
+        this.server = new StubGrouperServer();
+        this.server.addGroup("uportal:staff");
+        this.server.addGroup("uportal:faculty");
+        this.server.addMembership("jdoe", "uportal:staff");
+        this.server.addMember("uportal:staff", "uportal:faculty");
+
+        this.lookups = new CachingGrouperLookups(this.server, 300, 60, 100);
+    }
+
+    @Test
+    public void testFindGroupsBulk() {
+        Map<String, WsGroup> groups = this.lookups.findGroups(Arrays.asList("uportal:staff", "uportal:faculty", "uportal:missing"));
+        assertEquals(2, groups.size());
+        assertEquals("uportal:faculty", groups.get("uportal:faculty").getName());
+        assertEquals(Arrays.asList(3), this.server.findGroupsCalls);
+
+        // found and missing groups are both cached
+        groups = this.lookups.findGroups(Arrays.asList("uportal:staff", "uportal:missing"));
+        assertEquals(1, groups.size());
+        assertEquals(Arrays.asList(3), this.server.findGroupsCalls);
+
+        // only the uncached names are looked up
+        this.server.addGroup("uportal:students");
+        groups = this.lookups.findGroups(Arrays.asList("uportal:staff", "uportal:students"));
+        assertEquals(2, groups.size());
+        assertEquals(Arrays.asList(3, 1), this.server.findGroupsCalls);
+    }
+
+    @Test
+    public void testGroupsForSubject() {
+        assertEquals(1, this.lookups.getGroupsForSubject("jdoe", null, "uportal").size());
+        assertEquals(1, this.lookups.getGroupsForSubject("jdoe", null, "uportal").size());
+        assertTrue(this.lookups.getGroupsForSubject("nobody", null, "uportal").isEmpty());
+        assertTrue(this.lookups.getGroupsForSubject("nobody", null, "uportal").isEmpty());
+        assertEquals(2, this.server.getGroupsCalls);
+
+        // the groups of a subject's memberships don't need to be looked up again
+        assertEquals(1, this.lookups.findGroups(Collections.singleton("uportal:staff")).size());
+        assertTrue(this.server.findGroupsCalls.isEmpty());
+    }
+
+    @Test
+    public void testSearchGroups() {
+        assertEquals(1, this.lookups.searchGroups("uportal:staff", true, "uportal").size());
+        assertEquals(1, this.lookups.searchGroups("uportal:staff", true, "uportal").size());
+        assertTrue(this.lookups.searchGroups("uportal:nobody", true, "uportal").isEmpty());
+        assertTrue(this.lookups.searchGroups("uportal:nobody", true, "uportal").isEmpty());
+        assertEquals(2, this.server.searchGroupsCalls);
+
+        // searches in another stem or by approximate name are cached separately
+        assertEquals(2, this.lookups.searchGroups("uportal", false, "uportal").size());
+        assertTrue(this.lookups.searchGroups("uportal:staff", true, "other").isEmpty());
+        assertEquals(4, this.server.searchGroupsCalls);
+
+        // the groups found by a search don't need to be looked up again
+        assertEquals(2, this.lookups.findGroups(Arrays.asList("uportal:staff", "uportal:faculty")).size());
+        assertTrue(this.server.findGroupsCalls.isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        assertEquals(1, this.lookups.getMembers("uportal:staff", "g:gsa").size());
+        this.server.addMember("uportal:staff", "uportal:students");
+        assertEquals(1, this.lookups.getMembers("uportal:staff", "g:gsa").size());
+        assertEquals(1, this.server.getMembersCalls);
+
+        this.lookups.clear();
+        assertEquals(2, this.lookups.getMembers("uportal:staff", "g:gsa").size());
+        assertEquals(2, this.server.getMembersCalls);
+    }
+
+    @Test
+    public void testFailuresNotCached() {
+        this.server.down = true;
+        try {
+            this.lookups.getGroupsForSubject("jdoe", null, "uportal");
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+
+        this.server.down = false;
+        assertEquals(1, this.lookups.getGroupsForSubject("jdoe", null, "uportal").size());
+    }
+
+    /**
+     * In-memory stand in for the Grouper web services that counts the calls made to it.
+     */
+    private static final class StubGrouperServer implements GrouperLookups {
+        private final Map<String, WsGroup> groups = new HashMap<String, WsGroup>();
+        private final Map<String, List<WsGroup>> memberships = new HashMap<String, List<WsGroup>>();
+        private final Map<String, List<WsSubject>> members = new HashMap<String, List<WsSubject>>();
+        private final List<Integer> findGroupsCalls = new ArrayList<Integer>();
+        private int getGroupsCalls = 0;
+        private int getMembersCalls = 0;
+        private int searchGroupsCalls = 0;
+        private boolean down = false;
+
+        void addGroup(String name) {
+            WsGroup wsGroup = new WsGroup();
+            wsGroup.setName(name);
+            wsGroup.setDisplayName(name);
+            this.groups.put(name, wsGroup);
+        }
+
+        void addMembership(String subjectId, String groupName) {
+            List<WsGroup> wsGroups = this.memberships.get(subjectId);
+            if (wsGroups == null) {
+                wsGroups = new ArrayList<WsGroup>();
+                this.memberships.put(subjectId, wsGroups);
+            }
+            wsGroups.add(this.groups.get(groupName));
+        }
+
+        void addMember(String groupName, String memberGroupName) {
+            List<WsSubject> wsSubjects = this.members.get(groupName);
+            if (wsSubjects == null) {
+                wsSubjects = new ArrayList<WsSubject>();
+                this.members.put(groupName, wsSubjects);
+            }
+            WsSubject wsSubject = new WsSubject();
+            wsSubject.setName(memberGroupName);
+            wsSubject.setSourceId("g:gsa");
+            wsSubjects.add(wsSubject);
+        }
+
+        public Map<String, WsGroup> findGroups(Collection<String> groupNames) {
+            this.findGroupsCalls.add(groupNames.size());
+            Map<String, WsGroup> found = new HashMap<String, WsGroup>();
+            for (String groupName : groupNames) {
+                if (this.groups.containsKey(groupName)) {
+                    found.put(groupName, this.groups.get(groupName));
+                }
+            }
+            return found;
+        }
+
+        public List<WsGroup> getGroupsForSubject(String subjectId, String sourceId, String stem) {
+            if (this.down) {
+                throw new IllegalStateException("Grouper is down");
+            }
+            this.getGroupsCalls++;
+            List<WsGroup> wsGroups = this.memberships.get(subjectId);
+            return wsGroups == null ? Collections.<WsGroup>emptyList() : new ArrayList<WsGroup>(wsGroups);
+        }
+
+        public List<WsSubject> getMembers(String groupName, String sourceId) {
+            this.getMembersCalls++;
+            List<WsSubject> wsSubjects = this.members.get(groupName);
+            return wsSubjects == null ? Collections.<WsSubject>emptyList() : new ArrayList<WsSubject>(wsSubjects);
+        }
+
+        public List<WsGroup> searchGroups(String query, boolean exact, String stem) {
+            this.searchGroupsCalls++;
+            List<WsGroup> found = new ArrayList<WsGroup>();
+            for (WsGroup wsGroup : this.groups.values()) {
+                String name = wsGroup.getName();
+                if (name.startsWith(stem + ":") && (exact ? name.equals(query) : name.contains(query))) {
+                    found.add(wsGroup);
+                }
+            }
+            return found;
+        }
+    }
+}
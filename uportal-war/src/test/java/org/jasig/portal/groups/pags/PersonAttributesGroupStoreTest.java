@@ -0,0 +1,230 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.pags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jasig.portal.groups.GroupsException;
+import org.jasig.portal.groups.IEntity;
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.GroupDefinition;
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.TestGroup;
+import org.jasig.portal.groups.pags.testers.StringEqualsTester;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.provider.PersonImpl;
+import org.jasig.portal.spring.locator.PersonAttributeDaoLocator;
+import org.jasig.services.persondir.IPersonAttributeDao;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersonAttributesGroupStoreTest {
+    private final Map<String, GroupDefinition> groupDefinitions = new LinkedHashMap<String, GroupDefinition>();
+    private final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>();
+    private CountingTester staffTester;
+    private PersonAttributesGroupStore store;
+    private PersonAttributeDaoLocator personAttributeDaoLocator;
+    private IEntity member;
+
+    @Before
+    public void setup() throws Exception {
+        // staff and facilities share one tester, facilities sits under staff which sits under employees
+        this.staffTester = new CountingTester("affiliation", "staff");
+        final StringEqualsTester facultyTester = new StringEqualsTester("affiliation", "faculty");
+        final StringEqualsTester facilitiesTester = new StringEqualsTester("department", "facilities");
+
+        addGroup("employees", Arrays.asList("staff", "faculty"), Arrays.<IPersonTester>asList(this.staffTester), Arrays.<IPersonTester>asList(facultyTester));
+        addGroup("staff", Arrays.asList("facilities"), Arrays.<IPersonTester>asList(this.staffTester));
+        addGroup("facilities", Collections.<String>emptyList(), Arrays.<IPersonTester>asList(this.staffTester, facilitiesTester));
+        addGroup("faculty", Arrays.asList("facultyFacilities"), Arrays.<IPersonTester>asList(facultyTester));
+        // Passes its own test for facilities staff but its parent faculty doesn't
+        addGroup("facultyFacilities", Collections.<String>emptyList(), Arrays.<IPersonTester>asList(facilitiesTester));
+
+        final IPersonAttributes personAttributes = mock(IPersonAttributes.class);
+        when(personAttributes.getAttributes()).thenReturn(this.attributes);
+        final IPersonAttributeDao personAttributeDao = mock(IPersonAttributeDao.class);
+        when(personAttributeDao.getPerson("jdoe")).thenReturn(personAttributes);
+        this.personAttributeDaoLocator = new PersonAttributeDaoLocator(personAttributeDao);
+        this.personAttributeDaoLocator.afterPropertiesSet();
+
+        this.member = mock(IEntity.class);
+        when(this.member.getKey()).thenReturn("jdoe");
+        when(this.member.isEntity()).thenReturn(true);
+        when(this.member.getEntityType()).thenReturn((Class) IPerson.class);
+
+        this.store = new PersonAttributesGroupStore(this.groupDefinitions) {
+            @Override
+            protected IEntityGroup newGroup(GroupDefinition groupDef) throws GroupsException {
+                final IEntityGroup group = mock(IEntityGroup.class);
+                when(group.getLocalKey()).thenReturn(groupDef.getKey());
+                when(group.getKey()).thenReturn("pags." + groupDef.getKey());
+                when(group.isGroup()).thenReturn(true);
+                return group;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.personAttributeDaoLocator.destroy();
+    }
+
+    @Test
+    public void testMemoizedMatchesUncached() throws Exception {
+        final List<Map<String, String>> people = Arrays.asList(
+                attributes("affiliation", "staff", "department", "facilities"),
+                attributes("affiliation", "staff", "department", "library"),
+                attributes("affiliation", "faculty", "department", "facilities"),
+                attributes("affiliation", "student"),
+                Collections.<String, String>emptyMap());
+
+        for (final Map<String, String> person : people) {
+            setAttributes(person);
+            assertEquals(person.toString(), uncachedContainingGroups(), findContainingGroups());
+
+            for (final String groupKey : this.groupDefinitions.keySet()) {
+                final IEntityGroup group = this.store.find(groupKey);
+                assertEquals(person + " in " + groupKey, uncachedContainingGroups().contains(groupKey), this.store.contains(group, this.member));
+            }
+        }
+    }
+
+    @Test
+    public void testSharedTesterEvaluatedOncePerLookup() throws Exception {
+        setAttributes(attributes("affiliation", "staff", "department", "facilities"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("employees", "staff", "facilities")), findContainingGroups());
+        assertEquals(1, this.staffTester.count);
+    }
+
+    @Test
+    public void testAttributeChangesSeenByNextLookup() throws Exception {
+        setAttributes(attributes("affiliation", "staff", "department", "facilities"));
+        assertEquals(new HashSet<String>(Arrays.asList("employees", "staff", "facilities")), findContainingGroups());
+
+        setAttributes(attributes("affiliation", "faculty", "department", "facilities"));
+        final Set<String> groups = findContainingGroups();
+        assertEquals(new HashSet<String>(Arrays.asList("employees", "faculty", "facultyFacilities")), groups);
+        assertFalse(groups.contains("staff"));
+
+        // Each lookup starts from fresh attributes, nothing is remembered between them
+        assertEquals(2, this.staffTester.count);
+        assertTrue(this.store.contains(this.store.find("faculty"), this.member));
+        assertEquals(3, this.staffTester.count);
+    }
+
+    private void addGroup(String key, List<String> members, List<IPersonTester>... testGroups) {
+        final GroupDefinition groupDef = new GroupDefinition();
+        groupDef.setKey(key);
+        groupDef.setName(key);
+        for (final String memberKey : members) {
+            groupDef.addMember(memberKey);
+        }
+        for (final List<IPersonTester> tests : testGroups) {
+            final TestGroup testGroup = new TestGroup();
+            for (final IPersonTester test : tests) {
+                testGroup.addTest(test);
+            }
+            groupDef.addTestGroup(testGroup);
+        }
+        this.groupDefinitions.put(key, groupDef);
+    }
+
+    private static Map<String, String> attributes(String... namesAndValues) {
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            attributes.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return attributes;
+    }
+
+    private void setAttributes(Map<String, String> person) {
+        this.attributes.clear();
+        for (final Map.Entry<String, String> attribute : person.entrySet()) {
+            this.attributes.put(attribute.getKey(), Collections.<Object>singletonList(attribute.getValue()));
+        }
+    }
+
+    private Set<String> findContainingGroups() throws GroupsException {
+        final Set<String> groupKeys = new HashSet<String>();
+        for (final Iterator<?> itr = this.store.findContainingGroups(this.member); itr.hasNext(); ) {
+            groupKeys.add(((IEntityGroup) itr.next()).getLocalKey());
+        }
+        return groupKeys;
+    }
+
+    /**
+     * Evaluates every group and all of its ancestors directly against the definitions.
+     */
+    private Set<String> uncachedContainingGroups() {
+        final IPerson person = new PersonImpl();
+        person.setAttributes(new HashMap<String, List<Object>>(this.attributes));
+
+        final Set<String> groupKeys = new HashSet<String>();
+        for (final GroupDefinition groupDef : this.groupDefinitions.values()) {
+            if (groupDef.contains(person) && ancestorsPass(groupDef, person)) {
+                groupKeys.add(groupDef.getKey());
+            }
+        }
+        return groupKeys;
+    }
+
+    private boolean ancestorsPass(GroupDefinition groupDef, IPerson person) {
+        for (final GroupDefinition parentDef : this.groupDefinitions.values()) {
+            if (parentDef.hasMember(groupDef.getKey()) && (!parentDef.test(person) || !ancestorsPass(parentDef, person))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts how many times the person is tested.
+     */
+    private static class CountingTester extends StringEqualsTester {
+        private int count;
+
+        public CountingTester(String attribute, String test) {
+            super(attribute, test);
+        }
+
+        @Override
+        public boolean test(IPerson person) {
+            this.count++;
+            return super.test(person);
+        }
+    }
+}
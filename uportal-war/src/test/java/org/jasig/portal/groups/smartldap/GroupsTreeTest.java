@@ -0,0 +1,119 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.smartldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.jasig.portal.groups.IEntityGroup;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class GroupsTreeTest {
+    private final IEntityGroup root = mockGroup("root", "Root", null);
+    
+    @Test
+    public void testBuild() {
+        // a -> (b, c), b -> (c, outside), d has no parent
+        final GroupsTree tree = GroupsTree.build(this.root, Arrays.asList(
+                record("a", "A", "b", "c"),
+                record("b", "B", "c", "outside"),
+                record("c", "C"),
+                record("d", "a")));
+        
+        assertEquals(5, tree.getGroups().size());
+        assertEquals(Arrays.asList("b", "c"), tree.getChildren().get("a"));
+        assertEquals(Arrays.asList("c"), tree.getChildren().get("b"));
+        assertEquals(Arrays.asList("a", "b"), tree.getParents().get("c"));
+        assertEquals(Arrays.asList("root"), tree.getParents().get("a"));
+        assertEquals(ImmutableSet.of("a", "d"), new HashSet<String>(tree.getChildren().get("root")));
+        assertEquals(Arrays.asList("a", "d"), tree.getKeysByUpperCaseName().get("A"));
+        assertNull(tree.getParents().get("outside"));
+    }
+    
+    @Test
+    public void testWithChangedRecords() {
+        final GroupsTree tree = GroupsTree.build(this.root, Arrays.asList(
+                record("a", "A", "b"),
+                record("b", "B")));
+        
+        // b moves under the new group c
+        final GroupsTree changed = tree.withChangedRecords(Arrays.asList(
+                record("a", "A"),
+                record("c", "C", "b")));
+        
+        assertEquals(Arrays.asList("c"), changed.getParents().get("b"));
+        assertEquals(Collections.emptyList(), changed.getChildren().get("a"));
+        assertEquals(ImmutableSet.of("a", "c"), new HashSet<String>(changed.getChildren().get("root")));
+        
+        // The original tree is unchanged
+        assertEquals(Arrays.asList("a"), tree.getParents().get("b"));
+        assertFalse(tree.getGroups().containsKey("c"));
+    }
+    
+    @Test
+    public void testRecordsRoundTrip() throws Exception {
+        final GroupsTree tree = GroupsTree.build(this.root, Arrays.asList(
+                record("a", "A", "b"),
+                record("b", "B")));
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tree.writeRecords(new DataOutputStream(bytes));
+        
+        final List<LdapRecord> records = GroupsTree.readRecords(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 
+                new GroupsTree.GroupFactory() {
+                    @Override
+                    public IEntityGroup createGroup(String key, String name, String description) {
+                        return mockGroup(key, name, description);
+                    }
+                });
+        
+        final GroupsTree restored = GroupsTree.build(this.root, records);
+        assertEquals(tree.getChildren(), restored.getChildren());
+        assertEquals(tree.getParents(), restored.getParents());
+        assertEquals("B", restored.getGroups().get("b").getName());
+        assertEquals("Description of b", restored.getGroups().get("b").getDescription());
+    }
+    
+    private LdapRecord record(String key, String name, String... keysOfChildren) {
+        return new LdapRecord(mockGroup(key, name, "Description of " + key), Arrays.asList(keysOfChildren));
+    }
+    
+    private static IEntityGroup mockGroup(String key, String name, String description) {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getLocalKey()).thenReturn(key);
+        when(group.getName()).thenReturn(name);
+        when(group.getDescription()).thenReturn(description);
+        return group;
+    }
+}
@@ -24,8 +24,10 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -33,6 +35,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -42,6 +47,10 @@ import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamSource;
 
+import org.jasig.portal.io.xml.entitytype.EntityTypePortalDataType;
+import org.jasig.portal.io.xml.group.GroupMembershipPortalDataType;
+import org.jasig.portal.io.xml.group.GroupPortalDataType;
+import org.jasig.portal.io.xml.portlettype.PortletTypePortalDataType;
 import org.jasig.portal.io.xml.user.ExternalUser;
 import org.jasig.portal.io.xml.user.UserPortalDataType;
 import org.jasig.portal.xml.XmlUtilities;
@@ -61,6 +70,7 @@ import org.springframework.core.io.ResourceLoader;
 import org.springframework.oxm.jaxb.Jaxb2Marshaller;
 import org.springframework.scheduling.concurrent.ThreadPoolExecutorFactoryBean;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 /**
@@ -146,6 +156,51 @@ public class JaxbPortalDataHandlerServiceTest {
         threadPoolExecutor.shutdown();
     }
     
+    @Test
+    public void testDataKeyDependencies() throws Exception {
+        final IPortalDataType entityType = new EntityTypePortalDataType();
+        final IPortalDataType user = new UserPortalDataType();
+        final IPortalDataType group = new GroupPortalDataType();
+        final IPortalDataType groupMembership = new GroupMembershipPortalDataType();
+        final IPortalDataType portletType = new PortletTypePortalDataType();
+        
+        dataImportExportService.setDataTypeImportOrder(Arrays.asList(entityType, user, group, groupMembership, portletType));
+        dataImportExportService.setDataTypeImportDependencies(ImmutableMap.<IPortalDataType, List<IPortalDataType>>of(
+                user, Collections.<IPortalDataType>emptyList(),
+                group, Arrays.asList(user),
+                groupMembership, Arrays.asList(group)));
+        
+        final Map<PortalDataKey, Set<PortalDataKey>> dataKeyDependencies = dataImportExportService.getDataKeyDependencies();
+        
+        //Keys of the same type wait for the keys listed before them
+        assertEquals(Collections.emptySet(), dataKeyDependencies.get(UserPortalDataType.IMPORT_26_DATA_KEY));
+        assertEquals(ImmutableSet.of(UserPortalDataType.IMPORT_26_DATA_KEY, UserPortalDataType.IMPORT_30_DATA_KEY), 
+                dataKeyDependencies.get(UserPortalDataType.IMPORT_32_DATA_KEY));
+        
+        //Group membership waits for group directly and user through group, but not entity type
+        final Set<PortalDataKey> membershipDependencies = dataKeyDependencies.get(GroupMembershipPortalDataType.IMPORT_30_DATA_KEY);
+        assertTrue(membershipDependencies.containsAll(user.getDataKeyImportOrder()));
+        assertTrue(membershipDependencies.containsAll(group.getDataKeyImportOrder()));
+        assertFalse(membershipDependencies.contains(EntityTypePortalDataType.IMPORT_26_DATA_KEY));
+        
+        //A type with no declared dependencies waits for every key listed before it
+        final Set<PortalDataKey> portletTypeDependencies = dataKeyDependencies.get(PortletTypePortalDataType.IMPORT_40_DATA_KEY);
+        for (final IPortalDataType portalDataType : Arrays.asList(entityType, user, group, groupMembership)) {
+            assertTrue(portletTypeDependencies.containsAll(portalDataType.getDataKeyImportOrder()));
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testDataKeyDependencyOutOfOrder() throws Exception {
+        final IPortalDataType user = new UserPortalDataType();
+        final IPortalDataType group = new GroupPortalDataType();
+        final IPortalDataType groupMembership = new GroupMembershipPortalDataType();
+        
+        dataImportExportService.setDataTypeImportOrder(Arrays.asList(user, group, groupMembership));
+        dataImportExportService.setDataTypeImportDependencies(ImmutableMap.<IPortalDataType, List<IPortalDataType>>of(
+                group, Arrays.asList(groupMembership)));
+    }
+    
     @Test
     @Ignore
     public void testBatchImport() throws Exception {
@@ -0,0 +1,134 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jasig.portal.utils.AntPatternFileFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.Resource;
+
+import com.google.common.base.Function;
+import com.google.common.io.Files;
+
+public class PortalDataArchiveTest {
+    private File tempDir;
+
+    @Before
+    public void setup() {
+        this.tempDir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(this.tempDir);
+    }
+
+    @Test
+    public void testIsArchive() throws Exception {
+        assertTrue(PortalDataArchive.isArchive(new File(this.tempDir, "export.ZIP")));
+        assertFalse(PortalDataArchive.isArchive(new File(this.tempDir, "export")));
+
+        final File zipDir = new File(this.tempDir, "data.zip");
+        zipDir.mkdirs();
+        assertFalse(PortalDataArchive.isArchive(zipDir));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final File archive = new File(this.tempDir, "my data.zip");
+
+        final PortalDataArchive.Writer writer = new PortalDataArchive.Writer(archive);
+        try {
+            assertTrue(writer.addEntry(PortalDataArchive.getEntryName("user", "admin"), "<user/>".getBytes("UTF-8")));
+            assertTrue(writer.addEntry(PortalDataArchive.getEntryName("group", "admins"), "<group/>".getBytes("UTF-8")));
+            assertTrue(writer.addEntry("README.txt", "readme".getBytes("UTF-8")));
+            assertFalse(writer.addEntry(PortalDataArchive.getEntryName("user", "admin"), "<other/>".getBytes("UTF-8")));
+            assertFalse("Nothing is visible until the archive is finished", archive.exists());
+            writer.finish();
+        }
+        finally {
+            writer.close();
+        }
+        assertTrue(archive.exists());
+        assertEquals(1, this.tempDir.list().length);
+
+        final Map<String, String> contents = new LinkedHashMap<String, String>();
+        final PortalDataArchive.Reader reader = new PortalDataArchive.Reader(archive);
+        try {
+            final int count = reader.scan(new AntPatternFileFilter(false, false, "**/*.xml", Collections.<String>emptySet()), new Function<Resource, Object>() {
+                @Override
+                public Object apply(Resource input) {
+                    try {
+                        final InputStream stream = input.getInputStream();
+                        try {
+                            contents.put(input.getURI().toString(), IOUtils.toString(stream, "UTF-8"));
+                        }
+                        finally {
+                            stream.close();
+                        }
+                    }
+                    catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return null;
+                }
+            });
+            assertEquals(2, count);
+
+            final String baseUri = reader.getBaseUri();
+            assertTrue(baseUri, baseUri.startsWith("jar:file:") && baseUri.endsWith("my%20data.zip!/"));
+
+            final Map<String, String> expected = new LinkedHashMap<String, String>();
+            expected.put(baseUri + "user/admin.user.xml", "<user/>");
+            expected.put(baseUri + "group/admins.group.xml", "<group/>");
+            assertEquals(expected, contents);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testCloseWithoutFinish() throws Exception {
+        final File archive = new File(this.tempDir, "export.zip");
+        FileUtils.writeStringToFile(archive, "previous export");
+
+        final PortalDataArchive.Writer writer = new PortalDataArchive.Writer(archive);
+        writer.addEntry(PortalDataArchive.getEntryName("user", "admin"), "<user/>".getBytes("UTF-8"));
+        writer.close();
+
+        assertEquals("previous export", FileUtils.readFileToString(archive));
+        assertEquals(1, this.tempDir.list().length);
+    }
+}
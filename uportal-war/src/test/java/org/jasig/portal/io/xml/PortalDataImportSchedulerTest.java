@@ -0,0 +1,214 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class PortalDataImportSchedulerTest {
+    private static final PortalDataKey USER = new PortalDataKey(new QName("user"), null, "4.0");
+    private static final PortalDataKey PORTLET = new PortalDataKey(new QName("portlet-definition"), null, "4.0");
+    private static final PortalDataKey LAYOUT = new PortalDataKey(new QName("layout"), null, "4.0");
+    private static final PortalDataKey GROUP = new PortalDataKey(new QName("group_membership"), null, "4.0");
+
+    // layout waits for users and portlets, groups don't wait for anything
+    private static final Map<PortalDataKey, Set<PortalDataKey>> DEPENDENCIES = ImmutableMap.<PortalDataKey, Set<PortalDataKey>>of(
+            LAYOUT, ImmutableSet.of(USER, PORTLET));
+
+    private ExecutorService executor;
+    private final Queue<String> imported = new ConcurrentLinkedQueue<String>();
+
+    @Before
+    public void setup() {
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testIndependentKeysRunTogether() throws Exception {
+        final CountDownLatch portletStarted = new CountDownLatch(1);
+        final CountDownLatch releasePortlet = new CountDownLatch(1);
+
+        final PortalDataImportScheduler scheduler = new PortalDataImportScheduler(this.executor, DEPENDENCIES, true, new PortalDataImportScheduler.Importer() {
+            @Override
+            public void importData(Resource resource, PortalDataKey portalDataKey) {
+                if (portalDataKey.equals(PORTLET)) {
+                    portletStarted.countDown();
+                    try {
+                        releasePortlet.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                imported.add(resource.getDescription());
+            }
+        });
+
+        final Map<PortalDataKey, Queue<Resource>> data = new LinkedHashMap<PortalDataKey, Queue<Resource>>();
+        data.put(USER, files("user1", "user2"));
+        data.put(PORTLET, files("portlet1"));
+        data.put(LAYOUT, files("layout1", "layout2"));
+        data.put(GROUP, files("group1"));
+        scheduler.start(data);
+
+        assertTrue(portletStarted.await(5, TimeUnit.SECONDS));
+
+        // Users and groups finish while the portlet is still importing, the layouts wait for it
+        final List<String> completed = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            final PortalDataImportScheduler.ScheduledImport scheduledImport = scheduler.poll(5, TimeUnit.SECONDS);
+            assertNotNull(scheduledImport);
+            completed.add(scheduledImport.getResource().getDescription());
+        }
+        Collections.sort(completed);
+        assertEquals(ImmutableSet.of("group1", "user1", "user2"), ImmutableSet.copyOf(completed));
+        assertEquals(Collections.singleton(LAYOUT), scheduler.getWaitingKeys());
+        assertEquals(1, scheduler.getRunning().size());
+
+        releasePortlet.countDown();
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(scheduler.poll(5, TimeUnit.SECONDS));
+        }
+        assertTrue(scheduler.isFinished());
+        assertEquals(6, scheduler.getCompletedCount());
+        assertEquals(6, scheduler.getTotalCount());
+
+        final List<String> order = new ArrayList<String>(this.imported);
+        assertTrue(order.indexOf("layout1") > order.indexOf("portlet1"));
+        assertTrue(order.indexOf("layout2") > order.indexOf("portlet1"));
+    }
+
+    @Test
+    public void testStopSkipsWaitingKeys() throws Exception {
+        final PortalDataImportScheduler scheduler = new PortalDataImportScheduler(this.executor, DEPENDENCIES, true, new PortalDataImportScheduler.Importer() {
+            @Override
+            public void importData(Resource resource, PortalDataKey portalDataKey) {
+                throw new IllegalStateException("failed " + resource.getDescription());
+            }
+        });
+
+        final Map<PortalDataKey, Queue<Resource>> data = new LinkedHashMap<PortalDataKey, Queue<Resource>>();
+        data.put(USER, files("user1"));
+        data.put(LAYOUT, files("layout1", "layout2"));
+        scheduler.start(data);
+
+        final PortalDataImportScheduler.ScheduledImport failed = scheduler.poll(5, TimeUnit.SECONDS);
+        assertNotNull(failed);
+        assertEquals("user1", failed.getResource().getDescription());
+        assertTrue(failed.isFailed());
+
+        assertTrue(scheduler.isFinished());
+        assertEquals(2, scheduler.getSkippedCount());
+        assertFalse(this.executor.isShutdown());
+        assertTrue(scheduler.getWaitingKeys().isEmpty());
+    }
+
+    @Test
+    public void testCancelledImportHoldsDependentsUntilWorkerExits() throws Exception {
+        final CountDownLatch portletStarted = new CountDownLatch(1);
+        final CountDownLatch releasePortlet = new CountDownLatch(1);
+
+        final PortalDataImportScheduler scheduler = new PortalDataImportScheduler(this.executor, DEPENDENCIES, false, new PortalDataImportScheduler.Importer() {
+            @Override
+            public void importData(Resource resource, PortalDataKey portalDataKey) {
+                if (portalDataKey.equals(PORTLET)) {
+                    portletStarted.countDown();
+                    // Ignore the interrupt from cancel, like an import blocked in a JDBC call
+                    while (releasePortlet.getCount() > 0) {
+                        try {
+                            releasePortlet.await();
+                        }
+                        catch (InterruptedException e) {
+                            //continue waiting
+                        }
+                    }
+                }
+                imported.add(resource.getDescription());
+            }
+        });
+
+        final Map<PortalDataKey, Queue<Resource>> data = new LinkedHashMap<PortalDataKey, Queue<Resource>>();
+        data.put(PORTLET, files("portlet1"));
+        data.put(LAYOUT, files("layout1"));
+        scheduler.start(data);
+
+        assertTrue(portletStarted.await(5, TimeUnit.SECONDS));
+        for (final PortalDataImportScheduler.ScheduledImport scheduledImport : scheduler.getRunning()) {
+            scheduledImport.cancel(true);
+        }
+
+        // The portlet worker is still running, the layout must not start
+        assertNull(scheduler.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singleton(LAYOUT), scheduler.getWaitingKeys());
+        assertFalse(this.imported.contains("layout1"));
+
+        releasePortlet.countDown();
+        final PortalDataImportScheduler.ScheduledImport cancelled = scheduler.poll(5, TimeUnit.SECONDS);
+        assertNotNull(cancelled);
+        assertEquals("portlet1", cancelled.getResource().getDescription());
+        assertTrue(cancelled.isFailed());
+
+        final PortalDataImportScheduler.ScheduledImport layout = scheduler.poll(5, TimeUnit.SECONDS);
+        assertNotNull(layout);
+        assertEquals("layout1", layout.getResource().getDescription());
+        assertTrue(scheduler.isFinished());
+        assertEquals(2, scheduler.getCompletedCount());
+    }
+
+    private static Queue<Resource> files(String... names) {
+        final Queue<Resource> files = new ConcurrentLinkedQueue<Resource>();
+        for (final String name : names) {
+            files.add(new ByteArrayResource(new byte[0], name));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.io.xml.change.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jasig.portal.concurrency.CallableWithoutResult;
+import org.jasig.portal.io.xml.change.IPortalDataChange;
+import org.jasig.portal.io.xml.change.IPortalDataChangeDao;
+import org.jasig.portal.test.BasePortalJpaDaoTest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "classpath:jpaPortalTestApplicationContext.xml")
+public class JpaPortalDataChangeDaoTest extends BasePortalJpaDaoTest {
+
+    @Autowired
+    private IPortalDataChangeDao portalDataChangeDao;
+
+    @Test
+    public void testChangeLifecycle() {
+        final Date start = new Date(System.currentTimeMillis() - 1000);
+        
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalDataChangeDao.dataModified("layout", "student");
+                portalDataChangeDao.dataModified("layout", "faculty");
+                portalDataChangeDao.dataModified("portlet-definition", "weather");
+            }
+        });
+        
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalDataChangeDao.dataDeleted("layout", "faculty");
+            }
+        });
+
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final Map<String, Boolean> layoutChanges = getDeletedById(portalDataChangeDao.getPortalDataChanges("layout", start));
+                assertEquals(2, layoutChanges.size());
+                assertEquals(Boolean.FALSE, layoutChanges.get("student"));
+                assertEquals(Boolean.TRUE, layoutChanges.get("faculty"));
+                
+                final Map<String, Boolean> portletChanges = getDeletedById(portalDataChangeDao.getPortalDataChanges("portlet-definition", start));
+                assertEquals(1, portletChanges.size());
+                assertEquals(Boolean.FALSE, portletChanges.get("weather"));
+                
+                final Date future = new Date(System.currentTimeMillis() + 60000);
+                assertTrue(portalDataChangeDao.getPortalDataChanges("layout", future).isEmpty());
+            }
+        });
+        
+        //Recreating deleted data replaces the delete
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalDataChangeDao.dataModified("layout", "faculty");
+            }
+        });
+
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final Map<String, Boolean> layoutChanges = getDeletedById(portalDataChangeDao.getPortalDataChanges("layout", start));
+                assertEquals(2, layoutChanges.size());
+                assertEquals(Boolean.FALSE, layoutChanges.get("faculty"));
+            }
+        });
+    }
+    
+    @Test
+    public void testRepeatedChanges() {
+        final Date start = new Date(System.currentTimeMillis() - 1000);
+        
+        //Several changes to the same data in one transaction are all recorded without conflict
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalDataChangeDao.dataModified("stylesheet-user-preferences", "student");
+                portalDataChangeDao.dataModified("stylesheet-user-preferences", "student");
+                portalDataChangeDao.dataDeleted("stylesheet-user-preferences", "student");
+            }
+        });
+        
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final List<IPortalDataChange> changes = portalDataChangeDao.getPortalDataChanges("stylesheet-user-preferences", start);
+                assertEquals(1, changes.size());
+                assertEquals("student", changes.get(0).getDataId());
+                assertTrue(changes.get(0).isDeleted());
+            }
+        });
+    }
+    
+    private Map<String, Boolean> getDeletedById(List<IPortalDataChange> changes) {
+        final Map<String, Boolean> deletedById = new HashMap<String, Boolean>();
+        for (final IPortalDataChange change : changes) {
+            deletedById.put(change.getDataId(), change.isDeleted());
+        }
+        return deletedById;
+    }
+}
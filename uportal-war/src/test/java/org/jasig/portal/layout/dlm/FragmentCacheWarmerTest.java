@@ -0,0 +1,167 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.StaticApplicationContext;
+
+public class FragmentCacheWarmerTest {
+    private FragmentActivator fragmentActivator;
+    private File snapshotFile;
+    private FragmentCacheWarmer fragmentCacheWarmer;
+    private Runnable queuedTask;
+
+    @Before
+    public void setup() throws Exception {
+        this.snapshotFile = File.createTempFile("FragmentCacheWarmerTest", ".snapshot");
+        this.snapshotFile.delete();
+        
+        this.fragmentActivator = mock(FragmentActivator.class);
+        when(this.fragmentActivator.activateUserView(anyString(), any(Locale.class))).thenReturn(true);
+        
+        this.fragmentCacheWarmer = new FragmentCacheWarmer();
+        this.fragmentCacheWarmer.setFragmentActivator(this.fragmentActivator);
+        this.fragmentCacheWarmer.setSnapshotFile(this.snapshotFile.getPath());
+    }
+    
+    @After
+    public void tearDown() {
+        this.snapshotFile.delete();
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        final Map<String, Set<Locale>> activated = activatedFragments();
+        when(this.fragmentActivator.getActivatedFragmentLocales()).thenReturn(activated);
+
+        this.fragmentCacheWarmer.writeSnapshot();
+        assertTrue(this.snapshotFile.exists());
+        assertEquals(activated, this.fragmentCacheWarmer.readSnapshot());
+    }
+
+    @Test
+    public void testEmptySnapshotNotWritten() throws Exception {
+        when(this.fragmentActivator.getActivatedFragmentLocales()).thenReturn(Collections.<String, Set<Locale>>emptyMap());
+
+        this.fragmentCacheWarmer.writeSnapshot();
+        assertFalse(this.snapshotFile.exists());
+        assertTrue(this.fragmentCacheWarmer.readSnapshot().isEmpty());
+    }
+
+    @Test
+    public void testStartupWaitsForWarmup() throws Exception {
+        this.writeSnapshot();
+        this.fragmentCacheWarmer.setMaxWarmupWait(30);
+        this.fragmentCacheWarmer.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        });
+
+        this.fragmentCacheWarmer.onApplicationEvent(new ContextRefreshedEvent(new StaticApplicationContext()));
+
+        //Every fragment has been activated by the time the context refresh completes
+        verify(this.fragmentActivator).activateUserView("fragment-a", Locale.US);
+        verify(this.fragmentActivator).activateUserView("fragment-a", Locale.FRANCE);
+        verify(this.fragmentActivator).activateUserView("fragment-b", Locale.US);
+    }
+
+    @Test
+    public void testBackgroundWarmup() throws Exception {
+        this.writeSnapshot();
+        this.fragmentCacheWarmer.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queuedTask = command;
+            }
+        });
+
+        final ContextRefreshedEvent event = new ContextRefreshedEvent(new StaticApplicationContext());
+        this.fragmentCacheWarmer.onApplicationEvent(event);
+        verify(this.fragmentActivator, never()).activateUserView(anyString(), any(Locale.class));
+        
+        assertNotNull(this.queuedTask);
+        this.queuedTask.run();
+        verify(this.fragmentActivator).activateUserView("fragment-b", Locale.US);
+        
+        //Only the first refresh warms fragments
+        this.queuedTask = null;
+        this.fragmentCacheWarmer.onApplicationEvent(event);
+        assertNull(this.queuedTask);
+    }
+    
+    @Test
+    public void testNoSnapshotFile() throws Exception {
+        this.fragmentCacheWarmer.setSnapshotFile("");
+        when(this.fragmentActivator.getActivatedFragmentLocales()).thenReturn(activatedFragments());
+        this.fragmentCacheWarmer.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queuedTask = command;
+            }
+        });
+
+        this.fragmentCacheWarmer.writeSnapshot();
+        assertTrue(this.fragmentCacheWarmer.readSnapshot().isEmpty());
+        
+        this.fragmentCacheWarmer.onApplicationEvent(new ContextRefreshedEvent(new StaticApplicationContext()));
+        assertNull(this.queuedTask);
+        verify(this.fragmentActivator, never()).getActivatedFragmentLocales();
+    }
+    
+    private void writeSnapshot() {
+        when(this.fragmentActivator.getActivatedFragmentLocales()).thenReturn(activatedFragments());
+        this.fragmentCacheWarmer.writeSnapshot();
+    }
+
+    private Map<String, Set<Locale>> activatedFragments() {
+        final Map<String, Set<Locale>> activated = new LinkedHashMap<String, Set<Locale>>();
+        activated.put("fragment-a", new LinkedHashSet<Locale>());
+        activated.get("fragment-a").add(Locale.US);
+        activated.get("fragment-a").add(Locale.FRANCE);
+        activated.put("fragment-b", Collections.singleton(Locale.US));
+        return activated;
+    }
+}
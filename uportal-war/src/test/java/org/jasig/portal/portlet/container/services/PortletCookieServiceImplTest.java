@@ -27,6 +27,7 @@ import java.util.Set;
 import javax.servlet.http.Cookie;
 
 import org.apache.commons.lang.time.DateUtils;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.jasig.portal.portlet.dao.IPortletCookieDao;
 import org.jasig.portal.portlet.om.IPortalCookie;
@@ -55,7 +56,6 @@ public class PortletCookieServiceImplTest {
 		MockPortalCookie portalCookie = new MockPortalCookie();
 		portalCookie.setValue("ABCDEF");
 		EasyMock.expect(portletCookieDao.createPortalCookie(PortletCookieServiceImpl.DEFAULT_MAX_AGE)).andReturn(portalCookie);
-		EasyMock.expect(portletCookieDao.updatePortalCookieExpiration(portalCookie, PortletCookieServiceImpl.DEFAULT_MAX_AGE)).andReturn(portalCookie);
 		EasyMock.replay(portletCookieDao);
 		
 		PortletCookieServiceImpl cookieService = new PortletCookieServiceImpl();
@@ -71,6 +71,43 @@ public class PortletCookieServiceImplTest {
 		EasyMock.verify(portletCookieDao);
 	}
 	
+	/**
+	 * Test that portal cookie expiration updates are queued, coalesced and written in a single
+	 * batch by {@link PortletCookieServiceImpl#flushPortalCookieExpirations()}.
+	 */
+	@Test
+	public void testUpdatePortalCookieWriteBehind() {
+		IPortletCookieDao portletCookieDao = EasyMock.createMock(IPortletCookieDao.class);
+		
+		MockPortalCookie portalCookie = new MockPortalCookie();
+		portalCookie.setValue("ABCDEF");
+		EasyMock.expect(portletCookieDao.getPortalCookie("ABCDEF")).andReturn(portalCookie).times(2);
+		Capture<Map<String, Date>> expirations = new Capture<Map<String, Date>>();
+		portletCookieDao.updatePortalCookieExpirations(EasyMock.capture(expirations));
+		EasyMock.expectLastCall().once();
+		EasyMock.replay(portletCookieDao);
+		
+		PortletCookieServiceImpl cookieService = new PortletCookieServiceImpl();
+		cookieService.setPortletCookieDao(portletCookieDao);
+		
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setCookies(new Cookie(IPortletCookieService.DEFAULT_PORTAL_COOKIE_NAME, "ABCDEF"));
+		
+		// the second request sees the queued expiration and does not queue another update
+		final Date before = new Date();
+		cookieService.updatePortalCookie(request, new MockHttpServletResponse());
+		cookieService.updatePortalCookie(request, new MockHttpServletResponse());
+		
+		cookieService.flushPortalCookieExpirations();
+		// nothing left to write
+		cookieService.flushPortalCookieExpirations();
+		
+		Assert.assertEquals(1, expirations.getValue().size());
+		final Date expiration = expirations.getValue().get("ABCDEF");
+		Assert.assertFalse(expiration.before(DateUtils.addSeconds(before, PortletCookieServiceImpl.DEFAULT_MAX_AGE)));
+		EasyMock.verify(portletCookieDao);
+	}
+	
 	/**
 	 * Test {@link PortletCookieServiceImpl#getOrCreatePortalCookie(javax.servlet.http.HttpServletRequest)}.
 	 * that results in creating a new PortalCookie.
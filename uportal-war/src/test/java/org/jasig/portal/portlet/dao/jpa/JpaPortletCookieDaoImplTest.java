@@ -23,10 +23,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.concurrent.Callable;
 
 import javax.servlet.http.Cookie;
 
+import org.apache.commons.lang.time.DateUtils;
 import org.jasig.portal.portlet.dao.IPortletCookieDao;
 import org.jasig.portal.portlet.om.IPortalCookie;
 import org.jasig.portal.test.BasePortalJpaDaoTest;
@@ -109,4 +112,78 @@ public class JpaPortletCookieDaoImplTest extends BasePortalJpaDaoTest {
             }
         });
 	}
+
+	@Test
+	public void testBatchedPurge() {
+        final String value = this.execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                //Two expired portal cookies, one with two portlet cookies
+                portletCookieDao.createPortalCookie(0);
+                final IPortalCookie portalCookie = portletCookieDao.createPortalCookie(0);
+                portletCookieDao.addOrUpdatePortletCookie(portalCookie, new Cookie("cookieName1", "cookieValue1"));
+                portletCookieDao.addOrUpdatePortletCookie(portalCookie, new Cookie("cookieName2", "cookieValue2"));
+                return portalCookie.getValue();
+            }
+        });
+
+        this.execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep(500);
+                
+                //The two portlet cookies are deleted before either portal cookie
+                assertEquals(2, portletCookieDao.purgeExpiredCookies(2));
+                assertNotNull(portletCookieDao.getPortalCookie(value));
+                
+                return null;
+            }
+        });
+
+        this.execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                assertEquals(2, portletCookieDao.purgeExpiredCookies(2));
+                assertEquals(0, portletCookieDao.purgeExpiredCookies(2));
+                assertNull(portletCookieDao.getPortalCookie(value));
+                
+                return null;
+            }
+        });
+	}
+
+	@Test
+	public void testUpdatePortalCookieExpirations() {
+        final String value = this.execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return portletCookieDao.createPortalCookie(60).getValue();
+            }
+        });
+
+        final Date expiration = DateUtils.addDays(new Date(), 30);
+        this.execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                portletCookieDao.updatePortalCookieExpirations(Collections.singletonMap(value, expiration));
+                
+                //Unknown cookies and earlier dates are ignored
+                portletCookieDao.updatePortalCookieExpirations(Collections.singletonMap("missing", expiration));
+                portletCookieDao.updatePortalCookieExpirations(Collections.singletonMap(value, new Date()));
+                
+                return null;
+            }
+        });
+
+        this.execute(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                final IPortalCookie portalCookie = portletCookieDao.getPortalCookie(value);
+                assertNotNull(portalCookie);
+                assertEquals(expiration.getTime(), portalCookie.getExpires().getTime(), 1000);
+                
+                return null;
+            }
+        });
+	}
 }
@@ -0,0 +1,178 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
+import org.jasig.portal.portlet.om.IPortletEntityId;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Function;
+
+/**
+ * Hammers the session scoped window and entity caches from many threads the way parallel portlet
+ * workers and resource requests for a single user do.
+ */
+public class PortletSessionCacheConcurrencyTest {
+    private static final int THREADS = 20;
+    private static final int ENTITIES = 50;
+    private static final int WINDOWS_PER_ENTITY = 3;
+    
+    private final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+    private final List<PortletEntityIdImpl> entityIds = new ArrayList<PortletEntityIdImpl>();
+    private final List<IPortletWindowId> windowIds = new ArrayList<IPortletWindowId>();
+    private ExecutorService executorService;
+    
+    @Before
+    public void setup() {
+        this.executorService = Executors.newFixedThreadPool(THREADS);
+        
+        for (int e = 0; e < ENTITIES; e++) {
+            final PortletEntityIdImpl portletEntityId = new PortletEntityIdImpl(portletDefinitionId, "n" + e, 1, "e" + e);
+            this.entityIds.add(portletEntityId);
+            
+            for (int w = 0; w < WINDOWS_PER_ENTITY; w++) {
+                this.windowIds.add(new PortletWindowIdImpl(portletEntityId, "w" + w, "e" + e + "_w" + w));
+            }
+        }
+    }
+    
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+    
+    @Test
+    public void testConcurrentWindowCreation() throws Exception {
+        final PortletWindowCache<PortletWindowData> windowCache = new PortletWindowCache<PortletWindowData>();
+        final ConcurrentMap<IPortletWindowId, AtomicInteger> creationCounts = new ConcurrentHashMap<IPortletWindowId, AtomicInteger>();
+        
+        final Function<IPortletWindowId, PortletWindowData> windowCreator = new Function<IPortletWindowId, PortletWindowData>() {
+            @Override
+            public PortletWindowData apply(IPortletWindowId portletWindowId) {
+                creationCounts.putIfAbsent(portletWindowId, new AtomicInteger());
+                creationCounts.get(portletWindowId).incrementAndGet();
+                Thread.yield();
+                return new PortletWindowData(portletWindowId, ((PortletWindowIdImpl) portletWindowId).getPortletEntityId());
+            }
+        };
+        
+        final List<List<PortletWindowData>> results = this.runConcurrently(new Callable<List<PortletWindowData>>() {
+            @Override
+            public List<PortletWindowData> call() throws Exception {
+                final List<PortletWindowData> windows = new ArrayList<PortletWindowData>();
+                for (final IPortletWindowId portletWindowId : windowIds) {
+                    windows.add(windowCache.storeIfAbsentWindow(portletWindowId, windowCreator));
+                }
+                return windows;
+            }
+        });
+        
+        for (final IPortletWindowId portletWindowId : this.windowIds) {
+            assertEquals("Window " + portletWindowId + " must only be created once", 1, creationCounts.get(portletWindowId).get());
+        }
+        for (final List<PortletWindowData> windows : results) {
+            for (int i = 0; i < windows.size(); i++) {
+                assertSame(results.get(0).get(i), windows.get(i));
+            }
+        }
+        for (final IPortletEntityId portletEntityId : this.entityIds) {
+            assertEquals(WINDOWS_PER_ENTITY, windowCache.getWindows(portletEntityId).size());
+        }
+    }
+    
+    @Test
+    public void testConcurrentEntityCreation() throws Exception {
+        final PortletEntityCache<PortletEntityData> entityCache = new PortletEntityCache<PortletEntityData>();
+        final ConcurrentMap<IPortletEntityId, AtomicInteger> creationCounts = new ConcurrentHashMap<IPortletEntityId, AtomicInteger>();
+        
+        final Function<IPortletEntityId, PortletEntityData> entityCreator = new Function<IPortletEntityId, PortletEntityData>() {
+            @Override
+            public PortletEntityData apply(IPortletEntityId portletEntityId) {
+                creationCounts.putIfAbsent(portletEntityId, new AtomicInteger());
+                creationCounts.get(portletEntityId).incrementAndGet();
+                Thread.yield();
+                final PortletEntityIdImpl entityId = (PortletEntityIdImpl) portletEntityId;
+                return new PortletEntityData(entityId, portletDefinitionId, entityId.getLayoutNodeId(), entityId.getUserId());
+            }
+        };
+        
+        this.runConcurrently(new Callable<List<PortletEntityData>>() {
+            @Override
+            public List<PortletEntityData> call() throws Exception {
+                final List<PortletEntityData> entities = new ArrayList<PortletEntityData>();
+                for (final PortletEntityIdImpl portletEntityId : entityIds) {
+                    final PortletEntityData entity = entityCache.storeIfAbsentEntity(portletEntityId, entityCreator);
+                    assertSame(entity, entityCache.getEntity(portletEntityId.getLayoutNodeId(), portletEntityId.getUserId()));
+                    entities.add(entity);
+                }
+                return entities;
+            }
+        });
+        
+        for (final IPortletEntityId portletEntityId : this.entityIds) {
+            assertEquals("Entity " + portletEntityId + " must only be created once", 1, creationCounts.get(portletEntityId).get());
+        }
+    }
+    
+    /**
+     * Runs the task on every thread at the same time and returns the results
+     */
+    private <T> List<T> runConcurrently(final Callable<T> task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        
+        final List<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(this.executorService.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    start.await();
+                    return task.call();
+                }
+            }));
+        }
+        start.countDown();
+        
+        final List<T> results = new ArrayList<T>();
+        for (final Future<T> future : futures) {
+            //Rethrows any assertion failures from the worker threads
+            results.add(future.get(30, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+}
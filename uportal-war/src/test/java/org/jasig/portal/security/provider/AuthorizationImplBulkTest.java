@@ -0,0 +1,164 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.jasig.portal.AuthorizationException;
+import org.jasig.portal.groups.GroupsException;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.PortletLifecycleState;
+import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPerson;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class AuthorizationImplBulkTest {
+    private final Map<String, List<IPermission>> permissions = new HashMap<String, List<IPermission>>();
+    private TestAuthorizationImpl authorizationService;
+    private IAuthorizationPrincipal principal;
+
+    @Before
+    public void setup() throws Exception {
+        this.authorizationService = new TestAuthorizationImpl();
+        this.authorizationService.setCachePermissions(false);
+        this.authorizationService.setDefaultPermissionPolicy(new AnyUnblockedGrantPermissionPolicy());
+
+        // Permission results are not cached, every target is a member of no groups
+        final Ehcache doesPrincipalHavePermissionCache = mock(Ehcache.class);
+        this.authorizationService.setDoesPrincipalHavePermissionCache(doesPrincipalHavePermissionCache);
+        final Ehcache entityParentsCache = mock(Ehcache.class);
+        when(entityParentsCache.get((Object) any())).thenReturn(new Element("target", Collections.<String>emptySet()));
+        this.authorizationService.setEntityParentsCache(entityParentsCache);
+
+        final IPortletDefinitionRegistry portletDefinitionRegistry = mock(IPortletDefinitionRegistry.class);
+        for (final String portletDefinitionId : Arrays.asList("1", "2", "3")) {
+            final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+            when(portletDefinition.getLifecycleState()).thenReturn(PortletLifecycleState.PUBLISHED);
+            when(portletDefinitionRegistry.getPortletDefinition(portletDefinitionId)).thenReturn(portletDefinition);
+        }
+        this.authorizationService.setPortletDefinitionRegistry(portletDefinitionRegistry);
+
+        this.principal = new AuthorizationPrincipalImpl("student", IPerson.class, this.authorizationService);
+    }
+
+    @Test
+    public void testExplicitGrants() throws Exception {
+        notSuperUser();
+        grant(IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_ACTIVITY, IPermission.PORTLET_PREFIX + "2");
+
+        assertEquals(ImmutableSet.of("2"),
+                this.authorizationService.getPortletsPrincipalCanSubscribe(this.principal, Arrays.asList("1", "2", "3")));
+    }
+
+    @Test
+    public void testAllPortletsGrant() throws Exception {
+        notSuperUser();
+        grant(IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_SUBSCRIBER_ACTIVITY, IPermission.ALL_PORTLETS_TARGET);
+
+        assertEquals(ImmutableSet.of("1", "2", "3"),
+                this.authorizationService.getPortletsPrincipalCanSubscribe(this.principal, Arrays.asList("1", "2", "3")));
+        assertEquals(ImmutableSet.of("1", "3"),
+                this.authorizationService.getPortletsPrincipalCanRender(this.principal, Arrays.asList("1", "3")));
+    }
+
+    @Test
+    public void testSuperUser() throws Exception {
+        grant(IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY, IPermission.ALL_TARGET);
+
+        assertEquals(ImmutableSet.of("1", "2", "3"),
+                this.authorizationService.getPortletsPrincipalCanSubscribe(this.principal, Arrays.asList("1", "2", "3")));
+        assertEquals(ImmutableSet.of(IPermission.PORTLET_PREFIX + "1"),
+                this.authorizationService.getPermittedTargets(this.principal, IPermission.PORTAL_SUBSCRIBE,
+                        IPermission.PORTLET_SUBSCRIBER_ACTIVITY, Arrays.asList(IPermission.PORTLET_PREFIX + "1")));
+    }
+
+    /**
+     * An explicit DENY answers the super-user check without searching the groups of the principal
+     */
+    private void notSuperUser() {
+        addPermission(IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY, IPermission.ALL_TARGET, IPermission.PERMISSION_TYPE_DENY);
+    }
+
+    private void grant(String owner, String activity, String target) {
+        addPermission(owner, activity, target, IPermission.PERMISSION_TYPE_GRANT);
+    }
+
+    private void addPermission(String owner, String activity, String target, String type) {
+        final IPermission permission = new PermissionImpl(owner);
+        permission.setPrincipal(this.principal.getPrincipalString());
+        permission.setActivity(activity);
+        permission.setTarget(target);
+        permission.setType(type);
+
+        List<IPermission> principalPermissions = this.permissions.get(this.principal.getPrincipalString());
+        if (principalPermissions == null) {
+            principalPermissions = new ArrayList<IPermission>();
+            this.permissions.put(this.principal.getPrincipalString(), principalPermissions);
+        }
+        principalPermissions.add(permission);
+    }
+
+    /**
+     * Serves permissions from the test and puts every principal in no groups
+     */
+    private class TestAuthorizationImpl extends AuthorizationImpl {
+        @Override
+        public String getPrincipalString(IAuthorizationPrincipal principal) {
+            return principal.getType().getSimpleName() + "." + principal.getKey();
+        }
+
+        @Override
+        public IPermission[] getUncachedPermissionsForPrincipal(IAuthorizationPrincipal principal, String owner,
+                String activity, String target) throws AuthorizationException {
+            final List<IPermission> principalPermissions = permissions.get(getPrincipalString(principal));
+            if (principalPermissions == null) {
+                return new IPermission[0];
+            }
+            return principalPermissions.toArray(new IPermission[principalPermissions.size()]);
+        }
+
+        @Override
+        public IGroupMember getGroupMember(IAuthorizationPrincipal principal) throws GroupsException {
+            final IGroupMember groupMember = mock(IGroupMember.class);
+            when(groupMember.getAllContainingGroups()).thenReturn(Collections.<Serializable>emptyList().iterator());
+            return groupMember;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.url;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class LayoutUrlNodeTableTest {
+    private static final String LAYOUT =
+            "<layout>" +
+                "<folder ID='root' type='root'>" +
+                    "<folder ID='s1' type='regular'>" +
+                        "<folder ID='n2' type='regular'>" +
+                            "<channel ID='n3' fname='weather'/>" +
+                            "<channel ID='n4' fname='news'/>" +
+                        "</folder>" +
+                        "<folder ID='n5' type='regular'>" +
+                            "<channel ID='n6' fname='weather'/>" +
+                        "</folder>" +
+                    "</folder>" +
+                    "<folder ID='s7' type='regular'>" +
+                        "<channel ID='n8' fname='news'/>" +
+                    "</folder>" +
+                "</folder>" +
+            "</layout>";
+
+    private LayoutUrlNodeTable table;
+
+    @Before
+    public void setup() throws Exception {
+        final Document layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(LAYOUT)));
+        this.table = new LayoutUrlNodeTable("key", layout, '.');
+    }
+
+    @Test
+    public void testTabIds() {
+        assertEquals("s1", this.table.getTabId("s1"));
+        assertEquals("s1", this.table.getTabId("n6"));
+        assertEquals("s7", this.table.getTabId("n8"));
+        assertNull(this.table.getTabId("root"));
+        assertNull(this.table.getTabId("missing"));
+
+        assertTrue(this.table.containsNode("n4"));
+        assertFalse(this.table.containsNode("missing"));
+    }
+
+    @Test
+    public void testFolderNames() {
+        this.table.setTabFolderName("s7", "welcome", true);
+
+        assertEquals(Arrays.asList("s1"), this.table.getFolderNamesForLayoutNode("n3"));
+        assertEquals(Arrays.asList("welcome.n8"), this.table.getFolderNamesForLayoutNode("n8"));
+        assertEquals(Collections.emptyList(), this.table.getFolderNamesForLayoutNode("root"));
+    }
+
+    @Test
+    public void testSubscribeIds() {
+        assertEquals("n3", this.table.getSubscribeId("s1", "weather"));
+        assertEquals("n6", this.table.getSubscribeId("n5", "weather"));
+        assertEquals("n4", this.table.getSubscribeId("root", "news"));
+        assertNull(this.table.getSubscribeId("n5", "news"));
+        assertNull(this.table.getSubscribeId("n3", "weather"));
+    }
+
+    @Test
+    public void testExternalIds() {
+        this.table.addExternalId("welcome", "s7");
+        this.table.addExternalId("welcome", "s1");
+        this.table.addExternalId("welcome", "s7");
+
+        assertEquals(Arrays.asList("s7", "s1"), this.table.getNodeIdsForExternalId("welcome"));
+        assertEquals(Collections.emptyList(), this.table.getNodeIdsForExternalId("other"));
+    }
+
+    @Test
+    public void testPortletFolderNamesBounded() {
+        final List<IPortletWindowId> portletWindowIds = new ArrayList<IPortletWindowId>();
+        for (int i = 0; i < LayoutUrlNodeTable.MAX_PORTLET_FOLDER_NAMES * 2; i++) {
+            final IPortletWindowId portletWindowId = mock(IPortletWindowId.class);
+            portletWindowIds.add(portletWindowId);
+            this.table.setPortletFolderName(portletWindowId, "s" + i);
+        }
+
+        int remembered = 0;
+        for (final IPortletWindowId portletWindowId : portletWindowIds) {
+            if (this.table.getPortletFolderName(portletWindowId) != null) {
+                remembered++;
+            }
+        }
+        assertTrue(remembered <= LayoutUrlNodeTable.MAX_PORTLET_FOLDER_NAMES);
+
+        final IPortletWindowId lastWindowId = portletWindowIds.get(portletWindowIds.size() - 1);
+        assertEquals("s" + (portletWindowIds.size() - 1), this.table.getPortletFolderName(lastWindowId));
+    }
+}
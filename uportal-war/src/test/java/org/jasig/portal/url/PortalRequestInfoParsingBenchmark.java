@@ -0,0 +1,130 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.url;
+
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.portlet.om.IPortletWindow;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Microbenchmark for parsing requests into {@link IPortalRequestInfo}. Ignored by default, remove
+ * the {@link Ignore} annotation to run it. Each URL shape is warmed up before it is timed and the
+ * average time per parse is written to stdout.
+ */
+@Ignore
+@RunWith(MockitoJUnitRunner.class)
+public class PortalRequestInfoParsingBenchmark {
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+    
+    @InjectMocks private UrlSyntaxProviderImpl urlSyntaxProvider = new UrlSyntaxProviderImpl(); 
+    @Mock private IPortalRequestUtils portalRequestUtils;
+    @Mock private IUrlNodeSyntaxHelperRegistry urlNodeSyntaxHelperRegistry;
+    @Mock private IUrlNodeSyntaxHelper urlNodeSyntaxHelper;
+    @Mock private IPortletWindowRegistry portletWindowRegistry;
+    @Mock private IPortletWindow portletWindow;
+    
+    @Test
+    public void benchmarkLegacyUrl() {
+        final MockHttpServletRequest request = createRequest("/render.userLayoutRootNode.uP");
+        request.addParameter("uP_fname", "CourseGuide-Browse-Courses");
+        request.addParameter("pltc_type", "ACTION");
+        request.addParameter("pltc_state", "detached");
+        request.addParameter("pltp_action", "advancedSearch");
+        
+        when(this.portletWindowRegistry.getOrCreateDefaultPortletWindowByFname(request, "CourseGuide-Browse-Courses")).thenReturn(this.portletWindow);
+        when(this.portletWindow.getPortletWindowId()).thenReturn(new MockPortletWindowId("16_ctf3_5"));
+        
+        run("legacy", request);
+    }
+    
+    @Test
+    public void benchmarkFolderUrl() {
+        final MockHttpServletRequest request = createRequest("/f/n2/normal/render.uP");
+        request.addParameter("u_foo", "bar");
+        
+        when(this.urlNodeSyntaxHelper.getLayoutNodeForFolderNames(request, Arrays.asList("n2"))).thenReturn("n2");
+        
+        run("folder", request);
+    }
+    
+    @Test
+    public void benchmarkPortletUrl() {
+        final MockHttpServletRequest request = createRequest("/f/n2/p/fname.s3/max/action.uP");
+        request.addParameter("pP_action", "search");
+        request.addParameter("pP_query", "course catalog");
+        request.addParameter("pCm", "edit");
+        
+        when(this.urlNodeSyntaxHelper.getLayoutNodeForFolderNames(request, Arrays.asList("n2"))).thenReturn("n2");
+        when(this.urlNodeSyntaxHelper.getPortletForFolderName(request, "n2", "fname.s3")).thenReturn(new MockPortletWindowId("s3"));
+        
+        run("portlet", request);
+    }
+    
+    @Test
+    public void benchmarkResourceUrl() {
+        final MockHttpServletRequest request = createRequest("/f/u12l1s5/p/news.u12l1n7/normal/calendar.2012-06-01.7.resource.uP");
+        request.addParameter("pCc", "cacheLevelPage");
+        
+        when(this.urlNodeSyntaxHelper.getLayoutNodeForFolderNames(request, Arrays.asList("u12l1s5"))).thenReturn("u12l1s5");
+        when(this.urlNodeSyntaxHelper.getPortletForFolderName(request, "u12l1s5", "news.u12l1n7")).thenReturn(new MockPortletWindowId("s3"));
+        
+        run("resource", request);
+    }
+    
+    private MockHttpServletRequest createRequest(String requestUri) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContextPath("/uPortal");
+        request.setRequestURI(requestUri);
+        
+        when(this.portalRequestUtils.getOriginalPortalRequest(request)).thenReturn(request);
+        when(this.urlNodeSyntaxHelperRegistry.getCurrentUrlNodeSyntaxHelper(request)).thenReturn(this.urlNodeSyntaxHelper);
+        
+        return request;
+    }
+    
+    private void run(String name, MockHttpServletRequest request) {
+        //Parse directly, getPortalRequestInfo would return the request info cached by the first call
+        int hash = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            hash += this.urlSyntaxProvider.parsePortalRequestInfo(request).getUrlType().hashCode();
+        }
+        
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            hash += this.urlSyntaxProvider.parsePortalRequestInfo(request).getUrlType().hashCode();
+        }
+        final long duration = System.nanoTime() - start;
+        
+        //Print the accumulated hash so the parsing can't be optimized away
+        System.out.println(name + ": " + (duration / ITERATIONS) + "ns/parse (" + hash + ")");
+    }
+}
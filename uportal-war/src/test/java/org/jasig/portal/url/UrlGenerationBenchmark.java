@@ -0,0 +1,137 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.url;
+
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import javax.portlet.WindowState;
+
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.portlet.om.IPortletEntity;
+import org.jasig.portal.portlet.om.IPortletWindow;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Microbenchmark for portal and portlet URL generation. Ignored by default, remove the
+ * {@link Ignore} annotation to run it. Each case is warmed up before it is timed and the
+ * average time per generated URL is written to stdout.
+ */
+@Ignore
+@RunWith(MockitoJUnitRunner.class)
+public class UrlGenerationBenchmark {
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+    
+    @InjectMocks private UrlSyntaxProviderImpl urlSyntaxProvider = new UrlSyntaxProviderImpl(); 
+    @Mock private IPortalRequestUtils portalRequestUtils;
+    @Mock private IUrlNodeSyntaxHelperRegistry urlNodeSyntaxHelperRegistry;
+    @Mock private IUrlNodeSyntaxHelper urlNodeSyntaxHelper;
+    @Mock private IPortletWindowRegistry portletWindowRegistry;
+    @Mock private IPortletEntity portletEntity;
+    @Mock private IPortletWindow portletWindow;
+    
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockPortletWindowId portletWindowId = new MockPortletWindowId("pw1");
+    
+    @Before
+    public void setup() {
+        request.setContextPath("/uPortal");
+        
+        when(portalRequestUtils.getOriginalPortalRequest(request)).thenReturn(request);
+        when(urlNodeSyntaxHelperRegistry.getCurrentUrlNodeSyntaxHelper(request)).thenReturn(urlNodeSyntaxHelper);
+        when(urlNodeSyntaxHelper.getFolderNamesForLayoutNode(request, "n2")).thenReturn(Arrays.asList("n2"));
+        when(urlNodeSyntaxHelper.getFolderNamesForLayoutNode(request, "s3")).thenReturn(Arrays.asList("n2"));
+        when(urlNodeSyntaxHelper.getFolderNameForPortlet(request, portletWindowId)).thenReturn("fname.s3");
+        
+        when(portletWindowRegistry.getPortletWindow(request, portletWindowId)).thenReturn(portletWindow);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletEntity.getLayoutNodeId()).thenReturn("s3");
+    }
+    
+    @Test
+    public void benchmarkFolderRenderUrl() {
+        run("folder render", new UrlGenerator() {
+            @Override
+            public String generate() {
+                return new PortalUrlBuilder(urlSyntaxProvider, request, "n2", null, UrlType.RENDER).getUrlString();
+            }
+        });
+    }
+    
+    @Test
+    public void benchmarkPortletActionUrl() {
+        run("portlet action", new UrlGenerator() {
+            @Override
+            public String generate() {
+                final PortalUrlBuilder portalUrlBuilder = new PortalUrlBuilder(urlSyntaxProvider, request, "n2", portletWindowId, UrlType.ACTION);
+                final IPortletUrlBuilder portletUrlBuilder = portalUrlBuilder.getPortletUrlBuilder(portletWindowId);
+                portletUrlBuilder.setWindowState(WindowState.MAXIMIZED);
+                portletUrlBuilder.setParameter("action", "search");
+                portletUrlBuilder.setParameter("query", "course catalog", "fall term");
+                return portalUrlBuilder.getUrlString();
+            }
+        });
+    }
+    
+    @Test
+    public void benchmarkUrlStringBuilder() {
+        run("url string builder", new UrlGenerator() {
+            @Override
+            public String generate() {
+                final UrlStringBuilder builder = new UrlStringBuilder("UTF-8", "uPortal");
+                builder.setPath("f", "n2", "p", "fname.s3", "max", "action.uP");
+                builder.addParameter("pP_action", "search");
+                builder.addParameter("pP_query", "course catalog", "fall term");
+                builder.addParameter("pP_name", "Caf\u00e9");
+                return builder.toString();
+            }
+        });
+    }
+    
+    private void run(String name, UrlGenerator generator) {
+        int length = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            length += generator.generate().length();
+        }
+        
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            length += generator.generate().length();
+        }
+        final long duration = System.nanoTime() - start;
+        
+        //Print the accumulated length so the generated URLs can't be optimized away
+        System.out.println(name + ": " + (duration / ITERATIONS) + "ns/url (" + length + " chars)");
+    }
+    
+    private interface UrlGenerator {
+        String generate();
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.jasig.portal.url;
 
+import java.net.URLEncoder;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -164,4 +165,20 @@ public class UrlStringBuilderTest {
         final String url2 = builder2.toString();
         Assert.assertEquals("/?p1=v1&p1=&p1=v2&p2=va%2C%3F&p2=v+b", url2);
     }
+    
+    @Test
+    public void testEncodingMatchesURLEncoder() throws Exception {
+        final String[] values = { "fname.s3", "a b", "~!@#$%^&()+={}[]|\\:;\"'<>,/?`", "caf\u00e9", "\u65e5\u672c", "\u0000\u007f" };
+        
+        for (final String encoding : Arrays.asList("UTF-8", "ISO-8859-1", "UTF-16")) {
+            for (final String value : values) {
+                final UrlStringBuilder builder = new UrlStringBuilder(encoding, null);
+                builder.setPath(value);
+                builder.addParameter(value, value);
+                
+                final String encoded = URLEncoder.encode(value, encoding);
+                Assert.assertEquals("/" + encoded + "?" + encoded + "=" + encoded, builder.toString());
+            }
+        }
+    }
 }
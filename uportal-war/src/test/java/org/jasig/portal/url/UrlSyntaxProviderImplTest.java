@@ -25,6 +25,9 @@ package org.jasig.portal.url;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
@@ -102,6 +105,31 @@ public class UrlSyntaxProviderImplTest {
         assertEquals("", path);
     }
     
+    @Test
+    public void testSplitPath() throws Exception {
+        for (final String path : Arrays.asList("", "/", "//", "/f/n2/normal/render.uP", "f//n2/", "/p/fname.s3/max/action.uP//")) {
+            assertEquals(Arrays.asList(path.split("/")), Arrays.asList(UrlSyntaxProviderImpl.splitPath(path)));
+        }
+    }
+    
+    @Test
+    public void testRequestInfoParsedOnce() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContextPath("/uPortal");
+        request.setRequestURI("/render.userLayoutRootNode.uP");
+        request.addParameter("uP_fname", "CourseGuide-Browse-Courses");
+        
+        when(this.portalRequestUtils.getOriginalPortalRequest(request)).thenReturn(request);
+        when(this.portletWindowRegistry.getOrCreateDefaultPortletWindowByFname(request, "CourseGuide-Browse-Courses")).thenReturn(this.portletWindow1);
+        when(this.portletWindow1.getPortletWindowId()).thenReturn(new MockPortletWindowId("16_ctf3_5"));
+        
+        final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(request);
+        assertNotNull(portalRequestInfo);
+        assertSame(portalRequestInfo, this.urlSyntaxProvider.getPortalRequestInfo(request));
+        
+        verify(this.portletWindowRegistry, times(1)).getOrCreateDefaultPortletWindowByFname(request, "CourseGuide-Browse-Courses");
+    }
+    
     @Test
     public void testNonTargetedGeneration() throws Exception {
         final MockHttpServletRequest request = new MockHttpServletRequest();
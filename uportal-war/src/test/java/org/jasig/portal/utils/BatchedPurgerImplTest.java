@@ -0,0 +1,111 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jasig.portal.utils.BatchedPurger.PurgeBatch;
+import org.jasig.portal.utils.BatchedPurger.PurgeResult;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchedPurgerImplTest {
+    private BatchedPurgerImpl batchedPurger;
+
+    @Before
+    public void setup() {
+        this.batchedPurger = new BatchedPurgerImpl();
+        this.batchedPurger.setBatchSize(10);
+        this.batchedPurger.setBatchPause(0);
+    }
+
+    @Test
+    public void testPurgeUntilComplete() {
+        final CountingBatch batch = new CountingBatch(25);
+        final PurgeResult result = this.batchedPurger.purge("test", batch);
+
+        assertTrue(result.isComplete());
+        assertEquals(25, result.getPurged());
+        assertEquals(3, result.getBatches());
+        assertEquals(Arrays.asList(10, 10, 10), batch.batchSizes);
+
+        assertEquals(Long.valueOf(25), this.batchedPurger.getLastRunPurgedCounts().get("test"));
+        assertEquals(Long.valueOf(25), this.batchedPurger.getTotalPurgedCounts().get("test"));
+        assertTrue(this.batchedPurger.getRunningPurgeProgress().isEmpty());
+
+        this.batchedPurger.purge("test", new CountingBatch(10));
+        assertEquals(Long.valueOf(10), this.batchedPurger.getLastRunPurgedCounts().get("test"));
+        assertEquals(Long.valueOf(35), this.batchedPurger.getTotalPurgedCounts().get("test"));
+    }
+
+    @Test
+    public void testTimeBudget() {
+        this.batchedPurger.setTimeBudget(0);
+
+        final PurgeResult result = this.batchedPurger.purge("test", new CountingBatch(100));
+
+        assertFalse(result.isComplete());
+        assertEquals(10, result.getPurged());
+        assertEquals(1, result.getBatches());
+    }
+
+    @Test
+    public void testProgressWhileRunning() {
+        final PurgeResult result = this.batchedPurger.purge("test", new PurgeBatch() {
+            private int remaining = 15;
+
+            @Override
+            public int purge(int batchSize) {
+                final Long progress = batchedPurger.getRunningPurgeProgress().get("test");
+                assertEquals(Long.valueOf(15 - this.remaining), progress);
+
+                final int purged = Math.min(batchSize, this.remaining);
+                this.remaining -= purged;
+                return purged;
+            }
+        });
+
+        assertTrue(result.isComplete());
+        assertEquals(15, result.getPurged());
+    }
+
+    private static final class CountingBatch implements PurgeBatch {
+        private final List<Integer> batchSizes = new ArrayList<Integer>();
+        private int remaining;
+
+        public CountingBatch(int remaining) {
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int purge(int batchSize) {
+            this.batchSizes.add(batchSize);
+            final int purged = Math.min(batchSize, this.remaining);
+            this.remaining -= purged;
+            return purged;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Microbenchmark of {@link CacheKey} creation, equals and replication serialization size compared
+ * with a key that holds a copy of its component array, the layout CacheKey used before it had size
+ * specific implementations. Ignored by default, remove the {@link Ignore} annotation to run it.
+ * The cases are run in several rounds so they are all compiled before the last round, which is the
+ * only round written to stdout.
+ */
+@Ignore
+public class CacheKeyBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 2000000;
+    private static final String SOURCE = AnyKeySource.class.getName();
+    
+    private interface AnyKeySource {
+        Serializable create(int i);
+    }
+    
+    @Test
+    public void benchmarkCreateAndEquals() {
+        final String[] names = { 
+                "CacheKey, 2 components", "array key, 2 components", 
+                "CacheKey, 4 components", "array key, 4 components" };
+        final AnyKeySource[] keySources = {
+            new AnyKeySource() {
+                @Override
+                public Serializable create(int i) {
+                    return CacheKey.build(SOURCE, "user" + (i & 15), i & 7);
+                }
+            },
+            new AnyKeySource() {
+                @Override
+                public Serializable create(int i) {
+                    return new ArrayKey(SOURCE, "user" + (i & 15), i & 7);
+                }
+            },
+            new AnyKeySource() {
+                @Override
+                public Serializable create(int i) {
+                    return CacheKey.build(SOURCE, "user" + (i & 15), "owner", "activity", i & 7);
+                }
+            },
+            new AnyKeySource() {
+                @Override
+                public Serializable create(int i) {
+                    return new ArrayKey(SOURCE, "user" + (i & 15), "owner", "activity", i & 7);
+                }
+            }
+        };
+        
+        for (int round = 1; round <= ROUNDS; round++) {
+            for (int i = 0; i < keySources.length; i++) {
+                final long duration = run(keySources[i]);
+                if (round == ROUNDS) {
+                    System.out.println(names[i] + ": " + duration + "ns/key");
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void benchmarkSerializedSize() throws IOException {
+        System.out.println("CacheKey, 2 components: " + serializedSize(CacheKey.build(SOURCE, "user", 1)) + " bytes");
+        System.out.println("array key, 2 components: " + serializedSize(new ArrayKey(SOURCE, "user", 1)) + " bytes");
+        System.out.println("CacheKey, 4 components: " + serializedSize(CacheKey.build(SOURCE, "user", "owner", "activity", 1)) + " bytes");
+        System.out.println("array key, 4 components: " + serializedSize(new ArrayKey(SOURCE, "user", "owner", "activity", 1)) + " bytes");
+    }
+    
+    /**
+     * @return Average time to create a key and compare it to another key
+     */
+    private long run(AnyKeySource keySource) {
+        final Serializable reference = keySource.create(0);
+        
+        int matches = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (reference.equals(keySource.create(i))) {
+                matches++;
+            }
+        }
+        final long duration = System.nanoTime() - start;
+        
+        //Use the match count so the keys can't be optimized away
+        if (matches != ITERATIONS / 16) {
+            throw new IllegalStateException("Unexpected match count: " + matches);
+        }
+        return duration / ITERATIONS;
+    }
+    
+    private int serializedSize(Serializable key) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(key);
+        out.close();
+        return bytes.size();
+    }
+    
+    /**
+     * Copies the component array and uses default serialization
+     */
+    private static final class ArrayKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+        
+        private final String source;
+        private final Serializable[] key;
+        private final int hashCode;
+        
+        public ArrayKey(String source, Serializable... key) {
+            this.source = source;
+            this.key = key.clone();
+            this.hashCode = 31 * (31 + Arrays.deepHashCode(this.key)) + source.hashCode();
+        }
+        
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ArrayKey) || this.hashCode != obj.hashCode()) {
+                return false;
+            }
+            final ArrayKey other = (ArrayKey) obj;
+            return this.source.equals(other.source) && Arrays.deepEquals(this.key, other.key);
+        }
+    }
+}
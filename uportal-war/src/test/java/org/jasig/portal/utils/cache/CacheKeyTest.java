@@ -0,0 +1,111 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jasig.portal.utils.cache.CacheKey.CacheKeyBuilder;
+import org.junit.Test;
+
+public class CacheKeyTest {
+    @Test
+    public void testBuildersAreEqual() {
+        for (int size = 0; size <= 6; size++) {
+            final Serializable[] key = createKey(size);
+            
+            final CacheKey built = CacheKey.build("source", key.clone());
+            final CacheKey fromCollection = CacheKey.build("source", Arrays.asList(key));
+            final CacheKeyBuilder<String, String> builder = CacheKey.builder("source");
+            builder.addAll(key);
+            final CacheKey fromBuilder = builder.build();
+            
+            assertEquals(built, fromCollection);
+            assertEquals(built, fromBuilder);
+            assertEquals(built.hashCode(), fromBuilder.hashCode());
+            assertEquals(Arrays.asList(key), Arrays.asList((Serializable[]) built.getKey()));
+        }
+    }
+    
+    @Test
+    public void testComponentComparison() {
+        assertEquals(CacheKey.build("source", "a", new String[] { "b", "c" }), CacheKey.build("source", "a", new String[] { "b", "c" }));
+        assertEquals(CacheKey.build("source", "a", null), CacheKey.build("source", "a", null));
+        assertEquals(CacheKey.build("source", Collections.singletonMap("k", "v")), CacheKey.builder("source").put("k", "v").build());
+        
+        assertFalse(CacheKey.build("source", "a", "b").equals(CacheKey.build("source", "b", "a")));
+        assertFalse(CacheKey.build("source", "a").equals(CacheKey.build("source", "a", null)));
+        assertFalse(CacheKey.build("source", "a").equals(CacheKey.build("other", "a")));
+        assertFalse(CacheKey.build(null, "a").equals(CacheKey.build("source", "a")));
+    }
+    
+    @Test
+    public void testTagsNotCompared() {
+        final CacheEntryTag tag = new SimpleCacheEntryTag("tagType", "tag");
+        final CacheKey tagged = CacheKey.buildTagged("source", tag, "a", "b");
+        
+        assertEquals(CacheKey.build("source", "a", "b"), tagged);
+        assertEquals(Collections.singleton(tag), tagged.getTags());
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        final CacheEntryTag tag = new SimpleCacheEntryTag("tagType", "tag");
+        for (int size = 0; size <= 6; size++) {
+            final CacheKey cacheKey = CacheKey.buildTagged("source", tag, createKey(size));
+            
+            final CacheKey copy = (CacheKey) roundTrip(cacheKey);
+            assertNotSame(cacheKey, copy);
+            assertSame(cacheKey.getClass(), copy.getClass());
+            assertEquals(cacheKey, copy);
+            assertEquals(cacheKey.hashCode(), copy.hashCode());
+            assertEquals(cacheKey.getTags(), copy.getTags());
+        }
+        
+        assertEquals(CacheKey.build(null, "a"), roundTrip(CacheKey.build(null, "a")));
+    }
+    
+    private Serializable[] createKey(int size) {
+        final Serializable[] key = new Serializable[size];
+        for (int i = 0; i < size; i++) {
+            key[i] = i == 1 ? new Serializable[] { "nested", i } : "component" + i;
+        }
+        return key;
+    }
+    
+    private Object roundTrip(Serializable o) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+}
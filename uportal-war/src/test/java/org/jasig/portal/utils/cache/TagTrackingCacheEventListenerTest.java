@@ -0,0 +1,109 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class TagTrackingCacheEventListenerTest {
+    private final CacheEntryTag userTag = UsernameTaggedCacheEntryPurger.createCacheEntryTag("user");
+    private TagTrackingCacheEventListener listener;
+    private Ehcache broadcastCache;
+    private Ehcache taggedCache;
+    
+    @Before
+    public void setup() {
+        this.broadcastCache = mock(Ehcache.class);
+        when(this.broadcastCache.getName()).thenReturn(TagTrackingCacheEventListener.TAG_PURGE_BROADCAST_CACHE_NAME);
+        this.taggedCache = mock(Ehcache.class);
+        when(this.taggedCache.getName()).thenReturn("taggedCache");
+        
+        this.listener = new TagTrackingCacheEventListener();
+        this.listener.setTagPurgeBroadcastCache(this.broadcastCache);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLocalPurgeBroadcasts() {
+        final CacheKey key = CacheKey.buildTagged("source", this.userTag, "key");
+        this.listener.notifyElementPut(this.taggedCache, new Element(key, "value"));
+        this.listener.notifyElementPut(this.taggedCache, new Element(CacheKey.build("source", "untagged"), "value"));
+        
+        this.listener.purgeCacheEntries(this.userTag);
+        
+        //Tagged keys are removed without replicating each removal
+        final ArgumentCaptor<Collection> keysCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.taggedCache).removeAll(keysCaptor.capture(), eq(true));
+        assertEquals(Collections.singleton(key), keysCaptor.getValue());
+        
+        //A single element keyed by the tag is broadcast
+        final ArgumentCaptor<Element> elementCaptor = ArgumentCaptor.forClass(Element.class);
+        verify(this.broadcastCache).put(elementCaptor.capture());
+        assertEquals(this.userTag, elementCaptor.getValue().getObjectKey());
+        
+        assertEquals(1, this.listener.getLocalPurgeCount());
+        assertEquals(1, this.listener.getPurgedCacheCount());
+        assertEquals(1, this.listener.getPurgedKeyCount());
+    }
+    
+    @Test
+    public void testRemotePurge() {
+        final CacheKey key = CacheKey.buildTagged("source", this.userTag, "key");
+        this.listener.notifyElementPut(this.taggedCache, new Element(key, "value"));
+        
+        this.listener.notifyElementPut(this.broadcastCache, new Element(this.userTag, System.currentTimeMillis()));
+        
+        verify(this.taggedCache).removeAll(Collections.singleton(key), true);
+        verify(this.broadcastCache, never()).put(any(Element.class));
+        assertEquals(1, this.listener.getRemotePurgeCount());
+        
+        //Purging the tag again finds nothing to remove
+        this.listener.notifyElementUpdated(this.broadcastCache, new Element(this.userTag, System.currentTimeMillis()));
+        verify(this.taggedCache).removeAll(anyCollection(), anyBoolean());
+        assertEquals(2, this.listener.getRemotePurgeCount());
+    }
+    
+    @Test
+    public void testFailedBroadcast() {
+        doThrow(new IllegalStateException()).when(this.broadcastCache).put(any(Element.class));
+        
+        this.listener.purgeCacheEntries(this.userTag);
+        
+        assertEquals(1, this.listener.getBroadcastFailureCount());
+    }
+}
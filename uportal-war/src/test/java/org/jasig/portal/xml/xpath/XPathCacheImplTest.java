@@ -0,0 +1,140 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.xml.xpath;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.google.common.base.Function;
+
+/**
+ * @author Eric Dalquist
+ * @version $Revision$
+ */
+public class XPathCacheImplTest {
+    private Document document;
+    
+    @Before
+    public void setup() throws Exception {
+        final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        final DocumentBuilder db = dbf.newDocumentBuilder();
+        this.document = db.parse(getClass().getResourceAsStream("guestLayout.xml"));
+    }
+    
+    @Test
+    public void testXPathExpressionVariables() throws Exception {
+        final XPathCacheImpl xpathCache = new XPathCacheImpl();
+        
+        assertEquals(0, xpathCache.getHitCount());
+        assertEquals(0, xpathCache.getMissCount());
+        
+        final String defaultTabId1 = xpathCache.evaluate(
+                "/layout/folder/folder[@type='regular' and @hidden!='true'][$defaultTab]/@ID", 
+                Collections.singletonMap("defaultTab", 1), 
+                this.document, 
+                XPathConstants.STRING);
+        
+        assertEquals(0, xpathCache.getHitCount());
+        assertEquals(1, xpathCache.getMissCount());
+        
+        assertEquals("u16l1s3", defaultTabId1);
+        
+        final String defaultTabId2 = xpathCache.evaluate(
+                "/layout/folder/folder[@type='regular' and @hidden!='true'][$defaultTab]/@ID", 
+                Collections.singletonMap("defaultTab", 2), 
+                this.document, 
+                XPathConstants.STRING);
+        
+        assertEquals(1, xpathCache.getHitCount());
+        assertEquals(1, xpathCache.getMissCount());
+        
+        assertEquals("u18l1s3", defaultTabId2);
+    }
+    
+    @Test
+    public void testNestedExpressionVariables() throws Exception {
+        final XPathCacheImpl xpathCache = new XPathCacheImpl();
+        final String expression = "/layout/folder/folder[@type='regular' and @hidden!='true'][$defaultTab]/@ID";
+        
+        final String nestedTabIds = xpathCache.doWithExpression(expression, Collections.singletonMap("defaultTab", 1), new Function<XPathExpression, String>() {
+            @Override
+            public String apply(XPathExpression outer) {
+                final String inner = xpathCache.evaluate(expression, Collections.singletonMap("defaultTab", 2), document, XPathConstants.STRING);
+                try {
+                    //The outer variables must be restored once the nested evaluation completes
+                    return outer.evaluate(document) + "," + inner;
+                }
+                catch (XPathExpressionException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        
+        assertEquals("u16l1s3,u18l1s3", nestedTabIds);
+        assertEquals(2, xpathCache.getMissCount());
+    }
+    
+    @Test
+    public void testSharedBetweenThreads() throws Exception {
+        final XPathCacheImpl xpathCache = new XPathCacheImpl();
+        final String expression = "/layout/folder/folder[@type='regular' and @hidden!='true'][$defaultTab]/@ID";
+        
+        final Thread otherThread = new Thread() {
+            @Override
+            public void run() {
+                xpathCache.evaluate(expression, Collections.singletonMap("defaultTab", 1), document, XPathConstants.STRING);
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+        
+        //The instance compiled by the other thread is reused here
+        final String defaultTabId = xpathCache.evaluate(expression, Collections.singletonMap("defaultTab", 2), this.document, XPathConstants.STRING);
+        assertEquals("u18l1s3", defaultTabId);
+        assertEquals(1, xpathCache.getHitCount());
+        assertEquals(1, xpathCache.getMissCount());
+    }
+    
+    @Test
+    public void testEviction() throws Exception {
+        final XPathCacheImpl xpathCache = new XPathCacheImpl();
+        xpathCache.setMaxExpressions(2);
+        
+        for (final String expression : Arrays.asList("/layout", "/layout/folder", "/layout/folder/folder", "/layout")) {
+            xpathCache.evaluate(expression, this.document, XPathConstants.NODE);
+        }
+        
+        assertEquals(0, xpathCache.getHitCount());
+        assertEquals(4, xpathCache.getMissCount());
+        assertEquals(2, xpathCache.getEvictionCount());
+    }
+}